@@ -26,7 +26,9 @@ import com.google.inject.MoreTypeLiteral;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.MapBinder;
 import com.google.inject.util.Types;
+import com.smotana.clearflask.store.ProjectStore.ElasticIndexLayout;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.util.FairExecutor;
 import io.jsonwebtoken.SignatureAlgorithm;
 import lombok.extern.slf4j.Slf4j;
 import nl.martijndwars.webpush.Urgency;
@@ -95,7 +97,9 @@ public class MoreConfigValueConverters {
     public static Module module() {
         return module(ImmutableSet.of(
                 Urgency.class,
-                SearchEngine.class
+                SearchEngine.class,
+                ElasticIndexLayout.class,
+                FairExecutor.RejectionPolicy.class
         ));
     }
 
@@ -781,6 +781,11 @@ public class KillBillPlanStore extends ManagedService implements PlanStore {
                 .equals(Optional.ofNullable(configAdmin.getForceSearchEngine()))) {
             throw new ApiException(Response.Status.BAD_REQUEST, "Not allowed to change search engine");
         }
+        if (!isSuperAdmin && !configAdminPreviousOpt
+                .flatMap(ca -> Optional.ofNullable(ca.getForceElasticIndexLayout()))
+                .equals(Optional.ofNullable(configAdmin.getForceElasticIndexLayout()))) {
+            throw new ApiException(Response.Status.BAD_REQUEST, "Not allowed to change index layout");
+        }
     }
 
     /** If changed, also change in UpgradeWrapper.tsx */
@@ -28,9 +28,11 @@ import com.smotana.clearflask.billing.KillBilling;
 import com.smotana.clearflask.billing.SelfHostBilling;
 import com.smotana.clearflask.billing.SelfHostPlanStore;
 import com.smotana.clearflask.billing.StripeClientSetup;
+import com.smotana.clearflask.core.cache.MulticastCacheInvalidationBus;
 import com.smotana.clearflask.core.email.AmazonSimpleEmailServiceProvider;
 import com.smotana.clearflask.core.image.ImageNormalizationImpl;
 import com.smotana.clearflask.core.push.NotificationServiceImpl;
+import com.smotana.clearflask.core.push.SubscriberFanOut;
 import com.smotana.clearflask.core.push.message.EmailLogin;
 import com.smotana.clearflask.core.push.message.EmailTemplates;
 import com.smotana.clearflask.core.push.message.EmailVerify;
@@ -57,6 +59,7 @@ import com.smotana.clearflask.security.limiter.challenge.CaptchaChallenger;
 import com.smotana.clearflask.security.limiter.challenge.LocalChallengeLimiter;
 import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
 import com.smotana.clearflask.store.ConfigAwsCredentialsProvider;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
 import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.DefaultElasticSearchProvider;
@@ -69,6 +72,7 @@ import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoFanOutStore;
 import com.smotana.clearflask.store.impl.DynamoNotificationStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
@@ -77,10 +81,13 @@ import com.smotana.clearflask.store.impl.ResourceLegalStore;
 import com.smotana.clearflask.store.impl.S3ContentStore;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.reindex.Reindexer;
+import com.smotana.clearflask.store.reindex.UserActivityBackfiller;
 import com.smotana.clearflask.store.route53.DefaultRoute53Provider;
 import com.smotana.clearflask.store.s3.DefaultS3ClientProvider;
 import com.smotana.clearflask.util.AutoCreateKikConfigFile;
 import com.smotana.clearflask.util.BeanUtil;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.ConfigSchemaUpgrader;
 import com.smotana.clearflask.util.DefaultServerSecret;
@@ -189,6 +196,7 @@ public enum ServiceInjector {
                 install(DefaultS3ClientProvider.module());
                 install(DefaultElasticSearchProvider.module());
                 install(DefaultMysqlProvider.module());
+                install(MulticastCacheInvalidationBus.module());
                 install(S3ContentStore.module());
                 install(DynamoProjectStore.module());
                 install(DynamoElasticAccountStore.module());
@@ -197,6 +205,7 @@ public enum ServiceInjector {
                 install(DynamoElasticIdeaStore.module());
                 install(DynamoDraftStore.module());
                 install(DynamoNotificationStore.module());
+                install(DynamoFanOutStore.module());
                 install(DynamoElasticCommentStore.module());
                 install(DynamoVoteStore.module());
                 install(DynamoCertStore.module());
@@ -209,12 +218,16 @@ public enum ServiceInjector {
                 install(SingleTableProvider.module());
                 install(MysqlUtil.module());
                 install(ElasticUtil.module());
+                install(Reindexer.module());
+                install(UserActivityBackfiller.module());
+                install(IndexUpdateCoalescer.module());
                 install(DefaultServerSecret.module(Names.named("cursor")));
                 install(WebhookServiceImpl.module());
                 install(DynamoCouponStore.module());
 
                 // Notification
                 install(NotificationServiceImpl.module());
+                install(SubscriberFanOut.module());
                 install(AmazonSimpleEmailServiceProvider.module());
                 install(EmailTemplates.module());
                 install(EmailServiceImpl.module());
@@ -309,6 +322,7 @@ public enum ServiceInjector {
                 bind(ConfigSchemaUpgrader.class);
                 install(ProjectUpgraderImpl.module());
                 install(MarkdownAndQuillUtil.module());
+                install(BloomFilterCache.module());
 
                 String configFilePath;
                 switch (env) {
@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LatencyStats;
+import com.smotana.clearflask.util.LogUtil;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of subscribers and delivery metrics, leaving the transport to subclasses.
+ */
+@Slf4j
+public abstract class AbstractCacheInvalidationBus extends ManagedService implements CacheInvalidationBus {
+
+    protected final String nodeId = UUID.randomUUID().toString();
+    private final Map<CacheType, List<Consumer<ImmutableList<String>>>> listenersByCacheType = Maps.newEnumMap(CacheType.class);
+    private final EnumMap<CacheType, LongAdder> receivedByCacheType = Maps.newEnumMap(CacheType.class);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LatencyStats lagStats = new LatencyStats();
+
+    protected AbstractCacheInvalidationBus() {
+        for (CacheType cacheType : CacheType.values()) {
+            listenersByCacheType.put(cacheType, new CopyOnWriteArrayList<>());
+            receivedByCacheType.put(cacheType, new LongAdder());
+        }
+    }
+
+    @Override
+    public void broadcast(CacheType cacheType, String... key) {
+        Message message = new Message(nodeId, cacheType, ImmutableList.copyOf(key), System.currentTimeMillis());
+        try {
+            send(message);
+            sent.increment();
+        } catch (Exception ex) {
+            sendFailures.increment();
+            if (LogUtil.rateLimitAllowLog("cacheInvalidationBus-send-failure")) {
+                log.warn("Failed to broadcast cache invalidation {} {}", cacheType, Arrays.toString(key), ex);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(CacheType cacheType, Consumer<ImmutableList<String>> listener) {
+        listenersByCacheType.get(cacheType).add(listener);
+    }
+
+    protected abstract void send(Message message) throws Exception;
+
+    /**
+     * Deliver a message received from another node to local subscribers.
+     */
+    protected void deliver(Message message) {
+        if (nodeId.equals(message.getNodeId())) {
+            return;
+        }
+        lagStats.recordMillis(Math.max(0L, System.currentTimeMillis() - message.getSentEpochMillis()));
+        receivedByCacheType.get(message.getCacheType()).increment();
+        for (Consumer<ImmutableList<String>> listener : listenersByCacheType.get(message.getCacheType())) {
+            try {
+                listener.accept(message.getKey());
+            } catch (Exception ex) {
+                log.warn("Cache invalidation listener failed for {} {}", message.getCacheType(), message.getKey(), ex);
+            }
+        }
+    }
+
+    @Extern
+    public BusStats getStats() {
+        return new BusStats(
+                sent.sum(),
+                sendFailures.sum(),
+                receivedByCacheType.entrySet().stream().collect(ImmutableMap.toImmutableMap(
+                        Map.Entry::getKey,
+                        e -> e.getValue().sum())),
+                lagStats.snapshot());
+    }
+
+    @Extern
+    public void resetStats() {
+        sent.reset();
+        sendFailures.reset();
+        receivedByCacheType.values().forEach(LongAdder::reset);
+        lagStats.reset();
+    }
+
+    @Value
+    protected static class Message {
+        String nodeId;
+        CacheType cacheType;
+        ImmutableList<String> key;
+        long sentEpochMillis;
+    }
+
+    @Value
+    public static class BusStats {
+        long sent;
+        long sendFailures;
+        ImmutableMap<CacheType, Long> receivedByCacheType;
+        /** Time between broadcast on the sending node and delivery on this node */
+        LatencyStats.Snapshot lag;
+    }
+}
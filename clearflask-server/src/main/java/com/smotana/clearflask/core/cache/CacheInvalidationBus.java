@@ -0,0 +1,41 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.function.Consumer;
+
+/**
+ * Broadcasts cache invalidations to other nodes in the cluster so that per-JVM caches
+ * do not serve stale entries written by another node.
+ */
+public interface CacheInvalidationBus {
+
+    enum CacheType {
+        /** Key: projectId */
+        PROJECT,
+        /** Key: slug */
+        SLUG,
+        /** Key: accountId */
+        ACCOUNT,
+        /** Key: projectId, ideaId; or only projectId for all ideas in project */
+        IDEA,
+        /** Key: projectId */
+        IDEA_SEARCH,
+        /** Key: sessionId, entry is revoked */
+        USER_SESSION,
+        /** Key: sessionId, entry is revoked */
+        ACCOUNT_SESSION,
+        /** Key: project's ElasticSearch alias */
+        ELASTIC_ALIAS
+    }
+
+    /**
+     * Notify all other nodes that the given cache entry is stale.
+     * Not delivered to subscribers on this node, the caller is expected to update its own cache.
+     */
+    void broadcast(CacheType cacheType, String... key);
+
+    void subscribe(CacheType cacheType, Consumer<ImmutableList<String>> listener);
+}
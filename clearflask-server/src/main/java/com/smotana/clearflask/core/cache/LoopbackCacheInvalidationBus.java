@@ -0,0 +1,43 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.smotana.clearflask.core.ManagedService;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * In-process transport delivering to every other bus instance within this JVM.
+ * Intended for tests, allows simulating multiple nodes using separate injectors.
+ */
+@Singleton
+public class LoopbackCacheInvalidationBus extends AbstractCacheInvalidationBus {
+
+    private static final Set<LoopbackCacheInvalidationBus> INSTANCES = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    public LoopbackCacheInvalidationBus() {
+        INSTANCES.add(this);
+    }
+
+    @Override
+    protected void send(Message message) {
+        ImmutableList.copyOf(INSTANCES).forEach(instance -> instance.deliver(message));
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CacheInvalidationBus.class).to(LoopbackCacheInvalidationBus.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(LoopbackCacheInvalidationBus.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.util.LogUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Broadcasts invalidations over UDP multicast, requires no external service but all nodes
+ * must share a network segment with multicast enabled. Delivery is best-effort,
+ * cache expiry remains the fallback for lost packets.
+ */
+@Slf4j
+@Singleton
+public class MulticastCacheInvalidationBus extends AbstractCacheInvalidationBus {
+
+    public interface Config {
+        /**
+         * When disabled, invalidations are not sent to other nodes. Suitable for single node deployments.
+         */
+        @DefaultValue("false")
+        boolean enabled();
+
+        @DefaultValue("239.255.44.44")
+        String groupAddress();
+
+        @DefaultValue("4444")
+        int port();
+
+        /**
+         * Network interface name to use, or empty for system default.
+         */
+        @DefaultValue("")
+        String networkInterface();
+
+        @DefaultValue("1")
+        int timeToLive();
+    }
+
+    private static final int MAX_PACKET_SIZE = 8 * 1024;
+
+    @Inject
+    private Config config;
+    @Inject
+    private Gson gson;
+
+    private volatile Optional<MulticastSocket> socketOpt = Optional.empty();
+    private InetSocketAddress groupSocketAddress;
+    private Thread receiver;
+
+    @Override
+    protected void serviceStart() throws Exception {
+        if (!config.enabled()) {
+            return;
+        }
+        groupSocketAddress = new InetSocketAddress(InetAddress.getByName(config.groupAddress()), config.port());
+        checkState(groupSocketAddress.getAddress().isMulticastAddress(), "Not a multicast address: %s", config.groupAddress());
+        Optional<NetworkInterface> networkInterfaceOpt = Strings.isNullOrEmpty(config.networkInterface())
+                ? Optional.empty()
+                : Optional.of(NetworkInterface.getByName(config.networkInterface()));
+
+        MulticastSocket socket = new MulticastSocket(config.port());
+        socket.setTimeToLive(config.timeToLive());
+        if (networkInterfaceOpt.isPresent()) {
+            socket.setNetworkInterface(networkInterfaceOpt.get());
+        }
+        socket.joinGroup(groupSocketAddress, networkInterfaceOpt.orElse(null));
+        socketOpt = Optional.of(socket);
+
+        receiver = new Thread(() -> receive(socket), "MulticastCacheInvalidationBus-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        log.info("Listening for cache invalidations on {} as node {}", groupSocketAddress, nodeId);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        Optional<MulticastSocket> socketToCloseOpt = socketOpt;
+        socketOpt = Optional.empty();
+        if (socketToCloseOpt.isPresent()) {
+            socketToCloseOpt.get().close();
+            receiver.join(5_000L);
+        }
+    }
+
+    @Override
+    protected void send(Message message) throws IOException {
+        Optional<MulticastSocket> currentSocketOpt = socketOpt;
+        if (currentSocketOpt.isEmpty()) {
+            return;
+        }
+        byte[] data = gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+        currentSocketOpt.get().send(new DatagramPacket(data, data.length, groupSocketAddress));
+    }
+
+    private void receive(MulticastSocket socket) {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                Message message = gson.fromJson(new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8), Message.class);
+                deliver(message);
+            } catch (Exception ex) {
+                if (socket.isClosed()) {
+                    break;
+                }
+                if (LogUtil.rateLimitAllowLog("cacheInvalidationBus-receive-failure")) {
+                    log.warn("Failed to receive cache invalidation", ex);
+                }
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CacheInvalidationBus.class).to(MulticastCacheInvalidationBus.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(MulticastCacheInvalidationBus.class).asEagerSingleton();
+            }
+        };
+    }
+}
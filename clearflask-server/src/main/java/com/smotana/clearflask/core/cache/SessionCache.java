@@ -0,0 +1,117 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
+import lombok.Value;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Local cache of sessions keyed by session ID honouring each session's own expiry.
+ * <p>
+ * Revoking a session leaves a local tombstone, preventing a concurrent load from caching it again, and broadcasts
+ * the revocation so other nodes tombstone it too. Entries expire after {@code expireAfterWrite} regardless, which
+ * bounds how long another node may accept a revoked session if the broadcast is lost.
+ */
+public class SessionCache<S> {
+
+    private final CacheType cacheType;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final ToLongFunction<S> ttlInEpochSecGetter;
+    private final Cache<String, S> sessionCache;
+    private final Cache<String, Boolean> tombstoneCache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revokedHits = new LongAdder();
+
+    public SessionCache(CacheType cacheType, CacheInvalidationBus cacheInvalidationBus, ToLongFunction<S> ttlInEpochSecGetter, long maximumSize, Duration expireAfterWrite) {
+        this.cacheType = cacheType;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.ttlInEpochSecGetter = ttlInEpochSecGetter;
+        this.sessionCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+        this.tombstoneCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+        cacheInvalidationBus.subscribe(cacheType, key -> tombstone(key.get(0)));
+    }
+
+    /**
+     * Returns the cached session or loads it. A cached session past its expiry is loaded again as it may have
+     * been refreshed on another node.
+     */
+    public Optional<S> get(String sessionId, Supplier<Optional<S>> loader) {
+        if (tombstoneCache.getIfPresent(sessionId) != null) {
+            revokedHits.increment();
+            return Optional.empty();
+        }
+        S session = sessionCache.getIfPresent(sessionId);
+        if (session != null && ttlInEpochSecGetter.applyAsLong(session) >= Instant.now().getEpochSecond()) {
+            hits.increment();
+            return Optional.of(session);
+        }
+        misses.increment();
+        Optional<S> sessionOpt = loader.get();
+        sessionOpt.ifPresent(s -> put(sessionId, s));
+        return sessionOpt;
+    }
+
+    public void put(String sessionId, S session) {
+        if (tombstoneCache.getIfPresent(sessionId) == null) {
+            sessionCache.put(sessionId, session);
+        }
+    }
+
+    public void revoke(String sessionId) {
+        tombstone(sessionId);
+        cacheInvalidationBus.broadcast(cacheType, sessionId);
+    }
+
+    public Stats stats() {
+        long hitsSnapshot = hits.sum();
+        long missesSnapshot = misses.sum();
+        long revokedHitsSnapshot = revokedHits.sum();
+        long lookups = hitsSnapshot + missesSnapshot + revokedHitsSnapshot;
+        return new Stats(
+                hitsSnapshot,
+                missesSnapshot,
+                revokedHitsSnapshot,
+                lookups == 0L ? 0d : (double) (hitsSnapshot + revokedHitsSnapshot) / lookups,
+                sessionCache.size(),
+                tombstoneCache.size());
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        revokedHits.reset();
+    }
+
+    private void tombstone(String sessionId) {
+        tombstoneCache.put(sessionId, Boolean.TRUE);
+        sessionCache.invalidate(sessionId);
+    }
+
+    @Value
+    public static class Stats {
+        long hits;
+        long misses;
+        /** Lookups of a session revoked within the tombstone window, answered without a read */
+        long revokedHits;
+        /** Fraction of lookups answered without a read, including revoked hits */
+        double hitRatio;
+        long size;
+        long tombstones;
+    }
+}
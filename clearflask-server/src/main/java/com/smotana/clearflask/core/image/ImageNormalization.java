@@ -2,9 +2,12 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.image;
 
+import com.google.common.collect.ImmutableMap;
 import com.smotana.clearflask.web.ApiException;
 import lombok.Value;
 
+import java.io.InputStream;
+
 public interface ImageNormalization {
 
     /**
@@ -16,9 +19,17 @@ public interface ImageNormalization {
      */
     Image normalize(byte[] imgBytes) throws ApiException;
 
+    /**
+     * Same as {@link #normalize(byte[])} but reads the image from the upload, rejecting images above the upload
+     * limit. Decoding is queued to bound memory used by concurrent uploads, taking turns between projects.
+     */
+    Image normalize(String projectId, InputStream imgStream) throws ApiException;
+
     @Value
     class Image {
         String mediaType;
         byte[] data;
+        /** Smaller versions of the image by variant name, same media type */
+        ImmutableMap<String, byte[]> variants;
     }
 }
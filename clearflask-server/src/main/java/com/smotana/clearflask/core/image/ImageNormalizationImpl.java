@@ -2,17 +2,27 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.image;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.FairExecutor;
+import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.ApiException;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
@@ -25,10 +35,20 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Slf4j
-public class ImageNormalizationImpl implements ImageNormalization {
+@Singleton
+public class ImageNormalizationImpl extends ManagedService implements ImageNormalization {
 
     public interface Config {
         @DefaultValue("0.8")
@@ -42,38 +62,150 @@ public class ImageNormalizationImpl implements ImageNormalization {
 
         @DefaultValue("true")
         boolean keepGifsAsIs();
+
+        /**
+         * Smaller variants generated alongside the image, each as name:maxWidthxmaxHeight.
+         * Names must be lowercase letters only. Only generate variants that are served, see
+         * {@link com.smotana.clearflask.web.security.Sanitizer.Config#listViewImgVariant()}.
+         */
+        @DefaultValue(value = "medium:640x1280", innerType = String.class)
+        Set<String> variants();
+
+        /**
+         * Uploads are rejected once this many bytes are read, before the rest of the body is received.
+         */
+        @DefaultValue("10485760")
+        long maxUploadBytes();
+
+        /**
+         * Decoded images are the bulk of memory used by an upload, limits how many are decoded at once.
+         */
+        @DefaultValue("4")
+        int decodeThreadCount();
+
+        @DefaultValue("32")
+        int decodeQueueSize();
+
+        /**
+         * Maximum uploads waiting for a single project, prevents one project from filling up the queue.
+         */
+        @DefaultValue("8")
+        int decodePerKeyQueueSize();
+
+        @DefaultValue("PT30S")
+        Duration decodeTimeout();
     }
 
     private static final String COMMENT_INDEX = "comment";
+    private static final Pattern VARIANT_MATCHER = Pattern.compile("^(?<name>[a-z]+):(?<maxWidth>[0-9]+)x(?<maxHeight>[0-9]+)$");
 
     @Inject
     private Config config;
 
+    private FairExecutor decodeExecutor;
+
+    @Inject
+    private void setup() {
+        decodeExecutor = new FairExecutor(
+                "ImageNormalizationImpl",
+                config.decodeThreadCount(),
+                config.decodeQueueSize(),
+                config.decodePerKeyQueueSize(),
+                () -> FairExecutor.RejectionPolicy.DROP);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        decodeExecutor.shutdownNow();
+        decodeExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
     @Override
     public Image normalize(byte[] imgBytes) throws ApiException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(imgBytes);
-             ImageInputStream iis = ImageIO.createImageInputStream(bais)) {
+        return normalize(new ByteArrayInputStream(imgBytes));
+    }
+
+    @Override
+    public Image normalize(String projectId, InputStream imgStream) throws ApiException {
+        // Receive on the request thread, a slow upload should not hold up a decode thread
+        byte[] imgBytes = readUpload(imgStream);
+        ListenableFuture<Image> imageFuture = decodeExecutor.submit(projectId, () -> normalize(new ByteArrayInputStream(imgBytes)));
+        try {
+            return imageFuture.get(config.decodeTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RejectedExecutionException) {
+                throw new ApiException(Response.Status.TOO_MANY_REQUESTS, "Too many uploads in progress, please try again", ex.getCause());
+            }
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+        } catch (TimeoutException ex) {
+            imageFuture.cancel(true);
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Image took too long to process, please try again", ex);
+        } catch (InterruptedException ex) {
+            imageFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Reads at most one byte past the upload limit, the rest of an oversized body is never received.
+     */
+    private byte[] readUpload(InputStream imgStream) throws ApiException {
+        int maxUploadBytes = (int) Math.min(Integer.MAX_VALUE - 1, config.maxUploadBytes());
+        byte[] imgBytes;
+        try {
+            imgBytes = imgStream.readNBytes(maxUploadBytes + 1);
+        } catch (IOException ex) {
+            throw new ApiException(Response.Status.BAD_REQUEST, "Failed to read image", ex);
+        }
+        if (imgBytes.length > maxUploadBytes) {
+            throw new ApiException(Response.Status.REQUEST_ENTITY_TOO_LARGE, "Image too large");
+        }
+        return imgBytes;
+    }
+
+    private Image normalize(InputStream imgStream) throws ApiException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(imgStream)) {
+            if (iis == null) {
+                throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Unsupported format");
+            }
             Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(iis);
             if (!imageReaders.hasNext()) {
                 throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Unsupported format");
             }
             ImageReader imageReader = imageReaders.next();
-            String format = imageReader.getFormatName();
-            imageReader.setInput(iis);
-            int numImages = imageReader.getNumImages(true);
+            try {
+                String format = imageReader.getFormatName();
+                imageReader.setInput(iis);
+                int numImages = imageReader.getNumImages(true);
 
-            if (numImages < 1) {
-                throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Empty image");
-            } else if ("gif".equals(format) && numImages > 1 && config.keepGifsAsIs()) {
-                return new Image(ContentType.GIF.getMediaType(), imgBytes);
-            } else {
-                return writeJpeg(imageReader.read(0));
+                if (numImages < 1) {
+                    throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Empty image");
+                } else if ("gif".equals(format) && numImages > 1 && config.keepGifsAsIs()) {
+                    return new Image(ContentType.GIF.getMediaType(), readAllBytes(iis), ImmutableMap.of());
+                } else {
+                    return writeJpeg(imageReader);
+                }
+            } finally {
+                imageReader.dispose();
             }
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
         }
     }
 
+    private byte[] readAllBytes(ImageInputStream iis) throws IOException {
+        iis.seek(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = iis.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * TODO not working....
      * For some reason this produces an empty image file.
@@ -87,7 +219,8 @@ public class ImageNormalizationImpl implements ImageNormalization {
             writer.prepareWriteSequence(null);
             int numImages = imageReader.getNumImages(true);
             for (int i = 0; i < numImages; i++) {
-                BufferedImage image = resizeImg(imageReader.read(imageReader.getMinIndex()));
+                BufferedImage frame = imageReader.read(imageReader.getMinIndex());
+                BufferedImage image = resizeImg(frame, getScaledDimension(frame.getWidth(), frame.getHeight(), config.maxWidth(), config.maxHeight()));
                 writer.writeToSequence(new IIOImage(image, null, null), null);
             }
             writer.endWriteSequence();
@@ -95,35 +228,71 @@ public class ImageNormalizationImpl implements ImageNormalization {
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
         }
-        return new Image(ContentType.GIF.getMediaType(), data);
+        return new Image(ContentType.GIF.getMediaType(), data, ImmutableMap.of());
     }
 
-    private Image writeJpeg(BufferedImage image) {
+    /**
+     * Decodes only every n-th pixel when the image is at least n times larger than needed, keeping the decoded
+     * image within twice the target dimensions instead of its full resolution.
+     */
+    private Image writeJpeg(ImageReader imageReader) throws IOException {
+        int width = imageReader.getWidth(0);
+        int height = imageReader.getHeight(0);
+        Dimension scaledDimension = getScaledDimension(width, height, config.maxWidth(), config.maxHeight());
+        int subsampling = Math.max(1, Math.min(
+                width / Math.max(1, (int) scaledDimension.getWidth()),
+                height / Math.max(1, (int) scaledDimension.getHeight())));
+        ImageReadParam readParam = imageReader.getDefaultReadParam();
+        if (subsampling > 1) {
+            readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        BufferedImage image = imageReader.read(0, readParam);
         if (image == null) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "No image");
         }
 
-        BufferedImage convertedImage = resizeImg(image);
+        BufferedImage convertedImage = resizeImg(image, scaledDimension);
 
+        // Variants are scaled down from the already resized image, only those smaller than it are kept
+        ImmutableMap.Builder<String, byte[]> variantsBuilder = ImmutableMap.builder();
+        for (String variant : config.variants()) {
+            Matcher matcher = VARIANT_MATCHER.matcher(variant);
+            if (!matcher.matches()) {
+                if (LogUtil.rateLimitAllowLog("imageNormalization-invalid-variant")) {
+                    log.warn("Ignoring invalid image variant config {}", variant);
+                }
+                continue;
+            }
+            Dimension variantDimension = getScaledDimension(convertedImage.getWidth(), convertedImage.getHeight(),
+                    Double.parseDouble(matcher.group("maxWidth")), Double.parseDouble(matcher.group("maxHeight")));
+            if (variantDimension.getWidth() < convertedImage.getWidth()
+                    && variantDimension.getWidth() >= 1d && variantDimension.getHeight() >= 1d) {
+                variantsBuilder.put(matcher.group("name"), encodeJpeg(resizeImg(convertedImage, variantDimension)));
+            }
+        }
+
+        return new Image(ContentType.JPEG.getMediaType(), encodeJpeg(convertedImage), variantsBuilder.build());
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) {
         JPEGImageWriteParam jpegParams = new JPEGImageWriteParam(null);
         jpegParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
         jpegParams.setCompressionQuality(0.8f);
 
-        byte[] data;
         try (ByteArrayOutputStream out = new ByteArrayOutputStream();
              ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
             final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
             writer.setOutput(ios);
-            writer.write(null, new IIOImage(convertedImage, null, null), jpegParams);
-            data = out.toByteArray();
+            writer.write(null, new IIOImage(image, null, null), jpegParams);
+            writer.dispose();
+            ios.flush();
+            return out.toByteArray();
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
         }
-        return new Image(ContentType.JPEG.getMediaType(), data);
     }
 
-    private BufferedImage resizeImg(BufferedImage image) {
-        Dimension scaledDimension = getScaledDimension(image.getWidth(), image.getHeight(), config.maxWidth(), config.maxHeight());
+    private BufferedImage resizeImg(BufferedImage image, Dimension scaledDimension) {
         final BufferedImage convertedImage = new BufferedImage(
                 (int) scaledDimension.getWidth(),
                 (int) scaledDimension.getHeight(),
@@ -148,12 +317,23 @@ public class ImageNormalizationImpl implements ImageNormalization {
                 : new Dimension((int) (imageWidth * ratio), (int) (imageHeight * ratio));
     }
 
+    @Extern
+    private FairExecutor.Stats decodeExecutorStats() {
+        return decodeExecutor.getStats();
+    }
+
+    @Extern
+    private void resetDecodeExecutorStats() {
+        decodeExecutor.resetStats();
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
             protected void configure() {
                 bind(ImageNormalization.class).to(ImageNormalizationImpl.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(ImageNormalizationImpl.class).asEagerSingleton();
             }
         };
     }
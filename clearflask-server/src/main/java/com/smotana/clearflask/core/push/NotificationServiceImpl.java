@@ -2,15 +2,10 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.push;
 
-import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -39,12 +34,17 @@ import com.smotana.clearflask.core.push.message.OnStatusOrResponseChange.Subscri
 import com.smotana.clearflask.core.push.message.OnTeammateInvite;
 import com.smotana.clearflask.core.push.message.OnTrialEnded;
 import com.smotana.clearflask.core.push.provider.BrowserPushService;
+import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
 import com.smotana.clearflask.core.push.provider.EmailService;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
 import com.smotana.clearflask.store.AccountStore.Account;
 import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.FanOutStore.FanOutJobModel;
+import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.NotificationStore;
 import com.smotana.clearflask.store.NotificationStore.NotificationModel;
+import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.InvitationModel;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.UserStore;
@@ -52,24 +52,19 @@ import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.ListResponse;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.FairExecutor;
+import com.smotana.clearflask.util.IdUtil;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.NonNull;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -86,6 +81,8 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
      * If changed, also change in App.tsx
      */
     public static final String SSO_TOKEN_PARAM_NAME = "token";
+    private static final String FAN_OUT_POST_CREATED = "postCreated";
+    private static final String FAN_OUT_STATUS_OR_RESPONSE_CHANGED = "statusOrResponseChanged";
 
     public interface Config {
         @DefaultValue("true")
@@ -99,6 +96,25 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
 
         @DefaultValue("false")
         boolean notifyPaymentFailedBecauseNoPaymentMethod();
+
+        @DefaultValue("8")
+        int executorThreadCount();
+
+        /**
+         * Maximum notification tasks waiting across all projects.
+         */
+        @DefaultValue("10000")
+        int executorQueueSize();
+
+        /**
+         * Maximum notification tasks waiting for a single project (or account),
+         * prevents a single busy project from filling up the queue.
+         */
+        @DefaultValue("1000")
+        int executorPerKeyQueueSize();
+
+        @DefaultValue("DROP")
+        FairExecutor.RejectionPolicy executorRejectionPolicy();
     }
 
     @Inject
@@ -145,14 +161,33 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     private EmailLogin emailLogin;
     @Inject
     private Sanitizer sanitizer;
+    @Inject
+    private SubscriberFanOut subscriberFanOut;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private Gson gson;
 
-    private ListeningExecutorService executor;
+    private FairExecutor executor;
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
-                2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-worker-%d").build()));
+        executor = new FairExecutor(
+                "NotificationServiceImpl",
+                config.executorThreadCount(),
+                config.executorQueueSize(),
+                config.executorPerKeyQueueSize(),
+                config::executorRejectionPolicy);
+        if (config.enabled()) {
+            subscriberFanOut.startResuming(this::rebuildFanOut);
+        }
+    }
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(SubscriberFanOut.class);
     }
 
     @Override
@@ -167,90 +202,18 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
-            checkArgument(statusChanged || responseChanged);
-
-            Optional<IdeaStatus> changedStatus;
-            if (statusChanged) {
-                IdeaStatus status = configAdmin.getContent()
-                        .getCategories()
-                        .stream()
-                        .filter(c -> idea.getCategoryId().equals(c.getCategoryId()))
-                        .findAny()
-                        .orElseThrow(IllegalStateException::new)
-                        .getWorkflow()
-                        .getStatuses()
-                        .stream()
-                        .filter(s -> idea.getStatusId().equals(s.getStatusId()))
-                        .findAny()
-                        .orElseThrow(IllegalStateException::new);
-                changedStatus = Optional.of(status);
-            } else {
-                changedStatus = Optional.empty();
-            }
-
-            Optional<String> changedResponse;
-            if (responseChanged) {
-                checkState(idea.hasResponse());
-                changedResponse = Optional.of(idea.getResponseAsText(sanitizer));
-            } else {
-                changedResponse = Optional.empty();
-            }
-
-            String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId();
-
-            Set<String> userSeen = Sets.newHashSet();
-            BiConsumer<SubscriptionAction, UserModel> sendToUser = (subscriptionAction, user) -> {
-                if (!userSeen.add(user.getUserId())) {
-                    return;
-                }
-
-                try {
-                    notificationStore.notificationCreate(new NotificationModel(
-                            idea.getProjectId(),
-                            user.getUserId(),
-                            notificationStore.genNotificationId(),
-                            idea.getIdeaId(),
-                            null,
-                            Instant.now(),
-                            Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
-                            onStatusOrResponseChange.inAppDescription(
-                                    user, idea, configAdmin, subscriptionAction,
-                                    link, changedStatus, changedResponse)));
-                } catch (Exception ex) {
-                    log.warn("Failed to send in-app notification", ex);
-                }
-                Optional<String> authTokenOpt = Optional.empty();
-                try {
-                    if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
-                        if (!authTokenOpt.isPresent()) {
-                            authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
-                        }
-                        emailService.send(onStatusOrResponseChange.email(
-                                user, idea, configAdmin, subscriptionAction,
-                                link, changedStatus, changedResponse, authTokenOpt.get()));
-                    }
-                } catch (Exception ex) {
-                    log.warn("Failed to send email notification", ex);
-                }
-                try {
-                    if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
-                        if (!authTokenOpt.isPresent()) {
-                            authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
-                        }
-                        browserPushService.send(onStatusOrResponseChange.browserPush(
-                                user, idea, configAdmin, subscriptionAction,
-                                link, changedStatus, changedResponse, authTokenOpt.get()));
-                    }
-                } catch (Exception ex) {
-                    log.warn("Failed to send browser push notification", ex);
-                }
-            };
-            Subscribers subscribers = getSubscribers(idea, senderOpt);
-            subscribers.usersExpressed.forEach(user -> sendToUser.accept(EXPRESSED, user));
-            subscribers.usersFunded.forEach(user -> sendToUser.accept(FUNDED, user));
-            subscribers.usersVoted.forEach(user -> sendToUser.accept(VOTED, user));
-        });
+        // Checkpointed right away, fan-outs are queued by the subscriber fan-out itself
+        try {
+            subscriberFanOut.submit(statusOrResponseChangedFanOut(
+                    FAN_OUT_STATUS_OR_RESPONSE_CHANGED + "-" + idea.getIdeaId() + "-" + IdUtil.randomId(),
+                    configAdmin,
+                    idea,
+                    statusChanged,
+                    responseChanged,
+                    senderOpt.map(UserModel::getUserId)));
+        } catch (Throwable th) {
+            log.warn("Failed to submit fan-out for idea {}", idea.getIdeaId(), th);
+        }
     }
 
     @Override
@@ -259,7 +222,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/transaction";
 
             try {
@@ -316,7 +279,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.trace("Not sending notification, user is replying to self");
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId() + "/comment/" + comment.getCommentId();
 
             Optional<UserModel> userOpt = userStore.getUser(idea.getProjectId(), userId);
@@ -373,7 +336,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -393,7 +356,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(accountId, () -> {
             String link = "https://" + configApp.domain() + "/dashboard";
             if (!hasPaymentMethod) {
                 link += "/billing";
@@ -414,7 +377,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(accountId, () -> {
             String link = "https://" + configApp.domain() + "/invoice/" + invoiceIdStr;
             checkState(!Strings.isNullOrEmpty(accountEmail));
 
@@ -436,7 +399,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             // Only notify when has payment method, mainly to not duplicate emails right after trial ended
             return;
         }
-        submit(() -> {
+        submit(accountId, () -> {
             String link = "https://" + configApp.domain() + "/dashboard/billing";
             checkState(!Strings.isNullOrEmpty(accountEmail));
 
@@ -458,7 +421,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.trace("On mod invite with user having no email {}", user);
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -478,7 +441,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(invitation.getProjectId(), () -> {
             String link = "https://" + configApp.domain() + "/invitation/" + invitation.getInvitationId();
             try {
                 emailService.send(onTeammateInvite.email(invitation, link));
@@ -498,7 +461,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.warn("On email changed with user having no email {}", user);
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -518,7 +481,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             try {
                 emailService.send(emailVerify.email(configAdmin, email, token));
             } catch (Exception ex) {
@@ -533,7 +496,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(configAdmin.getProjectId(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp);
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -558,67 +521,15 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
                 .isPresent()) {
             return;
         }
-        submit(() -> {
-            String projectId = project.getProjectId();
-            ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
-            String link = "https://"
-                    + Project.getHostname(configAdmin, configApp)
-                    + "/post/"
-                    + idea.getIdeaId();
-
-            Optional<String> cursor = Optional.empty();
-            do {
-                ListResponse<VoteStore.VoteModel> subscriptionsBatch = voteStore.voteListByTarget(projectId, idea.getCategoryId(), cursor);
-                cursor = subscriptionsBatch.getCursorOpt();
-
-                ImmutableMap<String, UserModel> subscribersBatch = userStore.getUsers(
-                        projectId,
-                        subscriptionsBatch.getItems().stream()
-                                .map(VoteStore.VoteModel::getUserId)
-                                .collect(ImmutableList.toImmutableList()));
-
-                try {
-                    notificationStore.notificationsCreate(subscribersBatch.values().stream()
-                            .map(user -> new NotificationModel(
-                                    projectId,
-                                    user.getUserId(),
-                                    notificationStore.genNotificationId(),
-                                    idea.getIdeaId(),
-                                    null,
-                                    idea.getCreated(),
-                                    Instant.now().plus(this.config.notificationExpiry()).getEpochSecond(),
-                                    onPostCreated.inAppDescription(notifySubscribers, configAdmin, user)))
-                            .collect(ImmutableList.toImmutableList()));
-                } catch (Exception ex) {
-                    log.warn("Failed to send in-app notification", ex);
-                }
-
-                subscribersBatch.values().forEach(user -> {
-                    Optional<String> authTokenOpt = Optional.empty();
-                    try {
-                        if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
-                            if (!authTokenOpt.isPresent()) {
-                                authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
-                            }
-                            emailService.send(onPostCreated.email(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Failed to send email notification", ex);
-                    }
-                    try {
-                        if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
-                            if (!authTokenOpt.isPresent()) {
-                                authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
-                            }
-                            browserPushService.send(onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Failed to send browser push notification", ex);
-                    }
-                });
-
-            } while (cursor.isPresent());
-        });
+        try {
+            subscriberFanOut.submit(postCreatedFanOut(
+                    FAN_OUT_POST_CREATED + "-" + idea.getIdeaId(),
+                    project,
+                    idea,
+                    notifySubscribers));
+        } catch (Throwable th) {
+            log.warn("Failed to submit fan-out for idea {}", idea.getIdeaId(), th);
+        }
     }
 
     @Override
@@ -627,7 +538,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(account.getAccountId(), () -> {
             String link = "https://" + configApp.domain() + "/dashboard";
 
             try {
@@ -638,71 +549,172 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
         });
     }
 
-    private Subscribers getSubscribers(IdeaModel idea, Optional<UserModel> senderOpt) {
-        String skipUserId = senderOpt.map(UserModel::getUserId).orElse("");
-        ImmutableSet.Builder<String> userIdsFundBuilder = ImmutableSet.builder();
-        if (idea.getFundersCount() != null && idea.getFundersCount() != 0) {
-            ListResponse<VoteStore.FundModel> resultFund = null;
-            do {
-                resultFund = voteStore.fundListByTarget(idea.getProjectId(), idea.getIdeaId(), Optional.ofNullable(resultFund).flatMap(ListResponse::getCursorOpt));
-                userIdsFundBuilder.addAll(resultFund.getItems().stream()
-                        .map(VoteStore.FundModel::getUserId)
-                        .filter(Predicates.not(skipUserId::equals))
-                        .collect(Collectors.toSet()));
-            } while (resultFund.getCursorOpt().isPresent());
-        }
-        ImmutableSet<String> userIdsFund = userIdsFundBuilder.build();
-
-        ImmutableSet.Builder<String> userIdsVoteBuilder = ImmutableSet.builder();
-        if (idea.getVotersCount() != null && idea.getVotersCount() != 0) {
-            ListResponse<VoteStore.VoteModel> resultVote = null;
-            do {
-                resultVote = voteStore.voteListByTarget(idea.getProjectId(), idea.getIdeaId(), Optional.ofNullable(resultVote).flatMap(ListResponse::getCursorOpt));
-                userIdsVoteBuilder.addAll(resultVote.getItems().stream()
-                        .map(VoteStore.VoteModel::getUserId)
-                        .filter(Predicates.not(skipUserId::equals))
-                        .collect(Collectors.toSet()));
-            } while (resultVote.getCursorOpt().isPresent());
+    private SubscriberFanOut.Job statusOrResponseChangedFanOut(String jobId, ConfigAdmin configAdmin, IdeaModel idea, boolean statusChanged, boolean responseChanged, Optional<String> senderUserIdOpt) {
+        checkArgument(statusChanged || responseChanged);
+
+        Optional<IdeaStatus> changedStatus;
+        if (statusChanged) {
+            IdeaStatus status = configAdmin.getContent()
+                    .getCategories()
+                    .stream()
+                    .filter(c -> idea.getCategoryId().equals(c.getCategoryId()))
+                    .findAny()
+                    .orElseThrow(IllegalStateException::new)
+                    .getWorkflow()
+                    .getStatuses()
+                    .stream()
+                    .filter(s -> idea.getStatusId().equals(s.getStatusId()))
+                    .findAny()
+                    .orElseThrow(IllegalStateException::new);
+            changedStatus = Optional.of(status);
+        } else {
+            changedStatus = Optional.empty();
         }
-        ImmutableSet<String> userIdsVote = userIdsVoteBuilder.build();
-
-        ImmutableSet.Builder<String> userIdsExpressBuilder = ImmutableSet.builder();
-        if (!idea.getExpressions().isEmpty()) {
-            ListResponse<VoteStore.ExpressModel> resultExpress = null;
-            do {
-                resultExpress = voteStore.expressListByTarget(idea.getProjectId(), idea.getIdeaId(), Optional.ofNullable(resultExpress).flatMap(ListResponse::getCursorOpt));
-                userIdsExpressBuilder.addAll(resultExpress.getItems().stream()
-                        .map(VoteStore.ExpressModel::getUserId)
-                        .filter(Predicates.not(skipUserId::equals))
-                        .collect(Collectors.toSet()));
-            } while (resultExpress.getCursorOpt().isPresent());
+
+        Optional<String> changedResponse;
+        if (responseChanged) {
+            checkState(idea.hasResponse());
+            changedResponse = Optional.of(idea.getResponseAsText(sanitizer));
+        } else {
+            changedResponse = Optional.empty();
         }
-        ImmutableSet<String> userIdsExpress = userIdsExpressBuilder.build();
 
-        ImmutableSet<String> userIds = ImmutableSet.<String>builder()
-                .addAll(userIdsExpress)
-                .addAll(userIdsFund)
-                .addAll(userIdsVote)
+        String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId();
+
+        // Funders take precedence over voters and voters over those who expressed.
+        // Always all sources in the same order, a resumed checkpoint refers to sources by index.
+        ImmutableList<SubscriberFanOut.Source> sources = ImmutableList.of(
+                cursorOpt -> userIds(voteStore.fundListByTarget(idea.getProjectId(), idea.getIdeaId(), cursorOpt), VoteStore.FundModel::getUserId),
+                cursorOpt -> userIds(voteStore.voteListByTarget(idea.getProjectId(), idea.getIdeaId(), cursorOpt), VoteStore.VoteModel::getUserId),
+                cursorOpt -> userIds(voteStore.expressListByTarget(idea.getProjectId(), idea.getIdeaId(), cursorOpt), VoteStore.ExpressModel::getUserId));
+        ImmutableList<SubscriptionAction> subscriptionActions = ImmutableList.of(FUNDED, VOTED, EXPRESSED);
+
+        return SubscriberFanOut.Job.builder()
+                .projectId(idea.getProjectId())
+                .jobId(jobId)
+                .type(FAN_OUT_STATUS_OR_RESPONSE_CHANGED)
+                .payload(gson.toJson(new StatusOrResponseChangedPayload(idea.getIdeaId(), statusChanged, responseChanged, senderUserIdOpt.orElse(null))))
+                .sources(sources)
+                .skipUserIds(senderUserIdOpt.map(ImmutableSet::of).orElse(ImmutableSet.of()))
+                .autoLoginExpiry(config.autoLoginExpiry())
+                .renderer(new SubscriberFanOut.Renderer() {
+                    @Override
+                    public NotificationModel inApp(UserModel user, int sourceIndex) {
+                        return new NotificationModel(
+                                idea.getProjectId(),
+                                user.getUserId(),
+                                notificationStore.genNotificationId(),
+                                idea.getIdeaId(),
+                                null,
+                                Instant.now(),
+                                Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
+                                onStatusOrResponseChange.inAppDescription(
+                                        user, idea, configAdmin, subscriptionActions.get(sourceIndex),
+                                        link, changedStatus, changedResponse));
+                    }
+
+                    @Override
+                    public Email email(UserModel user, int sourceIndex, String authToken) {
+                        return onStatusOrResponseChange.email(
+                                user, idea, configAdmin, subscriptionActions.get(sourceIndex),
+                                link, changedStatus, changedResponse, authToken);
+                    }
+
+                    @Override
+                    public BrowserPush browserPush(UserModel user, int sourceIndex, String authToken) {
+                        return onStatusOrResponseChange.browserPush(
+                                user, idea, configAdmin, subscriptionActions.get(sourceIndex),
+                                link, changedStatus, changedResponse, authToken);
+                    }
+                })
+                .build();
+    }
+
+    private SubscriberFanOut.Job postCreatedFanOut(String jobId, Project project, IdeaModel idea, NotifySubscribers notifySubscribers) {
+        ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
+        String link = "https://"
+                + Project.getHostname(configAdmin, configApp)
+                + "/post/"
+                + idea.getIdeaId();
+
+        return SubscriberFanOut.Job.builder()
+                .projectId(idea.getProjectId())
+                .jobId(jobId)
+                .type(FAN_OUT_POST_CREATED)
+                .payload(gson.toJson(new PostCreatedPayload(idea.getIdeaId(), notifySubscribers)))
+                .sources(ImmutableList.of(cursorOpt -> userIds(voteStore.voteListByTarget(idea.getProjectId(), idea.getCategoryId(), cursorOpt), VoteStore.VoteModel::getUserId)))
+                .skipUserIds(ImmutableSet.of())
+                .autoLoginExpiry(config.autoLoginExpiry())
+                .renderer(new SubscriberFanOut.Renderer() {
+                    @Override
+                    public NotificationModel inApp(UserModel user, int sourceIndex) {
+                        return new NotificationModel(
+                                idea.getProjectId(),
+                                user.getUserId(),
+                                notificationStore.genNotificationId(),
+                                idea.getIdeaId(),
+                                null,
+                                idea.getCreated(),
+                                Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
+                                onPostCreated.inAppDescription(notifySubscribers, configAdmin, user));
+                    }
+
+                    @Override
+                    public Email email(UserModel user, int sourceIndex, String authToken) {
+                        return onPostCreated.email(notifySubscribers, configAdmin, user, link, authToken);
+                    }
+
+                    @Override
+                    public BrowserPush browserPush(UserModel user, int sourceIndex, String authToken) {
+                        return onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authToken);
+                    }
+                })
                 .build();
-        if (userIds.isEmpty()) {
-            return new Subscribers(ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of());
+    }
+
+    /**
+     * Recreates a fan-out abandoned by a stopped server from its checkpoint.
+     */
+    private Optional<SubscriberFanOut.Job> rebuildFanOut(FanOutJobModel checkpoint) {
+        Optional<Project> projectOpt = projectStore.getProject(checkpoint.getProjectId(), true);
+        if (projectOpt.isEmpty()) {
+            return Optional.empty();
         }
-        ImmutableMap<String, UserModel> usersById = userStore.getUsers(idea.getProjectId(), userIds);
-
-        return new Subscribers(
-                userIdsFund.stream()
-                        .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()),
-                userIdsVote.stream()
-                        .filter(object -> !userIdsFund.contains(object))
-                        .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()),
-                userIdsExpress.stream()
-                        .filter(object -> !userIdsFund.contains(object))
-                        .filter(object -> !userIdsExpress.contains(object))
-                        .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()));
+        switch (checkpoint.getType()) {
+            case FAN_OUT_POST_CREATED:
+                PostCreatedPayload postCreated = gson.fromJson(checkpoint.getPayload(), PostCreatedPayload.class);
+                return ideaStore.getIdea(checkpoint.getProjectId(), postCreated.getIdeaId())
+                        .map(idea -> postCreatedFanOut(checkpoint.getJobId(), projectOpt.get(), idea, postCreated.getNotifySubscribers()));
+            case FAN_OUT_STATUS_OR_RESPONSE_CHANGED:
+                StatusOrResponseChangedPayload changed = gson.fromJson(checkpoint.getPayload(), StatusOrResponseChangedPayload.class);
+                return ideaStore.getIdea(checkpoint.getProjectId(), changed.getIdeaId())
+                        // Response may have since been removed
+                        .filter(idea -> changed.isStatusChanged() || idea.hasResponse())
+                        .map(idea -> statusOrResponseChangedFanOut(
+                                checkpoint.getJobId(),
+                                projectOpt.get().getVersionedConfigAdmin().getConfig(),
+                                idea,
+                                changed.isStatusChanged(),
+                                changed.isResponseChanged() && idea.hasResponse(),
+                                Optional.ofNullable(changed.getSenderUserId())));
+            default:
+                log.warn("Unknown fan-out type {} for job {}", checkpoint.getType(), checkpoint.getJobId());
+                return Optional.empty();
+        }
+    }
+
+    private static <T> ListResponse<String> userIds(ListResponse<T> response, Function<T, String> userIdGetter) {
+        return new ListResponse<>(response.getItems().stream()
+                .map(userIdGetter)
+                .collect(ImmutableList.toImmutableList()),
+                response.getCursorOpt());
     }
 
-    private void submit(Runnable task) {
-        executor.submit(() -> {
+    /**
+     * @param key projectId or accountId; tasks are taken in turns between keys
+     */
+    private void submit(String key, Runnable task) {
+        executor.submit(key, () -> {
             try {
                 task.run();
             } catch (Throwable th) {
@@ -711,6 +723,16 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
         });
     }
 
+    @Extern
+    private FairExecutor.Stats executorStats() {
+        return executor.getStats();
+    }
+
+    @Extern
+    private void resetExecutorStats() {
+        executor.resetStats();
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -723,14 +745,16 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     }
 
     @Value
-    @Builder(toBuilder = true)
-    @AllArgsConstructor
-    private static class Subscribers {
-        @NonNull
-        private final ImmutableSet<UserModel> usersExpressed;
-        @NonNull
-        private final ImmutableSet<UserModel> usersFunded;
-        @NonNull
-        private final ImmutableSet<UserModel> usersVoted;
+    private static class PostCreatedPayload {
+        String ideaId;
+        NotifySubscribers notifySubscribers;
+    }
+
+    @Value
+    private static class StatusOrResponseChangedPayload {
+        String ideaId;
+        boolean statusChanged;
+        boolean responseChanged;
+        String senderUserId;
     }
 }
@@ -0,0 +1,855 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.push;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.push.provider.BrowserPushService;
+import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
+import com.smotana.clearflask.core.push.provider.EmailService;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.store.FanOutStore;
+import com.smotana.clearflask.store.FanOutStore.FanOutDeliveryModel;
+import com.smotana.clearflask.store.FanOutStore.FanOutJobModel;
+import com.smotana.clearflask.store.NotificationStore;
+import com.smotana.clearflask.store.NotificationStore.NotificationModel;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.VoteStore.ListResponse;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.FairExecutor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Sends a notification to every subscriber of a target, such as followers of a category or supporters of a post.
+ * <p>
+ * Subscriber pages are read ahead while previous pages are being sent. Each channel is sent from its own
+ * thread pool with a bounded number of pages in flight per job. A subscriber found in multiple sources
+ * is only sent to once.
+ * <p>
+ * Jobs are checkpointed on submit and wait their turn on an executor shared fairly between projects.
+ * Progress is checkpointed once a page is sent, and the channels delivered to each recipient are recorded
+ * in small batches as they are sent. A job abandoned by a stopped server is resumed elsewhere, skipping
+ * channels already delivered. Only recipients whose deliveries were not yet recorded when the server
+ * stopped may be notified twice.
+ */
+@Slf4j
+@Singleton
+public class SubscriberFanOut extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("2")
+        int prefetchPages();
+
+        /**
+         * Maximum pages being sent concurrently within a single job.
+         */
+        @DefaultValue("4")
+        int concurrentPages();
+
+        /**
+         * Maximum jobs running concurrently, others wait their turn taken between projects.
+         */
+        @DefaultValue("4")
+        int jobThreadCount();
+
+        /**
+         * Maximum jobs waiting across all projects.
+         */
+        @DefaultValue("1000")
+        int jobQueueSize();
+
+        /**
+         * Maximum jobs waiting for a single project.
+         */
+        @DefaultValue("100")
+        int jobPerProjectQueueSize();
+
+        /**
+         * A dropped job stays checkpointed and is resumed once abandoned.
+         */
+        @DefaultValue("DROP")
+        FairExecutor.RejectionPolicy jobRejectionPolicy();
+
+        /**
+         * Also records deliveries.
+         */
+        @DefaultValue("2")
+        int inAppThreadCount();
+
+        @DefaultValue("8")
+        int emailThreadCount();
+
+        @DefaultValue("8")
+        int browserPushThreadCount();
+
+        @DefaultValue("PT10S")
+        Duration checkpointInterval();
+
+        /**
+         * Deliveries are recorded once this many recipients were sent to, or their page is sent.
+         */
+        @DefaultValue("25")
+        int deliveryRecordBatchSize();
+
+        /**
+         * On failure or server stop, how long to wait for pages being sent before checkpointing.
+         * Sends dropped by a stopping server never complete.
+         */
+        @DefaultValue("PT10S")
+        Duration drainTimeout();
+
+        /**
+         * A job whose checkpoint was not updated for this long is considered abandoned and is resumed.
+         */
+        @DefaultValue("PT2M")
+        Duration abandonedAfter();
+
+        @DefaultValue("PT1M")
+        Duration resumeInterval();
+
+        @DefaultValue("3")
+        int resumeMaxAttempts();
+
+        @DefaultValue("P3D")
+        Duration checkpointExpiry();
+
+        /**
+         * Number of most recent jobs to keep progress of.
+         */
+        @DefaultValue("100")
+        long progressRetained();
+    }
+
+    public enum Channel {
+        IN_APP,
+        EMAIL,
+        BROWSER_PUSH
+    }
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    public interface Source {
+        /**
+         * @return User ids of a page of subscribers
+         */
+        ListResponse<String> page(Optional<String> cursorOpt);
+    }
+
+    /**
+     * Messages for a single subscriber, sourceIndex identifies the source the subscriber was read from.
+     */
+    public interface Renderer {
+        NotificationModel inApp(UserModel user, int sourceIndex);
+
+        Email email(UserModel user, int sourceIndex, String authToken);
+
+        BrowserPush browserPush(UserModel user, int sourceIndex, String authToken);
+    }
+
+    @Value
+    @Builder
+    public static class Job {
+        @NonNull
+        String projectId;
+        /**
+         * Unique per event, deliveries are recorded under this id.
+         */
+        @NonNull
+        String jobId;
+        /**
+         * Type and payload are stored with the checkpoint to rebuild this job when resumed.
+         */
+        @NonNull
+        String type;
+        @NonNull
+        String payload;
+        /**
+         * Read in order, a subscriber in multiple sources is only sent to as part of the first.
+         */
+        @NonNull
+        ImmutableList<Source> sources;
+        @NonNull
+        ImmutableSet<String> skipUserIds;
+        @NonNull
+        Renderer renderer;
+        @NonNull
+        Duration autoLoginExpiry;
+    }
+
+    @Value
+    public static class FanOutProgress {
+        String projectId;
+        String jobId;
+        String type;
+        State state;
+        boolean resumed;
+        long read;
+        long skipped;
+        long alreadyDelivered;
+        long inAppSent;
+        long emailSent;
+        long browserPushSent;
+        long errors;
+        String lastError;
+        long elapsedMillis;
+        double readPerSecond;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private FanOutStore fanOutStore;
+    @Inject
+    private UserStore userStore;
+    @Inject
+    private NotificationStore notificationStore;
+    @Inject
+    private EmailService emailService;
+    @Inject
+    private BrowserPushService browserPushService;
+
+    private FairExecutor jobExecutor;
+    private ListeningExecutorService readerExecutor;
+    private ListeningExecutorService inAppExecutor;
+    private ListeningExecutorService emailExecutor;
+    private ListeningExecutorService browserPushExecutor;
+    private ScheduledExecutorService resumeExecutor;
+    private final AtomicInteger jobsActive = new AtomicInteger();
+    private Cache<String, Run> runs;
+
+    @Inject
+    private void setup() {
+        runs = CacheBuilder.newBuilder()
+                .maximumSize(config.progressRetained())
+                .build();
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        jobExecutor = new FairExecutor(
+                "SubscriberFanOut-job",
+                config.jobThreadCount(),
+                config.jobQueueSize(),
+                config.jobPerProjectQueueSize(),
+                config::jobRejectionPolicy);
+        readerExecutor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("SubscriberFanOut-reader-%d").setDaemon(true).build()));
+        inAppExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.inAppThreadCount(),
+                new ThreadFactoryBuilder().setNameFormat("SubscriberFanOut-inApp-%d").setDaemon(true).build()));
+        emailExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.emailThreadCount(),
+                new ThreadFactoryBuilder().setNameFormat("SubscriberFanOut-email-%d").setDaemon(true).build()));
+        browserPushExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.browserPushThreadCount(),
+                new ThreadFactoryBuilder().setNameFormat("SubscriberFanOut-browserPush-%d").setDaemon(true).build()));
+        resumeExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("SubscriberFanOut-resume-%d").setDaemon(true).build());
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        ImmutableList<ExecutorService> executors = ImmutableList.of(
+                resumeExecutor, readerExecutor, inAppExecutor, emailExecutor, browserPushExecutor);
+        jobExecutor.shutdownNow();
+        executors.forEach(ExecutorService::shutdownNow);
+        jobExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        for (ExecutorService executor : executors) {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Checkpoints the job and runs it in the background, taking turns between projects. A job lost
+     * while waiting its turn, such as on server stop, is resumed once abandoned.
+     */
+    public ListenableFuture<Void> submit(Job job) {
+        FanOutJobModel queued = new FanOutJobModel(
+                job.getProjectId(),
+                job.getJobId(),
+                job.getType(),
+                job.getPayload(),
+                0,
+                null,
+                0L,
+                0,
+                System.currentTimeMillis(),
+                Instant.now().plus(config.checkpointExpiry()).getEpochSecond());
+        try {
+            fanOutStore.putJob(queued);
+        } catch (Exception ex) {
+            log.warn("Failed to checkpoint fan-out {} for project {}", job.getJobId(), job.getProjectId(), ex);
+            return Futures.immediateFailedFuture(ex);
+        }
+        return submit(job, queued, false);
+    }
+
+    /**
+     * Periodically looks for jobs abandoned by a stopped server and resumes them.
+     *
+     * @param rebuilder Recreates a job from its checkpoint, empty if it no longer applies
+     */
+    public void startResuming(Function<FanOutJobModel, Optional<Job>> rebuilder) {
+        resumeExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                resumeAbandoned(rebuilder);
+            } catch (Throwable th) {
+                log.warn("Failed to resume abandoned fan-outs", th);
+            }
+        }, 0L, config.resumeInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Extern
+    public ImmutableList<FanOutProgress> fanOutProgress() {
+        return runs.asMap().values().stream()
+                .map(Run::toProgress)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Extern
+    private void clearFanOutProgress() {
+        runs.asMap().values().removeIf(run -> run.state != State.RUNNING);
+    }
+
+    @Extern
+    private FairExecutor.Stats jobExecutorStats() {
+        return jobExecutor.getStats();
+    }
+
+    /**
+     * @param queued Checkpoint as last written by us
+     */
+    private ListenableFuture<Void> submit(Job job, FanOutJobModel queued, boolean resumed) {
+        jobsActive.incrementAndGet();
+        ListenableFuture<Void> future = jobExecutor.submit(job.getProjectId(), () -> {
+            FanOutJobModel checkpoint = queued.toBuilder()
+                    .updatedEpochMillis(Math.max(System.currentTimeMillis(), queued.getUpdatedEpochMillis() + 1))
+                    .build();
+            // Waiting for its turn, the job may have looked abandoned and been resumed elsewhere
+            if (!fanOutStore.claimJob(checkpoint, queued.getUpdatedEpochMillis())) {
+                log.info("Fan-out {} for project {} was taken over while waiting, skipping",
+                        job.getJobId(), job.getProjectId());
+                return null;
+            }
+            if (resumed) {
+                log.info("Resuming fan-out {} for project {} after {} subscribers",
+                        job.getJobId(), job.getProjectId(), checkpoint.getRead());
+            }
+
+            Run run = new Run(job, resumed);
+            run.read.add(checkpoint.getRead());
+            runs.put(job.getProjectId() + "-" + job.getJobId(), run);
+            try {
+                fanOut(job, run, checkpoint);
+                fanOutStore.deleteJob(job.getProjectId(), job.getJobId());
+                run.state = State.COMPLETED;
+                log.debug("Fan-out {} for project {} completed: {}", job.getJobId(), job.getProjectId(), run.toProgress());
+            } catch (Throwable th) {
+                run.state = State.FAILED;
+                run.lastError = th.toString();
+                log.warn("Fan-out {} for project {} failed, will resume once abandoned: {}",
+                        job.getJobId(), job.getProjectId(), run.toProgress(), th);
+                Throwables.throwIfInstanceOf(th, Exception.class);
+                Throwables.throwIfUnchecked(th);
+                throw new RuntimeException(th);
+            } finally {
+                run.endNanos = System.nanoTime();
+            }
+            return null;
+        });
+        future.addListener(jobsActive::decrementAndGet, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private void resumeAbandoned(Function<FanOutJobModel, Optional<Job>> rebuilder) {
+        fanOutStore.listAllJobs(abandoned -> {
+            long nowMillis = System.currentTimeMillis();
+            if (nowMillis - abandoned.getUpdatedEpochMillis() < config.abandonedAfter().toMillis()) {
+                return;
+            }
+            if (abandoned.getAttempts() >= config.resumeMaxAttempts()) {
+                log.warn("Fan-out {} for project {} abandoned too many times, giving up after {} subscribers",
+                        abandoned.getJobId(), abandoned.getProjectId(), abandoned.getRead());
+                fanOutStore.deleteJob(abandoned.getProjectId(), abandoned.getJobId());
+                return;
+            }
+            // Only claim what we can start right away, a waiting job is not checkpointed and would look abandoned again
+            if (jobsActive.get() >= config.jobThreadCount()) {
+                return;
+            }
+            FanOutJobModel claimed = abandoned.toBuilder()
+                    .attempts(abandoned.getAttempts() + 1)
+                    .updatedEpochMillis(nowMillis)
+                    .build();
+            if (!fanOutStore.claimJob(claimed, abandoned.getUpdatedEpochMillis())) {
+                return;
+            }
+            Optional<Job> jobOpt;
+            try {
+                jobOpt = rebuilder.apply(claimed);
+            } catch (Exception ex) {
+                log.warn("Failed to rebuild fan-out {} for project {}", claimed.getJobId(), claimed.getProjectId(), ex);
+                return;
+            }
+            if (jobOpt.isEmpty()) {
+                log.info("Dropping abandoned fan-out {} for project {}, no longer applicable",
+                        claimed.getJobId(), claimed.getProjectId());
+                fanOutStore.deleteJob(claimed.getProjectId(), claimed.getJobId());
+                return;
+            }
+            submit(jobOpt.get(), claimed, true);
+        });
+    }
+
+    private void fanOut(Job job, Run run, FanOutJobModel checkpoint) throws Exception {
+        BlockingQueue<ReadPage> readQueue = new ArrayBlockingQueue<>(Math.max(1, config.prefetchPages()));
+        AtomicBoolean stopReading = new AtomicBoolean(false);
+        int startSourceIndex = checkpoint.getSourceIndex();
+        Optional<String> startCursorOpt = Optional.ofNullable(checkpoint.getCursor());
+        ListenableFuture<?> readerFuture = readerExecutor.submit(() -> {
+            Set<String> seenUserIds = Sets.newHashSet(job.getSkipUserIds());
+            Optional<String> cursorOpt = startCursorOpt;
+            for (int sourceIndex = startSourceIndex; sourceIndex < job.getSources().size(); sourceIndex++) {
+                do {
+                    ListResponse<String> page = job.getSources().get(sourceIndex).page(cursorOpt);
+                    cursorOpt = page.getCursorOpt();
+                    ImmutableSet<String> userIds = page.getItems().stream()
+                            .filter(seenUserIds::add)
+                            .collect(ImmutableSet.toImmutableSet());
+                    run.skipped.add(page.getItems().size() - userIds.size());
+                    ImmutableMap<String, UserModel> users = userIds.isEmpty()
+                            ? ImmutableMap.of()
+                            : userStore.getUsers(job.getProjectId(), userIds);
+                    // Deliveries are only recorded by a previous attempt of this job
+                    ImmutableMap<String, FanOutDeliveryModel> deliveries = run.resumed && !users.isEmpty()
+                            ? fanOutStore.getDeliveries(job.getProjectId(), job.getJobId(), users.keySet())
+                            : ImmutableMap.of();
+                    int finalSourceIndex = sourceIndex;
+                    ImmutableList<Recipient> recipients = users.values().stream()
+                            .map(user -> new Recipient(
+                                    user,
+                                    finalSourceIndex,
+                                    Optional.ofNullable(deliveries.get(user.getUserId()))
+                                            .map(delivery -> delivery.getChannels().stream()
+                                                    .map(Channel::valueOf)
+                                                    .collect(ImmutableSet.toImmutableSet()))
+                                            .orElse(ImmutableSet.of()),
+                                    Suppliers.memoize(() -> userStore.createToken(user.getProjectId(), user.getUserId(), job.getAutoLoginExpiry()))))
+                            .collect(ImmutableList.toImmutableList());
+                    ReadPage readPage = cursorOpt.isPresent()
+                            ? new ReadPage(recipients, sourceIndex, cursorOpt, false)
+                            : new ReadPage(recipients, sourceIndex + 1, Optional.empty(), false);
+                    if (!offer(readQueue, readPage, stopReading)) {
+                        return null;
+                    }
+                } while (cursorOpt.isPresent());
+            }
+            offer(readQueue, new ReadPage(ImmutableList.of(), 0, Optional.empty(), true), stopReading);
+            return null;
+        });
+
+        DeliveryRecorder deliveryRecorder = new DeliveryRecorder(job, run);
+        Semaphore sendPermits = new Semaphore(Math.max(1, config.concurrentPages()));
+        ArrayDeque<PageSend> pendingSends = new ArrayDeque<>();
+        Optional<PageSend> lastSentOpt = Optional.empty();
+        long lastCheckpointNanos = System.nanoTime();
+        boolean readDone = false;
+        ReadPage unsentPage = null;
+        try {
+            // Never blocks for long, so checkpoints keep being written until the last page is sent
+            while (!readDone || !pendingSends.isEmpty()) {
+                if (unsentPage == null && !readDone) {
+                    ReadPage readPage = readQueue.poll(1, TimeUnit.SECONDS);
+                    if (readPage == null) {
+                        if (readerFuture.isDone()) {
+                            // Reader failed without signalling end
+                            readerFuture.get();
+                            throw new IllegalStateException("Reader stopped unexpectedly");
+                        }
+                    } else if (readPage.isEnd()) {
+                        readDone = true;
+                    } else {
+                        run.read.add(readPage.getRecipients().size());
+                        unsentPage = readPage;
+                    }
+                } else if (unsentPage == null) {
+                    // Everything read, wait for the remaining pages
+                    try {
+                        pendingSends.peek().getFuture().get(1, TimeUnit.SECONDS);
+                    } catch (TimeoutException | ExecutionException | CancellationException ex) {
+                        // Failures are surfaced below
+                    }
+                }
+                if (unsentPage != null && sendPermits.tryAcquire(1, TimeUnit.SECONDS)) {
+                    ListenableFuture<?> sendFuture = send(job, run, deliveryRecorder, unsentPage.getRecipients());
+                    sendFuture.addListener(sendPermits::release, MoreExecutors.directExecutor());
+                    pendingSends.add(new PageSend(sendFuture, unsentPage.getNextSourceIndex(), unsentPage.getNextCursorOpt(), run.read.sum()));
+                    unsentPage = null;
+                }
+
+                Optional<PageSend> sentOpt = pollSent(pendingSends);
+                if (sentOpt.isPresent()) {
+                    lastSentOpt = sentOpt;
+                }
+                if (!pendingSends.isEmpty() && pendingSends.peek().getFuture().isDone()) {
+                    // Oldest page failed
+                    Futures.getDone(pendingSends.peek().getFuture());
+                }
+                // Checkpoint even without progress, a long running page should not look abandoned
+                if (System.nanoTime() - lastCheckpointNanos >= config.checkpointInterval().toNanos()) {
+                    checkpoint = putCheckpoint(checkpoint, lastSentOpt);
+                    lastCheckpointNanos = System.nanoTime();
+                }
+            }
+        } catch (Throwable th) {
+            stopReading.set(true);
+            readerFuture.cancel(true);
+            // Let in-flight pages finish and save progress so a resume continues from here
+            try {
+                Futures.successfulAsList(pendingSends.stream()
+                                .map(PageSend::getFuture)
+                                .collect(ImmutableList.toImmutableList()))
+                        .get(config.drainTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | InterruptedException ex) {
+                log.warn("Fan-out {} for project {} gave up waiting for {} pages being sent",
+                        job.getJobId(), job.getProjectId(), pendingSends.size());
+                pendingSends.forEach(pageSend -> pageSend.getFuture().cancel(false));
+            }
+            deliveryRecorder.flush();
+            Optional<PageSend> sentOpt = pollSent(pendingSends);
+            if (sentOpt.isEmpty()) {
+                // Pages sent since the last checkpoint were already polled
+                sentOpt = lastSentOpt;
+            }
+            if (sentOpt.isPresent()) {
+                try {
+                    putCheckpoint(checkpoint, sentOpt);
+                } catch (Exception ex) {
+                    log.warn("Failed to checkpoint fan-out {} for project {}", job.getJobId(), job.getProjectId(), ex);
+                }
+            }
+            throw th;
+        }
+    }
+
+    /**
+     * Sends a page on all channels, deliveries are recorded as they are sent and the rest once the page
+     * is sent. Failing to send to a single recipient does not fail the page.
+     */
+    private ListenableFuture<?> send(Job job, Run run, DeliveryRecorder deliveryRecorder, ImmutableList<Recipient> recipients) {
+        ConcurrentMap<String, Set<Channel>> delivered = Maps.newConcurrentMap();
+        ImmutableList.Builder<ListenableFuture<?>> sendFuturesBuilder = ImmutableList.builder();
+
+        ImmutableList<Recipient> inAppRecipients = recipients.stream()
+                .filter(recipient -> !recipient.getDelivered().contains(Channel.IN_APP))
+                .collect(ImmutableList.toImmutableList());
+        run.alreadyDelivered.add(recipients.size() - inAppRecipients.size());
+        if (!inAppRecipients.isEmpty()) {
+            sendFuturesBuilder.add(inAppExecutor.submit(() -> {
+                try {
+                    notificationStore.notificationsCreate(inAppRecipients.stream()
+                            .map(recipient -> job.getRenderer().inApp(recipient.getUser(), recipient.getSourceIndex()))
+                            .collect(ImmutableList.toImmutableList()));
+                    deliveryRecorder.delivered(delivered, inAppRecipients, Channel.IN_APP);
+                    run.inAppSent.add(inAppRecipients.size());
+                } catch (Exception ex) {
+                    run.error(ex);
+                    log.warn("Failed to send in-app notification", ex);
+                }
+            }));
+        }
+
+        for (Recipient recipient : recipients) {
+            UserModel user = recipient.getUser();
+            if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
+                if (recipient.getDelivered().contains(Channel.EMAIL)) {
+                    run.alreadyDelivered.increment();
+                } else {
+                    sendFuturesBuilder.add(emailExecutor.submit(() -> {
+                        try {
+                            emailService.send(job.getRenderer().email(user, recipient.getSourceIndex(), recipient.getAuthToken().get()));
+                            deliveryRecorder.delivered(delivered, ImmutableList.of(recipient), Channel.EMAIL);
+                            run.emailSent.increment();
+                        } catch (Exception ex) {
+                            run.error(ex);
+                            log.warn("Failed to send email notification", ex);
+                        }
+                    }));
+                }
+            }
+            if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
+                if (recipient.getDelivered().contains(Channel.BROWSER_PUSH)) {
+                    run.alreadyDelivered.increment();
+                } else {
+                    sendFuturesBuilder.add(browserPushExecutor.submit(() -> {
+                        try {
+                            browserPushService.send(job.getRenderer().browserPush(user, recipient.getSourceIndex(), recipient.getAuthToken().get()));
+                            deliveryRecorder.delivered(delivered, ImmutableList.of(recipient), Channel.BROWSER_PUSH);
+                            run.browserPushSent.increment();
+                        } catch (Exception ex) {
+                            run.error(ex);
+                            log.warn("Failed to send browser push notification", ex);
+                        }
+                    }));
+                }
+            }
+        }
+
+        return Futures.whenAllComplete(sendFuturesBuilder.build()).call(() -> {
+            deliveryRecorder.flush();
+            return null;
+        }, inAppExecutor);
+    }
+
+    /**
+     * Collects channels delivered to recipients and records them in batches. Batches are written one at a time
+     * with all channels delivered so far, a later write never drops a channel recorded by an earlier one.
+     */
+    private class DeliveryRecorder {
+        private final Job job;
+        private final Run run;
+        /** By userId, recipients with deliveries not yet recorded */
+        private final ConcurrentMap<String, PendingDelivery> pending = Maps.newConcurrentMap();
+
+        private DeliveryRecorder(Job job, Run run) {
+            this.job = job;
+            this.run = run;
+        }
+
+        /**
+         * @param delivered By userId, channels delivered to recipients of the page
+         */
+        private void delivered(ConcurrentMap<String, Set<Channel>> delivered, Collection<Recipient> recipients, Channel channel) {
+            for (Recipient recipient : recipients) {
+                Set<Channel> recipientDelivered = delivered.computeIfAbsent(recipient.getUser().getUserId(), userId -> Sets.newConcurrentHashSet());
+                recipientDelivered.add(channel);
+                pending.put(recipient.getUser().getUserId(), new PendingDelivery(recipient, recipientDelivered));
+            }
+            if (pending.size() >= config.deliveryRecordBatchSize()) {
+                flush();
+            }
+        }
+
+        private synchronized void flush() {
+            while (!pending.isEmpty()) {
+                ImmutableList<PendingDelivery> batch = pending.keySet().stream()
+                        .limit(Math.max(1, config.deliveryRecordBatchSize()))
+                        .map(pending::remove)
+                        .filter(Objects::nonNull)
+                        .collect(ImmutableList.toImmutableList());
+                long ttlInEpochSec = Instant.now().plus(config.checkpointExpiry()).getEpochSecond();
+                try {
+                    fanOutStore.putDeliveries(batch.stream()
+                            .map(pendingDelivery -> new FanOutDeliveryModel(
+                                    job.getProjectId(),
+                                    job.getJobId(),
+                                    pendingDelivery.getRecipient().getUser().getUserId(),
+                                    Sets.union(pendingDelivery.getRecipient().getDelivered(), ImmutableSet.copyOf(pendingDelivery.getDelivered())).stream()
+                                            .map(Channel::name)
+                                            .collect(ImmutableSet.toImmutableSet()),
+                                    ttlInEpochSec))
+                            .collect(ImmutableList.toImmutableList()));
+                } catch (Exception ex) {
+                    // Try again with the next batch, a newer entry for the same recipient already covers this one
+                    batch.forEach(pendingDelivery -> pending.putIfAbsent(pendingDelivery.getRecipient().getUser().getUserId(), pendingDelivery));
+                    run.error(ex);
+                    log.warn("Failed to record deliveries of fan-out {} for project {}", job.getJobId(), job.getProjectId(), ex);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Value
+    private static class PendingDelivery {
+        Recipient recipient;
+        Set<Channel> delivered;
+    }
+
+    /**
+     * Removes pages fully sent, in order, stopping at the first page not yet sent or failed.
+     *
+     * @return Last page sent, all pages before it are also sent
+     */
+    private Optional<PageSend> pollSent(ArrayDeque<PageSend> pendingSends) {
+        Optional<PageSend> sentOpt = Optional.empty();
+        while (!pendingSends.isEmpty() && pendingSends.peek().getFuture().isDone()) {
+            try {
+                Futures.getDone(pendingSends.peek().getFuture());
+            } catch (ExecutionException | CancellationException ex) {
+                break;
+            }
+            sentOpt = Optional.of(pendingSends.poll());
+        }
+        return sentOpt;
+    }
+
+    private FanOutJobModel putCheckpoint(FanOutJobModel checkpoint, Optional<PageSend> sentOpt) {
+        FanOutJobModel.FanOutJobModelBuilder updatedBuilder = checkpoint.toBuilder()
+                // Strictly increasing, otherwise a takeover within the same millisecond goes unnoticed
+                .updatedEpochMillis(Math.max(System.currentTimeMillis(), checkpoint.getUpdatedEpochMillis() + 1));
+        sentOpt.ifPresent(sent -> updatedBuilder
+                .sourceIndex(sent.getNextSourceIndex())
+                .cursor(sent.getNextCursorOpt().orElse(null))
+                .read(sent.getRead()));
+        FanOutJobModel updated = updatedBuilder.build();
+        if (!fanOutStore.claimJob(updated, checkpoint.getUpdatedEpochMillis())) {
+            throw new IllegalStateException("Fan-out " + checkpoint.getJobId() + " was taken over by another server");
+        }
+        return updated;
+    }
+
+    private static <T> boolean offer(BlockingQueue<T> queue, T item, AtomicBoolean stop) throws InterruptedException {
+        while (!stop.get()) {
+            if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Value
+    private static class Recipient {
+        UserModel user;
+        int sourceIndex;
+        /**
+         * Channels delivered by a previous attempt
+         */
+        ImmutableSet<Channel> delivered;
+        /**
+         * Minted at most once, shared by all channels
+         */
+        Supplier<String> authToken;
+    }
+
+    @Value
+    private static class ReadPage {
+        ImmutableList<Recipient> recipients;
+        /**
+         * Where to resume reading once this page is sent
+         */
+        int nextSourceIndex;
+        Optional<String> nextCursorOpt;
+        boolean end;
+    }
+
+    @Value
+    private static class PageSend {
+        ListenableFuture<?> future;
+        int nextSourceIndex;
+        Optional<String> nextCursorOpt;
+        long read;
+    }
+
+    private static class Run {
+        private final String projectId;
+        private final String jobId;
+        private final String type;
+        private final boolean resumed;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos = 0L;
+        private volatile State state = State.RUNNING;
+        private volatile String lastError;
+        private final LongAdder read = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder alreadyDelivered = new LongAdder();
+        private final LongAdder inAppSent = new LongAdder();
+        private final LongAdder emailSent = new LongAdder();
+        private final LongAdder browserPushSent = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private Run(Job job, boolean resumed) {
+            this.projectId = job.getProjectId();
+            this.jobId = job.getJobId();
+            this.type = job.getType();
+            this.resumed = resumed;
+        }
+
+        private void error(Exception ex) {
+            errors.increment();
+            lastError = ex.toString();
+        }
+
+        private FanOutProgress toProgress() {
+            long elapsedNanos = (endNanos != 0L ? endNanos : System.nanoTime()) - startNanos;
+            long readCount = read.sum();
+            return new FanOutProgress(
+                    projectId,
+                    jobId,
+                    type,
+                    state,
+                    resumed,
+                    readCount,
+                    skipped.sum(),
+                    alreadyDelivered.sum(),
+                    inAppSent.sum(),
+                    emailSent.sum(),
+                    browserPushSent.sum(),
+                    errors.sum(),
+                    lastError,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    elapsedNanos <= 0L ? 0d : readCount * 1_000_000_000d / elapsedNanos);
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(SubscriberFanOut.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(SubscriberFanOut.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -3,6 +3,7 @@
 package com.smotana.clearflask.store;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import lombok.NonNull;
 import lombok.Value;
 
@@ -16,8 +17,16 @@ public interface ContentStore {
 
     ContentUrl upload(String projectId, String userId, ContentType contentType, InputStream inputStream, int length);
 
+    /**
+     * Also stores smaller variants of the content by variant name under related keys, see
+     * {@link #signUrl(String, String, Optional)}.
+     */
+    ContentUrl upload(String projectId, String userId, ContentType contentType, InputStream inputStream, int length, ImmutableMap<String, byte[]> variants);
+
     String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length);
 
+    String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length, ImmutableMap<String, byte[]> variants);
+
     void deleteAsUser(String matchProjectId, String matchUserId, String url);
 
     void deleteAsAdmin(String matchProjectId, String url);
@@ -30,6 +39,11 @@ public interface ContentStore {
 
     Optional<String> signUrl(String matchProjectId, String url);
 
+    /**
+     * Signs the given variant of the content instead, if it was uploaded with one.
+     */
+    Optional<String> signUrl(String matchProjectId, String url, Optional<String> variantOpt);
+
     String signUrl(ContentUrl contentUrl);
 
     Optional<ContentUrl> parseContentUrl(String url);
@@ -76,5 +90,7 @@ public interface ContentStore {
         String userId;
         @NonNull
         ContentType contentType;
+        @NonNull
+        ImmutableSet<String> variants;
     }
 }
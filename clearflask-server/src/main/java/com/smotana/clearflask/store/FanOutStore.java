@@ -0,0 +1,112 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.dataspray.singletable.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import static io.dataspray.singletable.TableType.Gsi;
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Progress of notification fan-outs to subscribers, allowing an interrupted fan-out to resume.
+ */
+public interface FanOutStore {
+
+    void putJob(FanOutJobModel job);
+
+    /**
+     * Writes the job only if no one else updated it since it was last read or written by us.
+     *
+     * @return False if the job was since updated, likely taken over by someone else
+     */
+    boolean claimJob(FanOutJobModel job, long expectedUpdatedEpochMillis);
+
+    void deleteJob(String projectId, String jobId);
+
+    void listAllJobs(Consumer<FanOutJobModel> consumer);
+
+    /**
+     * @return Deliveries by userId, users without any delivery are absent
+     */
+    ImmutableMap<String, FanOutDeliveryModel> getDeliveries(String projectId, String jobId, ImmutableSet<String> userIds);
+
+    void putDeliveries(Collection<FanOutDeliveryModel> deliveries);
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId", "jobId"}, rangePrefix = "fanOutJob")
+    @DynamoTable(type = Gsi, indexNumber = 2, shardKeys = "jobId", shardCount = 10, rangePrefix = "fanOutJobSharded", rangeKeys = "jobId")
+    class FanOutJobModel {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String jobId;
+
+        /**
+         * Identifies how to rebuild the job from its payload when resumed.
+         */
+        @NonNull
+        String type;
+
+        @NonNull
+        String payload;
+
+        /**
+         * Subscriber source being read when last checkpointed.
+         */
+        int sourceIndex;
+
+        /**
+         * Cursor within the source of the last page fully sent, or null if none yet.
+         */
+        String cursor;
+
+        long read;
+
+        /**
+         * Times the job was resumed after being abandoned.
+         */
+        int attempts;
+
+        /**
+         * Refreshed periodically while running, a job not updated for a while is considered abandoned.
+         */
+        long updatedEpochMillis;
+
+        long ttlInEpochSec;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId", "jobId", "userId"}, rangePrefix = "fanOutDelivery")
+    class FanOutDeliveryModel {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String jobId;
+
+        @NonNull
+        String userId;
+
+        /**
+         * Channels successfully sent to this user.
+         */
+        @NonNull
+        ImmutableSet<String> channels;
+
+        long ttlInEpochSec;
+    }
+}
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store;
 
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -73,6 +74,16 @@ public interface IdeaStore {
 
     ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds);
 
+    /**
+     * Same as getIdea, but fetched in the background unless cached, allowing caller to fetch other data concurrently.
+     */
+    ListenableFuture<Optional<IdeaModel>> getIdeaAsync(String projectId, String ideaId);
+
+    /**
+     * Same as getIdeas, but fetched in the background, allowing caller to fetch other data concurrently.
+     */
+    ListenableFuture<ImmutableMap<String, IdeaModel>> getIdeasAsync(String projectId, ImmutableCollection<String> ideaIds);
+
     LinkResponse linkIdeas(String projectId, String ideaId, String parentIdeaId, boolean undo, BiFunction<String, String, Double> categoryExpressionToWeightMapper);
 
     MergeResponse mergeIdeas(String projectId, String ideaId, String parentIdeaId, boolean undo, BiFunction<String, String, Double> categoryExpressionToWeightMapper);
@@ -108,6 +119,14 @@ public interface IdeaStore {
      */
     IdeaAndIndexingFuture incrementIdeaCommentCount(String projectId, String ideaId, boolean incrementChildCount);
 
+    /**
+     * Same as {@link #incrementIdeaCommentCount} to be written as part of a larger transaction. Once the
+     * transaction succeeds, {@link #ideaCommentCountIncremented} must be called to update caches and indices.
+     */
+    TransactWriteItem incrementIdeaCommentCountTransactWriteItem(String projectId, String ideaId, boolean incrementChildCount);
+
+    IdeaAndIndexingFuture ideaCommentCountIncremented(String projectId, String ideaId, boolean incrementChildCount);
+
     ListenableFuture<Void> deleteIdea(String projectId, String ideaId, boolean deleteMerged);
 
     ListenableFuture<Void> deleteIdeas(String projectId, ImmutableCollection<String> ideaIds);
@@ -278,7 +297,11 @@ public interface IdeaStore {
         String coverImg;
 
         public String getDescriptionSanitized(Sanitizer sanitizer) {
-            return sanitizer.richHtml(getDescription(), "idea", getIdeaId(), getProjectId(), false);
+            return getDescriptionSanitized(sanitizer, false);
+        }
+
+        public String getDescriptionSanitized(Sanitizer sanitizer, boolean listView) {
+            return sanitizer.richHtml(getDescription(), "idea", getIdeaId(), getProjectId(), false, listView);
         }
 
         public String getDescriptionAsText(Sanitizer sanitizer) {
@@ -290,7 +313,11 @@ public interface IdeaStore {
         }
 
         public String getResponseSanitized(Sanitizer sanitizer) {
-            return sanitizer.richHtml(getResponse(), "idea", getIdeaId(), getProjectId(), false);
+            return getResponseSanitized(sanitizer, false);
+        }
+
+        public String getResponseSanitized(Sanitizer sanitizer, boolean listView) {
+            return sanitizer.richHtml(getResponse(), "idea", getIdeaId(), getProjectId(), false, listView);
         }
 
         public String getResponseAsText(Sanitizer sanitizer) {
@@ -306,6 +333,13 @@ public interface IdeaStore {
         }
 
         public Idea toIdea(Sanitizer sanitizer) {
+            return toIdea(sanitizer, false);
+        }
+
+        /**
+         * @param listView Whether the idea is shown as part of a list, where smaller image variants suffice
+         */
+        public Idea toIdea(Sanitizer sanitizer, boolean listView) {
             return new Idea(
                     getIdeaId(),
                     getAuthorUserId(),
@@ -313,8 +347,8 @@ public interface IdeaStore {
                     getAuthorIsMod(),
                     getCreated(),
                     getTitle(),
-                    getDescriptionSanitized(sanitizer),
-                    getResponseSanitized(sanitizer),
+                    getDescriptionSanitized(sanitizer, listView),
+                    getResponseSanitized(sanitizer, listView),
                     getResponseAuthorUserId(),
                     getResponseAuthorName(),
                     getResponseEdited(),
@@ -337,10 +371,14 @@ public interface IdeaStore {
                     getMergedPostIds().asList(),
                     getOrder(),
                     getLinkedGitHubUrl(),
-                    sanitizer.signCoverImg(projectId, getCoverImg()).orElse(null));
+                    sanitizer.signCoverImg(projectId, getCoverImg(), listView).orElse(null));
         }
 
         public IdeaWithVote toIdeaWithVote(IdeaVote vote, Sanitizer sanitizer) {
+            return toIdeaWithVote(vote, sanitizer, false);
+        }
+
+        public IdeaWithVote toIdeaWithVote(IdeaVote vote, Sanitizer sanitizer, boolean listView) {
             return new IdeaWithVote(
                     getIdeaId(),
                     getAuthorUserId(),
@@ -348,8 +386,8 @@ public interface IdeaStore {
                     getAuthorIsMod(),
                     getCreated(),
                     getTitle(),
-                    getDescriptionSanitized(sanitizer),
-                    getResponseSanitized(sanitizer),
+                    getDescriptionSanitized(sanitizer, listView),
+                    getResponseSanitized(sanitizer, listView),
                     getResponseAuthorUserId(),
                     getResponseAuthorName(),
                     getResponseEdited(),
@@ -372,7 +410,7 @@ public interface IdeaStore {
                     getMergedPostIds().asList(),
                     getOrder(),
                     getLinkedGitHubUrl(),
-                    sanitizer.signCoverImg(projectId, getCoverImg()).orElse(null),
+                    sanitizer.signCoverImg(projectId, getCoverImg(), listView).orElse(null),
                     vote);
         }
 
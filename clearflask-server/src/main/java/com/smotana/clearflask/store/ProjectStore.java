@@ -14,6 +14,7 @@ import com.smotana.clearflask.api.model.VersionedConfig;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.PreSerializedJson;
 import com.smotana.clearflask.web.Application;
 import io.dataspray.singletable.DynamoTable;
 import lombok.AllArgsConstructor;
@@ -57,6 +58,9 @@ public interface ProjectStore {
     /** Get global search engine */
     SearchEngine getSearchEngineForProject(String projectId);
 
+    /** Get ElasticSearch index layout for project, only applied when indices are created or reindexed */
+    ElasticIndexLayout getElasticIndexLayoutForProject(String projectId);
+
     Project createProject(String accountId, String projectId, VersionedConfigAdmin versionedConfigAdmin);
 
     void updateConfig(String projectId, Optional<String> previousVersion, VersionedConfigAdmin versionedConfigAdmin, boolean isSuperAdmin);
@@ -108,6 +112,11 @@ public interface ProjectStore {
 
         VersionedConfigAdmin getVersionedConfigAdmin();
 
+        /**
+         * Public config as returned to visitors of a public project, rendered once per project version.
+         */
+        PreSerializedJson getConfigBindSlugResultPreSerialized();
+
         double getCategoryExpressionWeight(String categoryId, String expression);
 
         Optional<Category> getCategory(String categoryId);
@@ -141,6 +150,8 @@ public interface ProjectStore {
         Optional<GitHub> getGitHubIntegration();
 
         Optional<SearchEngine> getSearchEngineOverride();
+
+        Optional<ElasticIndexLayout> getElasticIndexLayoutOverride();
     }
 
     @Value
@@ -280,4 +291,13 @@ public interface ProjectStore {
             this.isWriteMysql = isWriteMysql;
         }
     }
+
+    enum ElasticIndexLayout {
+        /** Dedicated indices for each project */
+        PER_PROJECT,
+        /**
+         * Indices shared across projects, each project accessing them via a filtered alias routed by projectId.
+         */
+        SHARED
+    }
 }
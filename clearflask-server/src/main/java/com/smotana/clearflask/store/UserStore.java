@@ -54,6 +54,16 @@ public interface UserStore {
 
     ImmutableMap<String, UserModel> getUsers(String projectId, ImmutableCollection<String> userIds);
 
+    /**
+     * Same as getUser, but fetched in the background, allowing caller to fetch other data concurrently.
+     */
+    ListenableFuture<Optional<UserModel>> getUserAsync(String projectId, String userId);
+
+    /**
+     * Same as getUsers, but fetched in the background, allowing caller to fetch other data concurrently.
+     */
+    ListenableFuture<ImmutableMap<String, UserModel>> getUsersAsync(String projectId, ImmutableCollection<String> userIds);
+
     Optional<UserModel> getUserByIdentifier(String projectId, IdentifierType type, String identifier);
 
     HistogramResponse histogram(String projectId, HistogramSearchAdmin searchAdmin);
@@ -72,16 +82,27 @@ public interface UserStore {
 
     UserAndIndexingFuture updateUser(String projectId, String userId, UserUpdate updates);
 
-    UserModel userVoteUpdateBloom(String projectId, String userId, String ideaId);
+    void userVoteUpdateBloom(String projectId, String userId, String ideaId);
 
-    UserModel userCommentVoteUpdateBloom(String projectId, String userId, String commentId);
+    void userCommentVoteUpdateBloom(String projectId, String userId, String commentId);
 
-    UserModel userExpressUpdateBloom(String projectId, String userId, String ideaId);
+    void userExpressUpdateBloom(String projectId, String userId, String ideaId);
 
     UserModel updateSubscription(String projectId, String userId, String categoryId, boolean subscribe);
 
     UserAndIndexingFuture updateUserBalance(String projectId, String userId, long balanceDiff, Optional<String> updateBloomWithIdeaIdOpt);
 
+    /**
+     * Adjusts pre-aggregated activity counters used for sorting users and marks the user as active now.
+     * Best effort, follows an already written vote or comment so failures are only logged.
+     */
+    void updateUserActivity(String projectId, String userId, long fundedIdeasCountDiff, long supportedIdeasCountDiff, long fundedAmountDiff);
+
+    /**
+     * Overwrites pre-aggregated activity counters, intended for backfilling.
+     */
+    ListenableFuture<Void> setUserActivityCounters(String projectId, String userId, long fundedIdeasCount, long supportedIdeasCount, long fundedAmount);
+
     ListenableFuture<Void> deleteUsers(String projectId, ImmutableCollection<String> userIds);
 
     String createToken(String projectId, String userId, Duration ttl);
@@ -254,6 +275,26 @@ public interface UserStore {
         @NonNull
         ImmutableSet<String> subscribedCategoryIds;
 
+        /**
+         * Number of ideas with a non-zero fund from this user
+         */
+        Long fundedIdeasCount;
+
+        /**
+         * Number of ideas upvoted by this user
+         */
+        Long supportedIdeasCount;
+
+        /**
+         * Sum of all funds from this user currently on ideas
+         */
+        Long fundedAmount;
+
+        /**
+         * Last time this user voted, expressed, funded or commented
+         */
+        Instant lastActive;
+
         public UserMe toUserMe(Function<String, String> intercomEmailToIdentity) {
             return new UserMe(
                     getUserId(),
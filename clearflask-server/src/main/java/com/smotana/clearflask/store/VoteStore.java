@@ -3,10 +3,12 @@
 package com.smotana.clearflask.store;
 
 
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
 import com.google.common.base.Enums;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.smotana.clearflask.api.model.Transaction;
 import com.smotana.clearflask.api.model.TransactionType;
 import com.smotana.clearflask.api.model.VoteOption;
@@ -34,8 +36,18 @@ public interface VoteStore {
      */
     VoteValue vote(String projectId, String userId, String targetId, VoteValue vote);
 
+    /**
+     * Same as {@link #vote} to be written as part of a larger transaction, previous vote is not returned.
+     */
+    TransactWriteItem voteTransactWriteItem(String projectId, String userId, String targetId, VoteValue vote);
+
     ImmutableMap<String, VoteModel> voteSearch(String projectId, String userId, ImmutableSet<String> targetIds);
 
+    /**
+     * Same as voteSearch, but fetched in the background, allowing caller to fetch other data concurrently.
+     */
+    ListenableFuture<ImmutableMap<String, VoteModel>> voteSearchAsync(String projectId, String userId, ImmutableSet<String> targetIds);
+
     /**
      * Ordered by targetId desc.
      */
@@ -89,6 +101,16 @@ public interface VoteStore {
 
     ListResponse<FundModel> fundListByTarget(String projectId, String targetId, Optional<String> cursorOpt);
 
+    /**
+     * Combined voteSearch, expressSearch and fundSearch in a single batch request.
+     */
+    UserVotes userVotesSearch(String projectId, String userId, ImmutableSet<String> voteTargetIds, ImmutableSet<String> expressTargetIds, ImmutableSet<String> fundTargetIds);
+
+    /**
+     * Same as userVotesSearch, but executed in the background allowing caller to fetch other data concurrently.
+     */
+    ListenableFuture<UserVotes> userVotesSearchAsync(String projectId, String userId, ImmutableSet<String> voteTargetIds, ImmutableSet<String> expressTargetIds, ImmutableSet<String> fundTargetIds);
+
     /**
      * Ordered by created desc.
      */
@@ -105,6 +127,26 @@ public interface VoteStore {
         long fundAmountPrevious;
     }
 
+    @Value
+    class UserVotes {
+        public static final UserVotes EMPTY = new UserVotes(ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of());
+
+        /** By targetId */
+        ImmutableMap<String, VoteModel> votes;
+        /** By targetId */
+        ImmutableMap<String, ExpressModel> expressions;
+        /** By targetId */
+        ImmutableMap<String, FundModel> funds;
+
+        /** Target ids of both must not overlap. */
+        public UserVotes merge(UserVotes other) {
+            return new UserVotes(
+                    ImmutableMap.<String, VoteModel>builder().putAll(votes).putAll(other.getVotes()).build(),
+                    ImmutableMap.<String, ExpressModel>builder().putAll(expressions).putAll(other.getExpressions()).build(),
+                    ImmutableMap.<String, FundModel>builder().putAll(funds).putAll(other.getFunds()).build());
+        }
+    }
+
     @Value
     @Builder(toBuilder = true)
     @AllArgsConstructor
@@ -0,0 +1,569 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.coalesce;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.elastic.ElasticScript;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LatencyStats;
+import com.smotana.clearflask.util.LogUtil;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+
+import javax.annotation.Nullable;
+import javax.inject.Provider;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind for frequent small updates to the same document, such as vote and fund counters.
+ * <p>
+ * Updates to the same document arriving within {@link Config#flushInterval()} are merged:
+ * field values are replaced by the latest update, trend score addends are summed and array
+ * additions/deletions are combined. All pending documents are then written using a single
+ * ElasticSearch bulk request and a single MySQL batch. Each caller's future completes once
+ * the merged write containing its update completes. A failed MySQL batch is rolled back and
+ * retried per document so only the failing documents fail.
+ * <p>
+ * Field values must be absolute (e.g. resulting counter value), not increments.
+ */
+@Slf4j
+@Singleton
+public class IndexUpdateCoalescer extends ManagedService {
+
+    public interface Config {
+        /**
+         * If disabled, each update is written on its own immediately.
+         */
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT0.1S")
+        Duration flushInterval();
+
+        /**
+         * Flush early once this many documents are pending.
+         */
+        @DefaultValue("1000")
+        int flushPendingDocuments();
+
+        @DefaultValue("500")
+        int elasticBulkMaxActions();
+    }
+
+    @Value
+    @Builder
+    public static class Update {
+        @NonNull
+        String projectId;
+        @NonNull
+        String id;
+
+        /**
+         * ElasticSearch index to update, null to skip ElasticSearch.
+         */
+        @Nullable
+        String elasticIndexName;
+        /**
+         * Entity id of the document if different from id, {@link ElasticUtil} resolves the document id.
+         */
+        @Nullable
+        String elasticDocId;
+        @Nullable
+        WriteRequest.RefreshPolicy elasticRefreshPolicy;
+        @Singular
+        Map<String, Object> elasticFields;
+        /**
+         * See {@link ExpDecayScore#addend(long)}
+         */
+        @Nullable
+        Double trendScoreAddend;
+        @Singular
+        Map<String, String> elasticArrayAdditions;
+        @Singular
+        Map<String, String> elasticArrayDeletions;
+        /**
+         * Invoked on ElasticSearch failure in place of completing the future, typically to retry by reindexing
+         * the whole document.
+         */
+        @Nullable
+        Consumer<SettableFuture<Void>> elasticOnFailure;
+
+        /**
+         * MySQL table to update, null to skip MySQL.
+         */
+        @Nullable
+        Table<?> mysqlTable;
+        @Nullable
+        Condition mysqlCondition;
+        @Singular
+        Map<Field<?>, Object> mysqlFields;
+        /**
+         * MySQL column to add the merged trend score addend to. Added to the current column value
+         * rather than set, as the caller's model may be stale.
+         */
+        @Nullable
+        Field<Double> mysqlTrendScoreField;
+        /**
+         * Additional queries executed in order after the update.
+         */
+        @Singular
+        List<Query> mysqlQueries;
+    }
+
+    @Value
+    public static class IndexingFutures {
+        ListenableFuture<Void> elastic;
+        ListenableFuture<Void> mysql;
+    }
+
+    @Value
+    public static class Stats {
+        long updates;
+        long documentsFlushed;
+        /**
+         * Updates per document written
+         */
+        double mergeRatio;
+        long elasticBulkRequests;
+        long mysqlBatches;
+        long failures;
+        int pendingDocuments;
+        /**
+         * Time from first update of a document until its flush started
+         */
+        LatencyStats.Snapshot pendingLatency;
+        /**
+         * Time to complete a bulk request or batch
+         */
+        LatencyStats.Snapshot flushLatency;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private Provider<DSLContext> mysql;
+    @Inject
+    private ElasticUtil elasticUtil;
+
+    private final ConcurrentMap<PendingKey, Pending> pendingByKey = Maps.newConcurrentMap();
+    private final AtomicBoolean earlyFlushScheduled = new AtomicBoolean(false);
+    private ScheduledExecutorService flushExecutor;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder documentsFlushed = new LongAdder();
+    private final LongAdder elasticBulkRequests = new LongAdder();
+    private final LongAdder mysqlBatches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyStats pendingLatency = new LatencyStats();
+    private final LatencyStats flushLatency = new LatencyStats();
+
+    @Override
+    protected void serviceStart() throws Exception {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("IndexUpdateCoalescer-flush").setDaemon(true).build());
+        long flushIntervalMillis = Math.max(1L, config.flushInterval().toMillis());
+        flushExecutor.scheduleWithFixedDelay(this::flushPendingSafe, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        flushPending();
+    }
+
+    public IndexingFutures submit(Update update) {
+        boolean hasElastic = update.getElasticIndexName() != null
+                && (!update.getElasticFields().isEmpty()
+                || update.getTrendScoreAddend() != null
+                || !update.getElasticArrayAdditions().isEmpty()
+                || !update.getElasticArrayDeletions().isEmpty());
+        boolean hasMysql = update.getMysqlTable() != null
+                && (!update.getMysqlFields().isEmpty()
+                || (update.getMysqlTrendScoreField() != null && update.getTrendScoreAddend() != null)
+                || !update.getMysqlQueries().isEmpty());
+        if (!hasElastic && !hasMysql) {
+            return new IndexingFutures(Futures.immediateFuture(null), Futures.immediateFuture(null));
+        }
+        updates.increment();
+
+        if (!config.enabled()) {
+            Pending pending = new Pending();
+            pending.merge(update, hasElastic, hasMysql);
+            flush(ImmutableList.of(pending));
+            return pending.toIndexingFutures();
+        }
+
+        // Futures are captured within compute as the pending document may be flushed right after
+        IndexingFutures[] indexingFutures = new IndexingFutures[1];
+        pendingByKey.compute(new PendingKey(update.getProjectId(), update.getId()), (key, pending) -> {
+            if (pending == null) {
+                pending = new Pending();
+            }
+            pending.merge(update, hasElastic, hasMysql);
+            indexingFutures[0] = pending.toIndexingFutures();
+            return pending;
+        });
+
+        if (pendingByKey.size() >= config.flushPendingDocuments()
+                && earlyFlushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flushPendingSafe);
+        }
+
+        return indexingFutures[0];
+    }
+
+    @Extern
+    public Stats stats() {
+        long updatesCount = updates.sum();
+        long documentsFlushedCount = documentsFlushed.sum();
+        return new Stats(
+                updatesCount,
+                documentsFlushedCount,
+                documentsFlushedCount == 0L ? 0d : (double) updatesCount / documentsFlushedCount,
+                elasticBulkRequests.sum(),
+                mysqlBatches.sum(),
+                failures.sum(),
+                pendingByKey.size(),
+                pendingLatency.snapshot(),
+                flushLatency.snapshot());
+    }
+
+    @Extern
+    private void resetStats() {
+        updates.reset();
+        documentsFlushed.reset();
+        elasticBulkRequests.reset();
+        mysqlBatches.reset();
+        failures.reset();
+        pendingLatency.reset();
+        flushLatency.reset();
+    }
+
+    @Extern
+    public void flushPending() {
+        earlyFlushScheduled.set(false);
+        List<Pending> pendings = Lists.newArrayList();
+        for (PendingKey key : pendingByKey.keySet()) {
+            Pending pending = pendingByKey.remove(key);
+            if (pending != null) {
+                pendings.add(pending);
+            }
+        }
+        flush(pendings);
+    }
+
+    private void flushPendingSafe() {
+        try {
+            flushPending();
+        } catch (Throwable th) {
+            log.warn("Failed to flush pending index updates", th);
+        }
+    }
+
+    private void flush(List<Pending> pendings) {
+        if (pendings.isEmpty()) {
+            return;
+        }
+        pendings.forEach(pending -> pendingLatency.recordSince(pending.createdNanos));
+        documentsFlushed.add(pendings.size());
+
+        List<Pending> pendingsElastic = pendings.stream()
+                .filter(pending -> pending.elasticFuture != null)
+                .collect(ImmutableList.toImmutableList());
+        for (List<Pending> partition : Iterables.partition(pendingsElastic, Math.max(1, config.elasticBulkMaxActions()))) {
+            flushElastic(partition);
+        }
+
+        List<Pending> pendingsMysql = pendings.stream()
+                .filter(pending -> pending.mysqlFuture != null)
+                .collect(ImmutableList.toImmutableList());
+        if (!pendingsMysql.isEmpty()) {
+            flushMysql(pendingsMysql);
+        }
+    }
+
+    private void flushElastic(List<Pending> pendings) {
+        BulkRequest bulkRequest = new BulkRequest();
+        ListMultimap<String, UpdateRequest> updateRequestsByProjectId = ArrayListMultimap.create();
+        WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
+        for (Pending pending : pendings) {
+            UpdateRequest updateRequest = pending.toUpdateRequest();
+            bulkRequest.add(updateRequest);
+            updateRequestsByProjectId.put(pending.projectId, updateRequest);
+            refreshPolicy = strongest(refreshPolicy, pending.elasticRefreshPolicy);
+        }
+        bulkRequest.setRefreshPolicy(refreshPolicy);
+
+        elasticBulkRequests.increment();
+        long startNanos = System.nanoTime();
+        try {
+            elasticUtil.bulkAsync(bulkRequest, updateRequestsByProjectId, new ActionListener<>() {
+                @Override
+                public void onResponse(BulkResponse bulkResponse) {
+                    flushLatency.recordSince(startNanos);
+                    BulkItemResponse[] items = bulkResponse.getItems();
+                    for (int i = 0; i < pendings.size(); i++) {
+                        if (i < items.length && !items[i].isFailed()) {
+                            pendings.get(i).elasticFuture.set(null);
+                        } else {
+                            onElasticFailure(pendings.get(i), i < items.length
+                                    ? items[i].getFailure().getCause()
+                                    : new IllegalStateException("Missing bulk item response"));
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception ex) {
+                    flushLatency.recordSince(startNanos);
+                    pendings.forEach(pending -> onElasticFailure(pending, ex));
+                }
+            });
+        } catch (Exception ex) {
+            pendings.forEach(pending -> onElasticFailure(pending, ex));
+        }
+    }
+
+    private void onElasticFailure(Pending pending, Exception ex) {
+        failures.increment();
+        if (LogUtil.rateLimitAllowLog("indexUpdateCoalescer-elastic-failure")) {
+            log.info("Failed to update document {} in {}{}", pending.id, pending.elasticIndexName,
+                    pending.elasticOnFailure != null ? ", retrying" : "", ex);
+        }
+        if (pending.elasticOnFailure != null) {
+            pending.elasticOnFailure.accept(pending.elasticFuture);
+        } else {
+            pending.elasticFuture.setException(ex);
+        }
+    }
+
+    private void flushMysql(List<Pending> pendings) {
+        DSLContext dslContext = mysql.get();
+        ImmutableList<Query> queries = pendings.stream()
+                .flatMap(pending -> pending.toQueries(dslContext).stream())
+                .collect(ImmutableList.toImmutableList());
+
+        mysqlBatches.increment();
+        long startNanos = System.nanoTime();
+        try {
+            // Within a transaction so a failed batch can be retried without applying trend score addends twice
+            dslContext.transactionAsync(configuration -> DSL.using(configuration).batch(queries).execute())
+                    .whenComplete((result, th) -> {
+                        flushLatency.recordSince(startNanos);
+                        if (th == null) {
+                            pendings.forEach(pending -> pending.mysqlFuture.set(null));
+                        } else {
+                            onMysqlFailure(pendings, th);
+                        }
+                    });
+        } catch (Exception ex) {
+            onMysqlFailure(pendings, ex);
+        }
+    }
+
+    private void onMysqlFailure(List<Pending> pendings, Throwable th) {
+        if (pendings.size() > 1) {
+            // Isolate the failing documents, other projects' rows should not fail with them
+            if (LogUtil.rateLimitAllowLog("indexUpdateCoalescer-mysql-batch-failure")) {
+                log.info("Failed to update {} rows in batch, retrying individually", pendings.size(), th);
+            }
+            pendings.forEach(pending -> flushMysql(ImmutableList.of(pending)));
+            return;
+        }
+        failures.add(pendings.size());
+        if (LogUtil.rateLimitAllowLog("indexUpdateCoalescer-mysql-failure")) {
+            log.warn("Failed to update {} rows", pendings.size(), th);
+        }
+        pendings.forEach(pending -> pending.mysqlFuture.setException(th));
+    }
+
+    /**
+     * Adds an addend to a trend score column, see {@link ExpDecayScore#addScore(double, double)}.
+     */
+    private static Field<Double> addTrendScore(Field<Double> field, double addend) {
+        Field<Double> prevScore = DSL.ifnull(field, 0d);
+        Field<Double> u = DSL.greatest(prevScore, DSL.val(addend));
+        Field<Double> v = DSL.least(prevScore, DSL.val(addend));
+        return u.plus(DSL.ln(DSL.exp(v.minus(u)).plus(1d)));
+    }
+
+    private static WriteRequest.RefreshPolicy strongest(WriteRequest.RefreshPolicy a, @Nullable WriteRequest.RefreshPolicy b) {
+        if (a == WriteRequest.RefreshPolicy.IMMEDIATE || b == WriteRequest.RefreshPolicy.IMMEDIATE) {
+            return WriteRequest.RefreshPolicy.IMMEDIATE;
+        } else if (a == WriteRequest.RefreshPolicy.WAIT_UNTIL || b == WriteRequest.RefreshPolicy.WAIT_UNTIL) {
+            return WriteRequest.RefreshPolicy.WAIT_UNTIL;
+        } else {
+            return WriteRequest.RefreshPolicy.NONE;
+        }
+    }
+
+    @Value
+    private static class PendingKey {
+        String projectId;
+        String id;
+    }
+
+    /**
+     * Merged updates for a single document. Only modified while in {@link #pendingByKey} compute
+     * or before flush, never concurrently.
+     */
+    private static class Pending {
+        private final long createdNanos = System.nanoTime();
+        private String projectId;
+        private String id;
+
+        private SettableFuture<Void> elasticFuture;
+        private String elasticIndexName;
+        private String elasticDocId;
+        private WriteRequest.RefreshPolicy elasticRefreshPolicy = WriteRequest.RefreshPolicy.NONE;
+        private final Map<String, Object> elasticFields = Maps.newHashMap();
+        private Double trendScoreAddend;
+        private final Map<String, Set<String>> elasticArrayAdditions = Maps.newHashMap();
+        private final Map<String, Set<String>> elasticArrayDeletions = Maps.newHashMap();
+        private Consumer<SettableFuture<Void>> elasticOnFailure;
+
+        private SettableFuture<Void> mysqlFuture;
+        private Table<?> mysqlTable;
+        private Condition mysqlCondition;
+        private final Map<Field<?>, Object> mysqlFields = Maps.newLinkedHashMap();
+        private Field<Double> mysqlTrendScoreField;
+        private final List<Query> mysqlQueries = Lists.newArrayList();
+
+        private void merge(Update update, boolean hasElastic, boolean hasMysql) {
+            projectId = update.getProjectId();
+            id = update.getId();
+            if (update.getTrendScoreAddend() != null) {
+                trendScoreAddend = trendScoreAddend == null
+                        ? update.getTrendScoreAddend()
+                        : ExpDecayScore.addScore(trendScoreAddend, update.getTrendScoreAddend());
+            }
+            if (hasElastic) {
+                if (elasticFuture == null) {
+                    elasticFuture = SettableFuture.create();
+                }
+                elasticIndexName = update.getElasticIndexName();
+                elasticDocId = update.getElasticDocId() != null ? update.getElasticDocId() : update.getId();
+                elasticRefreshPolicy = strongest(elasticRefreshPolicy, update.getElasticRefreshPolicy());
+                elasticFields.putAll(update.getElasticFields());
+                // Deletions are applied before additions, an addition after a deletion is kept as both
+                update.getElasticArrayDeletions().forEach((field, value) -> {
+                    Set<String> additions = elasticArrayAdditions.get(field);
+                    if (additions != null) {
+                        additions.remove(value);
+                    }
+                    elasticArrayDeletions.computeIfAbsent(field, f -> Sets.newLinkedHashSet()).add(value);
+                });
+                update.getElasticArrayAdditions().forEach((field, value) ->
+                        elasticArrayAdditions.computeIfAbsent(field, f -> Sets.newLinkedHashSet()).add(value));
+                if (update.getElasticOnFailure() != null) {
+                    elasticOnFailure = update.getElasticOnFailure();
+                }
+            }
+            if (hasMysql) {
+                if (mysqlFuture == null) {
+                    mysqlFuture = SettableFuture.create();
+                }
+                mysqlTable = update.getMysqlTable();
+                mysqlCondition = update.getMysqlCondition();
+                mysqlFields.putAll(update.getMysqlFields());
+                if (update.getMysqlTrendScoreField() != null) {
+                    mysqlTrendScoreField = update.getMysqlTrendScoreField();
+                }
+                mysqlQueries.addAll(update.getMysqlQueries());
+            }
+        }
+
+        private ImmutableList<Query> toQueries(DSLContext dslContext) {
+            Map<Field<?>, Object> fields = Maps.newLinkedHashMap(mysqlFields);
+            if (mysqlTrendScoreField != null && trendScoreAddend != null) {
+                fields.put(mysqlTrendScoreField, addTrendScore(mysqlTrendScoreField, trendScoreAddend));
+            }
+            ImmutableList.Builder<Query> queriesBuilder = ImmutableList.builder();
+            if (!fields.isEmpty()) {
+                queriesBuilder.add(dslContext.update(mysqlTable)
+                        .set(fields)
+                        .where(mysqlCondition));
+            }
+            return queriesBuilder.addAll(mysqlQueries).build();
+        }
+
+        private IndexingFutures toIndexingFutures() {
+            return new IndexingFutures(
+                    elasticFuture != null ? elasticFuture : Futures.immediateFuture(null),
+                    mysqlFuture != null ? mysqlFuture : Futures.immediateFuture(null));
+        }
+
+        private UpdateRequest toUpdateRequest() {
+            Map<String, Object> params = Maps.newHashMap();
+            params.put("extraUpdates", elasticFields);
+            if (trendScoreAddend != null) {
+                params.put("trendScoreAddend", trendScoreAddend);
+            }
+            if (!elasticArrayAdditions.isEmpty()) {
+                params.put("extraArrayAdditions", Maps.transformValues(elasticArrayAdditions, ImmutableList::copyOf));
+            }
+            if (!elasticArrayDeletions.isEmpty()) {
+                params.put("extraArrayDeletions", Maps.transformValues(elasticArrayDeletions, ImmutableList::copyOf));
+            }
+            return new UpdateRequest(elasticIndexName, elasticDocId)
+                    .script(ElasticScript.EXP_DECAY.toScript(params));
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(IndexUpdateCoalescer.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(IndexUpdateCoalescer.class).asEagerSingleton();
+            }
+        };
+    }
+}
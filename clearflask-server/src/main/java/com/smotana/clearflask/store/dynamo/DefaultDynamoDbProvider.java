@@ -2,8 +2,10 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store.dynamo;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.retry.PredefinedRetryPolicies;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.google.common.base.Strings;
@@ -22,6 +24,7 @@ import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
 
 @Slf4j
@@ -41,6 +44,39 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
 
         @DefaultValue("")
         String signingRegion();
+
+        @DefaultValue("200")
+        int maxConnections();
+
+        @DefaultValue("true")
+        boolean tcpKeepAlive();
+
+        @DefaultValue("PT3S")
+        Duration connectionTimeout();
+
+        @DefaultValue("PT10S")
+        Duration socketTimeout();
+
+        /**
+         * Timeout of a single HTTP request attempt, zero to disable.
+         */
+        @DefaultValue("PT15S")
+        Duration requestTimeout();
+
+        /**
+         * Timeout of a call including all retries, zero to disable.
+         */
+        @DefaultValue("PT30S")
+        Duration clientExecutionTimeout();
+
+        @DefaultValue("PT1M")
+        Duration connectionMaxIdle();
+
+        /**
+         * Maximum retries of throttled or failed requests using Dynamo's default backoff strategy.
+         */
+        @DefaultValue("10")
+        int maxErrorRetry();
     }
 
     @Inject
@@ -65,6 +101,15 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
         log.info("Opening Dynamo client on {}", config.serviceEndpoint());
         AmazonDynamoDBClientBuilder amazonDynamoDBClientBuilder = AmazonDynamoDBClientBuilder
                 .standard()
+                .withClientConfiguration(new ClientConfiguration()
+                        .withMaxConnections(config.maxConnections())
+                        .withTcpKeepAlive(config.tcpKeepAlive())
+                        .withConnectionTimeout((int) config.connectionTimeout().toMillis())
+                        .withSocketTimeout((int) config.socketTimeout().toMillis())
+                        .withRequestTimeout((int) config.requestTimeout().toMillis())
+                        .withClientExecutionTimeout((int) config.clientExecutionTimeout().toMillis())
+                        .withConnectionMaxIdleMillis(config.connectionMaxIdle().toMillis())
+                        .withRetryPolicy(PredefinedRetryPolicies.getDynamoDBDefaultRetryPolicyWithCustomMaxRetries(config.maxErrorRetry())))
                 .withCredentials(AwsCredentialsProvider);
         String serviceEndpoint = config.serviceEndpoint();
         String signingRegion = config.signingRegion();
@@ -94,6 +139,7 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
                 install(ConfigSystem.configModule(Config.class));
 
                 install(DocumentDynamoDbProvider.module());
+                install(DynamoAsyncExecutor.module());
             }
         };
     }
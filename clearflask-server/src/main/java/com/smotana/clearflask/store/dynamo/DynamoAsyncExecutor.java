@@ -0,0 +1,99 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.dynamo;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.util.Extern;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Dynamo calls off the request thread so callers can fan out several lookups and only block once on the
+ * combined result. Same model as the SDK's async client, but shares the tuned synchronous client and its
+ * connection pool, including DynamoDBLocal in tests.
+ */
+@Slf4j
+@Singleton
+public class DynamoAsyncExecutor extends ManagedService {
+
+    public interface Config {
+        /**
+         * Should not exceed the client's max connections as each thread holds at most one.
+         */
+        @DefaultValue("64")
+        int threadCount();
+
+        @DefaultValue("1024")
+        int queueSize();
+    }
+
+    @Inject
+    private Config config;
+
+    private ThreadPoolExecutor executor;
+    private ListeningExecutorService executorListening;
+
+    @Inject
+    private void setup() {
+        executor = new ThreadPoolExecutor(
+                config.threadCount(), config.threadCount(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.queueSize()),
+                new ThreadFactoryBuilder().setNameFormat("DynamoAsyncExecutor-%d").build(),
+                // When saturated, degrade to a blocking call on the caller thread
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        executorListening = MoreExecutors.listeningDecorator(executor);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    public <T> ListenableFuture<T> submit(Callable<T> call) {
+        return executorListening.submit(call);
+    }
+
+    @Value
+    private static class Stats {
+        int activeCount;
+        int queueSize;
+        long completedTaskCount;
+    }
+
+    @Extern
+    private Stats stats() {
+        return new Stats(
+                executor.getActiveCount(),
+                executor.getQueue().size(),
+                executor.getCompletedTaskCount());
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(DynamoAsyncExecutor.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(DynamoAsyncExecutor.class).asEagerSingleton();
+            }
+        };
+    }
+}
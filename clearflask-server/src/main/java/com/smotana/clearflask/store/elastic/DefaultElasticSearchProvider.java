@@ -4,6 +4,7 @@ package com.smotana.clearflask.store.elastic;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
@@ -30,6 +31,9 @@ import org.apache.http.HttpHost;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicHeader;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
@@ -59,6 +63,33 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
 
         @DefaultValue("60000")
         long connectionMaxIdleTime();
+
+        /**
+         * Maximum time to wait for a pooled connection.
+         */
+        @DefaultValue("10000")
+        int connectionRequestTimeout();
+
+        @DefaultValue("50")
+        int maxConnectionsPerRoute();
+
+        @DefaultValue("100")
+        int maxConnectionsTotal();
+
+        /**
+         * Number of IO dispatcher threads, zero for one per processor.
+         */
+        @DefaultValue("0")
+        int ioThreadCount();
+
+        @DefaultValue("true")
+        boolean tcpKeepAlive();
+
+        /**
+         * Gzip request bodies and accept gzip responses.
+         */
+        @DefaultValue("true")
+        boolean compressionEnabled();
     }
 
     @Inject
@@ -71,6 +102,8 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
     private Environment env;
     @Inject
     private Provider<RestHighLevelClient> elasticProvider;
+    @Inject
+    private ElasticRequestStats elasticRequestStats;
 
     private Optional<RestHighLevelClient> restClientOpt = Optional.empty();
 
@@ -96,7 +129,15 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
                         new BasicHeader(HttpHeaders.ACCEPT, "application/vnd.elasticsearch+json;compatible-with=7"),
                         new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/vnd.elasticsearch+json;compatible-with=7")
                 ) : ImmutableList.<Header>of()).toArray(Header[]::new))
-                .setHttpClientConfigCallback(httpClientConfigCallback -> httpClientConfigCallback
+                .setCompressionEnabled(config.compressionEnabled())
+                .setHttpClientConfigCallback(httpClientConfigCallback -> instrument(httpClientConfigCallback
+                        .setMaxConnPerRoute(config.maxConnectionsPerRoute())
+                        .setMaxConnTotal(config.maxConnectionsTotal())
+                        .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(config.ioThreadCount() > 0 ? config.ioThreadCount() : Runtime.getRuntime().availableProcessors())
+                                .setSoKeepAlive(config.tcpKeepAlive())
+                                .build())
+                        .addInterceptorLast(elasticRequestStats.sentInterceptor())
                         .setConnectionReuseStrategy((response, context) -> (config.connectionReuse()
                                 ? DefaultConnectionReuseStrategy.INSTANCE
                                 : NoConnectionReuseStrategy.INSTANCE)
@@ -108,13 +149,36 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
                                 return duration;
                             }
                             return maxIdleTime;
-                        }))
+                        })))
                 .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
+                        .setConnectionRequestTimeout(config.connectionRequestTimeout())
                         .setConnectTimeout(config.requestTimeout())
                         .setSocketTimeout(config.requestTimeout()))));
         return restClientOpt.get();
     }
 
+    /**
+     * RestClient builds the HTTP client itself, wrap the fully configured builder to instrument the result.
+     */
+    private HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder httpClientBuilder) {
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return elasticRequestStats.instrument(httpClientBuilder.build());
+            }
+        };
+    }
+
+    @Extern
+    public ImmutableMap<ElasticRequestStats.Operation, ElasticRequestStats.Stats> requestStats() {
+        return elasticRequestStats.stats();
+    }
+
+    @Extern
+    private void resetRequestStats() {
+        elasticRequestStats.resetStats();
+    }
+
     @Override
     protected void serviceStart() throws Exception {
         if (configApp.defaultSearchEngine().isWriteElastic()) {
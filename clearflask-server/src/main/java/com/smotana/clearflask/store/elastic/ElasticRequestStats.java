@@ -0,0 +1,191 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.util.LatencyStats;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, connection lease wait and in-flight counts of ElasticSearch requests by operation type, gathered by
+ * instrumenting the low-level HTTP client.
+ */
+@Slf4j
+@Singleton
+public class ElasticRequestStats {
+
+    private static final String SENT_NANOS_ATTRIBUTE = ElasticRequestStats.class.getName() + ".sentNanos";
+
+    public enum Operation {
+        SEARCH,
+        SCROLL,
+        UPDATE,
+        BULK,
+        OTHER
+    }
+
+    @Value
+    public static class Stats {
+        long inFlight;
+        long failures;
+        /**
+         * Time from submitting a request until a response or failure
+         */
+        LatencyStats.Snapshot latency;
+        /**
+         * Time from submitting a request until it was written to a pooled connection, includes connecting
+         */
+        LatencyStats.Snapshot leaseWait;
+    }
+
+    private final EnumMap<Operation, OperationStats> statsByOperation = new EnumMap<>(Operation.class);
+
+    public ElasticRequestStats() {
+        Arrays.stream(Operation.values()).forEach(operation -> statsByOperation.put(operation, new OperationStats()));
+    }
+
+    /**
+     * Marks the moment a request is written out on its leased connection.
+     */
+    public HttpRequestInterceptor sentInterceptor() {
+        return (request, context) -> context.setAttribute(SENT_NANOS_ATTRIBUTE, System.nanoTime());
+    }
+
+    public CloseableHttpAsyncClient instrument(CloseableHttpAsyncClient client) {
+        return new InstrumentedHttpAsyncClient(client);
+    }
+
+    public ImmutableMap<Operation, Stats> stats() {
+        ImmutableMap.Builder<Operation, Stats> statsBuilder = ImmutableMap.builder();
+        statsByOperation.forEach((operation, operationStats) -> statsBuilder.put(operation, new Stats(
+                operationStats.inFlight.get(),
+                operationStats.failures.sum(),
+                operationStats.latency.snapshot(),
+                operationStats.leaseWait.snapshot())));
+        return statsBuilder.build();
+    }
+
+    public void resetStats() {
+        statsByOperation.values().forEach(operationStats -> {
+            operationStats.failures.reset();
+            operationStats.latency.reset();
+            operationStats.leaseWait.reset();
+        });
+    }
+
+    static Operation getOperation(HttpRequest request) {
+        String path = request.getRequestLine().getUri();
+        int queryIndex = path.indexOf('?');
+        if (queryIndex != -1) {
+            path = path.substring(0, queryIndex);
+        }
+        if (path.contains("/_search/scroll")) {
+            return Operation.SCROLL;
+        } else if (path.endsWith("/_search") || path.endsWith("/_msearch") || path.endsWith("/_count")) {
+            return Operation.SEARCH;
+        } else if (path.endsWith("/_bulk")) {
+            return Operation.BULK;
+        } else if (path.contains("/_update/") || path.endsWith("/_update_by_query")) {
+            return Operation.UPDATE;
+        } else {
+            return Operation.OTHER;
+        }
+    }
+
+    private static class OperationStats {
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LongAdder failures = new LongAdder();
+        private final LatencyStats latency = new LatencyStats();
+        private final LatencyStats leaseWait = new LatencyStats();
+    }
+
+    private class InstrumentedHttpAsyncClient extends CloseableHttpAsyncClient {
+        private final CloseableHttpAsyncClient client;
+
+        private InstrumentedHttpAsyncClient(CloseableHttpAsyncClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return client.isRunning();
+        }
+
+        @Override
+        public void start() {
+            client.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            client.close();
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer, HttpContext context, FutureCallback<T> callback) {
+            long startNanos = System.nanoTime();
+            HttpContext contextNonNull = context != null ? context : new BasicHttpContext();
+            Operation operation;
+            try {
+                operation = getOperation(requestProducer.generateRequest());
+            } catch (Exception ex) {
+                log.trace("Failed to determine operation type", ex);
+                operation = Operation.OTHER;
+            }
+            OperationStats operationStats = statsByOperation.get(operation);
+            operationStats.inFlight.incrementAndGet();
+            return client.execute(requestProducer, responseConsumer, contextNonNull, new FutureCallback<T>() {
+                @Override
+                public void completed(T result) {
+                    record();
+                    if (callback != null) {
+                        callback.completed(result);
+                    }
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    operationStats.failures.increment();
+                    record();
+                    if (callback != null) {
+                        callback.failed(ex);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    record();
+                    if (callback != null) {
+                        callback.cancelled();
+                    }
+                }
+
+                private void record() {
+                    operationStats.inFlight.decrementAndGet();
+                    operationStats.latency.recordSince(startNanos);
+                    Object sentNanos = contextNonNull.getAttribute(SENT_NANOS_ATTRIBUTE);
+                    if (sentNanos instanceof Long) {
+                        operationStats.leaseWait.record((Long) sentNanos - startNanos);
+                    }
+                }
+            });
+        }
+    }
+}
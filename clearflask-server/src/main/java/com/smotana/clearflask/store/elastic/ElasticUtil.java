@@ -7,9 +7,20 @@ import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
 import com.github.rholder.retry.WaitStrategies;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -17,11 +28,16 @@ import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.HistogramInterval;
 import com.smotana.clearflask.api.model.HistogramResponse;
 import com.smotana.clearflask.api.model.HistogramResponsePoints;
 import com.smotana.clearflask.api.model.Hits;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
+import com.smotana.clearflask.store.ProjectStore.ElasticIndexLayout;
+import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.util.MathUtil;
 import com.smotana.clearflask.util.ServerSecret;
 import lombok.Value;
@@ -29,15 +45,40 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.http.ConnectionClosedException;
 import org.apache.lucene.search.TotalHits;
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
@@ -57,10 +98,16 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE_STR;
@@ -69,6 +116,10 @@ import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO
 @Singleton
 public class ElasticUtil {
 
+    private static final String SHARED_INDEX_SUFFIX = ".shared";
+    private static final String SHARED_INDEX_DOC_ID_SEPARATOR = ":";
+    private static final String REINDEX_ALIAS_SUFFIX = ".reindex";
+
     public static String AUTOCOMPLETE_TOKENIZER_NAME = "autocomplete_tokenizer";
     public static ImmutableMap<String, Object> AUTOCOMPLETE_TOKENIZER = ImmutableMap.of(
             "type", "edge_ngram",
@@ -82,6 +133,22 @@ public class ElasticUtil {
             "type", "custom",
             "tokenizer", AUTOCOMPLETE_TOKENIZER_NAME);
 
+    public interface Config {
+        /**
+         * Where a project's alias and reindex alias point to is reloaded in the background after this long,
+         * alias changes are also broadcast to other nodes. Writes never use a state older than this,
+         * see {@link #getAliasStalenessMax()}.
+         */
+        @DefaultValue("PT1M")
+        Duration aliasCacheRefreshAfterWrite();
+
+        /**
+         * Unused aliases are forgotten after this long, or if a reload kept failing.
+         */
+        @DefaultValue("PT10M")
+        Duration aliasCacheExpireAfterWrite();
+    }
+
     public interface ConfigSearch {
         @DefaultValue("100")
         int pageSizeMax();
@@ -102,6 +169,23 @@ public class ElasticUtil {
         private final Optional<String> cursorOpt;
     }
 
+    @Value
+    private static class AliasState {
+        boolean shared;
+        /**
+         * Present while a reindex populates another index, whether that is the shared index.
+         */
+        Optional<Boolean> reindexTargetSharedOpt;
+        long loadedAtNanos;
+
+        /**
+         * Reindex is migrating the project to or from the shared index, document ids change once swapped.
+         */
+        boolean isSwitchingLayout() {
+            return reindexTargetSharedOpt.isPresent() && reindexTargetSharedOpt.get() != shared;
+        }
+    }
+
     @VisibleForTesting
     enum PaginationType {
         SCROLL,
@@ -116,11 +200,417 @@ public class ElasticUtil {
     private Gson gson;
     @Inject
     private Provider<RestHighLevelClient> elastic;
+    @Inject
+    private Config config;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
+    /**
+     * Holds the load in flight on a miss, so requests waiting for it are issued in order.
+     */
+    private LoadingCache<String, ListenableFuture<AliasState>> aliasStateCache;
+
+    @Inject
+    private void setup() {
+        aliasStateCache = CacheBuilder.newBuilder()
+                .refreshAfterWrite(config.aliasCacheRefreshAfterWrite())
+                .expireAfterWrite(config.aliasCacheExpireAfterWrite())
+                .build(new CacheLoader<>() {
+                    @Override
+                    public ListenableFuture<AliasState> load(String alias) {
+                        return loadAliasState(alias);
+                    }
+
+                    @Override
+                    public ListenableFuture<ListenableFuture<AliasState>> reload(String alias, ListenableFuture<AliasState> oldValue) {
+                        // Swapped in once loaded, until then requests keep using the previous state
+                        return Futures.transform(loadAliasState(alias), Futures::immediateFuture, MoreExecutors.directExecutor());
+                    }
+                });
+        cacheInvalidationBus.subscribe(CacheType.ELASTIC_ALIAS, key -> aliasStateCache.invalidate(key.get(0)));
+    }
+
+    /**
+     * Name of a project's index, or with {@link ElasticIndexLayout#SHARED} layout, an alias
+     * filtered and routed to the project's documents within the shared index.
+     */
     public String getIndexName(String indexName, String projectId) {
         return indexName + "-" + projectId;
     }
 
+    public String getSharedIndexName(String indexName) {
+        return indexName + SHARED_INDEX_SUFFIX;
+    }
+
+    public boolean isSharedIndexName(String index) {
+        return index.endsWith(SHARED_INDEX_SUFFIX);
+    }
+
+    /**
+     * Must be called after a project's alias or reindex alias is changed, also notifies other nodes.
+     */
+    public void invalidateAlias(String indexName, String projectId) {
+        String alias = getIndexName(indexName, projectId);
+        aliasStateCache.invalidate(alias);
+        cacheInvalidationBus.broadcast(CacheType.ELASTIC_ALIAS, alias);
+    }
+
+    /**
+     * Upper bound on how long a node writes using an alias state without noticing a change, even if the
+     * change's broadcast was lost. A reindex waits this long after adding its reindex alias so that all
+     * nodes mirror their writes and know of a layout switch before it is swapped.
+     */
+    public Duration getAliasStalenessMax() {
+        return config.aliasCacheRefreshAfterWrite();
+    }
+
+    /**
+     * Alias pointing at the index being populated by a reindex, writes to the project's index
+     * are mirrored to it until the project's alias is swapped over.
+     */
+    public String getReindexAlias(String indexName, String projectId) {
+        return getIndexName(indexName, projectId) + REINDEX_ALIAS_SUFFIX;
+    }
+
+    public AliasActions addReindexAlias(String indexName, String projectId, String targetIndex) {
+        return isSharedIndexName(targetIndex)
+                ? sharedIndexAlias(indexName, projectId, getReindexAlias(indexName, projectId))
+                : AliasActions.add()
+                .index(targetIndex)
+                .alias(getReindexAlias(indexName, projectId));
+    }
+
+    /**
+     * Id of an entity's document. Entity ids are only unique within a project, so within the
+     * shared index they are prefixed by projectId.
+     * <p>
+     * Requests written through this class carry the entity id instead, it is replaced by the document
+     * id once the index's alias is known.
+     */
+    public String getDocId(boolean sharedIndex, String projectId, String id) {
+        return sharedIndex ? projectId + SHARED_INDEX_DOC_ID_SEPARATOR + id : id;
+    }
+
+    /**
+     * Entity id of a document returned by a search, see {@link #getDocId(boolean, String, String)}.
+     */
+    public String getIdFromDocId(String projectId, String docId) {
+        String prefix = projectId + SHARED_INDEX_DOC_ID_SEPARATOR;
+        return docId.startsWith(prefix) ? docId.substring(prefix.length()) : docId;
+    }
+
+    /**
+     * Alias action pointing a project's index name at its documents in the shared index.
+     * Documents must carry a keyword {@code projectId} field.
+     */
+    public AliasActions addSharedIndexAlias(String indexName, String projectId) {
+        return sharedIndexAlias(indexName, projectId, getIndexName(indexName, projectId));
+    }
+
+    private AliasActions sharedIndexAlias(String indexName, String projectId, String alias) {
+        return AliasActions.add()
+                .index(getSharedIndexName(indexName))
+                .alias(alias)
+                .filter(QueryBuilders.termQuery("projectId", projectId))
+                .routing(projectId);
+    }
+
+    /**
+     * Request id is the entity id, see {@link #getDocId(boolean, String, String)}.
+     */
+    public void indexAsync(String projectId, IndexRequest request, ActionListener<IndexResponse> listener) {
+        writeAsync(ImmutableListMultimap.of(projectId, request), listener, () ->
+                elastic.get().indexAsync(request, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * Request id is the entity id, see {@link #getDocId(boolean, String, String)}.
+     */
+    public void updateAsync(String projectId, UpdateRequest request, ActionListener<UpdateResponse> listener) {
+        writeAsync(ImmutableListMultimap.of(projectId, request), listener, () ->
+                elastic.get().updateAsync(request, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * Request id is the entity id, see {@link #getDocId(boolean, String, String)}.
+     */
+    public void deleteAsync(String projectId, DeleteRequest request, ActionListener<DeleteResponse> listener) {
+        writeAsync(ImmutableListMultimap.of(projectId, request), listener, () ->
+                elastic.get().deleteAsync(request, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * All requests must be for documents of the given project, request ids are entity ids,
+     * see {@link #getDocId(boolean, String, String)}.
+     */
+    public void bulkAsync(String projectId, BulkRequest request, ActionListener<BulkResponse> listener) {
+        bulkAsync(request, ImmutableListMultimap.<String, DocWriteRequest<?>>builder()
+                .putAll(projectId, request.requests())
+                .build(), listener);
+    }
+
+    /**
+     * For requests of multiple projects, the same requests keyed by their projectId. Request ids are
+     * entity ids, see {@link #getDocId(boolean, String, String)}.
+     */
+    public void bulkAsync(BulkRequest request, ListMultimap<String, ? extends DocWriteRequest<?>> requestsByProjectId, ActionListener<BulkResponse> listener) {
+        writeAsync(requestsByProjectId, listener, () ->
+                elastic.get().bulkAsync(request, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * Once the aliases of the requests' indices are known, replaces entity ids by document ids, issues
+     * the requests and mirrors them to reindex targets. Does not block on a cache miss, failing to look up
+     * an alias fails the listener.
+     */
+    private void writeAsync(ListMultimap<String, ? extends DocWriteRequest<?>> requestsByProjectId, ActionListener<?> listener, Runnable issuer) {
+        ImmutableSet<String> aliases = requestsByProjectId.values().stream()
+                .map(DocWriteRequest::index)
+                .collect(ImmutableSet.toImmutableSet());
+        withAliasStates(aliases, listener, aliasStates -> {
+            Multimaps.asMap(requestsByProjectId).forEach((projectId, requests) -> {
+                for (DocWriteRequest<?> request : requests) {
+                    setId(request, getDocId(aliasStates.get(request.index()).isShared(), projectId, request.id()));
+                }
+            });
+            issuer.run();
+            try {
+                Multimaps.asMap(requestsByProjectId).forEach((projectId, requests) ->
+                        mirrorToReindexTarget(aliasStates, projectId, requests));
+            } catch (Exception ex) {
+                if (LogUtil.rateLimitAllowLog("elasticUtil-mirror-failure")) {
+                    log.warn("Failed to mirror writes to reindex target", ex);
+                }
+            }
+        });
+    }
+
+    public void deleteByQueryAsync(DeleteByQueryRequest request, ActionListener<BulkByScrollResponse> listener) {
+        elastic.get().deleteByQueryAsync(request, RequestOptions.DEFAULT, listener);
+        withAliasStates(ImmutableSet.copyOf(request.indices()), ActionListeners.logFailure(), aliasStates -> {
+            for (String index : request.indices()) {
+                if (aliasStates.get(index).getReindexTargetSharedOpt().isEmpty()) {
+                    continue;
+                }
+                elastic.get().deleteByQueryAsync(new DeleteByQueryRequest(index + REINDEX_ALIAS_SUFFIX)
+                                .setQuery(request.getSearchRequest().source().query()),
+                        RequestOptions.DEFAULT,
+                        ActionListeners.logFailure());
+            }
+        });
+    }
+
+    /**
+     * While a reindex populates another index, copies writes made through a project's alias to
+     * the reindex alias. Otherwise these writes would be lost once the project's alias is swapped.
+     * <p>
+     * A partial update of a document not yet copied by the reindex would be lost once the reindex
+     * copies its older snapshot of the document. Instead the document is first copied over from the
+     * project's alias and the update is applied again, see {@link #mirrorUpdateOfMissingDocument}.
+     */
+    private void mirrorToReindexTarget(ImmutableMap<String, AliasState> aliasStates, String projectId, Collection<? extends DocWriteRequest<?>> requests) {
+        BulkRequest bulkRequest = new BulkRequest();
+        List<DocWriteRequest<?>> mirroredRequests = Lists.newArrayList();
+        for (DocWriteRequest<?> request : requests) {
+            Optional<Boolean> reindexTargetSharedOpt = aliasStates.get(request.index()).getReindexTargetSharedOpt();
+            if (reindexTargetSharedOpt.isEmpty()) {
+                continue;
+            }
+            String reindexAlias = request.index() + REINDEX_ALIAS_SUFFIX;
+            String docId = getDocId(reindexTargetSharedOpt.get(), projectId, getIdFromDocId(projectId, request.id()));
+            bulkRequest.add(copyRequest(request, reindexAlias, docId));
+            mirroredRequests.add(request);
+        }
+        if (bulkRequest.numberOfActions() == 0) {
+            return;
+        }
+        elastic.get().bulkAsync(bulkRequest, RequestOptions.DEFAULT, new ActionListener<>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                BulkItemResponse[] itemResponses = bulkResponse.getItems();
+                for (int i = 0; i < itemResponses.length; i++) {
+                    BulkItemResponse itemResponse = itemResponses[i];
+                    if (!itemResponse.isFailed()) {
+                        continue;
+                    }
+                    if (itemResponse.getFailure().getStatus() == RestStatus.NOT_FOUND
+                            && itemResponse.getFailureMessage().contains("document_missing_exception")) {
+                        mirrorUpdateOfMissingDocument(
+                                (UpdateRequest) mirroredRequests.get(i),
+                                (UpdateRequest) bulkRequest.requests().get(i));
+                        continue;
+                    }
+                    // Not found if the reindex has since completed
+                    if (itemResponse.getFailure().getStatus() != RestStatus.NOT_FOUND
+                            && LogUtil.rateLimitAllowLog("elasticUtil-mirror-failure")) {
+                        log.warn("Failed to mirror write of {} to {}: {}",
+                                itemResponse.getId(), itemResponse.getIndex(), itemResponse.getFailureMessage());
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Exception ex) {
+                if (LogUtil.rateLimitAllowLog("elasticUtil-mirror-failure")) {
+                    log.warn("Failed to mirror writes to reindex target", ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the document from the project's alias to the reindex target unless the reindex has copied it
+     * since, then applies the mirrored update again. Whichever copy wins, the update is applied on top of it.
+     * The reindex skips documents already present in its target.
+     */
+    private void mirrorUpdateOfMissingDocument(UpdateRequest request, UpdateRequest mirroredRequest) {
+        elastic.get().getAsync(new GetRequest(request.index(), request.id()), RequestOptions.DEFAULT, new ActionListener<>() {
+            @Override
+            public void onResponse(GetResponse getResponse) {
+                if (!getResponse.isExists()) {
+                    // Neither the update would have found the document
+                    return;
+                }
+                elastic.get().indexAsync(new IndexRequest(mirroredRequest.index())
+                                .id(mirroredRequest.id())
+                                .opType(DocWriteRequest.OpType.CREATE)
+                                // Reindex may have completed in the meantime, never create an index by the alias' name
+                                .setRequireAlias(true)
+                                .source(getResponse.getSourceAsBytesRef(), XContentType.JSON),
+                        RequestOptions.DEFAULT,
+                        new ActionListener<>() {
+                            @Override
+                            public void onResponse(IndexResponse indexResponse) {
+                                applyAgain();
+                            }
+
+                            @Override
+                            public void onFailure(Exception ex) {
+                                if (ElasticsearchStatusException.class.isAssignableFrom(ex.getClass())
+                                        && ((ElasticsearchStatusException) ex).status() == RestStatus.CONFLICT) {
+                                    // Copied by the reindex in the meantime
+                                    applyAgain();
+                                } else {
+                                    this.logFailure(ex);
+                                }
+                            }
+
+                            private void applyAgain() {
+                                elastic.get().updateAsync(
+                                        (UpdateRequest) copyRequest(request, mirroredRequest.index(), mirroredRequest.id()),
+                                        RequestOptions.DEFAULT,
+                                        ActionListener.wrap(r -> {
+                                        }, this::logFailure));
+                            }
+
+                            private void logFailure(Exception ex) {
+                                if (LogUtil.rateLimitAllowLog("elasticUtil-mirror-failure")) {
+                                    log.warn("Failed to mirror update of {} to {}", mirroredRequest.id(), mirroredRequest.index(), ex);
+                                }
+                            }
+                        });
+            }
+
+            @Override
+            public void onFailure(Exception ex) {
+                if (LogUtil.rateLimitAllowLog("elasticUtil-mirror-failure")) {
+                    log.warn("Failed to read {} from {} to mirror its update", request.id(), request.index(), ex);
+                }
+            }
+        });
+    }
+
+    private void setId(DocWriteRequest<?> request, String id) {
+        switch (request.opType()) {
+            case INDEX:
+            case CREATE:
+                ((IndexRequest) request).id(id);
+                break;
+            case UPDATE:
+                ((UpdateRequest) request).id(id);
+                break;
+            case DELETE:
+                ((DeleteRequest) request).id(id);
+                break;
+            default:
+                throw new IllegalStateException("Unknown write request type " + request.opType());
+        }
+    }
+
+    private DocWriteRequest<?> copyRequest(DocWriteRequest<?> request, String index, String id) {
+        switch (request.opType()) {
+            case INDEX:
+            case CREATE:
+                IndexRequest indexRequest = (IndexRequest) request;
+                return new IndexRequest(index)
+                        .id(id)
+                        .opType(indexRequest.opType())
+                        .source(indexRequest.source(), indexRequest.getContentType());
+            case UPDATE:
+                UpdateRequest updateRequest = (UpdateRequest) request;
+                UpdateRequest updateRequestCopy = new UpdateRequest(index, id)
+                        .retryOnConflict(updateRequest.retryOnConflict())
+                        .docAsUpsert(updateRequest.docAsUpsert())
+                        .scriptedUpsert(updateRequest.scriptedUpsert());
+                if (updateRequest.script() != null) {
+                    updateRequestCopy.script(updateRequest.script());
+                }
+                if (updateRequest.doc() != null) {
+                    updateRequestCopy.doc(updateRequest.doc().source(), updateRequest.doc().getContentType());
+                }
+                if (updateRequest.upsertRequest() != null) {
+                    updateRequestCopy.upsert(updateRequest.upsertRequest().source(), updateRequest.upsertRequest().getContentType());
+                }
+                return updateRequestCopy;
+            case DELETE:
+                return new DeleteRequest(index, id);
+            default:
+                throw new IllegalStateException("Unknown write request type " + request.opType());
+        }
+    }
+
+    /**
+     * Creates a project's index, or with {@link ElasticIndexLayout#SHARED} layout, creates the shared
+     * index if missing and adds the project's alias to it.
+     *
+     * @param createIndexRequest Given an index name, creates the index with its mappings.
+     */
+    public ListenableFuture<Void> createIndexAsync(String indexName, String projectId, ElasticIndexLayout layout, Function<String, CreateIndexRequest> createIndexRequest) {
+        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        switch (layout) {
+            case PER_PROJECT:
+                elastic.get().indices().createAsync(createIndexRequest.apply(getIndexName(indexName, projectId)),
+                        RequestOptions.DEFAULT,
+                        ActionListeners.fromFuture(indexingFuture, this::isIndexAlreadyExistsException));
+                break;
+            case SHARED:
+                ActionListener<Object> addAliasListener = ActionListener.wrap(
+                        r -> elastic.get().indices().updateAliasesAsync(
+                                new IndicesAliasesRequest().addAliasAction(addSharedIndexAlias(indexName, projectId)),
+                                RequestOptions.DEFAULT,
+                                ActionListener.wrap(
+                                        r2 -> {
+                                            invalidateAlias(indexName, projectId);
+                                            indexingFuture.set(null);
+                                        },
+                                        indexingFuture::setException)),
+                        indexingFuture::setException);
+                elastic.get().indices().createAsync(createIndexRequest.apply(getSharedIndexName(indexName)),
+                        RequestOptions.DEFAULT,
+                        ActionListener.wrap(addAliasListener::onResponse, ex -> {
+                            if (isIndexAlreadyExistsException(ex)) {
+                                addAliasListener.onResponse(null);
+                            } else {
+                                addAliasListener.onFailure(ex);
+                            }
+                        }));
+                break;
+            default:
+                indexingFuture.setException(new IllegalStateException("Unknown index layout " + layout));
+        }
+        return indexingFuture;
+    }
+
     public <T> T retry(Callable<T> callable) {
         try {
             return RetryerBuilder.<T>newBuilder()
@@ -332,10 +822,141 @@ public class ElasticUtil {
                                 ? true : null));
     }
 
+    /**
+     * Deletes a project's index, or all indices behind its alias. If aliased to the shared index,
+     * the project's documents are deleted from it and the alias removed instead.
+     */
+    public void deleteProjectIndexAsync(String indexName, String projectId, ActionListener<AcknowledgedResponse> listener) {
+        String alias = getIndexName(indexName, projectId);
+        elastic.get().indices().getAliasAsync(new GetAliasesRequest(alias), RequestOptions.DEFAULT, ActionListener.wrap(
+                response -> {
+                    ImmutableSet<String> aliasedIndices = ImmutableSet.copyOf(response.getAliases().keySet());
+                    String sharedIndex = getSharedIndexName(indexName);
+                    if (!aliasedIndices.contains(sharedIndex)) {
+                        elastic.get().indices().deleteAsync(new DeleteIndexRequest(aliasedIndices.isEmpty()
+                                        ? new String[]{alias}
+                                        : aliasedIndices.toArray(String[]::new)),
+                                RequestOptions.DEFAULT,
+                                listener);
+                        return;
+                    }
+                    // Deleting through the alias applies its filter and routing
+                    elastic.get().deleteByQueryAsync(new DeleteByQueryRequest(alias)
+                                    .setQuery(QueryBuilders.matchAllQuery()),
+                            RequestOptions.DEFAULT,
+                            ActionListener.wrap(
+                                    r -> elastic.get().indices().updateAliasesAsync(new IndicesAliasesRequest()
+                                                    .addAliasAction(AliasActions.remove()
+                                                            .index(sharedIndex)
+                                                            .alias(alias)),
+                                            RequestOptions.DEFAULT,
+                                            ActionListener.wrap(
+                                                    r2 -> {
+                                                        invalidateAlias(indexName, projectId);
+                                                        listener.onResponse(r2);
+                                                    },
+                                                    listener::onFailure)),
+                                    listener::onFailure));
+                },
+                listener::onFailure));
+    }
+
+    /**
+     * Runs once the state of all aliases is known, right away if cached.
+     */
+    private void withAliasStates(ImmutableSet<String> aliases, ActionListener<?> listener, Consumer<ImmutableMap<String, AliasState>> consumer) {
+        ImmutableList<ListenableFuture<AliasState>> aliasStateFutures = aliases.stream()
+                .map(this::getAliasStateForWrite)
+                .collect(ImmutableList.toImmutableList());
+        Futures.whenAllComplete(aliasStateFutures).run(() -> {
+            ImmutableMap.Builder<String, AliasState> aliasStatesBuilder = ImmutableMap.builder();
+            try {
+                for (int i = 0; i < aliases.size(); i++) {
+                    aliasStatesBuilder.put(aliases.asList().get(i), Futures.getDone(aliasStateFutures.get(i)));
+                }
+            } catch (ExecutionException | CancellationException ex) {
+                // Do not keep a failed load around, the next request tries again
+                for (int i = 0; i < aliases.size(); i++) {
+                    if (isFailed(aliasStateFutures.get(i))) {
+                        aliasStateCache.asMap().remove(aliases.asList().get(i), aliasStateFutures.get(i));
+                    }
+                }
+                listener.onFailure(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+                return;
+            }
+            try {
+                consumer.accept(aliasStatesBuilder.build());
+            } catch (Exception ex) {
+                listener.onFailure(ex);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Cached alias state unless it may be stale, or a layout switch is in progress in which case
+     * the swap must be seen by the very next write. Writes with a stale state would use the wrong
+     * document ids once swapped, leaving duplicate documents in the shared index.
+     */
+    private ListenableFuture<AliasState> getAliasStateForWrite(String alias) {
+        ListenableFuture<AliasState> aliasStateFuture = aliasStateCache.getUnchecked(alias);
+        if (!aliasStateFuture.isDone() || isFailed(aliasStateFuture)) {
+            return aliasStateFuture;
+        }
+        AliasState aliasState = Futures.getUnchecked(aliasStateFuture);
+        if (!aliasState.isSwitchingLayout()
+                && System.nanoTime() - aliasState.getLoadedAtNanos() < config.aliasCacheRefreshAfterWrite().toNanos()) {
+            return aliasStateFuture;
+        }
+        ListenableFuture<AliasState> aliasStateLoadFuture = loadAliasState(alias);
+        aliasStateCache.asMap().replace(alias, aliasStateFuture, aliasStateLoadFuture);
+        return aliasStateLoadFuture;
+    }
+
+    private ListenableFuture<AliasState> loadAliasState(String alias) {
+        String reindexAlias = alias + REINDEX_ALIAS_SUFFIX;
+        SettableFuture<AliasState> aliasStateFuture = SettableFuture.create();
+        try {
+            elastic.get().indices().getAliasAsync(new GetAliasesRequest(alias, reindexAlias), RequestOptions.DEFAULT, ActionListener.wrap(
+                    response -> aliasStateFuture.set(toAliasState(alias, reindexAlias, response.getAliases())),
+                    aliasStateFuture::setException));
+        } catch (Exception ex) {
+            aliasStateFuture.setException(ex);
+        }
+        return aliasStateFuture;
+    }
+
+    private static boolean isFailed(ListenableFuture<?> future) {
+        try {
+            Futures.getDone(future);
+            return false;
+        } catch (ExecutionException | CancellationException ex) {
+            return true;
+        }
+    }
+
+    private AliasState toAliasState(String alias, String reindexAlias, Map<String, Set<AliasMetadata>> aliasesByIndex) {
+        boolean shared = false;
+        Optional<Boolean> reindexTargetSharedOpt = Optional.empty();
+        for (Map.Entry<String, Set<AliasMetadata>> entry : aliasesByIndex.entrySet()) {
+            for (AliasMetadata aliasMetadata : entry.getValue()) {
+                if (alias.equals(aliasMetadata.alias())) {
+                    shared |= isSharedIndexName(entry.getKey());
+                } else if (reindexAlias.equals(aliasMetadata.alias())) {
+                    reindexTargetSharedOpt = Optional.of(isSharedIndexName(entry.getKey()));
+                }
+            }
+        }
+        return new AliasState(shared, reindexTargetSharedOpt, System.nanoTime());
+    }
+
     /**
      * Based on: https://github.com/elastic/elasticsearch/issues/19862#issuecomment-238263267
      */
     public boolean isIndexAlreadyExistsException(Throwable th) {
+        if (ElasticsearchStatusException.class.isAssignableFrom(th.getClass())) {
+            return ((ElasticsearchStatusException) th).status().getStatus() == 400
+                    && th.getMessage().contains("resource_already_exists_exception");
+        }
         return ResponseException.class.isAssignableFrom(th.getClass())
                 && ((ResponseException) th).getResponse().getStatusLine().getStatusCode() == 400
                 && (th.getMessage().contains("index_already_exists_exception")
@@ -364,6 +985,7 @@ public class ElasticUtil {
             @Override
             protected void configure() {
                 bind(ElasticUtil.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
             }
         };
     }
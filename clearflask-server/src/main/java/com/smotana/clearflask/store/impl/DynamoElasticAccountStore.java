@@ -51,6 +51,9 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.AccountSearchSuperAdmin;
 import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
+import com.smotana.clearflask.core.cache.SessionCache;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
@@ -137,6 +140,15 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
         @DefaultValue("PT1M")
         Duration configCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long sessionCacheMaxSize();
+
+        /**
+         * Upper bound on how long another node may still accept a revoked session if the revocation broadcast is lost.
+         */
+        @DefaultValue("PT1M")
+        Duration sessionCacheExpireAfterWrite();
     }
 
     @Inject
@@ -168,6 +180,8 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     private IdeaStore ideaStore;
     @Inject
     private ProjectStore projectStore;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<Account> accountSchema;
     private IndexSchema<Account> accountByApiKeySchema;
@@ -177,6 +191,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     private TableSchema<AccountSession> sessionBySessionIdSchema;
     private IndexSchema<AccountSession> sessionByAccountIdSchema;
     private Cache<String, Optional<Account>> accountCache;
+    private SessionCache<AccountSession> sessionCache;
 
     @Override
     protected ImmutableSet<Class> serviceDependencies() {
@@ -188,6 +203,13 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         accountCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.configCacheExpireAfterWrite())
                 .build();
+        cacheInvalidationBus.subscribe(CacheType.ACCOUNT, key -> accountCache.invalidate(key.get(0)));
+        sessionCache = new SessionCache<>(
+                CacheType.ACCOUNT_SESSION,
+                cacheInvalidationBus,
+                AccountSession::getTtlInEpochSec,
+                config.sessionCacheMaxSize(),
+                config.sessionCacheExpireAfterWrite());
 
         accountSchema = singleTable.parseTableSchema(Account.class);
         accountByApiKeySchema = singleTable.parseGlobalSecondaryIndexSchema(1, Account.class);
@@ -596,7 +618,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(expression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -660,7 +682,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withValueMap(new ValueMap().with(":addons", accountSchema.toDynamoValue("addons", addons)))
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
-            accountCache.put(accountId, Optional.of(account));
+            cacheAccountAndBroadcast(account);
             return account;
         } else {
             if (addons.isEmpty()) {
@@ -686,7 +708,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withValueMap(expression.valMap().orElse(null))
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
-            accountCache.put(accountId, Optional.of(account));
+            cacheAccountAndBroadcast(account);
             return account;
         }
     }
@@ -704,7 +726,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().withStringSet(":projectId", projectId))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -738,7 +760,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().withStringSet(":projectId", projectId))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -813,7 +835,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(expression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
         return account;
     }
 
@@ -830,7 +852,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().withString(":name", name))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -872,7 +894,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().withString(":password", password))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
         revokeSessions(account.getAccountId(), sessionToLeaveOpt);
         return account;
     }
@@ -910,7 +932,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                 .build()));
         revokeSessions(accountId, sessionIdToLeave);
         Account account = accountOld.toBuilder().email(emailNew).build();
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -960,7 +982,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(expression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
         return account;
     }
 
@@ -976,7 +998,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().with(":status", accountSchema.toDynamoValue("status", status)))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
-        accountCache.put(accountId, Optional.of(account));
+        cacheAccountAndBroadcast(account);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -1021,7 +1043,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withValueMap(new ValueMap().with(":attrs", accountSchema.toDynamoValue("attrs", attrs)))
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
-            accountCache.put(accountId, Optional.of(account));
+            cacheAccountAndBroadcast(account);
             return account;
         } else {
             if (attrs.isEmpty()) {
@@ -1047,7 +1069,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withValueMap(expression.valMap().orElse(null))
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
-            accountCache.put(accountId, Optional.of(account));
+            cacheAccountAndBroadcast(account);
             return account;
         }
     }
@@ -1065,6 +1087,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         accountSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(accountSchema.primaryKey(Map.of("accountId", accountId))));
         accountCache.invalidate(accountId);
+        cacheInvalidationBus.broadcast(CacheType.ACCOUNT, accountId);
         revokeSessions(accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
@@ -1096,14 +1119,25 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         AccountSession accountSession = new AccountSession(genSessionId(), account.getAccountId(), account.getEmail(), ttlInEpochSec);
         sessionBySessionIdSchema.table().putItem(new PutItemSpec()
                 .withItem(sessionBySessionIdSchema.toItem(accountSession)));
+        sessionCache.put(accountSession.getSessionId(), accountSession);
         return accountSession;
     }
 
     @Extern
     @Override
     public Optional<AccountSession> getSession(String sessionId) {
-        return getSession(sessionId, false)
-                .or(() -> getSession(sessionId, true));
+        return sessionCache.get(sessionId, () -> getSession(sessionId, false)
+                .or(() -> getSession(sessionId, true)));
+    }
+
+    @Extern
+    public SessionCache.Stats sessionCacheStats() {
+        return sessionCache.stats();
+    }
+
+    @Extern
+    public void resetSessionCacheStats() {
+        sessionCache.resetStats();
     }
 
     private Optional<AccountSession> getSession(String sessionId, boolean consistentRead) {
@@ -1123,7 +1157,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
     @Override
     public AccountSession refreshSession(AccountSession accountSession, long ttlInEpochSec) {
-        return sessionBySessionIdSchema.fromItem(sessionBySessionIdSchema.table().updateItem(new UpdateItemSpec()
+        AccountSession accountSessionRefreshed = sessionBySessionIdSchema.fromItem(sessionBySessionIdSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(sessionBySessionIdSchema.primaryKey(accountSession))
                         .withConditionExpression("attribute_exists(#partitionKey)")
                         .withUpdateExpression("SET #ttlInEpochSec = :ttlInEpochSec")
@@ -1133,6 +1167,8 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().withLong(":ttlInEpochSec", ttlInEpochSec))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
+        sessionCache.put(accountSessionRefreshed.getSessionId(), accountSessionRefreshed);
+        return accountSessionRefreshed;
     }
 
     @Extern
@@ -1141,6 +1177,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         sessionBySessionIdSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(sessionBySessionIdSchema.primaryKey(Map.of(
                         "sessionId", sessionId))));
+        sessionCache.revoke(sessionId);
     }
 
     @Extern
@@ -1174,9 +1211,15 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                                     "sessionId", sessionId)))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    sessionIdsBatch.forEach(sessionCache::revoke);
                 });
     }
 
+    private void cacheAccountAndBroadcast(Account account) {
+        accountCache.put(account.getAccountId(), Optional.of(account));
+        cacheInvalidationBus.broadcast(CacheType.ACCOUNT, account.getAccountId());
+    }
+
     private void indexAccount(String accountId) {
         indexAccount(SettableFuture.create(), accountId);
     }
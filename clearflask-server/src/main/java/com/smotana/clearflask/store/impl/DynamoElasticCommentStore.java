@@ -6,6 +6,7 @@ import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
@@ -16,7 +17,13 @@ import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.Put;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -60,14 +67,15 @@ import com.smotana.clearflask.store.mysql.CompletionStageUtil;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MoreSQLDataType;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
+import com.smotana.clearflask.store.mysql.MysqlUtil.Keyset;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.mysql.model.routines.JooqVoteWilson;
 import com.smotana.clearflask.store.mysql.model.tables.JooqComment;
 import com.smotana.clearflask.store.mysql.model.tables.JooqCommentParentId;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqCommentParentIdRecord;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqCommentRecord;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.util.Extern;
-import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.util.ServerSecret;
 import com.smotana.clearflask.util.WilsonScoreInterval;
 import com.smotana.clearflask.web.ApiException;
@@ -78,7 +86,9 @@ import io.dataspray.singletable.IndexSchema;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -88,13 +98,13 @@ import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
-import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.ZeroTermsQueryOption;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.script.Script;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
@@ -102,6 +112,8 @@ import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.JoinType;
 import org.jooq.Queries;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.SelectField;
 import org.jooq.SortField;
 import org.jooq.Table;
@@ -111,7 +123,6 @@ import org.jooq.util.mysql.MySQLDataType;
 import rx.Observable;
 
 import javax.ws.rs.core.Response;
-import java.io.IOException;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collection;
@@ -185,6 +196,8 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     @Inject
     private ElasticUtil elasticUtil;
     @Inject
+    private Reindexer reindexer;
+    @Inject
     @Named("cursor")
     private ServerSecret serverSecretCursor;
     @Inject
@@ -266,6 +279,11 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqComment.COMMENT, JooqComment.COMMENT.PROJECTID));
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqComment.COMMENT, JooqComment.COMMENT.PROJECTID, JooqComment.COMMENT.POSTID));
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqComment.COMMENT, JooqComment.COMMENT.AUTHORUSERID));
+        // Keyset pagination of each sort
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("comment_sort_created").on(JooqComment.COMMENT,
+                JooqComment.COMMENT.PROJECTID, JooqComment.COMMENT.CREATED, JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("comment_sort_top").on(JooqComment.COMMENT,
+                JooqComment.COMMENT.PROJECTID, JooqComment.COMMENT.SCORE, JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID));
         mysql.get().createTableIfNotExists(COMMENT_PARENT_ID_INDEX)
                 .column("projectId", SQLDataType.VARCHAR(ID_MAX_LENGTH).notNull())
                 .column("postId", SQLDataType.VARCHAR(ID_MAX_LENGTH).notNull())
@@ -282,47 +300,51 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
 
     @Extern
     public ListenableFuture<Void> createIndexElasticSearch(String projectId) {
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
         if (projectStore.getSearchEngineForProject(projectId).isWriteElastic()) {
-            elastic.get().indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
-                            "dynamic", "false",
-                            "properties", ImmutableMap.builder()
-                                    .put("ideaId", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("parentCommentIds", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("level", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("childCommentCount", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("authorUserId", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("authorName", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("authorIsMod", ImmutableMap.of(
-                                            "type", "boolean"))
-                                    .put("created", ImmutableMap.of(
-                                            "type", "date",
-                                            "format", "epoch_second"))
-                                    .put("edited", ImmutableMap.of(
-                                            "type", "date",
-                                            "format", "epoch_second"))
-                                    .put("content", ImmutableMap.of(
-                                            "type", "text",
-                                            "index_prefixes", ImmutableMap.of()))
-                                    .put("upvotes", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("downvotes", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("score", ImmutableMap.of(
-                                            "type", "double"))
-                                    .build())), XContentType.JSON),
-                    RequestOptions.DEFAULT,
-                    ActionListeners.fromFuture(indexingFuture, elasticUtil::isIndexAlreadyExistsException));
+            return elasticUtil.createIndexAsync(COMMENT_INDEX, projectId,
+                    projectStore.getElasticIndexLayoutForProject(projectId),
+                    this::createIndexRequestElasticSearch);
         } else {
-            indexingFuture.set(null); // Nothing to do here
+            return Futures.immediateFuture(null); // Nothing to do here
         }
-        return indexingFuture;
+    }
+
+    private CreateIndexRequest createIndexRequestElasticSearch(String indexName) {
+        return new CreateIndexRequest(indexName).mapping(gson.toJson(ImmutableMap.of(
+                "dynamic", "false",
+                "properties", ImmutableMap.builder()
+                        .put("projectId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("ideaId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("parentCommentIds", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("level", ImmutableMap.of(
+                                "type", "integer"))
+                        .put("childCommentCount", ImmutableMap.of(
+                                "type", "integer"))
+                        .put("authorUserId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("authorName", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("authorIsMod", ImmutableMap.of(
+                                "type", "boolean"))
+                        .put("created", ImmutableMap.of(
+                                "type", "date",
+                                "format", "epoch_second"))
+                        .put("edited", ImmutableMap.of(
+                                "type", "date",
+                                "format", "epoch_second"))
+                        .put("content", ImmutableMap.of(
+                                "type", "text",
+                                "index_prefixes", ImmutableMap.of()))
+                        .put("upvotes", ImmutableMap.of(
+                                "type", "integer"))
+                        .put("downvotes", ImmutableMap.of(
+                                "type", "integer"))
+                        .put("score", ImmutableMap.of(
+                                "type", "double"))
+                        .build())), XContentType.JSON);
     }
 
     @Extern
@@ -330,49 +352,22 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
         log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
                 projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
-        if (repopulateElasticSearch) {
-            boolean indexAlreadyExists = elastic.get().indices().exists(
-                    new GetIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
-                    RequestOptions.DEFAULT);
-            if (indexAlreadyExists && deleteExistingIndex) {
-                elastic.get().indices().delete(
-                        new DeleteIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
-                        RequestOptions.DEFAULT);
-            }
-            if (!indexAlreadyExists || deleteExistingIndex) {
-                createIndexElasticSearch(projectId).get();
-            }
-        }
-        if (repopulateMysql && deleteExistingIndex) {
-            mysql.get().deleteFrom(JooqComment.COMMENT)
-                    .where(JooqComment.COMMENT.PROJECTID.eq(projectId))
-                    .execute();
-        }
-
-        StreamSupport.stream(commentByProjectIdSchema.index().query(new QuerySpec()
-                                .withHashKey(commentByProjectIdSchema.partitionKey(Map.of(
-                                        "projectId", projectId)))
-                                .withRangeKeyCondition(new RangeKeyCondition(commentByProjectIdSchema.rangeKeyName())
-                                        .beginsWith(commentByProjectIdSchema.rangeValuePartial(Map.of()))))
-                        .pages()
-                        .spliterator(), false)
-                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                .map(commentByProjectIdSchema::fromItem)
-                .filter(comment -> projectId.equals(comment.getProjectId()))
-                .forEach(comment -> {
-                    if (repopulateElasticSearch) {
-                        try {
-                            elastic.get().index(commentToEsIndexRequest(comment), RequestOptions.DEFAULT);
-                        } catch (IOException ex) {
-                            if (LogUtil.rateLimitAllowLog("dynamoelasticcommentstore-reindex-failure")) {
-                                log.warn("Failed to re-index comment id {} projectId {}", comment.getCommentId(), projectId, ex);
-                            }
-                        }
-                    }
-                    if (repopulateMysql) {
-                        commentToMysqlQuery(comment).fetchMany();
-                    }
-                });
+        reindexer.reindex(Reindexer.Job.<CommentModel>builder()
+                        .indexType(COMMENT_INDEX)
+                        .projectId(projectId)
+                        .elasticIndexLayout(projectStore.getElasticIndexLayoutForProject(projectId))
+                        .byProjectIdSchema(commentByProjectIdSchema)
+                        .projectIdGetter(CommentModel::getProjectId)
+                        .idGetter(CommentModel::getCommentId)
+                        .elasticCreateIndexRequest(this::createIndexRequestElasticSearch)
+                        .elasticIndexRequest(this::commentToEsIndexRequest)
+                        .mysqlQueries(this::commentToMysqlQuery)
+                        .mysqlProjectIdField(JooqComment.COMMENT.PROJECTID)
+                        .mysqlIdField(JooqComment.COMMENT.COMMENTID)
+                        .build(),
+                deleteExistingIndex,
+                repopulateElasticSearch,
+                repopulateMysql);
     }
 
     @Extern
@@ -388,64 +383,99 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     public CommentAndIndexingFuture<List<Void>> createCommentAndUpvote(CommentModel comment) {
         checkArgument(comment.getParentCommentIds().size() == comment.getLevel());
 
-        VoteValue votePrev = voteStore.vote(comment.getProjectId(), comment.getAuthorUserId(), comment.getCommentId(), VoteValue.Upvote);
         CommentModel commentWithVote = comment.toBuilder()
                 .upvotes(comment.getUpvotes() + 1).build();
-
-        commentSchema.table().putItem(commentSchema.toItem(commentWithVote));
-        Optional<SettableFuture<Void>> parentIndexingFutureOpt = Optional.empty();
-        if (commentWithVote.getLevel() > 0) {
-            String parentCommentId = commentWithVote.getParentCommentIds().get(commentWithVote.getParentCommentIds().size() - 1);
-            long parentChildCommentCount = commentSchema.table().updateItem(new UpdateItemSpec()
-                            .withPrimaryKey(commentSchema.primaryKey(ImmutableMap.of(
-                                    "projectId", commentWithVote.getProjectId(),
-                                    "ideaId", commentWithVote.getIdeaId(),
-                                    "commentId", parentCommentId)))
-                            .addAttributeUpdate(new AttributeUpdate("childCommentCount")
-                                    .addNumeric(1))
-                            .withReturnValues(ReturnValue.ALL_NEW))
-                    .getItem()
-                    .getLong("childCommentCount");
-
-            SettableFuture<Void> parentIndexingFuture = SettableFuture.create();
-            SearchEngine searchEngine = projectStore.getSearchEngineForProject(commentWithVote.getProjectId());
-            if (searchEngine.isWriteElastic()) {
-                elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, commentWithVote.getProjectId()), parentCommentId)
-                                .doc(gson.toJson(ImmutableMap.of(
-                                        "childCommentCount", parentChildCommentCount
-                                )), XContentType.JSON)
-                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                        RequestOptions.DEFAULT,
-                        searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(parentIndexingFuture, f -> indexComment(f, commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getCommentId()))
-                                : ActionListeners.onFailureRetry(() -> indexComment(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getCommentId())));
+        Optional<String> parentCommentIdOpt = commentWithVote.getLevel() > 0
+                ? Optional.of(commentWithVote.getParentCommentIds().get(commentWithVote.getParentCommentIds().size() - 1))
+                : Optional.empty();
+
+        // Vote, comment and both counters are written atomically to prevent counters drifting on partial failure
+        ImmutableList.Builder<TransactWriteItem> transactItemsBuilder = ImmutableList.<TransactWriteItem>builder()
+                .add(voteStore.voteTransactWriteItem(commentWithVote.getProjectId(), commentWithVote.getAuthorUserId(), commentWithVote.getCommentId(), VoteValue.Upvote))
+                .add(new TransactWriteItem().withPut(new Put()
+                        .withTableName(commentSchema.tableName())
+                        .withItem(commentSchema.toAttrMap(commentWithVote))))
+                .add(ideaStore.incrementIdeaCommentCountTransactWriteItem(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getLevel() == 0));
+        parentCommentIdOpt.ifPresent(parentCommentId -> transactItemsBuilder
+                .add(new TransactWriteItem().withUpdate(new Update()
+                        .withTableName(commentSchema.tableName())
+                        .withKey(ItemUtils.toAttributeValueMap(commentSchema.primaryKey(Map.of(
+                                "projectId", commentWithVote.getProjectId(),
+                                "ideaId", commentWithVote.getIdeaId(),
+                                "commentId", parentCommentId))))
+                        .withConditionExpression("attribute_exists(#partitionKey)")
+                        .withUpdateExpression("ADD #childCommentCount :one")
+                        .withExpressionAttributeNames(Map.of(
+                                "#partitionKey", commentSchema.partitionKeyName(),
+                                "#childCommentCount", "childCommentCount"))
+                        .withExpressionAttributeValues(Map.of(
+                                ":one", commentSchema.toAttrValue("childCommentCount", 1L))))));
+        try {
+            dynamo.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(
+                    transactItemsBuilder.build()));
+        } catch (TransactionCanceledException ex) {
+            if (ex.getCancellationReasons().stream().map(CancellationReason::getCode).anyMatch("ConditionalCheckFailed"::equals)) {
+                throw new ApiException(Response.Status.NOT_FOUND, "Post or parent comment not found", ex);
             }
-            if (searchEngine.isWriteMysql()) {
-                CompletionStage<Integer> completionStage = mysql.get().update(JooqComment.COMMENT)
-                        .set(JooqComment.COMMENT.CHILDCOMMENTCOUNT, parentChildCommentCount)
-                        .where(JooqComment.COMMENT.PROJECTID.eq(commentWithVote.getProjectId())
-                                .and(JooqComment.COMMENT.POSTID.eq(commentWithVote.getIdeaId()))
-                                .and(JooqComment.COMMENT.COMMENTID.eq(commentWithVote.getCommentId())))
-                        .executeAsync();
-                if (searchEngine.isReadMysql()) {
-                    CompletionStageUtil.toSettableFuture(parentIndexingFuture, completionStage);
-                } else {
-                    CompletionStageUtil.logFailure(completionStage);
-                }
-            }
-
-            parentIndexingFutureOpt = Optional.of(parentIndexingFuture);
+            throw ex;
         }
 
-        IdeaAndIndexingFuture incrementResponse = ideaStore.incrementIdeaCommentCount(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getLevel() == 0);
+        IdeaAndIndexingFuture incrementResponse = ideaStore.ideaCommentCountIncremented(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getLevel() == 0);
+        userStore.updateUserActivity(commentWithVote.getProjectId(), commentWithVote.getAuthorUserId(), 0L, 0L, 0L);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
-        indexComment(indexingFuture, commentWithVote);
+        SearchEngine searchEngine = projectStore.getSearchEngineForProject(commentWithVote.getProjectId());
+        if (searchEngine.isWriteElastic()) {
+            BulkRequest bulkRequest = new BulkRequest()
+                    .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                    .add(commentToEsIndexRequest(commentWithVote)
+                            .setRefreshPolicy(WriteRequest.RefreshPolicy.NONE));
+            parentCommentIdOpt.ifPresent(parentCommentId -> bulkRequest
+                    .add(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, commentWithVote.getProjectId()), parentCommentId)
+                            .script(new Script("ctx._source.childCommentCount += 1"))));
+            Consumer<SettableFuture<Void>> reindex = f -> {
+                parentCommentIdOpt.ifPresent(parentCommentId -> indexComment(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), parentCommentId));
+                indexComment(f, commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getCommentId());
+            };
+            SettableFuture<Void> elasticFuture = searchEngine.isReadElastic() ? indexingFuture : SettableFuture.create();
+            elasticUtil.bulkAsync(commentWithVote.getProjectId(), bulkRequest, new ActionListener<>() {
+                @Override
+                public void onResponse(BulkResponse bulkResponse) {
+                    if (bulkResponse.hasFailures()) {
+                        log.warn("Failed to index new comment, reindexing: {}", bulkResponse.buildFailureMessage());
+                        reindex.accept(elasticFuture);
+                    } else {
+                        elasticFuture.set(null);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception ex) {
+                    log.warn("Failed to index new comment, reindexing", ex);
+                    reindex.accept(elasticFuture);
+                }
+            });
+        }
+        if (searchEngine.isWriteMysql()) {
+            Queries queries = commentToMysqlQuery(commentWithVote);
+            if (parentCommentIdOpt.isPresent()) {
+                queries = queries.concat(mysql.get().queries(mysql.get().update(JooqComment.COMMENT)
+                        .set(JooqComment.COMMENT.CHILDCOMMENTCOUNT, JooqComment.COMMENT.CHILDCOMMENTCOUNT.plus(1))
+                        .where(JooqComment.COMMENT.PROJECTID.eq(commentWithVote.getProjectId())
+                                .and(JooqComment.COMMENT.POSTID.eq(commentWithVote.getIdeaId()))
+                                .and(JooqComment.COMMENT.COMMENTID.eq(parentCommentIdOpt.get())))));
+            }
+            CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(queries);
+            if (searchEngine.isReadMysql()) {
+                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
+            } else {
+                CompletionStageUtil.logFailure(completionStage);
+            }
+        }
 
-        ImmutableList.Builder<ListenableFuture<Void>> builder = ImmutableList.builder();
-        builder.add(indexingFuture);
-        builder.add(incrementResponse.getIndexingFuture());
-        parentIndexingFutureOpt.ifPresent(builder::add);
-        return new CommentAndIndexingFuture<>(commentWithVote, Futures.allAsList(builder.build()));
+        return new CommentAndIndexingFuture<>(commentWithVote, Futures.allAsList(ImmutableList.of(
+                indexingFuture,
+                incrementResponse.getIndexingFuture())));
     }
 
     @Extern
@@ -605,7 +635,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                         .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
                                 "projectId", projectId,
                                 "ideaId", hit.getSourceAsMap().get("ideaId"),
-                                "commentId", hit.getId())))
+                                "commentId", elasticUtil.getIdFromDocId(projectId, hit.getId()))))
                         .toArray(PrimaryKey[]::new);
                 nextCursorOpt = searchResponseWithCursor.getCursorOpt();
             } else {
@@ -615,22 +645,26 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 Optional<Condition> conditionSearchTextOpt = Optional.ofNullable(Strings.emptyToNull(commentSearchAdmin.getSearchText()))
                         .map(searchText -> JooqComment.COMMENT.CONTENT.like("%" + searchText + "%")
                                 .or(JooqComment.COMMENT.AUTHORNAME.like("%" + searchText + "%")));
-                primaryKeys = mysql.get().select(JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID)
+                Keyset keyset = mysqlUtil.keyset(configSearch, cursorOpt, Optional.empty(), sortFieldsMysql,
+                        JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID);
+                Result<Record> result = mysql.get().select(keyset.getFields())
                         .from(JooqComment.COMMENT)
                         .where(mysqlUtil.and(mysqlUtil.and(
                                         conditionSearchTextOpt,
                                         conditionFilterAuthorIdOpt),
-                                JooqComment.COMMENT.PROJECTID.eq(projectId)))
-                        .orderBy(sortFieldsMysql)
-                        .offset(mysqlUtil.offset(cursorOpt))
-                        .limit(mysqlUtil.pageSizeMax(configSearch, Optional.empty()))
-                        .stream()
+                                JooqComment.COMMENT.PROJECTID.eq(projectId),
+                                keyset.getSeekCondition()))
+                        .orderBy(keyset.getSortFields())
+                        .offset(keyset.getOffset())
+                        .limit(keyset.getLimit())
+                        .fetch();
+                primaryKeys = result.stream()
                         .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
                                 "projectId", projectId,
-                                "ideaId", hit.component1(),
-                                "commentId", hit.component2())))
+                                "ideaId", hit.get(JooqComment.COMMENT.POSTID),
+                                "commentId", hit.get(JooqComment.COMMENT.COMMENTID))))
                         .toArray(PrimaryKey[]::new);
-                nextCursorOpt = mysqlUtil.nextCursor(configSearch, cursorOpt, Optional.empty(), primaryKeys.length);
+                nextCursorOpt = mysqlUtil.nextCursor(keyset, result);
             }
 
             if (primaryKeys.length == 0) {
@@ -705,7 +739,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 Set<String> commentIds = postIdToCommentIds.computeIfAbsent(postId, k -> Sets.newHashSet());
 
                 // Add our comment to the corresponding post
-                commentIds.add(hit.getId());
+                commentIds.add(elasticUtil.getIdFromDocId(projectId, hit.getId()));
 
                 // Include all parent comments as well
                 DocumentField parentCommentIds = hit.field("parentCommentIds");
@@ -802,13 +836,12 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+            elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .doc(gson.toJson(ImmutableMap.of(
                                     "edited", comment.getEdited().getEpochSecond(),
                                     "content", comment.getContentAsText(sanitizer)
                             )), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()))
                             : ActionListeners.onFailureRetry(() -> indexComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
         }
@@ -885,13 +918,12 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+            elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .script(ElasticScript.WILSON.toScript(ImmutableMap.of(
                                     "upvoteDiff", upvoteDiff,
                                     "downvoteDiff", downvoteDiff,
                                     "z", wilsonScoreInterval.getZ())))
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()))
                             : ActionListeners.onFailureRetry(() -> indexComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
         }
@@ -949,10 +981,9 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
             updates.put("authorName", null);
             updates.put("content", null);
             updates.put("edited", comment.getEdited().getEpochSecond());
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+            elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .doc(gson.toJson(updates), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()))
                             : ActionListeners.onFailureRetry(() -> indexComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
         }
@@ -990,9 +1021,8 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+            elasticUtil.deleteAsync(projectId, new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, projectId, ideaId, commentId))
                             : ActionListeners.onFailureRetry(() -> indexComment(projectId, ideaId, commentId)));
         }
@@ -1041,9 +1071,8 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().deleteByQueryAsync(new DeleteByQueryRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
+            elasticUtil.deleteByQueryAsync(new DeleteByQueryRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
                             .setQuery(QueryBuilders.termQuery("ideaId", ideaId)),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
         }
@@ -1092,8 +1121,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
-                    RequestOptions.DEFAULT,
+            elasticUtil.deleteProjectIndexAsync(COMMENT_INDEX, projectId,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
         }
@@ -1120,8 +1148,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         if (!commentOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
-                elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId),
-                        RequestOptions.DEFAULT,
+                elasticUtil.deleteAsync(projectId, new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId),
                         searchEngine.isReadElastic()
                                 ? ActionListeners.fromFuture(indexingFuture)
                                 : ActionListeners.logFailure());
@@ -1150,8 +1177,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     private void indexComment(SettableFuture<Void> indexingFuture, CommentModel comment) {
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(comment.getProjectId());
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indexAsync(commentToEsIndexRequest(comment),
-                    RequestOptions.DEFAULT,
+            elasticUtil.indexAsync(comment.getProjectId(), commentToEsIndexRequest(comment),
                     searchEngine.isReadElastic()
                             ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
@@ -1206,6 +1232,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
                 .id(comment.getCommentId())
                 .source(gson.toJson(ImmutableMap.builder()
+                        .put("projectId", comment.getProjectId())
                         .put("ideaId", comment.getIdeaId())
                         .put("parentCommentIds", comment.getParentCommentIds())
                         .put("level", comment.getLevel())
@@ -5,6 +5,7 @@ package com.smotana.clearflask.store.impl;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
@@ -16,9 +17,12 @@ import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.Update;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -30,6 +34,7 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
@@ -51,6 +56,8 @@ import com.smotana.clearflask.api.model.IdeaSearchAdmin;
 import com.smotana.clearflask.api.model.IdeaUpdate;
 import com.smotana.clearflask.api.model.IdeaUpdateAdmin;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
@@ -59,28 +66,29 @@ import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.TransactionAndFundPrevious;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
+import com.smotana.clearflask.store.dynamo.DynamoAsyncExecutor;
 import com.smotana.clearflask.store.elastic.ActionListeners;
-import com.smotana.clearflask.store.elastic.ElasticScript;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.elastic.ElasticUtil.ConfigSearch;
 import com.smotana.clearflask.store.mysql.CompletionStageUtil;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MoreSQLDataType;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
+import com.smotana.clearflask.store.mysql.MysqlUtil.Keyset;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.mysql.MysqlUtil.Join;
-import com.smotana.clearflask.store.mysql.model.JooqRoutines;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdeaFunders;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdeaTags;
 import com.smotana.clearflask.store.mysql.model.tables.JooqUser;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaRecord;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaTagsRecord;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.util.ExpDecayScore;
 import com.smotana.clearflask.util.ExplicitNull;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.IdUtil;
-import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
@@ -92,7 +100,6 @@ import io.dataspray.singletable.TableSchema;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.TotalHits;
-import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
@@ -103,7 +110,6 @@ import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.indices.CreateIndexRequest;
-import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MoreLikeThisQueryBuilder.Item;
@@ -121,9 +127,12 @@ import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.JoinType;
 import org.jooq.Queries;
 import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.SortField;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
@@ -141,6 +150,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -172,21 +182,64 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         @DefaultValue("true")
         boolean enableSimilarToIdea();
 
+        /**
+         * With MySQL search engine, match text using a relevance ranked FULLTEXT index instead of LIKE
+         * conditions. Requires the index created by {@link #createIndexMysql()}.
+         */
+        @DefaultValue("true")
+        boolean enableMysqlFullText();
+
         @DefaultValue("true")
         boolean enableHistograms();
 
         @DefaultValue("true")
         boolean enableSearchCache();
 
-        @DefaultValue("PT5M")
+        @DefaultValue("PT15M")
         Duration searchCacheExpireAfterWritePeriod();
 
         Observable<Duration> searchCacheExpireAfterWritePeriodObservable();
 
-        @DefaultValue("PT1M")
+        @DefaultValue("PT5M")
         Duration searchCacheExpireAfterAccessPeriod();
 
         Observable<Duration> searchCacheExpireAfterAccessPeriodObservable();
+
+        /**
+         * Should exceed both search cache periods so a project's generation outlives its cached searches.
+         */
+        @DefaultValue("PT1H")
+        Duration searchCacheGenerationExpireAfterAccess();
+
+        @DefaultValue("100000")
+        long searchCacheGenerationMaximumSize();
+
+        /**
+         * Approximate number of cached idea ids across all search results.
+         */
+        @DefaultValue("1000000")
+        long searchCacheMaximumWeight();
+
+        Observable<Long> searchCacheMaximumWeightObservable();
+
+        @DefaultValue("true")
+        boolean enableIdeaCacheRead();
+
+        @DefaultValue("PT10M")
+        Duration ideaCacheExpireAfterWrite();
+
+        /**
+         * Approximate number of characters of idea content to keep in cache.
+         */
+        @DefaultValue("20000000")
+        long ideaCacheMaximumWeight();
+
+        /**
+         * Deleted ideas are not cached from reads for this long, covering eventually consistent reads
+         * still returning the idea.
+         */
+        @DefaultValue("PT1M")
+        Duration ideaCacheTombstoneExpireAfterWrite();
     }
 
     public static final String IDEA_INDEX = "idea";
@@ -207,12 +260,18 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     @Inject
     private DynamoDB dynamoDoc;
     @Inject
+    private DynamoAsyncExecutor dynamoAsyncExecutor;
+    @Inject
     private SingleTable singleTable;
     @Inject
     private Provider<RestHighLevelClient> elastic;
     @Inject
     private ElasticUtil elasticUtil;
     @Inject
+    private Reindexer reindexer;
+    @Inject
+    private IndexUpdateCoalescer indexUpdateCoalescer;
+    @Inject
     private Gson gson;
     @Inject
     private VoteStore voteStore;
@@ -226,11 +285,26 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<IdeaModel> ideaSchema;
     private IndexSchema<IdeaModel> ideaByProjectIdSchema;
     private ExpDecayScore expDecayScoreWeek;
     private Cache<IdeaSearchKey, SearchResponse> ideaSearchCache;
+    private Cache<IdeaCacheKey, IdeaModel> ideaCache;
+    private Cache<IdeaCacheKey, Boolean> ideaCacheTombstones;
+    private static final int IDEA_CACHE_GENERATION_STRIPES = 1024;
+    /**
+     * Striped by idea, bumped whenever a cached idea is written or invalidated. Ideas read before a bump
+     * may be older than what was written and are not cached.
+     */
+    private final AtomicLongArray ideaCacheGenerations = new AtomicLongArray(IDEA_CACHE_GENERATION_STRIPES);
+    /**
+     * Per-project generation, bumped on any write affecting search results, invalidating cached searches.
+     * Starts from the monotonic clock so an expired or evicted generation is never reused.
+     */
+    private Cache<String, Long> searchCacheGenerationByProjectId;
 
     @Inject
     private void setup() {
@@ -240,16 +314,47 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         expDecayScoreWeek = new ExpDecayScore(EXP_DECAY_PERIOD_MILLIS);
 
         Stream.of(config.searchCacheExpireAfterAccessPeriodObservable(),
-                        config.searchCacheExpireAfterWritePeriodObservable())
+                        config.searchCacheExpireAfterWritePeriodObservable(),
+                        config.searchCacheMaximumWeightObservable())
                 .forEach(o -> o.subscribe(v -> setupIdeaSearchCache()));
         setupIdeaSearchCache();
+        searchCacheGenerationByProjectId = CacheBuilder.newBuilder()
+                .expireAfterAccess(config.searchCacheGenerationExpireAfterAccess())
+                .maximumSize(config.searchCacheGenerationMaximumSize())
+                .build();
+
+        ideaCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.ideaCacheExpireAfterWrite())
+                .maximumWeight(config.ideaCacheMaximumWeight())
+                .weigher((IdeaCacheKey key, IdeaModel idea) -> 1000
+                        + idea.getTitle().length()
+                        + Strings.nullToEmpty(idea.getDescriptionAsUnsafeHtml()).length()
+                        + Strings.nullToEmpty(idea.getResponseAsUnsafeHtml()).length())
+                .recordStats()
+                .build();
+        ideaCacheTombstones = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.ideaCacheTombstoneExpireAfterWrite())
+                .build();
+
+        cacheInvalidationBus.subscribe(CacheType.IDEA, key -> {
+            if (key.size() == 1) {
+                invalidateIdeaCacheForProject(key.get(0));
+            } else {
+                IdeaCacheKey ideaCacheKey = new IdeaCacheKey(key.get(0), key.get(1));
+                ideaCacheGenerations.incrementAndGet(getIdeaCacheGenerationStripe(ideaCacheKey));
+                ideaCache.invalidate(ideaCacheKey);
+            }
+        });
+        cacheInvalidationBus.subscribe(CacheType.IDEA_SEARCH, key -> bumpSearchCacheGeneration(key.get(0)));
     }
 
     private void setupIdeaSearchCache() {
         ideaSearchCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.searchCacheExpireAfterWritePeriod())
                 .expireAfterAccess(config.searchCacheExpireAfterAccessPeriod())
-                .weakValues()
+                .maximumWeight(config.searchCacheMaximumWeight())
+                .weigher((IdeaSearchKey key, SearchResponse searchResponse) -> 1 + searchResponse.getIdeaIds().size())
+                .recordStats()
                 .build();
     }
 
@@ -326,6 +431,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqIdea.IDEA, JooqIdea.IDEA.CREATED));
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqIdea.IDEA, JooqIdea.IDEA.LASTACTIVITY));
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqIdea.IDEA, JooqIdea.IDEA.MERGEDTOPOSTID));
+        mysqlUtil.createFullTextIndexIfNotExists("idea_fulltext", JooqIdea.IDEA, JooqIdea.IDEA.TITLE, JooqIdea.IDEA.DESCRIPTION);
+        // Keyset pagination of each sort
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("idea_sort_top").on(JooqIdea.IDEA,
+                JooqIdea.IDEA.PROJECTID, JooqIdea.IDEA.FUNDED, JooqIdea.IDEA.VOTEVALUE, JooqIdea.IDEA.EXPRESSIONSVALUE, JooqIdea.IDEA.POSTID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("idea_sort_new").on(JooqIdea.IDEA,
+                JooqIdea.IDEA.PROJECTID, JooqIdea.IDEA.CREATED, JooqIdea.IDEA.POSTID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("idea_sort_trending").on(JooqIdea.IDEA,
+                JooqIdea.IDEA.PROJECTID, JooqIdea.IDEA.TRENDSCORE, JooqIdea.IDEA.FUNDED, JooqIdea.IDEA.VOTEVALUE, JooqIdea.IDEA.EXPRESSIONSVALUE, JooqIdea.IDEA.POSTID));
         mysql.get().createTableIfNotExists(IDEA_TAGS_INDEX)
                 .column("projectId", SQLDataType.VARCHAR(ID_MAX_LENGTH).notNull())
                 .column("postId", SQLDataType.VARCHAR(ID_MAX_LENGTH).notNull())
@@ -352,71 +465,75 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
 
     @Extern
     public ListenableFuture<Void> createIndexElasticSearch(String projectId) {
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        elastic.get().indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
-                        "dynamic", "false",
-                        "properties", ImmutableMap.builder()
-                                .put("authorUserId", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("authorName", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("authorIsMod", ImmutableMap.of(
-                                        "type", "boolean"))
-                                .put("created", ImmutableMap.of(
-                                        "type", "date",
-                                        "format", "epoch_second"))
-                                .put("lastActivity", ImmutableMap.of(
-                                        "type", "date",
-                                        "format", "epoch_second"))
-                                .put("title", ImmutableMap.of(
-                                        "type", "text",
-                                        "index_prefixes", ImmutableMap.of()))
-                                .put("description", ImmutableMap.of(
-                                        "type", "text",
-                                        "index_prefixes", ImmutableMap.of()))
-                                .put("response", ImmutableMap.of(
-                                        "type", "text",
-                                        "index_prefixes", ImmutableMap.of()))
-                                .put("responseAuthorUserId", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("responseAuthorName", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("categoryId", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("statusId", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("tagIds", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("commentCount", ImmutableMap.of(
-                                        "type", "long"))
-                                .put("childCommentCount", ImmutableMap.of(
-                                        "type", "long"))
-                                .put("funded", ImmutableMap.of(
-                                        "type", "double"))
-                                .put("fundGoal", ImmutableMap.of(
-                                        "type", "double"))
-                                .put("fundersCount", ImmutableMap.of(
-                                        "type", "long"))
-                                .put("funderUserIds", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("voteValue", ImmutableMap.of(
-                                        "type", "long"))
-                                .put("votersCount", ImmutableMap.of(
-                                        "type", "long"))
-                                .put("expressionsValue", ImmutableMap.of(
-                                        "type", "double"))
-                                .put("expressions", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("trendScore", ImmutableMap.of(
-                                        "type", "double"))
-                                .put("mergedToPostId", ImmutableMap.of(
-                                        "type", "keyword"))
-                                .put("order", ImmutableMap.of(
-                                        "type", "double"))
-                                .build())), XContentType.JSON),
-                RequestOptions.DEFAULT,
-                ActionListeners.fromFuture(indexingFuture, elasticUtil::isIndexAlreadyExistsException));
-        return indexingFuture;
+        return elasticUtil.createIndexAsync(IDEA_INDEX, projectId,
+                projectStore.getElasticIndexLayoutForProject(projectId),
+                this::createIndexRequestElasticSearch);
+    }
+
+    private CreateIndexRequest createIndexRequestElasticSearch(String indexName) {
+        return new CreateIndexRequest(indexName).mapping(gson.toJson(ImmutableMap.of(
+                "dynamic", "false",
+                "properties", ImmutableMap.builder()
+                        .put("projectId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("authorUserId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("authorName", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("authorIsMod", ImmutableMap.of(
+                                "type", "boolean"))
+                        .put("created", ImmutableMap.of(
+                                "type", "date",
+                                "format", "epoch_second"))
+                        .put("lastActivity", ImmutableMap.of(
+                                "type", "date",
+                                "format", "epoch_second"))
+                        .put("title", ImmutableMap.of(
+                                "type", "text",
+                                "index_prefixes", ImmutableMap.of()))
+                        .put("description", ImmutableMap.of(
+                                "type", "text",
+                                "index_prefixes", ImmutableMap.of()))
+                        .put("response", ImmutableMap.of(
+                                "type", "text",
+                                "index_prefixes", ImmutableMap.of()))
+                        .put("responseAuthorUserId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("responseAuthorName", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("categoryId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("statusId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("tagIds", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("commentCount", ImmutableMap.of(
+                                "type", "long"))
+                        .put("childCommentCount", ImmutableMap.of(
+                                "type", "long"))
+                        .put("funded", ImmutableMap.of(
+                                "type", "double"))
+                        .put("fundGoal", ImmutableMap.of(
+                                "type", "double"))
+                        .put("fundersCount", ImmutableMap.of(
+                                "type", "long"))
+                        .put("funderUserIds", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("voteValue", ImmutableMap.of(
+                                "type", "long"))
+                        .put("votersCount", ImmutableMap.of(
+                                "type", "long"))
+                        .put("expressionsValue", ImmutableMap.of(
+                                "type", "double"))
+                        .put("expressions", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("trendScore", ImmutableMap.of(
+                                "type", "double"))
+                        .put("mergedToPostId", ImmutableMap.of(
+                                "type", "keyword"))
+                        .put("order", ImmutableMap.of(
+                                "type", "double"))
+                        .build())), XContentType.JSON);
     }
 
     @Extern
@@ -424,49 +541,23 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
         log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
                 projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
-        if (repopulateElasticSearch) {
-            boolean indexAlreadyExists = elastic.get().indices().exists(
-                    new GetIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
-                    RequestOptions.DEFAULT);
-            if (indexAlreadyExists && deleteExistingIndex) {
-                elastic.get().indices().delete(
-                        new DeleteIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
-                        RequestOptions.DEFAULT);
-            }
-            if (!indexAlreadyExists || deleteExistingIndex) {
-                createIndex(projectId).get();
-            }
-        }
-        if (repopulateMysql && deleteExistingIndex) {
-            mysql.get().deleteFrom(JooqIdea.IDEA)
-                    .where(JooqIdea.IDEA.PROJECTID.eq(projectId))
-                    .execute();
-        }
-
-        StreamSupport.stream(ideaByProjectIdSchema.index().query(new QuerySpec()
-                                .withHashKey(ideaByProjectIdSchema.partitionKey(Map.of(
-                                        "projectId", projectId)))
-                                .withRangeKeyCondition(new RangeKeyCondition(ideaByProjectIdSchema.rangeKeyName())
-                                        .beginsWith(ideaByProjectIdSchema.rangeValuePartial(Map.of()))))
-                        .pages()
-                        .spliterator(), false)
-                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                .map(ideaByProjectIdSchema::fromItem)
-                .filter(idea -> projectId.equals(idea.getProjectId()))
-                .forEach(idea -> {
-                    if (repopulateElasticSearch) {
-                        try {
-                            elastic.get().index(ideaToEsIndexRequest(idea, false), RequestOptions.DEFAULT);
-                        } catch (IOException ex) {
-                            if (LogUtil.rateLimitAllowLog("dynamoelsaticideastore-reindex-failure")) {
-                                log.warn("Failed to re-index idea {}", idea.getIdeaId(), ex);
-                            }
-                        }
-                    }
-                    if (repopulateMysql) {
-                        ideaToMysqlRecords(idea).fetchMany();
-                    }
-                });
+        reindexer.reindex(Reindexer.Job.<IdeaModel>builder()
+                        .indexType(IDEA_INDEX)
+                        .projectId(projectId)
+                        .elasticIndexLayout(projectStore.getElasticIndexLayoutForProject(projectId))
+                        .byProjectIdSchema(ideaByProjectIdSchema)
+                        .projectIdGetter(IdeaModel::getProjectId)
+                        .idGetter(IdeaModel::getIdeaId)
+                        .elasticCreateIndexRequest(this::createIndexRequestElasticSearch)
+                        .elasticIndexRequest(idea -> ideaToEsIndexRequest(idea, false))
+                        .mysqlQueries(this::ideaToMysqlRecords)
+                        .mysqlProjectIdField(JooqIdea.IDEA.PROJECTID)
+                        .mysqlIdField(JooqIdea.IDEA.POSTID)
+                        .build(),
+                deleteExistingIndex,
+                repopulateElasticSearch,
+                repopulateMysql);
+        invalidateSearchCacheAndBroadcast(projectId);
     }
 
     @Override
@@ -482,6 +573,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 .build();
 
         // No need to update bloom filter, it is assumed own ideas are always upvoted
+        userStore.updateUserActivity(idea.getProjectId(), idea.getAuthorUserId(), 0L, 1L, 0L);
 
         ListenableFuture<Void> indexingFuture = this.createIdea(ideaUpvoted);
 
@@ -498,10 +590,12 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         } catch (ConditionalCheckFailedException ex) {
             throw new ApiException(Response.Status.CONFLICT, "Similar title already exists, please choose another.", ex);
         }
+        cacheIdeaAndBroadcast(idea);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         indexIdea(indexingFuture, idea);
 
+        invalidateSearchCache(idea.getProjectId(), indexingFuture);
         return indexingFuture;
     }
 
@@ -552,6 +646,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         IndexRequest req = new IndexRequest(elasticUtil.getIndexName(IDEA_INDEX, idea.getProjectId()))
                 .id(idea.getIdeaId())
                 .source(gson.toJson(ImmutableMap.builder()
+                        .put("projectId", idea.getProjectId())
                         .put("authorUserId", idea.getAuthorUserId())
                         .put("authorName", orNull(idea.getAuthorName()))
                         .put("authorIsMod", orNull(idea.getAuthorIsMod()))
@@ -597,16 +692,16 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     .withItemsToPut(ideasBatch.stream()
                             .map(ideaSchema::toItem)
                             .collect(ImmutableList.toImmutableList()))));
+            ideasBatch.forEach(this::cacheIdeaAndBroadcast);
 
             SettableFuture<Void> indexingFuture = SettableFuture.create();
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
-                elastic.get().bulkAsync(new BulkRequest()
+                elasticUtil.bulkAsync(projectId, new BulkRequest()
                                 .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
                                 .add(ideasBatch.stream()
                                         .map(idea -> ideaToEsIndexRequest(idea, false))
                                         .collect(ImmutableList.toImmutableList())),
-                        RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                                 : ActionListeners.logFailure());
             }
@@ -623,17 +718,47 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
             indexingFutures.add(indexingFuture);
         });
-        return Futures.allAsList(indexingFutures);
+        ListenableFuture<List<Void>> indexingFuture = Futures.allAsList(indexingFutures);
+        invalidateSearchCache(projectId, indexingFuture);
+        return indexingFuture;
+    }
+
+    @Override
+    public ListenableFuture<Optional<IdeaModel>> getIdeaAsync(String projectId, String ideaId) {
+        if (config.enableIdeaCacheRead()) {
+            IdeaModel ideaCached = ideaCache.getIfPresent(new IdeaCacheKey(projectId, ideaId));
+            if (ideaCached != null) {
+                return Futures.immediateFuture(Optional.of(ideaCached));
+            }
+        }
+        return dynamoAsyncExecutor.submit(() -> getIdea(projectId, ideaId));
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<String, IdeaModel>> getIdeasAsync(String projectId, ImmutableCollection<String> ideaIds) {
+        if (ideaIds.isEmpty()) {
+            return Futures.immediateFuture(ImmutableMap.of());
+        }
+        return dynamoAsyncExecutor.submit(() -> getIdeas(projectId, ideaIds));
     }
 
     @Extern
     @Override
     public Optional<IdeaModel> getIdea(String projectId, String ideaId) {
+        IdeaCacheKey ideaCacheKey = new IdeaCacheKey(projectId, ideaId);
+        if (config.enableIdeaCacheRead()) {
+            IdeaModel ideaCached = ideaCache.getIfPresent(ideaCacheKey);
+            if (ideaCached != null) {
+                return Optional.of(ideaCached);
+            }
+        }
+        long generation = ideaCacheGenerations.get(getIdeaCacheGenerationStripe(ideaCacheKey));
         return Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId))))))
-                .map(this::upgradeExpressionsProperty);
+                .map(this::upgradeExpressionsProperty)
+                .map(idea -> cacheIdeaIfUnchanged(idea, generation));
     }
 
     @Override
@@ -641,17 +766,32 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         if (ideaIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(ideaIds.stream()
-                        .distinct()
-                        .map(ideaId -> ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .toArray(PrimaryKey[]::new))))
-                .map(ideaSchema::fromItem)
-                .map(this::upgradeExpressionsProperty)
-                .collect(ImmutableMap.toImmutableMap(
-                        IdeaModel::getIdeaId,
-                        i -> i));
+        Map<String, IdeaModel> ideas = Maps.newHashMapWithExpectedSize(ideaIds.size());
+        if (config.enableIdeaCacheRead()) {
+            ideaIds.forEach(ideaId -> {
+                IdeaModel ideaCached = ideaCache.getIfPresent(new IdeaCacheKey(projectId, ideaId));
+                if (ideaCached != null) {
+                    ideas.put(ideaId, ideaCached);
+                }
+            });
+        }
+        Map<String, Long> generationByIdeaId = Maps.newHashMap();
+        PrimaryKey[] primaryKeysToFetch = ideaIds.stream()
+                .distinct()
+                .filter(ideaId -> !ideas.containsKey(ideaId))
+                .peek(ideaId -> generationByIdeaId.put(ideaId, ideaCacheGenerations.get(getIdeaCacheGenerationStripe(new IdeaCacheKey(projectId, ideaId)))))
+                .map(ideaId -> ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .toArray(PrimaryKey[]::new);
+        if (primaryKeysToFetch.length > 0) {
+            singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(primaryKeysToFetch)))
+                    .map(ideaSchema::fromItem)
+                    .map(this::upgradeExpressionsProperty)
+                    .map(idea -> cacheIdeaIfUnchanged(idea, generationByIdeaId.get(idea.getIdeaId())))
+                    .forEach(idea -> ideas.put(idea.getIdeaId(), idea));
+        }
+        return ImmutableMap.copyOf(ideas);
     }
 
     @Override
@@ -670,10 +810,9 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         if (searchEngine.isWriteElastic()) {
             ImmutableMap.Builder<Object, Object> updates = ImmutableMap.builder();
             updates.put("mergedToPostId", orNull(connectResponse.getIdea().getMergedToPostId()));
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
+            elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
                             .doc(gson.toJson(updates.build()), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, connectResponse.getIdea()))
                             : ActionListeners.onFailureRetry(() -> indexIdea(connectResponse.getIdea())));
         }
@@ -690,6 +829,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        invalidateSearchCache(projectId, indexingFuture);
         return new MergeResponse(connectResponse.idea, connectResponse.parentIdea, indexingFuture);
     }
 
@@ -902,6 +1042,10 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        // Invalidate upfront in case only one of the two updates below succeeds
+        invalidateIdeaCache(projectId, ideaId);
+        invalidateIdeaCache(projectId, parentIdeaId);
+
         Expression ideaExpression = ideaExpressionBuilder.build();
         log.trace("connect ideaExpression {}", ideaExpression);
         idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
@@ -926,6 +1070,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withValueMap(parentIdeaExpression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
+        cacheIdeaAndBroadcast(parentIdea);
 
         return new ConnectResponse(idea, parentIdea);
     }
@@ -1015,6 +1161,10 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         Condition conditions;
         Condition conditionsRange;
         ImmutableList<Join> joins;
+        /**
+         * Present when matching text, higher is more relevant
+         */
+        Optional<Field<Double>> relevanceOpt;
     }
 
     private SearchIdeasConditions searchIdeasCondition(
@@ -1024,6 +1174,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         List<Condition> conditions = Lists.newArrayList();
         List<Condition> conditionsRange = Lists.newArrayList();
         List<Join> joins = Lists.newArrayList();
+        List<Field<Double>> relevances = Lists.newArrayList();
 
 
         if (ideaSearchAdmin.getFundedByMeAndActive() == Boolean.TRUE) {
@@ -1048,20 +1199,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     .limit(1)
                     .fetch(JooqIdea.IDEA.TITLE);
             if (!similarToIdeaTitleList.isEmpty()) {
-                conditions.add(mysqlUtil.similarToCondition(
-                        similarToIdeaTitleList.get(0),
-                        JooqIdea.IDEA.TITLE,
-                        JooqIdea.IDEA.DESCRIPTION));
+                addTextCondition(similarToIdeaTitleList.get(0), conditions, relevances);
             }
             // Don't select self
             conditions.add(JooqIdea.IDEA.POSTID.ne(ideaSearchAdmin.getSimilarToIdeaId()));
         }
 
         if (!Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
-            conditions.add(mysqlUtil.similarToCondition(
-                    ideaSearchAdmin.getSearchText(),
-                    JooqIdea.IDEA.TITLE,
-                    JooqIdea.IDEA.DESCRIPTION));
+            addTextCondition(ideaSearchAdmin.getSearchText(), conditions, relevances);
         }
 
         if (ideaSearchAdmin.getFilterCategoryIds() != null && !ideaSearchAdmin.getFilterCategoryIds().isEmpty()) {
@@ -1113,7 +1258,23 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         return new SearchIdeasConditions(
                 mysqlUtil.and(conditions),
                 mysqlUtil.and(conditionsRange),
-                ImmutableList.copyOf(joins));
+                ImmutableList.copyOf(joins),
+                relevances.stream().reduce(Field::plus));
+    }
+
+    private void addTextCondition(String text, List<Condition> conditions, List<Field<Double>> relevances) {
+        if (!config.enableMysqlFullText()) {
+            conditions.add(mysqlUtil.similarToCondition(
+                    text,
+                    JooqIdea.IDEA.TITLE,
+                    JooqIdea.IDEA.DESCRIPTION));
+            return;
+        }
+        mysqlUtil.fullText(text, JooqIdea.IDEA.TITLE, JooqIdea.IDEA.DESCRIPTION)
+                .ifPresent(fullText -> {
+                    conditions.add(fullText.getCondition());
+                    relevances.add(fullText.getRelevance());
+                });
     }
 
     private QueryBuilder searchIdeasQuery(
@@ -1210,6 +1371,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     @Value
     static class IdeaSearchKey {
         String projectId;
+        long generation;
         IdeaSearchAdmin ideaSearchAdmin;
         Optional<String> cursorOpt;
     }
@@ -1233,7 +1395,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 && cursorOpt.isEmpty()
                 && ideaSearchAdmin.getFundedByMeAndActive() != Boolean.TRUE
                 && ideaSearchAdmin.getSearchText() == null;
-        IdeaSearchKey key = new IdeaSearchKey(projectId, ideaSearchAdmin, cursorOpt);
+        IdeaSearchKey key = new IdeaSearchKey(projectId, getSearchCacheGeneration(projectId), ideaSearchAdmin, cursorOpt);
         if (useCache) {
             SearchResponse cachedResponse = ideaSearchCache.getIfPresent(key);
             if (cachedResponse != null) {
@@ -1306,7 +1468,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             } else {
                 searchResponse = new SearchResponse(
                         Arrays.stream(hits)
-                                .map(SearchHit::getId)
+                                .map(hit -> elasticUtil.getIdFromDocId(projectId, hit.getId()))
                                 .collect(ImmutableList.toImmutableList()),
                         searchResponseWithCursor.getCursorOpt(),
                         searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().value,
@@ -1314,6 +1476,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         } else {
             SearchIdeasConditions searchConditions = searchIdeasCondition(projectId, ideaSearchAdmin, requestorUserIdOpt);
+            Optional<Field<Double>> relevanceOpt = searchConditions.getRelevanceOpt()
+                    .map(relevance -> relevance.as("relevance"));
 
             final ImmutableList<SortField<?>> sortFields;
             if (ideaSearchAdmin.getSortBy() != null
@@ -1339,25 +1503,33 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         throw new ApiException(Response.Status.BAD_REQUEST,
                                 "Sorting by '" + ideaSearchAdmin.getSortBy() + "' not supported");
                 }
+            } else if (relevanceOpt.isPresent()) {
+                sortFields = ImmutableList.of(relevanceOpt.get().sort(DESC));
             } else if (Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
                 sortFields = ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
             } else {
                 sortFields = ImmutableList.of();
             }
 
-            List<String> postIds = mysql.get().selectDistinct(JooqIdea.IDEA.POSTID)
+            Keyset keyset = mysqlUtil.keyset(configSearch, cursorOpt, limitOpt, sortFields, JooqIdea.IDEA.POSTID);
+            // MySQL only orders a DISTINCT select by expressions in its select list
+            List<Field<?>> selectFields = Lists.newArrayList(keyset.getFields());
+            relevanceOpt.ifPresent(selectFields::add);
+            Result<Record> result = mysql.get().selectDistinct(selectFields)
                     .from(mysqlUtil.join(JooqIdea.IDEA, searchConditions.getJoins()))
                     .where(mysqlUtil.and(
                             searchConditions.getConditions(),
-                            searchConditions.getConditionsRange()))
-                    .orderBy(sortFields)
-                    .offset(mysqlUtil.offset(cursorOpt))
-                    .limit(mysqlUtil.pageSizeMax(configSearch, Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue)))
-                    .fetch(JooqIdea.IDEA.POSTID);
+                            searchConditions.getConditionsRange(),
+                            keyset.getSeekCondition()))
+                    .orderBy(keyset.getSortFields())
+                    .offset(keyset.getOffset())
+                    .limit(keyset.getLimit())
+                    .fetch();
+            List<String> postIds = result.getValues(JooqIdea.IDEA.POSTID);
 
             searchResponse = new SearchResponse(
                     ImmutableList.copyOf(postIds),
-                    mysqlUtil.nextCursor(configSearch, cursorOpt, limitOpt, postIds.size()),
+                    mysqlUtil.nextCursor(keyset, result),
                     postIds.size(),
                     true);
         }
@@ -1616,15 +1788,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem());
+        IdeaModel idea = cacheIdeaAndBroadcast(ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem()));
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         if (searchEngine.isWriteElastic()) {
             if (indexUpdatesElastic.size() > 0) {
-                elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+                elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                                 .doc(gson.toJson(indexUpdatesElastic), XContentType.JSON)
                                 .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                        RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                                 : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
             } else if (searchEngine.isReadElastic()) {
@@ -1657,6 +1828,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        invalidateSearchCache(projectId, indexingFuture);
         return new IdeaAndIndexingFuture(idea, indexingFuture);
     }
 
@@ -1698,65 +1870,25 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withValueMap(valMap)
                         .withUpdateExpression(updateExpression))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userVoteUpdateBloom(projectId, userId, ideaId);
         }
+        long supportedIdeasCountDiff = (vote == VoteValue.Upvote ? 1L : 0L) - (votePrev == VoteValue.Upvote ? 1L : 0L);
+        userStore.updateUserActivity(projectId, userId, 0L, supportedIdeasCountDiff, 0L);
 
-        boolean updateTrend = false;
-        Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
-        Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
+        IndexUpdateCoalescer.Update.UpdateBuilder indexUpdate = IndexUpdateCoalescer.Update.builder();
         if (voteDiff != 0) {
-            updateTrend = true;
-            indexUpdatesElastic.put("voteValue", orNull(idea.getVoteValue()));
-            indexUpdatesMysql.put(JooqIdea.IDEA.VOTEVALUE, idea.getVoteValue());
-            indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                    idea.getTrendScore(),
-                    EXP_DECAY_PERIOD_MILLIS,
-                    System.currentTimeMillis()));
+            indexUpdate.trendScoreAddend(expDecayScoreWeek.addend(System.currentTimeMillis()))
+                    .elasticField("voteValue", orNull(idea.getVoteValue()))
+                    .mysqlField(JooqIdea.IDEA.VOTEVALUE, idea.getVoteValue());
         }
         if (votersCountDiff != 0) {
-            indexUpdatesElastic.put("votersCount", orNull(idea.getVotersCount()));
-            indexUpdatesMysql.put(JooqIdea.IDEA.VOTERSCOUNT, idea.getVotersCount());
-        }
-
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
-        if (searchEngine.isWriteElastic()) {
-            if (!indexUpdatesElastic.isEmpty() || updateTrend) {
-                UpdateRequest updateRequest = new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
-                if (updateTrend) {
-                    updateRequest.script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                            "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                            "timeInMillis", System.currentTimeMillis(),
-                            "extraUpdates", indexUpdatesElastic)));
-                } else {
-                    updateRequest.doc(gson.toJson(indexUpdatesElastic), XContentType.JSON);
-                }
-                elastic.get().updateAsync(updateRequest.setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                        RequestOptions.DEFAULT,
-                        searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
-                                : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
-            } else if (searchEngine.isReadElastic()) {
-                indexingFuture.set(null);
-            }
-        }
-        if (searchEngine.isWriteMysql()) {
-            if (!indexUpdatesMysql.isEmpty()) {
-                CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
-                        .set(indexUpdatesMysql)
-                        .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                                .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                        .executeAsync();
-                if (searchEngine.isReadMysql()) {
-                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
-                } else {
-                    CompletionStageUtil.logFailure(completionStage);
-                }
-            } else if (searchEngine.isReadMysql()) {
-                indexingFuture.set(null);
-            }
+            indexUpdate.elasticField("votersCount", orNull(idea.getVotersCount()))
+                    .mysqlField(JooqIdea.IDEA.VOTERSCOUNT, idea.getVotersCount());
         }
+        ListenableFuture<Void> indexingFuture = indexIdeaCoalesced(projectId, ideaId, indexUpdate);
 
         return new IdeaAndIndexingFuture(idea, indexingFuture);
     }
@@ -1815,52 +1947,21 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withValueMap(valMap)
                         .withUpdateExpression(updateExpression))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
+        userStore.updateUserActivity(projectId, userId, 0L, 0L, 0L);
 
-        Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
-        Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
-        indexUpdatesElastic.put("expressions", idea.getExpressions().keySet());
+        IndexUpdateCoalescer.Update.UpdateBuilder indexUpdate = IndexUpdateCoalescer.Update.builder()
+                .trendScoreAddend(expDecayScoreWeek.addend(System.currentTimeMillis()))
+                .elasticField("expressions", idea.getExpressions().keySet());
         if (expressionsValueDiff != 0d) {
-            indexUpdatesElastic.put("expressionsValue", idea.getExpressionsValue());
-            indexUpdatesMysql.put(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue());
-            indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                    idea.getTrendScore(),
-                    EXP_DECAY_PERIOD_MILLIS,
-                    System.currentTimeMillis()));
-        }
-
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
-        if (searchEngine.isWriteElastic()) {
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                                    "timeInMillis", System.currentTimeMillis(),
-                                    "extraUpdates", indexUpdatesElastic)))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
-                    searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
-                            : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
-        }
-        if (searchEngine.isWriteMysql()) {
-            if (!indexUpdatesMysql.isEmpty()) {
-                CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
-                        .set(indexUpdatesMysql)
-                        .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                                .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                        .executeAsync();
-                if (searchEngine.isReadMysql()) {
-                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
-                } else {
-                    CompletionStageUtil.logFailure(completionStage);
-                }
-            } else if (searchEngine.isReadMysql()) {
-                indexingFuture.set(null);
-            }
+            indexUpdate.elasticField("expressionsValue", idea.getExpressionsValue())
+                    .mysqlField(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue());
         }
+        ListenableFuture<Void> indexingFuture = indexIdeaCoalesced(projectId, ideaId, indexUpdate);
 
         return new IdeaAndExpressionsAndIndexingFuture(expressions, idea, indexingFuture);
     }
@@ -1883,43 +1984,18 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
                         .withUpdateExpression("SET expressions.#exprAdd = if_not_exists(expressions.#exprAdd, :zero) + :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
+        userStore.updateUserActivity(projectId, userId, 0L, 0L, 0L);
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
-        if (searchEngine.isWriteElastic()) {
-            Map<String, Object> indexUpdates = Maps.newHashMap();
-            indexUpdates.put("expressions", idea.getExpressions().keySet());
-            indexUpdates.put("expressionsValue", idea.getExpressionsValue());
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                                    "timeInMillis", System.currentTimeMillis(),
-                                    "extraUpdates", indexUpdates)))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
-                    searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
-                            : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
-        }
-        if (searchEngine.isWriteMysql()) {
-            CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
-                    .set(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue())
-                    .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                            idea.getTrendScore(),
-                            EXP_DECAY_PERIOD_MILLIS,
-                            System.currentTimeMillis()))
-                    .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                            .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                    .executeAsync();
-            if (searchEngine.isReadMysql()) {
-                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
-            } else {
-                CompletionStageUtil.logFailure(completionStage);
-            }
-        }
+        ListenableFuture<Void> indexingFuture = indexIdeaCoalesced(projectId, ideaId, IndexUpdateCoalescer.Update.builder()
+                .trendScoreAddend(expDecayScoreWeek.addend(System.currentTimeMillis()))
+                .elasticField("expressions", idea.getExpressions().keySet())
+                .elasticField("expressionsValue", idea.getExpressionsValue())
+                .mysqlField(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue()));
 
         return new IdeaAndExpressionsAndIndexingFuture(
                 ImmutableSet.<String>builder()
@@ -1947,43 +2023,18 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
                         .withUpdateExpression("SET expressions.#exprRem = if_not_exists(expressions.#exprRem, :zero) - :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
+        userStore.updateUserActivity(projectId, userId, 0L, 0L, 0L);
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
-        if (searchEngine.isWriteElastic()) {
-            Map<String, Object> indexUpdates = Maps.newHashMap();
-            indexUpdates.put("expressions", idea.getExpressions().keySet());
-            indexUpdates.put("expressionsValue", idea.getExpressionsValue());
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                                    "timeInMillis", System.currentTimeMillis(),
-                                    "extraUpdates", indexUpdates)))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
-                    searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
-                            : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
-        }
-        if (searchEngine.isWriteMysql()) {
-            CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
-                    .set(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue())
-                    .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                            idea.getTrendScore(),
-                            EXP_DECAY_PERIOD_MILLIS,
-                            System.currentTimeMillis()))
-                    .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                            .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                    .executeAsync();
-            if (searchEngine.isReadMysql()) {
-                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
-            } else {
-                CompletionStageUtil.logFailure(completionStage);
-            }
-        }
+        ListenableFuture<Void> indexingFuture = indexIdeaCoalesced(projectId, ideaId, IndexUpdateCoalescer.Update.builder()
+                .trendScoreAddend(expDecayScoreWeek.addend(System.currentTimeMillis()))
+                .elasticField("expressions", idea.getExpressions().keySet())
+                .elasticField("expressionsValue", idea.getExpressionsValue())
+                .mysqlField(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue()));
 
         return new IdeaAndExpressionsAndIndexingFuture(
                 ImmutableSet.copyOf(Sets.difference(expressionsPrev, ImmutableSet.of(expression))),
@@ -2031,80 +2082,38 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withValueMap(valMap)
                         .withUpdateExpression(updateExpression))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
+
+        long fundedIdeasCountDiff = (!hasFundedBefore && resultingFundAmount != 0L) ? 1L
+                : (hasFundedBefore && resultingFundAmount == 0L) ? -1L : 0L;
+        userStore.updateUserActivity(projectId, userId, fundedIdeasCountDiff, 0L, fundDiff);
 
-        Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
-        JooqIdeaRecord indexUpdatesMysql = JooqIdea.IDEA.newRecord();
-        List<Query> indexQueriesMysql = Lists.newArrayList();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
-        ImmutableMap.Builder<String, Object> scriptParamsBuilder = ImmutableMap.builder();
-        if (searchEngine.isWriteElastic()) {
-            scriptParamsBuilder.put("extraUpdates", indexUpdatesElastic);
-            scriptParamsBuilder.put("decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS);
-            scriptParamsBuilder.put("timeInMillis", System.currentTimeMillis());
-            indexUpdatesElastic.put("funded", orNull(idea.getFunded()));
-        }
-        if (searchEngine.isWriteMysql()) {
-            indexUpdatesMysql.setFunded(idea.getFunded());
-        }
+        IndexUpdateCoalescer.Update.UpdateBuilder indexUpdate = IndexUpdateCoalescer.Update.builder()
+                .trendScoreAddend(expDecayScoreWeek.addend(System.currentTimeMillis()))
+                .elasticField("funded", orNull(idea.getFunded()))
+                .mysqlField(JooqIdea.IDEA.FUNDED, idea.getFunded());
         if (!hasFundedBefore && resultingFundAmount != 0L) {
-            if (searchEngine.isWriteElastic()) {
-                indexUpdatesElastic.put("fundersCount", idea.getFundersCount());
-                scriptParamsBuilder.put("extraArrayAdditions",
-                        ImmutableMap.of("funderUserIds", userId));
-            }
+            indexUpdate.elasticField("fundersCount", idea.getFundersCount())
+                    .elasticArrayAddition("funderUserIds", userId)
+                    .mysqlField(JooqIdea.IDEA.FUNDERSCOUNT, idea.getFundersCount());
             if (searchEngine.isWriteMysql()) {
-                indexUpdatesMysql.setFunderscount(idea.getFundersCount());
-                indexQueriesMysql.add(mysql.get().insertInto(JooqIdeaFunders.IDEA_FUNDERS, JooqIdeaFunders.IDEA_FUNDERS.fields())
+                indexUpdate.mysqlQuery(mysql.get().insertInto(JooqIdeaFunders.IDEA_FUNDERS, JooqIdeaFunders.IDEA_FUNDERS.fields())
                         .values(projectId, ideaId, userId)
                         .onDuplicateKeyIgnore());
             }
         } else if (hasFundedBefore && resultingFundAmount == 0L) {
-
-            if (searchEngine.isWriteElastic()) {
-                indexUpdatesElastic.put("fundersCount", idea.getFundersCount());
-                scriptParamsBuilder.put("extraArrayDeletions",
-                        ImmutableMap.of("funderUserIds", userId));
-            }
+            indexUpdate.elasticField("fundersCount", idea.getFundersCount())
+                    .elasticArrayDeletion("funderUserIds", userId)
+                    .mysqlField(JooqIdea.IDEA.FUNDERSCOUNT, idea.getFundersCount());
             if (searchEngine.isWriteMysql()) {
-                indexUpdatesMysql.setFunderscount(idea.getFundersCount());
-                indexQueriesMysql.add(mysql.get().deleteFrom(JooqIdeaFunders.IDEA_FUNDERS)
+                indexUpdate.mysqlQuery(mysql.get().deleteFrom(JooqIdeaFunders.IDEA_FUNDERS)
                         .where(JooqIdeaFunders.IDEA_FUNDERS.PROJECTID.eq(projectId)
                                 .and(JooqIdeaFunders.IDEA_FUNDERS.POSTID.eq(ideaId))
                                 .and(JooqIdeaFunders.IDEA_FUNDERS.FUNDERUSERID.eq(userId))));
             }
         }
-
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        if (searchEngine.isWriteElastic()) {
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(scriptParamsBuilder.build()))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
-                    searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
-                            : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
-        }
-        if (searchEngine.isWriteMysql()) {
-            List<CompletionStage<?>> completionStages = Lists.newArrayList();
-            completionStages.add(mysql.get().update(JooqIdea.IDEA)
-                    .set(indexUpdatesMysql)
-                    .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                            idea.getTrendScore(),
-                            EXP_DECAY_PERIOD_MILLIS,
-                            System.currentTimeMillis()))
-                    .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                            .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                    .executeAsync());
-            if (!indexQueriesMysql.isEmpty()) {
-                indexQueriesMysql.stream()
-                        .map(Query::executeAsync)
-                        .forEach(completionStages::add);
-            }
-            if (searchEngine.isReadMysql()) {
-                CompletionStageUtil.toSettableFuture(indexingFuture, completionStages);
-            } else {
-                CompletionStageUtil.logFailure(completionStages);
-            }
-        }
+        ListenableFuture<Void> indexingFuture = indexIdeaCoalesced(projectId, ideaId, indexUpdate);
 
         return new IdeaTransactionAndIndexingFuture(
                 resultingFundAmount,
@@ -2128,6 +2137,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withReturnValues(ReturnValue.ALL_NEW)
                         .withAttributeUpdate(attrUpdates.build()))
                 .getItem());
+        cacheIdeaAndBroadcast(idea);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -2137,10 +2147,9 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             if (incrementChildCount) {
                 updates.put("childCommentCount", idea.getChildCommentCount());
             }
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+            elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                             .doc(gson.toJson(updates.build()), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
         }
@@ -2161,6 +2170,53 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         return new IdeaAndIndexingFuture(idea, indexingFuture);
     }
 
+    @Override
+    public TransactWriteItem incrementIdeaCommentCountTransactWriteItem(String projectId, String ideaId, boolean incrementChildCount) {
+        return new TransactWriteItem().withUpdate(new Update()
+                .withTableName(ideaSchema.tableName())
+                .withKey(ItemUtils.toAttributeValueMap(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId))))
+                .withConditionExpression("attribute_exists(#partitionKey)")
+                .withUpdateExpression(incrementChildCount
+                        ? "ADD #commentCount :one, #childCommentCount :one"
+                        : "ADD #commentCount :one")
+                .withExpressionAttributeNames(incrementChildCount
+                        ? Map.of(
+                        "#partitionKey", ideaSchema.partitionKeyName(),
+                        "#commentCount", "commentCount",
+                        "#childCommentCount", "childCommentCount")
+                        : Map.of(
+                        "#partitionKey", ideaSchema.partitionKeyName(),
+                        "#commentCount", "commentCount"))
+                .withExpressionAttributeValues(Map.of(
+                        ":one", ideaSchema.toAttrValue("commentCount", 1L))));
+    }
+
+    @Override
+    public IdeaAndIndexingFuture ideaCommentCountIncremented(String projectId, String ideaId, boolean incrementChildCount) {
+        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withConsistentRead(true)));
+        if (idea == null) {
+            throw new ApiException(Response.Status.NOT_FOUND, "Idea not found");
+        }
+        cacheIdeaAndBroadcast(idea);
+
+        IndexUpdateCoalescer.Update.UpdateBuilder indexUpdate = IndexUpdateCoalescer.Update.builder()
+                .elasticField("commentCount", idea.getCommentCount())
+                .mysqlField(JooqIdea.IDEA.COMMENTCOUNT, idea.getCommentCount());
+        if (incrementChildCount) {
+            indexUpdate.elasticField("childCommentCount", idea.getChildCommentCount())
+                    .mysqlField(JooqIdea.IDEA.CHILDCOMMENTCOUNT, idea.getChildCommentCount());
+        }
+        ListenableFuture<Void> indexingFuture = indexIdeaCoalesced(projectId, ideaId, indexUpdate);
+
+        return new IdeaAndIndexingFuture(idea, indexingFuture);
+    }
+
     @Extern
     @Override
     public ListenableFuture<Void> deleteIdea(String projectId, String ideaId, boolean deleteMerged) {
@@ -2178,13 +2234,13 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         "ideaId", ideaId)))
                 .withConditionExpression(expression.conditionExpression().orElse(null))
                 .withNameMap(expression.nameMap().orElse(null)));
+        invalidateIdeaCacheDeleted(projectId, ideaId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
+            elasticUtil.deleteAsync(projectId, new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
         }
@@ -2200,6 +2256,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        invalidateSearchCache(projectId, indexingFuture);
         return indexingFuture;
     }
 
@@ -2211,16 +2268,16 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
                         .toArray(PrimaryKey[]::new))));
+        ideaIds.forEach(ideaId -> invalidateIdeaCacheDeleted(projectId, ideaId));
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().bulkAsync(new BulkRequest()
+            elasticUtil.bulkAsync(projectId, new BulkRequest()
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
                             .add(ideaIds.stream()
                                     .map(ideaId -> new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId))
                                     .collect(ImmutableList.toImmutableList())),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
         }
@@ -2236,6 +2293,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        invalidateSearchCache(projectId, indexingFuture);
         return indexingFuture;
     }
 
@@ -2264,12 +2322,13 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
                 });
+        invalidateIdeaCacheForProject(projectId);
+        cacheInvalidationBus.broadcast(CacheType.IDEA, projectId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
-                    RequestOptions.DEFAULT,
+            elasticUtil.deleteProjectIndexAsync(IDEA_INDEX, projectId,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
         }
@@ -2284,6 +2343,34 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        invalidateSearchCache(projectId, indexingFuture);
+        return indexingFuture;
+    }
+
+    /**
+     * Frequent counter updates are merged with other updates to the same idea before being written.
+     */
+    private ListenableFuture<Void> indexIdeaCoalesced(String projectId, String ideaId, IndexUpdateCoalescer.Update.UpdateBuilder indexUpdate) {
+        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        indexUpdate.projectId(projectId)
+                .id(ideaId);
+        if (searchEngine.isWriteElastic()) {
+            indexUpdate.elasticIndexName(elasticUtil.getIndexName(IDEA_INDEX, projectId))
+                    .elasticRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                    .elasticOnFailure(f -> indexIdea(f, projectId, ideaId));
+        }
+        if (searchEngine.isWriteMysql()) {
+            indexUpdate.mysqlTable(JooqIdea.IDEA)
+                    .mysqlCondition(JooqIdea.IDEA.PROJECTID.eq(projectId)
+                            .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
+                    .mysqlTrendScoreField(JooqIdea.IDEA.TRENDSCORE);
+        }
+        IndexUpdateCoalescer.IndexingFutures indexingFutures = indexUpdateCoalescer.submit(indexUpdate.build());
+        ListenableFuture<Void> indexingFuture = searchEngine.isReadElastic()
+                ? indexingFutures.getElastic()
+                : indexingFutures.getMysql();
+
+        invalidateSearchCache(projectId, indexingFuture);
         return indexingFuture;
     }
 
@@ -2296,8 +2383,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         if (!ideaOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
-                elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId),
-                        RequestOptions.DEFAULT,
+                elasticUtil.deleteAsync(projectId, new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId),
                         searchEngine.isReadElastic()
                                 ? ActionListeners.fromFuture(indexingFuture)
                                 : ActionListeners.logFailure());
@@ -2325,8 +2411,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     private void indexIdea(SettableFuture<Void> indexingFuture, IdeaModel idea) {
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(idea.getProjectId());
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indexAsync(ideaToEsIndexRequest(idea, true),
-                    RequestOptions.DEFAULT,
+            elasticUtil.indexAsync(idea.getProjectId(), ideaToEsIndexRequest(idea, true),
                     searchEngine.isReadElastic()
                             ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
@@ -2341,6 +2426,112 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
     }
 
+    /**
+     * Bumps the search generation immediately and once more after indexing completes,
+     * since a search in between may cache results from the index prior to this write.
+     */
+    private void invalidateSearchCache(String projectId, ListenableFuture<?> indexingFuture) {
+        invalidateSearchCacheAndBroadcast(projectId);
+        indexingFuture.addListener(() -> invalidateSearchCacheAndBroadcast(projectId),
+                MoreExecutors.directExecutor());
+    }
+
+    private void invalidateSearchCacheAndBroadcast(String projectId) {
+        bumpSearchCacheGeneration(projectId);
+        cacheInvalidationBus.broadcast(CacheType.IDEA_SEARCH, projectId);
+    }
+
+    private long getSearchCacheGeneration(String projectId) {
+        return searchCacheGenerationByProjectId.asMap().computeIfAbsent(projectId, p -> System.nanoTime());
+    }
+
+    private void bumpSearchCacheGeneration(String projectId) {
+        searchCacheGenerationByProjectId.asMap().compute(projectId, (p, generation) -> generation == null
+                ? System.nanoTime()
+                : generation + 1);
+    }
+
+    @Extern
+    private CacheStats ideaSearchCacheStats() {
+        return ideaSearchCache.stats();
+    }
+
+    @Extern
+    private CacheStats ideaCacheStats() {
+        return ideaCache.stats();
+    }
+
+    @Extern
+    private void ideaCacheInvalidateAll() {
+        ideaCache.invalidateAll();
+    }
+
+    /**
+     * Write-through of an idea as written, replaces any cached copy.
+     */
+    private IdeaModel cacheIdea(IdeaModel idea) {
+        IdeaCacheKey ideaCacheKey = new IdeaCacheKey(idea.getProjectId(), idea.getIdeaId());
+        ideaCacheGenerations.incrementAndGet(getIdeaCacheGenerationStripe(ideaCacheKey));
+        ideaCache.put(ideaCacheKey, idea);
+        return idea;
+    }
+
+    /**
+     * Read-through of an idea, never replaces a cached copy and is discarded if the idea was written,
+     * invalidated or deleted since the generation was taken before the read.
+     */
+    private IdeaModel cacheIdeaIfUnchanged(IdeaModel idea, long generation) {
+        IdeaCacheKey ideaCacheKey = new IdeaCacheKey(idea.getProjectId(), idea.getIdeaId());
+        int stripe = getIdeaCacheGenerationStripe(ideaCacheKey);
+        if (ideaCacheGenerations.get(stripe) != generation
+                || ideaCacheTombstones.getIfPresent(ideaCacheKey) != null) {
+            return idea;
+        }
+        if (ideaCache.asMap().putIfAbsent(ideaCacheKey, idea) == null
+                && ideaCacheGenerations.get(stripe) != generation) {
+            // Raced with an invalidation
+            ideaCache.asMap().remove(ideaCacheKey, idea);
+        }
+        return idea;
+    }
+
+    private IdeaModel cacheIdeaAndBroadcast(IdeaModel idea) {
+        cacheIdea(idea);
+        cacheInvalidationBus.broadcast(CacheType.IDEA, idea.getProjectId(), idea.getIdeaId());
+        return idea;
+    }
+
+    private void invalidateIdeaCache(String projectId, String ideaId) {
+        IdeaCacheKey ideaCacheKey = new IdeaCacheKey(projectId, ideaId);
+        ideaCacheGenerations.incrementAndGet(getIdeaCacheGenerationStripe(ideaCacheKey));
+        ideaCache.invalidate(ideaCacheKey);
+        cacheInvalidationBus.broadcast(CacheType.IDEA, projectId, ideaId);
+    }
+
+    private void invalidateIdeaCacheDeleted(String projectId, String ideaId) {
+        ideaCacheTombstones.put(new IdeaCacheKey(projectId, ideaId), Boolean.TRUE);
+        invalidateIdeaCache(projectId, ideaId);
+    }
+
+    private int getIdeaCacheGenerationStripe(IdeaCacheKey ideaCacheKey) {
+        return Math.floorMod(ideaCacheKey.hashCode(), IDEA_CACHE_GENERATION_STRIPES);
+    }
+
+    private void invalidateIdeaCacheForProject(String projectId) {
+        for (int stripe = 0; stripe < IDEA_CACHE_GENERATION_STRIPES; stripe++) {
+            ideaCacheGenerations.incrementAndGet(stripe);
+        }
+        ideaCache.invalidateAll(ideaCache.asMap().keySet().stream()
+                .filter(key -> projectId.equals(key.getProjectId()))
+                .collect(ImmutableSet.toImmutableSet()));
+    }
+
+    @Value
+    private static class IdeaCacheKey {
+        String projectId;
+        String ideaId;
+    }
+
     private IdeaModel upgradeExpressionsProperty(IdeaModel post) {
         if (post.getExpressions() != null) {
             return post;
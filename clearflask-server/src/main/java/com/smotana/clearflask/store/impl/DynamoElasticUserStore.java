@@ -3,8 +3,8 @@
 package com.smotana.clearflask.store.impl;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
@@ -30,6 +30,8 @@ import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.dynamodbv2.model.Update;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -67,18 +69,25 @@ import com.smotana.clearflask.api.model.UserSearchAdmin;
 import com.smotana.clearflask.api.model.UserUpdate;
 import com.smotana.clearflask.api.model.UserUpdateAdmin;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
+import com.smotana.clearflask.core.cache.SessionCache;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
+import com.smotana.clearflask.store.dynamo.DynamoAsyncExecutor;
 import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.mysql.CompletionStageUtil;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MoreSQLDataType;
+import com.smotana.clearflask.store.mysql.MysqlUtil.Keyset;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.mysql.model.tables.JooqUser;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqUserRecord;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.util.BloomFilters;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
@@ -104,17 +113,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.lucene.search.TotalHits;
-import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
-import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
@@ -125,13 +131,14 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.SortField;
 import org.jooq.impl.SQLDataType;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
@@ -143,6 +150,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -165,6 +173,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         String accessToken;
     }
 
+    /**
+     * Bloom filter attribute as of a given version. Version zero is a filter written before versioning or none at all.
+     */
+    @Value
+    private static class BloomState {
+        static final BloomState NONE = new BloomState(0L, null);
+
+        long version;
+        byte[] bloom;
+    }
+
     public interface Config {
         /**
          * Intended for tests. Force immediate index refresh after write request.
@@ -196,6 +215,25 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         @DefaultValue("50")
         long fundBloomFilterExpectedInsertions();
 
+        /**
+         * Backoff between bloom filter updates racing with concurrent updates of the same user. Doubles on each
+         * attempt up to the max, with full jitter. Updates are retried until written.
+         */
+        @DefaultValue("PT0.01S")
+        Duration bloomFilterUpdateBackoffBase();
+
+        @DefaultValue("PT0.5S")
+        Duration bloomFilterUpdateBackoffMax();
+
+        /**
+         * Last known bloom filter states kept to write bloom filter updates without reading them first.
+         */
+        @DefaultValue("10000")
+        long bloomStateCacheMaxSize();
+
+        @DefaultValue("PT10M")
+        Duration bloomStateCacheExpireAfterAccess();
+
         @NoDefaultValue
         SecretKey tokenSignerPrivKey();
 
@@ -208,11 +246,22 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
         @DefaultValue("true")
         boolean enableHistograms();
+
+        @DefaultValue("100000")
+        long sessionCacheMaxSize();
+
+        /**
+         * Upper bound on how long another node may still accept a revoked session if the revocation broadcast is lost.
+         */
+        @DefaultValue("PT1M")
+        Duration sessionCacheExpireAfterWrite();
     }
 
-    private static final String USER_INDEX = "user";
+    public static final String USER_INDEX = "user";
 
     private final HashFunction hashFunction = Hashing.murmur3_128(-223823442);
+    private static final ImmutableList<String> BLOOM_ATTRIBUTE_NAMES = ImmutableList.of("voteBloom", "commentVoteBloom", "expressBloom", "fundBloom");
+    private final AtomicLong bloomUpdateConflicts = new AtomicLong();
 
     @Inject
     private Config config;
@@ -226,12 +275,18 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Inject
     private DynamoDB dynamoDoc;
     @Inject
+    private DynamoAsyncExecutor dynamoAsyncExecutor;
+    @Inject
     private SingleTable singleTable;
     @Inject
     private Provider<RestHighLevelClient> elastic;
     @Inject
     private ElasticUtil elasticUtil;
     @Inject
+    private Reindexer reindexer;
+    @Inject
+    private IndexUpdateCoalescer indexUpdateCoalescer;
+    @Inject
     private Gson gson;
     @Inject
     private WebhookService webhookService;
@@ -241,6 +296,8 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<UserModel> userSchema;
     private IndexSchema<UserModel> userByProjectIdSchema;
@@ -249,6 +306,8 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private TableSchema<UserSession> sessionByIdSchema;
     private IndexSchema<UserSession> sessionByUserSchema;
     private TableSchema<UserCounter> userCounterSchema;
+    private SessionCache<UserSession> sessionCache;
+    private Cache<String, BloomState> bloomStateCache;
     private CloseableHttpClient client;
 
     @Inject
@@ -260,6 +319,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         sessionByIdSchema = singleTable.parseTableSchema(UserSession.class);
         sessionByUserSchema = singleTable.parseGlobalSecondaryIndexSchema(1, UserSession.class);
         userCounterSchema = singleTable.parseTableSchema(UserCounter.class);
+        sessionCache = new SessionCache<>(
+                CacheType.USER_SESSION,
+                cacheInvalidationBus,
+                UserSession::getTtlInEpochSec,
+                config.sessionCacheMaxSize(),
+                config.sessionCacheExpireAfterWrite());
+        bloomStateCache = CacheBuilder.newBuilder()
+                .maximumSize(config.bloomStateCacheMaxSize())
+                .expireAfterAccess(config.bloomStateCacheExpireAfterAccess())
+                .recordStats()
+                .build();
     }
 
     @Override
@@ -303,51 +373,86 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 .column("created", MoreSQLDataType.DATETIME(6).notNull())
                 .column("balance", SQLDataType.BIGINT)
                 .column("isMod", SQLDataType.BOOLEAN)
+                .column("fundedIdeasCount", SQLDataType.BIGINT.notNull().defaultValue(0L))
+                .column("supportedIdeasCount", SQLDataType.BIGINT.notNull().defaultValue(0L))
+                .column("fundedAmount", SQLDataType.BIGINT.notNull().defaultValue(0L))
+                .column("lastActive", MoreSQLDataType.DATETIME(6))
                 .primaryKey("projectId", "userId")
                 .execute();
+        // Columns added after the table was first created
+        mysqlUtil.addColumnIfNotExists(JooqUser.USER, JooqUser.USER.FUNDEDIDEASCOUNT);
+        mysqlUtil.addColumnIfNotExists(JooqUser.USER, JooqUser.USER.SUPPORTEDIDEASCOUNT);
+        mysqlUtil.addColumnIfNotExists(JooqUser.USER, JooqUser.USER.FUNDEDAMOUNT);
+        mysqlUtil.addColumnIfNotExists(JooqUser.USER, JooqUser.USER.LASTACTIVE);
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqUser.USER, JooqUser.USER.PROJECTID));
         mysqlUtil.createIndexIfNotExists(mysql.get().createIndex().on(JooqUser.USER, JooqUser.USER.ISMOD));
+        // Keyset pagination of each sort
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("user_sort_created").on(JooqUser.USER,
+                JooqUser.USER.PROJECTID, JooqUser.USER.CREATED, JooqUser.USER.USERID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("user_sort_balance").on(JooqUser.USER,
+                JooqUser.USER.PROJECTID, JooqUser.USER.BALANCE, JooqUser.USER.USERID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("user_sort_fundedIdeasCount").on(JooqUser.USER,
+                JooqUser.USER.PROJECTID, JooqUser.USER.FUNDEDIDEASCOUNT, JooqUser.USER.USERID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("user_sort_supportedIdeasCount").on(JooqUser.USER,
+                JooqUser.USER.PROJECTID, JooqUser.USER.SUPPORTEDIDEASCOUNT, JooqUser.USER.USERID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("user_sort_fundedAmount").on(JooqUser.USER,
+                JooqUser.USER.PROJECTID, JooqUser.USER.FUNDEDAMOUNT, JooqUser.USER.USERID));
+        mysqlUtil.createIndexIfNotExists(mysql.get().createIndex("user_sort_lastActive").on(JooqUser.USER,
+                JooqUser.USER.PROJECTID, JooqUser.USER.LASTACTIVE, JooqUser.USER.USERID));
     }
 
     @Extern
     public ListenableFuture<Void> createIndexElasticSearch(String projectId) {
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        elastic.get().indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
-                        .settings(gson.toJson(ImmutableMap.of(
-                                "index", ImmutableMap.of(
-                                        "analysis", ImmutableMap.of(
-                                                "analyzer", ImmutableMap.of(
-                                                        AUTOCOMPLETE_ANALYZER_NAME, AUTOCOMPLETE_ANALYZER
-                                                ),
-                                                "tokenizer", ImmutableMap.of(
-                                                        AUTOCOMPLETE_TOKENIZER_NAME, AUTOCOMPLETE_TOKENIZER
-                                                ))))), XContentType.JSON)
-                        .mapping(gson.toJson(ImmutableMap.of(
-                                "dynamic", "false",
-                                "properties", ImmutableMap.builder()
-                                        .put("name", ImmutableMap.of(
-                                                "type", "text",
-                                                "analyzer", AUTOCOMPLETE_ANALYZER_NAME,
-                                                "index_prefixes", ImmutableMap.of(
-                                                        "min_chars", 1,
-                                                        "max_chars", 4)))
-                                        .put("email", ImmutableMap.of(
-                                                "type", "text",
-                                                "analyzer", AUTOCOMPLETE_ANALYZER_NAME,
-                                                "index_prefixes", ImmutableMap.of(
-                                                        "min_chars", 1,
-                                                        "max_chars", 4)))
-                                        .put("created", ImmutableMap.of(
-                                                "type", "date",
-                                                "format", "epoch_second"))
-                                        .put("balance", ImmutableMap.of(
-                                                "type", "double"))
-                                        .put("isMod", ImmutableMap.of(
-                                                "type", "boolean"))
-                                        .build())), XContentType.JSON),
-                RequestOptions.DEFAULT,
-                ActionListeners.fromFuture(indexingFuture, elasticUtil::isIndexAlreadyExistsException));
-        return indexingFuture;
+        return elasticUtil.createIndexAsync(USER_INDEX, projectId,
+                projectStore.getElasticIndexLayoutForProject(projectId),
+                this::createIndexRequestElasticSearch);
+    }
+
+    private CreateIndexRequest createIndexRequestElasticSearch(String indexName) {
+        return new CreateIndexRequest(indexName)
+                .settings(gson.toJson(ImmutableMap.of(
+                        "index", ImmutableMap.of(
+                                "analysis", ImmutableMap.of(
+                                        "analyzer", ImmutableMap.of(
+                                                AUTOCOMPLETE_ANALYZER_NAME, AUTOCOMPLETE_ANALYZER
+                                        ),
+                                        "tokenizer", ImmutableMap.of(
+                                                AUTOCOMPLETE_TOKENIZER_NAME, AUTOCOMPLETE_TOKENIZER
+                                        ))))), XContentType.JSON)
+                .mapping(gson.toJson(ImmutableMap.of(
+                        "dynamic", "false",
+                        "properties", ImmutableMap.builder()
+                                .put("projectId", ImmutableMap.of(
+                                        "type", "keyword"))
+                                .put("name", ImmutableMap.of(
+                                        "type", "text",
+                                        "analyzer", AUTOCOMPLETE_ANALYZER_NAME,
+                                        "index_prefixes", ImmutableMap.of(
+                                                "min_chars", 1,
+                                                "max_chars", 4)))
+                                .put("email", ImmutableMap.of(
+                                        "type", "text",
+                                        "analyzer", AUTOCOMPLETE_ANALYZER_NAME,
+                                        "index_prefixes", ImmutableMap.of(
+                                                "min_chars", 1,
+                                                "max_chars", 4)))
+                                .put("created", ImmutableMap.of(
+                                        "type", "date",
+                                        "format", "epoch_second"))
+                                .put("balance", ImmutableMap.of(
+                                        "type", "double"))
+                                .put("isMod", ImmutableMap.of(
+                                        "type", "boolean"))
+                                .put("fundedIdeasCount", ImmutableMap.of(
+                                        "type", "long"))
+                                .put("supportedIdeasCount", ImmutableMap.of(
+                                        "type", "long"))
+                                .put("fundedAmount", ImmutableMap.of(
+                                        "type", "long"))
+                                .put("lastActive", ImmutableMap.of(
+                                        "type", "date",
+                                        "format", "epoch_second"))
+                                .build())), XContentType.JSON);
     }
 
     @Extern
@@ -355,49 +460,22 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
         log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
                 projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
-        if (repopulateElasticSearch) {
-            boolean indexAlreadyExists = elastic.get().indices().exists(
-                    new GetIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
-                    RequestOptions.DEFAULT);
-            if (indexAlreadyExists && deleteExistingIndex) {
-                elastic.get().indices().delete(
-                        new DeleteIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
-                        RequestOptions.DEFAULT);
-            }
-            if (!indexAlreadyExists || deleteExistingIndex) {
-                createIndexElasticSearch(projectId).get();
-            }
-        }
-        if (repopulateMysql && deleteExistingIndex) {
-            mysql.get().deleteFrom(JooqUser.USER)
-                    .where(JooqUser.USER.PROJECTID.eq(projectId))
-                    .execute();
-        }
-
-        StreamSupport.stream(userByProjectIdSchema.index().query(new QuerySpec()
-                                .withHashKey(userByProjectIdSchema.partitionKey(Map.of(
-                                        "projectId", projectId)))
-                                .withRangeKeyCondition(new RangeKeyCondition(userByProjectIdSchema.rangeKeyName())
-                                        .beginsWith(userByProjectIdSchema.rangeValuePartial(Map.of()))))
-                        .pages()
-                        .spliterator(), false)
-                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                .map(userByProjectIdSchema::fromItem)
-                .filter(user -> projectId.equals(user.getProjectId()))
-                .forEach(user -> {
-                    if (repopulateElasticSearch) {
-                        try {
-                            elastic.get().index(userToEsIndexRequest(user), RequestOptions.DEFAULT);
-                        } catch (IOException ex) {
-                            if (LogUtil.rateLimitAllowLog("dynamoelsaticuserstore-reindex-failure")) {
-                                log.warn("Failed to re-index user {}", user.getUserId(), ex);
-                            }
-                        }
-                    }
-                    if (repopulateMysql) {
-                        userToMysqlQuery(user).execute();
-                    }
-                });
+        reindexer.reindex(Reindexer.Job.<UserModel>builder()
+                        .indexType(USER_INDEX)
+                        .projectId(projectId)
+                        .elasticIndexLayout(projectStore.getElasticIndexLayoutForProject(projectId))
+                        .byProjectIdSchema(userByProjectIdSchema)
+                        .projectIdGetter(UserModel::getProjectId)
+                        .idGetter(UserModel::getUserId)
+                        .elasticCreateIndexRequest(this::createIndexRequestElasticSearch)
+                        .elasticIndexRequest(this::userToEsIndexRequest)
+                        .mysqlQueries(user -> ImmutableList.of(userToMysqlQuery(user)))
+                        .mysqlProjectIdField(JooqUser.USER.PROJECTID)
+                        .mysqlIdField(JooqUser.USER.USERID)
+                        .build(),
+                deleteExistingIndex,
+                repopulateElasticSearch,
+                repopulateMysql);
     }
 
     @Override
@@ -437,6 +515,19 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         return new UserAndIndexingFuture(user, indexingFuture);
     }
 
+    @Override
+    public ListenableFuture<Optional<UserModel>> getUserAsync(String projectId, String userId) {
+        return dynamoAsyncExecutor.submit(() -> getUser(projectId, userId));
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<String, UserModel>> getUsersAsync(String projectId, ImmutableCollection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return Futures.immediateFuture(ImmutableMap.of());
+        }
+        return dynamoAsyncExecutor.submit(() -> getUsers(projectId, userIds));
+    }
+
     @Extern
     @Override
     public Optional<UserModel> getUser(String projectId, String userId) {
@@ -445,11 +536,13 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     }
 
     private Optional<UserModel> getUser(String projectId, String userId, boolean consistentRead) {
-        return Optional.ofNullable(userSchema.fromItem(userSchema.table().getItem(new GetItemSpec()
+        Item item = userSchema.table().getItem(new GetItemSpec()
                 .withPrimaryKey(userSchema.primaryKey(Map.of(
                         "projectId", projectId,
                         "userId", userId)))
-                .withConsistentRead(consistentRead))));
+                .withConsistentRead(consistentRead));
+        rememberBloomStates(item);
+        return Optional.ofNullable(userSchema.fromItem(item));
     }
 
     @Override
@@ -535,9 +628,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         sortFields = ImmutableList.of("balance");
                         break;
                     case FUNDEDIDEAS:
+                        sortFields = ImmutableList.of("fundedIdeasCount");
+                        break;
                     case SUPPORTEDIDEAS:
+                        sortFields = ImmutableList.of("supportedIdeasCount");
+                        break;
                     case FUNDEDAMOUNT:
+                        sortFields = ImmutableList.of("fundedAmount");
+                        break;
                     case LASTACTIVE:
+                        sortFields = ImmutableList.of("lastActive");
+                        break;
                     default:
                         throw new ApiException(Response.Status.BAD_REQUEST,
                                 "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
@@ -572,7 +673,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             }
 
             ImmutableList<String> userIds = Arrays.stream(hits)
-                    .map(SearchHit::getId)
+                    .map(hit -> elasticUtil.getIdFromDocId(projectId, hit.getId()))
                     .collect(ImmutableList.toImmutableList());
 
             return new SearchUsersResponse(
@@ -608,9 +709,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         sortFields = ImmutableList.of(JooqUser.USER.BALANCE.sort(sortOrder));
                         break;
                     case FUNDEDIDEAS:
+                        sortFields = ImmutableList.of(JooqUser.USER.FUNDEDIDEASCOUNT.sort(sortOrder));
+                        break;
                     case SUPPORTEDIDEAS:
+                        sortFields = ImmutableList.of(JooqUser.USER.SUPPORTEDIDEASCOUNT.sort(sortOrder));
+                        break;
                     case FUNDEDAMOUNT:
+                        sortFields = ImmutableList.of(JooqUser.USER.FUNDEDAMOUNT.sort(sortOrder));
+                        break;
                     case LASTACTIVE:
+                        sortFields = ImmutableList.of(JooqUser.USER.LASTACTIVE.sort(sortOrder));
+                        break;
                     default:
                         throw new ApiException(Response.Status.BAD_REQUEST,
                                 "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
@@ -628,17 +737,19 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         .or(JooqUser.USER.EMAIL.like("%" + userSearchAdmin.getSearchText() + "%")));
             }
 
-            List<String> userIds = mysql.get().select(JooqUser.USER.USERID)
+            Keyset keyset = mysqlUtil.keyset(configSearch, cursorOpt, pageSizeOpt, sortFields, JooqUser.USER.USERID);
+            Result<Record> result = mysql.get().select(keyset.getFields())
                     .from(JooqUser.USER)
-                    .where(conditions)
-                    .orderBy(sortFields)
-                    .offset(mysqlUtil.offset(cursorOpt))
-                    .limit(mysqlUtil.pageSizeMax(configSearch, pageSizeOpt))
-                    .fetch(JooqUser.USER.USERID);
+                    .where(conditions.and(keyset.getSeekCondition()))
+                    .orderBy(keyset.getSortFields())
+                    .offset(keyset.getOffset())
+                    .limit(keyset.getLimit())
+                    .fetch();
+            List<String> userIds = result.getValues(JooqUser.USER.USERID);
 
             return new SearchUsersResponse(
                     ImmutableList.copyOf(userIds),
-                    mysqlUtil.nextCursor(configSearch, cursorOpt, pageSizeOpt, userIds.size()),
+                    mysqlUtil.nextCursor(keyset, result),
                     userIds.size(),
                     true);
         }
@@ -944,10 +1055,9 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             if (indexUpdates.size() > 0) {
-                elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId)
+                elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId)
                                 .doc(gson.toJson(indexUpdates), XContentType.JSON)
                                 .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                        RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId))
                                 : ActionListeners.onFailureRetry(() -> indexUser(projectId, userId)));
             } else if (searchEngine.isReadElastic()) {
@@ -975,60 +1085,178 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     }
 
     @Override
-    public UserModel userVoteUpdateBloom(String projectId, String userId, String ideaId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(ideaId);
-        if (!bloomFilterUpdated) {
-            return user;
-        }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("voteBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+    public void userVoteUpdateBloom(String projectId, String userId, String ideaId) {
+        updateBloom(projectId, userId, "voteBloom", ideaId,
+                () -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability()));
     }
 
     @Override
-    public UserModel userCommentVoteUpdateBloom(String projectId, String userId, String commentId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getCommentVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(commentId);
-        if (!bloomFilterUpdated) {
-            return user;
-        }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("commentVoteBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+    public void userCommentVoteUpdateBloom(String projectId, String userId, String commentId) {
+        updateBloom(projectId, userId, "commentVoteBloom", commentId,
+                () -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability()));
     }
 
     @Override
-    public UserModel userExpressUpdateBloom(String projectId, String userId, String ideaId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(ideaId);
-        if (!bloomFilterUpdated) {
-            return user;
-        }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
+    public void userExpressUpdateBloom(String projectId, String userId, String ideaId) {
+        updateBloom(projectId, userId, "expressBloom", ideaId,
+                () -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability()));
+    }
+
+    @Extern
+    private long bloomUpdateConflicts() {
+        return bloomUpdateConflicts.get();
+    }
+
+    @Extern
+    private String bloomStateCacheStats() {
+        return bloomStateCache.stats().toString();
+    }
+
+    /**
+     * Versioned compare-and-set of a bloom filter attribute. The filter is taken from the last known state
+     * without reading it first. A stale or unknown state fails the condition and only then the filter is read.
+     * Racing updates are retried with backoff until written, a dropped entry would hide the user's vote.
+     */
+    private void updateBloom(String projectId, String userId, String bloomAttributeName, String entry, Supplier<BloomFilter<CharSequence>> bloomFilterCreator) {
+        String cacheKey = getBloomStateCacheKey(projectId, userId, bloomAttributeName);
+        BloomState bloomState = Optional.ofNullable(bloomStateCache.getIfPresent(cacheKey))
+                .orElse(BloomState.NONE);
+        for (int attempt = 1; ; attempt++) {
+            BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(bloomState.getBloom())
+                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+                    .orElseGet(bloomFilterCreator);
+            if (!bloomFilter.put(entry)) {
+                return;
+            }
+            BloomState bloomStateNext = new BloomState(bloomState.getVersion() + 1L, BloomFilters.toByteArray(bloomFilter));
+            NameMap nameMap = new NameMap()
+                    .with("#partitionKey", userSchema.partitionKeyName())
+                    .with("#bloom", bloomAttributeName)
+                    .with("#bloomVersion", getBloomVersionAttributeName(bloomAttributeName));
+            ValueMap valueMap = new ValueMap()
+                    .withBinary(":bloom", bloomStateNext.getBloom())
+                    .withLong(":bloomVersion", bloomStateNext.getVersion());
+            String bloomCondition = bloomCondition(bloomState, valueMap);
+            try {
+                userSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(userSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("expressBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+                        .withConditionExpression("attribute_exists(#partitionKey) AND " + bloomCondition)
+                        .withUpdateExpression("SET #bloom = :bloom, #bloomVersion = :bloomVersion")
+                        .withNameMap(nameMap)
+                        .withValueMap(valueMap));
+                bloomStateCache.put(cacheKey, bloomStateNext);
+                return;
+            } catch (ConditionalCheckFailedException ex) {
+                bloomUpdateConflicts.incrementAndGet();
+                bloomStateCache.invalidate(cacheKey);
+                Optional<BloomState> bloomStateReadOpt = getBloomState(projectId, userId, bloomAttributeName);
+                if (bloomStateReadOpt.isEmpty()) {
+                    if (LogUtil.rateLimitAllowLog("userStore-bloomUserMissing")) {
+                        log.warn("Cannot update bloom filter {} of missing user, projectId {} userId {}",
+                                bloomAttributeName, projectId, userId);
+                    }
+                    return;
+                }
+                bloomState = bloomStateReadOpt.get();
+                bloomUpdateBackoff(attempt, projectId, userId, bloomAttributeName);
+            }
+        }
+    }
+
+    private void bloomUpdateBackoff(int attempt, String projectId, String userId, String bloomAttributeName) {
+        if (attempt % 10 == 0 && LogUtil.rateLimitAllowLog("userStore-bloomUpdateContended")) {
+            log.warn("Bloom filter {} update still conflicting after {} attempts, projectId {} userId {}",
+                    bloomAttributeName, attempt, projectId, userId);
+        }
+        long backoffMaxMillis = Math.min(
+                config.bloomFilterUpdateBackoffMax().toMillis(),
+                config.bloomFilterUpdateBackoffBase().toMillis() << Math.min(attempt - 1, 20));
+        if (backoffMaxMillis <= 0L) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMaxMillis + 1L));
+        } catch (InterruptedException ex) {
+            // Keep retrying, the caller's write is already committed
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Consistent read of only the bloom filter attribute and its version. Empty if user does not exist.
+     */
+    private Optional<BloomState> getBloomState(String projectId, String userId, String bloomAttributeName) {
+        String bloomVersionAttributeName = getBloomVersionAttributeName(bloomAttributeName);
+        Item item = userSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "userId", userId)))
+                .withProjectionExpression("#partitionKey, #bloom, #bloomVersion")
+                .withNameMap(new NameMap()
+                        .with("#partitionKey", userSchema.partitionKeyName())
+                        .with("#bloom", bloomAttributeName)
+                        .with("#bloomVersion", bloomVersionAttributeName))
+                .withConsistentRead(true));
+        if (item == null) {
+            return Optional.empty();
+        }
+        BloomState bloomState = new BloomState(
+                item.isPresent(bloomVersionAttributeName) ? item.getLong(bloomVersionAttributeName) : 0L,
+                item.isPresent(bloomAttributeName) ? item.getBinary(bloomAttributeName) : null);
+        rememberBloomState(getBloomStateCacheKey(projectId, userId, bloomAttributeName), bloomState);
+        return Optional.of(bloomState);
+    }
+
+    /**
+     * Keeps bloom filter states seen on user reads so the next update can be written without a read.
+     */
+    private void rememberBloomStates(Item item) {
+        if (item == null) {
+            return;
+        }
+        for (String bloomAttributeName : BLOOM_ATTRIBUTE_NAMES) {
+            String bloomVersionAttributeName = getBloomVersionAttributeName(bloomAttributeName);
+            if (!item.isPresent(bloomAttributeName)) {
+                continue;
+            }
+            rememberBloomState(
+                    getBloomStateCacheKey(item.getString("projectId"), item.getString("userId"), bloomAttributeName),
+                    new BloomState(
+                            item.isPresent(bloomVersionAttributeName) ? item.getLong(bloomVersionAttributeName) : 0L,
+                            item.getBinary(bloomAttributeName)));
+        }
+    }
+
+    private void rememberBloomState(String cacheKey, BloomState bloomState) {
+        bloomStateCache.asMap().merge(cacheKey, bloomState,
+                (bloomStatePrev, bloomStateNew) -> bloomStateNew.getVersion() > bloomStatePrev.getVersion() ? bloomStateNew : bloomStatePrev);
+    }
+
+    /**
+     * Condition ensuring the bloom filter has not changed since the given state.
+     * Expects #bloom and #bloomVersion in the name map.
+     * Filters written before versioning have no version and are compared by content instead.
+     */
+    private String bloomCondition(BloomState bloomState, Map<String, Object> valueMap) {
+        if (bloomState.getVersion() > 0L) {
+            valueMap.put(":bloomVersionPrev", bloomState.getVersion());
+            return "#bloomVersion = :bloomVersionPrev";
+        }
+        if (bloomState.getBloom() == null) {
+            return "attribute_not_exists(#bloomVersion) AND attribute_not_exists(#bloom)";
+        }
+        valueMap.put(":bloomPrev", bloomState.getBloom());
+        return "attribute_not_exists(#bloomVersion) AND #bloom = :bloomPrev";
+    }
+
+    private String getBloomStateCacheKey(String projectId, String userId, String bloomAttributeName) {
+        return projectId + "/" + userId + "/" + bloomAttributeName;
+    }
+
+    private String getBloomVersionAttributeName(String bloomAttributeName) {
+        return bloomAttributeName + "Version";
     }
 
     @Override
@@ -1049,38 +1277,131 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Override
     public UserAndIndexingFuture updateUserBalance(String projectId, String userId, long balanceDiff, Optional<String> updateBloomWithIdeaIdOpt) {
-        HashMap<String, String> nameMap = Maps.newHashMap();
-        HashMap<String, Object> valMap = Maps.newHashMap();
-        List<String> conditions = Lists.newArrayList();
-        List<String> setUpdates = Lists.newArrayList();
-
-        nameMap.put("#balance", "balance");
-        valMap.put(":balanceDiff", balanceDiff);
-        valMap.put(":zero", 0L);
+        String fundBloomCacheKey = getBloomStateCacheKey(projectId, userId, "fundBloom");
+        BloomState fundBloomState = Optional.ofNullable(bloomStateCache.getIfPresent(fundBloomCacheKey))
+                .orElse(BloomState.NONE);
+        UserModel userModel;
+        for (int attempt = 1; ; attempt++) {
+            HashMap<String, String> nameMap = Maps.newHashMap();
+            HashMap<String, Object> valMap = Maps.newHashMap();
+            List<String> conditions = Lists.newArrayList();
+            List<String> setUpdates = Lists.newArrayList();
+
+            nameMap.put("#balance", "balance");
+            valMap.put(":balanceDiff", balanceDiff);
+            valMap.put(":zero", 0L);
+
+            setUpdates.add("#balance = if_not_exists(#balance, :zero) + :balanceDiff");
+
+            Optional<BloomState> fundBloomStateNextOpt = Optional.empty();
+            if (updateBloomWithIdeaIdOpt.isPresent()) {
+                BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(fundBloomState.getBloom())
+                        .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+                        .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability()));
+                if (bloomFilter.put(updateBloomWithIdeaIdOpt.get())) {
+                    BloomState fundBloomStateNext = new BloomState(fundBloomState.getVersion() + 1L, BloomFilters.toByteArray(bloomFilter));
+                    fundBloomStateNextOpt = Optional.of(fundBloomStateNext);
+                    nameMap.put("#bloom", "fundBloom");
+                    nameMap.put("#bloomVersion", getBloomVersionAttributeName("fundBloom"));
+                    valMap.put(":fundBloom", fundBloomStateNext.getBloom());
+                    valMap.put(":fundBloomVersion", fundBloomStateNext.getVersion());
+                    setUpdates.add("#bloom = :fundBloom");
+                    setUpdates.add("#bloomVersion = :fundBloomVersion");
+                    conditions.add(bloomCondition(fundBloomState, valMap));
+                }
+            }
 
-        setUpdates.add("#balance = if_not_exists(#balance, :zero) + :balanceDiff");
+            if (balanceDiff < 0L) {
+                valMap.put(":balanceDiffAbs", Math.abs(balanceDiff));
+                conditions.add("#balance >= :balanceDiffAbs");
+            }
 
-        if (updateBloomWithIdeaIdOpt.isPresent()) {
-            UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-            BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getFundBloom())
-                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                    .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability()));
-            boolean bloomFilterUpdated = bloomFilter.put(updateBloomWithIdeaIdOpt.get());
-            if (bloomFilterUpdated) {
-                nameMap.put("#fundBloom", "fundBloom");
-                valMap.put(":fundBloom", BloomFilters.toByteArray(bloomFilter));
-                setUpdates.add("#fundBloom = :fundBloom");
+            String updateExpression = "SET " + String.join(", ", setUpdates);
+            log.trace("updateUserBalance expression: {}", updateExpression);
+            try {
+                userModel = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
+                                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "userId", userId)))
+                                .withUpdateExpression(updateExpression)
+                                .withConditionExpression(conditions.isEmpty() ? null : String.join(" AND ", conditions))
+                                .withNameMap(nameMap)
+                                .withValueMap(valMap)
+                                .withReturnValues(ReturnValue.ALL_NEW))
+                        .getItem());
+                fundBloomStateNextOpt.ifPresent(fundBloomStateNext -> bloomStateCache.put(fundBloomCacheKey, fundBloomStateNext));
+                break;
+            } catch (ConditionalCheckFailedException ex) {
+                // Distinguish a concurrent or unknown bloom filter state from insufficient balance
+                if (fundBloomStateNextOpt.isPresent()) {
+                    bloomStateCache.invalidate(fundBloomCacheKey);
+                    Optional<BloomState> fundBloomStateReadOpt = getBloomState(projectId, userId, "fundBloom");
+                    if (fundBloomStateReadOpt.isPresent() && !fundBloomStateReadOpt.get().equals(fundBloomState)) {
+                        bloomUpdateConflicts.incrementAndGet();
+                        fundBloomState = fundBloomStateReadOpt.get();
+                        bloomUpdateBackoff(attempt, projectId, userId, "fundBloom");
+                        continue;
+                    }
+                }
+                if (LogUtil.rateLimitAllowLog("userStore-negativeBalanceWarn")) {
+                    log.warn("Attempted to set balance below zero, projectId {} userId {} balanceDiff {} updateBloomWithIdeaIdOpt {}",
+                            projectId, userId, balanceDiff, updateBloomWithIdeaIdOpt, ex);
+                }
+                throw new ApiException(Response.Status.BAD_REQUEST, "Not enough credits");
             }
         }
 
-        Optional<String> conditionExpressionOpt = Optional.empty();
-        if (balanceDiff < 0L) {
-            valMap.put(":balanceDiffAbs", Math.abs(balanceDiff));
-            conditionExpressionOpt = Optional.of("#balance >= :balanceDiffAbs");
+        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        if (searchEngine.isWriteElastic()) {
+            elasticUtil.updateAsync(projectId, new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userModel.getUserId())
+                            .doc(gson.toJson(Map.of("balance", userModel.getBalance())), XContentType.JSON)
+                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                    searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId))
+                            : ActionListeners.onFailureRetry(() -> indexUser(projectId, userId)));
         }
+        if (searchEngine.isWriteMysql()) {
+            CompletionStage<Integer> completionStage = mysql.get().update(JooqUser.USER)
+                    .set(JooqUser.USER.BALANCE, userModel.getBalance())
+                    .where(JooqUser.USER.PROJECTID.eq(projectId)
+                            .and(JooqUser.USER.USERID.eq(userId)))
+                    .executeAsync();
+            if (searchEngine.isReadMysql()) {
+                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
+            } else {
+                CompletionStageUtil.logFailure(completionStage);
+            }
+        }
+
+        return new UserAndIndexingFuture(userModel, indexingFuture);
+    }
+
+    @Override
+    public void updateUserActivity(String projectId, String userId, long fundedIdeasCountDiff, long supportedIdeasCountDiff, long fundedAmountDiff) {
+        HashMap<String, String> nameMap = Maps.newHashMap();
+        HashMap<String, Object> valMap = Maps.newHashMap();
+        List<String> setUpdates = Lists.newArrayList();
+
+        nameMap.put("#partitionKey", userSchema.partitionKeyName());
+        nameMap.put("#lastActive", "lastActive");
+        valMap.put(":lastActive", userSchema.toDynamoValue("lastActive", Instant.now()));
+        setUpdates.add("#lastActive = :lastActive");
+        ImmutableMap.of(
+                "fundedIdeasCount", fundedIdeasCountDiff,
+                "supportedIdeasCount", supportedIdeasCountDiff,
+                "fundedAmount", fundedAmountDiff
+        ).forEach((attrName, diff) -> {
+            if (diff == 0L) {
+                return;
+            }
+            nameMap.put("#" + attrName, attrName);
+            valMap.put(":" + attrName + "Diff", diff);
+            valMap.put(":zero", 0L);
+            setUpdates.add("#" + attrName + " = if_not_exists(#" + attrName + ", :zero) + :" + attrName + "Diff");
+        });
 
         String updateExpression = "SET " + String.join(", ", setUpdates);
-        log.trace("updateUserBalance expression: {}", updateExpression);
+        log.trace("updateUserActivity expression: {}", updateExpression);
         UserModel userModel;
         try {
             userModel = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
@@ -1088,43 +1409,83 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                                     "projectId", projectId,
                                     "userId", userId)))
                             .withUpdateExpression(updateExpression)
-                            .withConditionExpression(conditionExpressionOpt.orElse(null))
+                            .withConditionExpression("attribute_exists(#partitionKey)")
                             .withNameMap(nameMap)
                             .withValueMap(valMap)
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
         } catch (ConditionalCheckFailedException ex) {
-            if (LogUtil.rateLimitAllowLog("userStore-negativeBalanceWarn")) {
-                log.warn("Attempted to set balance below zero, projectId {} userId {} balanceDiff {} updateBloomWithIdeaIdOpt {}",
-                        projectId, userId, balanceDiff, updateBloomWithIdeaIdOpt, ex);
+            log.debug("Skipping activity update for missing user, projectId {} userId {}", projectId, userId);
+            return;
+        } catch (Exception ex) {
+            // Called after a vote or comment is already written, must not fail it
+            if (LogUtil.rateLimitAllowLog("userStore-updateUserActivity-failed")) {
+                log.warn("Failed to update activity of user, projectId {} userId {}", projectId, userId, ex);
             }
-            throw new ApiException(Response.Status.BAD_REQUEST, "Not enough credits");
+            return;
         }
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        indexUserActivity(userModel);
+    }
+
+    @Extern
+    @Override
+    public ListenableFuture<Void> setUserActivityCounters(String projectId, String userId, long fundedIdeasCount, long supportedIdeasCount, long fundedAmount) {
+        UserModel userModel;
+        try {
+            userModel = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
+                            .withPrimaryKey(userSchema.primaryKey(Map.of(
+                                    "projectId", projectId,
+                                    "userId", userId)))
+                            .withUpdateExpression("SET #fundedIdeasCount = :fundedIdeasCount, #supportedIdeasCount = :supportedIdeasCount, #fundedAmount = :fundedAmount")
+                            .withConditionExpression("attribute_exists(#partitionKey)")
+                            .withNameMap(new NameMap()
+                                    .with("#partitionKey", userSchema.partitionKeyName())
+                                    .with("#fundedIdeasCount", "fundedIdeasCount")
+                                    .with("#supportedIdeasCount", "supportedIdeasCount")
+                                    .with("#fundedAmount", "fundedAmount"))
+                            .withValueMap(new ValueMap()
+                                    .withLong(":fundedIdeasCount", fundedIdeasCount)
+                                    .withLong(":supportedIdeasCount", supportedIdeasCount)
+                                    .withLong(":fundedAmount", fundedAmount))
+                            .withReturnValues(ReturnValue.ALL_NEW))
+                    .getItem());
+        } catch (ConditionalCheckFailedException ex) {
+            return Futures.immediateFuture(null);
+        }
+
+        return indexUserActivity(userModel);
+    }
+
+    /**
+     * Activity changes with every vote, merged with other updates to the same user before being written.
+     */
+    private ListenableFuture<Void> indexUserActivity(UserModel userModel) {
+        String projectId = userModel.getProjectId();
+        String userId = userModel.getUserId();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        IndexUpdateCoalescer.Update.UpdateBuilder indexUpdate = IndexUpdateCoalescer.Update.builder()
+                .projectId(projectId)
+                .id(userId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userModel.getUserId())
-                            .doc(gson.toJson(Map.of("balance", userModel.getBalance())), XContentType.JSON)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
-                    searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId))
-                            : ActionListeners.onFailureRetry(() -> indexUser(projectId, userId)));
+            indexUpdate.elasticIndexName(elasticUtil.getIndexName(USER_INDEX, projectId))
+                    .elasticRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                    .elasticFields(userActivityToEsFields(userModel))
+                    .elasticOnFailure(f -> indexUser(f, projectId, userId));
         }
         if (searchEngine.isWriteMysql()) {
-            CompletionStage<Integer> completionStage = mysql.get().update(JooqUser.USER)
-                    .set(JooqUser.USER.BALANCE, userModel.getBalance())
-                    .where(JooqUser.USER.PROJECTID.eq(projectId)
+            indexUpdate.mysqlTable(JooqUser.USER)
+                    .mysqlCondition(JooqUser.USER.PROJECTID.eq(projectId)
                             .and(JooqUser.USER.USERID.eq(userId)))
-                    .executeAsync();
-            if (searchEngine.isReadMysql()) {
-                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
-            } else {
-                CompletionStageUtil.logFailure(completionStage);
-            }
+                    .mysqlField(JooqUser.USER.FUNDEDIDEASCOUNT, orZero(userModel.getFundedIdeasCount()))
+                    .mysqlField(JooqUser.USER.SUPPORTEDIDEASCOUNT, orZero(userModel.getSupportedIdeasCount()))
+                    .mysqlField(JooqUser.USER.FUNDEDAMOUNT, orZero(userModel.getFundedAmount()))
+                    .mysqlField(JooqUser.USER.LASTACTIVE, lastActiveOrCreated(userModel));
         }
-
-        return new UserAndIndexingFuture(userModel, indexingFuture);
+        IndexUpdateCoalescer.IndexingFutures indexingFutures = indexUpdateCoalescer.submit(indexUpdate.build());
+        return searchEngine.isReadElastic()
+                ? indexingFutures.getElastic()
+                : indexingFutures.getMysql();
     }
 
     @Override
@@ -1166,12 +1527,11 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().bulkAsync(new BulkRequest()
+            elasticUtil.bulkAsync(projectId, new BulkRequest()
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
                             .add(users.stream()
                                     .map(user -> new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), user.getUserId()))
                                     .collect(ImmutableList.toImmutableList())),
-                    RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
         }
@@ -1423,7 +1783,11 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                     null,
                     null,
                     null,
-                    ImmutableSet.of()))
+                    ImmutableSet.of(),
+                    null,
+                    null,
+                    null,
+                    null))
                     .getUser());
         }
         return userOpt.get();
@@ -1445,13 +1809,14 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 user.getIsMod());
         sessionByIdSchema.table().putItem(new PutItemSpec()
                 .withItem(sessionByIdSchema.toItem(userSession)));
+        sessionCache.put(userSession.getSessionId(), userSession);
         return userSession;
     }
 
     @Extern
     @Override
     public Optional<UserSession> getSession(String sessionId) {
-        return Optional.ofNullable(sessionByIdSchema
+        return sessionCache.get(sessionId, () -> Optional.ofNullable(sessionByIdSchema
                         .fromItem(sessionByIdSchema
                                 .table().getItem(new GetItemSpec().withPrimaryKey(sessionByIdSchema
                                         .primaryKey(Map.of("sessionId", sessionId))))))
@@ -1461,12 +1826,22 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         return false;
                     }
                     return true;
-                });
+                }));
+    }
+
+    @Extern
+    public SessionCache.Stats sessionCacheStats() {
+        return sessionCache.stats();
+    }
+
+    @Extern
+    public void resetSessionCacheStats() {
+        sessionCache.resetStats();
     }
 
     @Override
     public UserSession refreshSession(UserSession userSession, long ttlInEpochSec) {
-        return sessionByIdSchema.fromItem(sessionByIdSchema.table().updateItem(new UpdateItemSpec()
+        UserSession userSessionRefreshed = sessionByIdSchema.fromItem(sessionByIdSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(sessionByIdSchema.primaryKey(userSession))
                         .withConditionExpression("attribute_exists(#partitionKey)")
                         .withUpdateExpression("SET #ttlInEpochSec = :ttlInEpochSec")
@@ -1476,18 +1851,22 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         .withValueMap(new ValueMap().withLong(":ttlInEpochSec", ttlInEpochSec))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
+        sessionCache.put(userSessionRefreshed.getSessionId(), userSessionRefreshed);
+        return userSessionRefreshed;
     }
 
     @Override
     public void revokeSession(String sessionId) {
         sessionByIdSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(sessionByIdSchema.primaryKey(Map.of("sessionId", sessionId))));
+        sessionCache.revoke(sessionId);
     }
 
     @Override
     public void revokeSession(UserSession userSession) {
         sessionByIdSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(sessionByIdSchema.primaryKey(userSession)));
+        sessionCache.revoke(userSession.getSessionId());
     }
 
     @Override
@@ -1512,6 +1891,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                                     "sessionId", sessionId)))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    sessionIdsBatch.forEach(sessionCache::revoke);
                 });
     }
 
@@ -1586,8 +1966,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
-                    RequestOptions.DEFAULT,
+            elasticUtil.deleteProjectIndexAsync(USER_INDEX, projectId,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
         }
@@ -1616,8 +1995,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (!userOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
-                elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId),
-                        RequestOptions.DEFAULT,
+                elasticUtil.deleteAsync(projectId, new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId),
                         searchEngine.isReadElastic()
                                 ? ActionListeners.fromFuture(indexingFuture)
                                 : ActionListeners.logFailure());
@@ -1645,8 +2023,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private void indexUser(SettableFuture<Void> indexingFuture, UserModel user) {
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(user.getProjectId());
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indexAsync(userToEsIndexRequest(user),
-                    RequestOptions.DEFAULT,
+            elasticUtil.indexAsync(user.getProjectId(), userToEsIndexRequest(user),
                     searchEngine.isReadElastic()
                             ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
@@ -1669,7 +2046,11 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 user.getEmail(),
                 user.getCreated(),
                 user.getBalance(),
-                user.getIsMod());
+                user.getIsMod(),
+                orZero(user.getFundedIdeasCount()),
+                orZero(user.getSupportedIdeasCount()),
+                orZero(user.getFundedAmount()),
+                lastActiveOrCreated(user));
         return mysql.get().insertInto(JooqUser.USER, JooqUser.USER.fields())
                 .values(record)
                 .onDuplicateKeyUpdate()
@@ -1680,13 +2061,34 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         return new IndexRequest(elasticUtil.getIndexName(USER_INDEX, user.getProjectId()))
                 .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
                 .id(user.getUserId())
-                .source(gson.toJson(ImmutableMap.of(
-                        "name", orNull(user.getName()),
-                        "email", orNull(user.getEmail()),
-                        "created", orNull(user.getCreated().getEpochSecond()),
-                        "balance", orNull(user.getBalance()),
-                        "isMod", user.getIsMod() == Boolean.TRUE
-                )), XContentType.JSON);
+                .source(gson.toJson(ImmutableMap.builder()
+                        .put("projectId", user.getProjectId())
+                        .put("name", orNull(user.getName()))
+                        .put("email", orNull(user.getEmail()))
+                        .put("created", orNull(user.getCreated().getEpochSecond()))
+                        .put("balance", orNull(user.getBalance()))
+                        .put("isMod", user.getIsMod() == Boolean.TRUE)
+                        .putAll(userActivityToEsFields(user))
+                        .build()), XContentType.JSON);
+    }
+
+    private ImmutableMap<String, Object> userActivityToEsFields(UserModel user) {
+        return ImmutableMap.of(
+                "fundedIdeasCount", orZero(user.getFundedIdeasCount()),
+                "supportedIdeasCount", orZero(user.getSupportedIdeasCount()),
+                "fundedAmount", orZero(user.getFundedAmount()),
+                "lastActive", lastActiveOrCreated(user).getEpochSecond());
+    }
+
+    private static long orZero(Long value) {
+        return value == null ? 0L : value;
+    }
+
+    /**
+     * Users created before activity tracking have no record of it, creation time is the best approximation.
+     */
+    private static Instant lastActiveOrCreated(UserModel user) {
+        return user.getLastActive() != null ? user.getLastActive() : user.getCreated();
     }
 
     private String hashIdentifier(String identifier) {
@@ -0,0 +1,131 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.store.FanOutStore;
+import com.smotana.clearflask.util.Extern;
+import io.dataspray.singletable.IndexSchema;
+import io.dataspray.singletable.ShardPageResult;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
+@Slf4j
+@Singleton
+public class DynamoFanOutStore implements FanOutStore {
+
+    @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
+    private SingleTable singleTable;
+
+    private TableSchema<FanOutJobModel> jobSchema;
+    private IndexSchema<FanOutJobModel> jobShardedSchema;
+    private TableSchema<FanOutDeliveryModel> deliverySchema;
+
+    @Inject
+    private void setup() {
+        jobSchema = singleTable.parseTableSchema(FanOutJobModel.class);
+        jobShardedSchema = singleTable.parseGlobalSecondaryIndexSchema(2, FanOutJobModel.class);
+        deliverySchema = singleTable.parseTableSchema(FanOutDeliveryModel.class);
+    }
+
+    @Override
+    public void putJob(FanOutJobModel job) {
+        jobSchema.table().putItem(new PutItemSpec()
+                .withItem(jobSchema.toItem(job)));
+    }
+
+    @Override
+    public boolean claimJob(FanOutJobModel job, long expectedUpdatedEpochMillis) {
+        try {
+            jobSchema.table().putItem(new PutItemSpec()
+                    .withItem(jobSchema.toItem(job))
+                    .withConditionExpression("#updatedEpochMillis = :updatedEpochMillis")
+                    .withNameMap(Map.of("#updatedEpochMillis", "updatedEpochMillis"))
+                    .withValueMap(Map.of(":updatedEpochMillis", expectedUpdatedEpochMillis)));
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            return false;
+        }
+    }
+
+    @Extern
+    @Override
+    public void deleteJob(String projectId, String jobId) {
+        jobSchema.table().deleteItem(jobSchema.primaryKey(Map.of(
+                "projectId", projectId,
+                "jobId", jobId)));
+    }
+
+    @Override
+    public void listAllJobs(Consumer<FanOutJobModel> consumer) {
+        Optional<String> cursorOpt = Optional.empty();
+        do {
+            ShardPageResult<FanOutJobModel> result = singleTable.fetchShardNextPage(
+                    jobShardedSchema,
+                    cursorOpt,
+                    DYNAMO_READ_BATCH_MAX_SIZE);
+            cursorOpt = result.getCursorOpt();
+            result.getItems().forEach(consumer);
+        } while (cursorOpt.isPresent());
+    }
+
+    @Override
+    public ImmutableMap<String, FanOutDeliveryModel> getDeliveries(String projectId, String jobId, ImmutableSet<String> userIds) {
+        ImmutableMap.Builder<String, FanOutDeliveryModel> deliveriesBuilder = ImmutableMap.builder();
+        for (List<String> batch : Iterables.partition(userIds, DYNAMO_READ_BATCH_MAX_SIZE)) {
+            singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(deliverySchema.tableName())
+                            .withPrimaryKeys(batch.stream()
+                                    .map(userId -> deliverySchema.primaryKey(Map.of(
+                                            "projectId", projectId,
+                                            "jobId", jobId,
+                                            "userId", userId)))
+                                    .toArray(PrimaryKey[]::new))))
+                    .map(deliverySchema::fromItem)
+                    .forEach(delivery -> deliveriesBuilder.put(delivery.getUserId(), delivery));
+        }
+        return deliveriesBuilder.build();
+    }
+
+    @Override
+    public void putDeliveries(Collection<FanOutDeliveryModel> deliveries) {
+        Iterables.partition(deliveries, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(batch ->
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(deliverySchema.tableName())
+                        .withItemsToPut(batch.stream()
+                                .map(deliverySchema::toItem)
+                                .collect(ImmutableList.toImmutableList())))));
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(FanOutStore.class).to(DynamoFanOutStore.class).asEagerSingleton();
+            }
+        };
+    }
+}
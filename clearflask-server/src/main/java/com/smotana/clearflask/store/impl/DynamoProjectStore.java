@@ -30,6 +30,7 @@ import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.dynamodbv2.model.Update;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
@@ -39,6 +40,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -47,6 +50,7 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.Category;
 import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.api.model.ConfigBindSlugResult;
 import com.smotana.clearflask.api.model.Expressing;
 import com.smotana.clearflask.api.model.Expression;
 import com.smotana.clearflask.api.model.GitHub;
@@ -54,6 +58,8 @@ import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.api.model.VersionedConfig;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
 import com.smotana.clearflask.api.model.Voting;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
@@ -61,6 +67,7 @@ import com.smotana.clearflask.util.ConfigSchemaUpgrader;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.IntercomUtil;
 import com.smotana.clearflask.util.LogUtil;
+import com.smotana.clearflask.util.PreSerializedJson;
 import com.smotana.clearflask.util.ProjectUpgrader;
 import com.smotana.clearflask.util.StringSerdeUtil;
 import com.smotana.clearflask.web.ApiException;
@@ -84,6 +91,7 @@ import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -142,6 +150,8 @@ public class DynamoProjectStore implements ProjectStore {
     private ProjectUpgrader projectUpgrader;
     @Inject
     private IntercomUtil intercomUtil;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<ProjectModel> projectSchema;
     private IndexSchema<ProjectModel> projectShardedSchema;
@@ -160,6 +170,8 @@ public class DynamoProjectStore implements ProjectStore {
         projectCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.configCacheExpireAfterWrite())
                 .build();
+        cacheInvalidationBus.subscribe(CacheType.SLUG, key -> slugCache.invalidate(key.get(0)));
+        cacheInvalidationBus.subscribe(CacheType.PROJECT, key -> projectCache.invalidate(key.get(0)));
 
         projectSchema = singleTable.parseTableSchema(ProjectModel.class);
         projectShardedSchema = singleTable.parseGlobalSecondaryIndexSchema(2, ProjectModel.class);
@@ -301,6 +313,14 @@ public class DynamoProjectStore implements ProjectStore {
                         .orElseGet(configApp::defaultSearchEngine));
     }
 
+    @Override
+    public ElasticIndexLayout getElasticIndexLayoutForProject(String projectId) {
+        return configApp.forceElasticIndexLayout()
+                .orElse(getProject(projectId, true)
+                        .flatMap(Project::getElasticIndexLayoutOverride)
+                        .orElseGet(configApp::defaultElasticIndexLayout));
+    }
+
     @Override
     public Project createProject(String accountId, String projectId, VersionedConfigAdmin versionedConfigAdmin) {
         String subdomain = versionedConfigAdmin.getConfig().getSlug();
@@ -348,6 +368,7 @@ public class DynamoProjectStore implements ProjectStore {
         }
         ProjectImpl project = new ProjectImpl(projectModel);
         projectCache.put(projectId, Optional.of(project));
+        cacheInvalidationBus.broadcast(CacheType.PROJECT, projectId);
         slugCache.put(subdomain, projectId);
         domainOpt.ifPresent(domain -> slugCache.put(domain, projectId));
         return project;
@@ -392,7 +413,7 @@ public class DynamoProjectStore implements ProjectStore {
                                 "#projectId", "projectId"))
                         .withValueMap(Map.of(
                                 ":projectId", projectId)));
-                slugCache.invalidate(slugTo);
+                invalidateSlugCache(slugTo);
             } catch (ConditionalCheckFailedException ex) {
                 throw new ApiException(Response.Status.CONFLICT, "Slug is already taken, please choose another.", ex);
             }
@@ -446,7 +467,7 @@ public class DynamoProjectStore implements ProjectStore {
                                         ":projectId", projectId))
                                 .withPrimaryKey(slugSchema.primaryKey(ImmutableMap.of(
                                         "slug", slugTo))));
-                slugCache.invalidate(slugTo);
+                invalidateSlugCache(slugTo);
             });
             throw new ApiException(Response.Status.CONFLICT, "Project was modified by someone else while you were editing. Cannot merge changes.", ex);
         }
@@ -467,12 +488,12 @@ public class DynamoProjectStore implements ProjectStore {
                                         slugFrom,
                                         projectId,
                                         Instant.now().plus(config.slugExpireAfterMigration()).getEpochSecond()))));
-                slugCache.invalidate(slugFrom);
+                invalidateSlugCache(slugFrom);
             } catch (ConditionalCheckFailedException ex) {
                 log.warn("Updating slug, but previous slug '{}' already doesn't exist?, switching to '{}'", slugFrom, slugTo, ex);
             }
         });
-        projectCache.invalidate(projectId);
+        invalidateProjectCache(projectId);
     }
 
     @Override
@@ -495,7 +516,7 @@ public class DynamoProjectStore implements ProjectStore {
                         .with("#partitionKey", projectSchema.partitionKeyName()))
                 .withValueMap(new ValueMap().withStringSet(":webhookListener", packWebhookListener(listener)))
                 .withReturnValues(ReturnValue.ALL_NEW));
-        projectCache.invalidate(projectId);
+        invalidateProjectCache(projectId);
     }
 
     @Extern
@@ -505,7 +526,7 @@ public class DynamoProjectStore implements ProjectStore {
         projectSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(projectSchema.primaryKey(ImmutableMap.of(
                         "projectId", projectId))));
-        projectCache.invalidate(projectId);
+        invalidateProjectCache(projectId);
 
         // Delete Slug
         Iterables.partition(StreamSupport.stream(slugByProjectSchema.index().query(new QuerySpec()
@@ -520,7 +541,7 @@ public class DynamoProjectStore implements ProjectStore {
                         .filter(slug -> projectId.equals(slug.getProjectId()))
                         .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
                 .forEach(slugsBatch -> {
-                    slugCache.invalidateAll(slugsBatch);
+                    slugsBatch.forEach(slugModel -> invalidateSlugCache(slugModel.getSlug()));
                     TableWriteItems tableWriteItems = new TableWriteItems(slugSchema.tableName());
                     slugsBatch.stream()
                             .map(slugModel -> slugSchema.primaryKey(Map.of(
@@ -618,7 +639,7 @@ public class DynamoProjectStore implements ProjectStore {
                                 ":ttlInEpochSec", invitationSchema.toAttrValue("ttlInEpochSec",
                                         Instant.now().plus(config.invitationExpireAfterAccepted()).getEpochSecond())))))
                 .build()));
-        projectCache.invalidate(invitation.getProjectId());
+        invalidateProjectCache(invitation.getProjectId());
         return invitation.getProjectId();
     }
 
@@ -648,6 +669,7 @@ public class DynamoProjectStore implements ProjectStore {
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem()));
         projectCache.put(projectId, Optional.of(project));
+        cacheInvalidationBus.broadcast(CacheType.PROJECT, projectId);
         return project;
     }
 
@@ -665,9 +687,20 @@ public class DynamoProjectStore implements ProjectStore {
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem()));
         projectCache.put(projectId, Optional.of(project));
+        cacheInvalidationBus.broadcast(CacheType.PROJECT, projectId);
         return project;
     }
 
+    private void invalidateProjectCache(String projectId) {
+        projectCache.invalidate(projectId);
+        cacheInvalidationBus.broadcast(CacheType.PROJECT, projectId);
+    }
+
+    private void invalidateSlugCache(String slug) {
+        slugCache.invalidate(slug);
+        cacheInvalidationBus.broadcast(CacheType.SLUG, slug);
+    }
+
     private String packWebhookListener(WebhookListener listener) {
         return StringSerdeUtil.mergeStrings(listener.getResourceType().name(), listener.getEventType(), listener.getUrl());
     }
@@ -699,7 +732,7 @@ public class DynamoProjectStore implements ProjectStore {
             } catch (ConditionalCheckFailedException ex) {
                 log.warn("Writing upgraded project failed, will let someone else upgrade it later", ex);
             }
-            projectCache.invalidate(projectModel.getProjectId());
+            invalidateProjectCache(projectModel.getProjectId());
         }
 
         // Upgrade project if necessary
@@ -729,6 +762,7 @@ public class DynamoProjectStore implements ProjectStore {
         private final String version;
         private final VersionedConfig versionedConfig;
         private final VersionedConfigAdmin versionedConfigAdmin;
+        private final Supplier<PreSerializedJson> configBindSlugResultPreSerializedSupplier;
         private final ImmutableMap<String, ImmutableMap<String, Double>> categoryExpressionToWeight;
         private final ImmutableMap<String, Category> categories;
         private final ImmutableMap<String, IdeaStatus> statuses;
@@ -740,8 +774,13 @@ public class DynamoProjectStore implements ProjectStore {
             this.accountId = projectModel.getAccountId();
             this.projectId = projectModel.getProjectId();
             this.version = projectModel.getVersion();
-            this.versionedConfig = new VersionedConfig(gson.fromJson(projectModel.getConfigJson(), com.smotana.clearflask.api.model.Config.class), projectModel.getVersion());
-            this.versionedConfigAdmin = new VersionedConfigAdmin(gson.fromJson(projectModel.getConfigJson(), ConfigAdmin.class), projectModel.getVersion());
+            JsonElement configJsonTree = JsonParser.parseString(projectModel.getConfigJson());
+            this.versionedConfig = new VersionedConfig(gson.fromJson(configJsonTree, com.smotana.clearflask.api.model.Config.class), projectModel.getVersion());
+            this.versionedConfigAdmin = new VersionedConfigAdmin(gson.fromJson(configJsonTree, ConfigAdmin.class), projectModel.getVersion());
+            this.configBindSlugResultPreSerializedSupplier = Suppliers.memoize(() -> PreSerializedJson.create(
+                    gson,
+                    new ConfigBindSlugResult(projectId, versionedConfig, null),
+                    Optional.of(version)));
             this.categoryExpressionToWeight = this.versionedConfig.getConfig().getContent().getCategories().stream()
                     .filter(category -> category.getSupport().getExpress() != null)
                     .filter(category -> category.getSupport().getExpress().getLimitEmojiSet() != null)
@@ -808,6 +847,11 @@ public class DynamoProjectStore implements ProjectStore {
             return versionedConfig;
         }
 
+        @Override
+        public PreSerializedJson getConfigBindSlugResultPreSerialized() {
+            return configBindSlugResultPreSerializedSupplier.get();
+        }
+
         public VersionedConfigAdmin getVersionedConfigAdmin() {
             return versionedConfigAdmin;
         }
@@ -985,6 +1029,25 @@ public class DynamoProjectStore implements ProjectStore {
                     });
         }
 
+        @Override
+        public Optional<ElasticIndexLayout> getElasticIndexLayoutOverride() {
+            return Optional.ofNullable(getVersionedConfigAdmin().getConfig().getForceElasticIndexLayout())
+                    .flatMap(forceElasticIndexLayout -> {
+                        switch (forceElasticIndexLayout) {
+                            case PERPROJECT:
+                                return Optional.of(ElasticIndexLayout.PER_PROJECT);
+                            case SHARED:
+                                return Optional.of(ElasticIndexLayout.SHARED);
+                            default:
+                                if (LogUtil.rateLimitAllowLog("dynamo-project-store-invalid-elasticIndexLayoutOverride")) {
+                                    log.warn("Invalid value for forceElasticIndexLayout '{}' for project {}",
+                                            forceElasticIndexLayout, getProjectId());
+                                }
+                                return Optional.empty();
+                        }
+                    });
+        }
+
         private String getStatusLookupKey(String categoryId, String statusId) {
             return categoryId + ":" + statusId;
         }
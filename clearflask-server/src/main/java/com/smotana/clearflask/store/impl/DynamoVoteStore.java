@@ -4,6 +4,7 @@ package com.smotana.clearflask.store.impl;
 
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
 import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
@@ -18,12 +19,17 @@ import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
 import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.Put;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -33,6 +39,7 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.TransactionType;
 import com.smotana.clearflask.store.VoteStore;
+import com.smotana.clearflask.store.dynamo.DynamoAsyncExecutor;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.ServerSecret;
 import com.smotana.clearflask.web.ApiException;
@@ -45,10 +52,13 @@ import javax.ws.rs.core.Response;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 
 @Slf4j
@@ -72,6 +82,8 @@ public class DynamoVoteStore implements VoteStore {
     @Inject
     private DynamoDB dynamoDoc;
     @Inject
+    private DynamoAsyncExecutor dynamoAsyncExecutor;
+    @Inject
     private SingleTable singleTable;
     @Inject
     @Named("cursor")
@@ -125,6 +137,30 @@ public class DynamoVoteStore implements VoteStore {
                 .orElse(VoteValue.None);
     }
 
+    @Override
+    public TransactWriteItem voteTransactWriteItem(String projectId, String userId, String targetId, VoteValue vote) {
+        if (vote != VoteValue.None) {
+            return new TransactWriteItem().withPut(new Put()
+                    .withTableName(voteSchemaByUser.tableName())
+                    .withItem(voteSchemaByUser.toAttrMap(new VoteModel(userId, projectId, targetId, vote.getValue()))));
+        } else {
+            return new TransactWriteItem().withDelete(new Delete()
+                    .withTableName(voteSchemaByUser.tableName())
+                    .withKey(ItemUtils.toAttributeValueMap(voteSchemaByUser.primaryKey(Map.of(
+                            "userId", userId,
+                            "projectId", projectId,
+                            "targetId", targetId)))));
+        }
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<String, VoteModel>> voteSearchAsync(String projectId, String userId, ImmutableSet<String> targetIds) {
+        if (targetIds.isEmpty()) {
+            return Futures.immediateFuture(ImmutableMap.of());
+        }
+        return dynamoAsyncExecutor.submit(() -> voteSearch(projectId, userId, targetIds));
+    }
+
     @Override
     public ImmutableMap<String, VoteModel> voteSearch(String projectId, String userId, ImmutableSet<String> targetIds) {
         if (targetIds.isEmpty()) {
@@ -457,6 +493,71 @@ public class DynamoVoteStore implements VoteStore {
                         i -> i));
     }
 
+    @Override
+    public UserVotes userVotesSearch(String projectId, String userId, ImmutableSet<String> voteTargetIds, ImmutableSet<String> expressTargetIds, ImmutableSet<String> fundTargetIds) {
+        ImmutableList<PrimaryKey> primaryKeys = Stream.of(
+                        voteTargetIds.stream().map(targetId -> voteSchemaByUser.primaryKey(Map.of(
+                                "userId", userId,
+                                "projectId", projectId,
+                                "targetId", targetId))),
+                        expressTargetIds.stream().map(targetId -> expressSchemaByUser.primaryKey(Map.of(
+                                "userId", userId,
+                                "projectId", projectId,
+                                "targetId", targetId))),
+                        fundTargetIds.stream().map(targetId -> fundSchemaByUser.primaryKey(Map.of(
+                                "userId", userId,
+                                "projectId", projectId,
+                                "targetId", targetId))))
+                .flatMap(s -> s)
+                .collect(ImmutableList.toImmutableList());
+        if (primaryKeys.isEmpty()) {
+            return UserVotes.EMPTY;
+        }
+
+        // All three share the same table and partition, tell them apart by range key prefix
+        String voteRangePrefix = voteSchemaByUser.rangeValuePartial(Map.of());
+        String expressRangePrefix = expressSchemaByUser.rangeValuePartial(Map.of());
+        String fundRangePrefix = fundSchemaByUser.rangeValuePartial(Map.of());
+        ImmutableMap.Builder<String, VoteModel> votesBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, ExpressModel> expressionsBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, FundModel> fundsBuilder = ImmutableMap.builder();
+        for (List<PrimaryKey> primaryKeysBatch : Iterables.partition(primaryKeys, DYNAMO_READ_BATCH_MAX_SIZE)) {
+            singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(voteSchemaByUser.tableName())
+                            .withPrimaryKeys(primaryKeysBatch.toArray(PrimaryKey[]::new))))
+                    .forEach(item -> {
+                        String rangeValue = item.getString(voteSchemaByUser.rangeKeyName());
+                        if (rangeValue.startsWith(voteRangePrefix)) {
+                            VoteModel voteModel = voteSchemaByUser.fromItem(item);
+                            if (voteModel.getVote() != VoteValue.None.getValue()) {
+                                votesBuilder.put(voteModel.getTargetId(), voteModel);
+                            }
+                        } else if (rangeValue.startsWith(expressRangePrefix)) {
+                            ExpressModel expressModel = expressSchemaByUser.fromItem(item);
+                            if (!expressModel.getExpressions().isEmpty()) {
+                                expressionsBuilder.put(expressModel.getTargetId(), expressModel);
+                            }
+                        } else if (rangeValue.startsWith(fundRangePrefix)) {
+                            FundModel fundModel = fundSchemaByUser.fromItem(item);
+                            if (fundModel.getFundAmount() != 0L) {
+                                fundsBuilder.put(fundModel.getTargetId(), fundModel);
+                            }
+                        }
+                    });
+        }
+        return new UserVotes(
+                votesBuilder.build(),
+                expressionsBuilder.build(),
+                fundsBuilder.build());
+    }
+
+    @Override
+    public ListenableFuture<UserVotes> userVotesSearchAsync(String projectId, String userId, ImmutableSet<String> voteTargetIds, ImmutableSet<String> expressTargetIds, ImmutableSet<String> fundTargetIds) {
+        if (voteTargetIds.isEmpty() && expressTargetIds.isEmpty() && fundTargetIds.isEmpty()) {
+            return Futures.immediateFuture(UserVotes.EMPTY);
+        }
+        return dynamoAsyncExecutor.submit(() -> userVotesSearch(projectId, userId, voteTargetIds, expressTargetIds, fundTargetIds));
+    }
+
     @Override
     public ListResponse<FundModel> fundListByUser(String projectId, String userId, Optional<String> cursorOpt) {
         Page<Item, QueryOutcome> page = fundSchemaByUser.table().query(new QuerySpec()
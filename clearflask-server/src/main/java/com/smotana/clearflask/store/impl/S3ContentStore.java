@@ -9,6 +9,14 @@ import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -17,21 +25,31 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.LatencyStats;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.math.RoundingMode;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Date;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 public class S3ContentStore extends ManagedService implements ContentStore {
 
     private static final String KEY_PREFIX = "img/ugc/";
+    private static final String VARIANT_DELIMITER = "-";
     private static final Pattern CONTENT_TYPE_URL_MATCHER = Pattern.compile("^(?<scheme>[^:]+)://(?<domain>[^/]+)/(?<key>" + KEY_PREFIX + "(?<projectId>[^/]+)/(?<userId>[^/]+)/(?<fileName>[^?]+\\.(?<extension>[^.?]+)))(?<query>\\?[^#]*)?$");
 
     public interface Config {
@@ -49,6 +67,19 @@ public class S3ContentStore extends ManagedService implements ContentStore {
 
         @DefaultValue("PT3H")
         Duration presignedUrlExpiry();
+
+        @DefaultValue("true")
+        boolean presignedUrlCacheEnabled();
+
+        /**
+         * Expiry of signed URLs is rounded up to a multiple of this duration, and URLs are reused until then.
+         * Actual validity is between presignedUrlExpiry and presignedUrlExpiry plus this duration.
+         */
+        @DefaultValue("PT1H")
+        Duration presignedUrlCacheBucket();
+
+        @DefaultValue("100000")
+        long presignedUrlCacheMaximumSize();
     }
 
     @Inject
@@ -56,6 +87,18 @@ public class S3ContentStore extends ManagedService implements ContentStore {
     @Inject
     private AmazonS3 s3;
 
+    private final LatencyStats signStats = new LatencyStats();
+    private Cache<SignedUrlKey, String> signedUrlCache;
+
+    @Inject
+    private void setup() {
+        signedUrlCache = CacheBuilder.newBuilder()
+                .maximumSize(config.presignedUrlCacheMaximumSize())
+                .expireAfterWrite(config.presignedUrlCacheBucket())
+                .recordStats()
+                .build();
+    }
+
     @Override
     protected void serviceStart() throws Exception {
         if (config.createBucket()) {
@@ -70,17 +113,33 @@ public class S3ContentStore extends ManagedService implements ContentStore {
 
     @Override
     public ContentUrl upload(String projectId, String userId, ContentType contentType, InputStream inputStream, int length) {
-        ContentUrl contentUrl = generateContentUrl(projectId, userId, contentType);
+        return upload(projectId, userId, contentType, inputStream, length, ImmutableMap.of());
+    }
+
+    @Override
+    public ContentUrl upload(String projectId, String userId, ContentType contentType, InputStream inputStream, int length, ImmutableMap<String, byte[]> variants) {
+        ContentUrl contentUrl = generateContentUrl(projectId, userId, contentType, variants.keySet());
+        // Variants first so they exist by the time the URL is handed out
+        variants.forEach((variant, data) -> putObject(variantKey(contentUrl, variant), contentType, new ByteArrayInputStream(data), data.length));
+        putObject(contentUrl.getKey(), contentType, inputStream, length);
+        return contentUrl;
+    }
+
+    private void putObject(String key, ContentType contentType, InputStream inputStream, int length) {
         ObjectMetadata metadata = new ObjectMetadata();
         metadata.setContentType(contentType.getMediaType());
         metadata.setContentLength(length);
-        s3.putObject(config.bucketName(), contentUrl.getKey(), inputStream, metadata);
-        return contentUrl;
+        s3.putObject(config.bucketName(), key, inputStream, metadata);
     }
 
     @Override
     public String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length) {
-        ContentUrl contentUrl = upload(projectId, userId, contentType, inputStream, length);
+        return uploadAndSign(projectId, userId, contentType, inputStream, length, ImmutableMap.of());
+    }
+
+    @Override
+    public String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length, ImmutableMap<String, byte[]> variants) {
+        ContentUrl contentUrl = upload(projectId, userId, contentType, inputStream, length, variants);
         return signUrl(contentUrl);
     }
 
@@ -106,7 +165,15 @@ public class S3ContentStore extends ManagedService implements ContentStore {
                 || (matchUserIdOpt.isPresent() && !matchUserIdOpt.get().equals(contentUrlOpt.get().getUserId()))) {
             return;
         }
-        s3.deleteObject(config.bucketName(), contentUrlOpt.get().getKey());
+        if (contentUrlOpt.get().getVariants().isEmpty()) {
+            s3.deleteObject(config.bucketName(), contentUrlOpt.get().getKey());
+        } else {
+            s3.deleteObjects(new DeleteObjectsRequest(config.bucketName())
+                    .withKeys(Stream.concat(
+                                    Stream.of(contentUrlOpt.get().getKey()),
+                                    contentUrlOpt.get().getVariants().stream().map(variant -> variantKey(contentUrlOpt.get(), variant)))
+                            .toArray(String[]::new)));
+        }
     }
 
     @Override
@@ -136,22 +203,69 @@ public class S3ContentStore extends ManagedService implements ContentStore {
 
     @Override
     public Optional<String> signUrl(String matchProjectId, String url) {
+        return signUrl(matchProjectId, url, Optional.empty());
+    }
+
+    @Override
+    public Optional<String> signUrl(String matchProjectId, String url, Optional<String> variantOpt) {
         Optional<ContentUrl> contentUrlOpt = parseContentUrl(url);
         if (!contentUrlOpt.isPresent()
                 || !matchProjectId.equals(contentUrlOpt.get().getProjectId())) {
             return Optional.empty();
         }
 
+        if (variantOpt.isPresent() && contentUrlOpt.get().getVariants().contains(variantOpt.get())) {
+            return Optional.of(signKey(variantKey(contentUrlOpt.get(), variantOpt.get())));
+        }
         return Optional.of(signUrl(contentUrlOpt.get()));
     }
 
     @Override
     public String signUrl(ContentUrl contentUrl) {
-        return s3.generatePresignedUrl(
-                config.bucketName(),
-                contentUrl.getKey(),
-                Date.from(Instant.now().plus(config.presignedUrlExpiry())),
-                HttpMethod.GET).toString();
+        return signKey(contentUrl.getKey());
+    }
+
+    private String signKey(String key) {
+        if (!config.presignedUrlCacheEnabled()) {
+            return generatePresignedUrl(key, Instant.now().plus(config.presignedUrlExpiry()));
+        }
+        long bucketMillis = config.presignedUrlCacheBucket().toMillis();
+        long expiryEpochMillis = LongMath.divide(
+                Instant.now().plus(config.presignedUrlExpiry()).toEpochMilli(),
+                bucketMillis,
+                RoundingMode.CEILING) * bucketMillis;
+        try {
+            return signedUrlCache.get(new SignedUrlKey(key, expiryEpochMillis),
+                    () -> generatePresignedUrl(key, Instant.ofEpochMilli(expiryEpochMillis)));
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } catch (UncheckedExecutionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw ex;
+        }
+    }
+
+    private String generatePresignedUrl(String key, Instant expiry) {
+        long startNanos = System.nanoTime();
+        try {
+            return s3.generatePresignedUrl(
+                    config.bucketName(),
+                    key,
+                    Date.from(expiry),
+                    HttpMethod.GET).toString();
+        } finally {
+            signStats.recordSince(startNanos);
+        }
+    }
+
+    @Extern
+    private SignStats signStats() {
+        return new SignStats(signedUrlCache.stats(), signStats.snapshot());
+    }
+
+    @Extern
+    private void resetSignStats() {
+        signStats.reset();
     }
 
     @Override
@@ -169,22 +283,56 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         String extension = matcher.group("extension");
         String query = matcher.group("query");
         ContentType contentType = ContentType.EXTENSION_TO_CONTENT_TYPE.getOrDefault(extension, ContentType.UNKNOWN);
+        String[] fileNameParts = fileName.split("\\.");
+        ImmutableSet<String> variants = fileNameParts.length == 3
+                ? ImmutableSet.copyOf(fileNameParts[1].split(VARIANT_DELIMITER))
+                : ImmutableSet.of();
 
         if (!config.scheme().equals(scheme)
                 || !config.hostname().equals(domain)) {
             return Optional.empty();
         }
 
-        return Optional.of(new ContentUrl(url, key, fileName, query, projectId, userId, contentType));
+        return Optional.of(new ContentUrl(url, key, fileName, query, projectId, userId, contentType, variants));
     }
 
     @VisibleForTesting
     public ContentUrl generateContentUrl(String projectId, String userId, ContentType contentType) {
-        String fileName = IdUtil.randomId() + "." + contentType.getExtension();
+        return generateContentUrl(projectId, userId, contentType, ImmutableSet.of());
+    }
+
+    /**
+     * Available variants are listed in the file name as {@code id.variant1-variant2.ext} so they can be selected
+     * without a lookup. Each variant is stored as {@code id.variant.ext}.
+     */
+    private ContentUrl generateContentUrl(String projectId, String userId, ContentType contentType, Set<String> variants) {
+        String fileName = IdUtil.randomId()
+                + (variants.isEmpty() ? "" : "." + variants.stream().sorted().collect(Collectors.joining(VARIANT_DELIMITER)))
+                + "." + contentType.getExtension();
         String key = KEY_PREFIX + projectId + "/" + userId + "/" + fileName;
         String url = config.scheme() + "://" + config.hostname() + "/" + key;
 
-        return new ContentUrl(url, key, fileName, null, projectId, userId, contentType);
+        return new ContentUrl(url, key, fileName, null, projectId, userId, contentType, ImmutableSet.copyOf(variants));
+    }
+
+    private String variantKey(ContentUrl contentUrl, String variant) {
+        String fileName = contentUrl.getFileName();
+        return contentUrl.getKey().substring(0, contentUrl.getKey().length() - fileName.length())
+                + fileName.substring(0, fileName.indexOf('.'))
+                + "." + variant
+                + "." + contentUrl.getContentType().getExtension();
+    }
+
+    @Value
+    private static class SignedUrlKey {
+        String key;
+        long expiryEpochMillis;
+    }
+
+    @Value
+    public static class SignStats {
+        CacheStats cache;
+        LatencyStats.Snapshot signing;
     }
 
     public static Module module() {
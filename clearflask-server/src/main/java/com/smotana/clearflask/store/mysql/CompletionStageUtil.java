@@ -21,7 +21,7 @@ public class CompletionStageUtil {
     }
 
     public static void logFailure(CompletionStage<?> completionStage) {
-        completionStage.whenCompleteAsync((result, th) -> {
+        completionStage.whenComplete((result, th) -> {
             if (th == null) {
                 return;
             }
@@ -36,7 +36,7 @@ public class CompletionStageUtil {
     }
 
     public static SettableFuture<Void> toSettableFuture(SettableFuture<Void> settableFuture, CompletionStage<?> completionStage) {
-        completionStage.whenCompleteAsync((result, th) -> {
+        completionStage.whenComplete((result, th) -> {
             if (th == null) {
                 settableFuture.set(null);
             } else {
@@ -3,6 +3,7 @@
 package com.smotana.clearflask.store.mysql;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -17,17 +18,30 @@ import com.mysql.cj.jdbc.MysqlDataSource;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.core.ServiceInjector.Environment;
 import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LatencyStats;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.CloseableDSLContext;
 import org.jooq.DSLContext;
+import org.jooq.ExecuteListener;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.smotana.clearflask.util.IdUtil.CONTENT_UNIQUE_MAX_LENGTH;
 import static com.smotana.clearflask.util.IdUtil.UUID_DASHLESS_MAX_LENGTH;
@@ -37,6 +51,7 @@ import static com.smotana.clearflask.util.IdUtil.UUID_DASHLESS_MAX_LENGTH;
 public class DefaultMysqlProvider extends ManagedService implements Provider<DSLContext> {
 
     public static final int ID_MAX_LENGTH = Math.max(CONTENT_UNIQUE_MAX_LENGTH, UUID_DASHLESS_MAX_LENGTH);
+    private static final String QUERY_START_NANOS_KEY = "clearflask.queryStartNanos";
 
     public interface Config {
         @NoDefaultValue
@@ -54,6 +69,42 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
         @DefaultValue("clearflask")
         String databaseName();
 
+        @DefaultValue("2")
+        int poolMinIdle();
+
+        @DefaultValue("20")
+        int poolMaxSize();
+
+        @DefaultValue("PT10M")
+        Duration poolIdleTimeout();
+
+        @DefaultValue("PT30M")
+        Duration poolMaxLifetime();
+
+        /**
+         * Max time to wait for a free connection before failing the query.
+         */
+        @DefaultValue("PT10S")
+        Duration poolConnectionTimeout();
+
+        /**
+         * Logs a warning with stack trace if a connection is held longer than this. Zero to disable.
+         */
+        @DefaultValue("PT0S")
+        Duration poolLeakDetectionThreshold();
+
+        /**
+         * Threads running executeAsync/fetchAsync queries. Keep at or below poolMaxSize.
+         */
+        @DefaultValue("20")
+        int executorThreadCount();
+
+        /**
+         * Async queries waiting for a thread. Once full, the submitting thread runs the query itself.
+         */
+        @DefaultValue("1000")
+        int executorQueueSize();
+
         /** For testing only */
         @DefaultValue("false")
         boolean recreateDatabaseOnStartup();
@@ -72,7 +123,14 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
     @Inject
     private Provider<DSLContext> clientProvider;
 
+    private final LatencyStats poolConnectionWaitStats = new LatencyStats();
+    private final LatencyStats poolConnectionUsageStats = new LatencyStats();
+    private final LongAdder poolConnectionTimeouts = new LongAdder();
+    private final LatencyStats queryStats = new LatencyStats();
+    private final LongAdder queryErrors = new LongAdder();
     private Optional<DSLContext> clientOpt = Optional.empty();
+    private Optional<HikariDataSource> dataSourceOpt = Optional.empty();
+    private Optional<ThreadPoolExecutor> executorOpt = Optional.empty();
 
     @SneakyThrows
     @Override
@@ -91,15 +149,96 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
         log.info("Opening Mysql client on {}:{}", config.host(), config.port());
         Class.forName("com.mysql.cj.jdbc.Driver");
         System.setProperty("org.jooq.no-logo", "true");
-        MysqlDataSource dataSource = new MysqlDataSource();
-        dataSource.setURL(getConnectionUrl(true));
-        dataSource.setPassword(config.pass());
-        dataSource.setUser(config.user());
-        dataSource.setDatabaseName(config.databaseName());
-        clientOpt = Optional.of(DSL.using(dataSource, SQLDialect.MYSQL));
+        MysqlDataSource mysqlDataSource = new MysqlDataSource();
+        mysqlDataSource.setURL(getConnectionUrl(true));
+        mysqlDataSource.setPassword(config.pass());
+        mysqlDataSource.setUser(config.user());
+        mysqlDataSource.setDatabaseName(config.databaseName());
+        // Sends batches, such as during reindexing, in a single round trip
+        mysqlDataSource.setRewriteBatchedStatements(true);
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("mysql");
+        hikariConfig.setDataSource(mysqlDataSource);
+        hikariConfig.setMinimumIdle(config.poolMinIdle());
+        hikariConfig.setMaximumPoolSize(config.poolMaxSize());
+        hikariConfig.setIdleTimeout(config.poolIdleTimeout().toMillis());
+        hikariConfig.setMaxLifetime(config.poolMaxLifetime().toMillis());
+        hikariConfig.setConnectionTimeout(config.poolConnectionTimeout().toMillis());
+        hikariConfig.setLeakDetectionThreshold(config.poolLeakDetectionThreshold().toMillis());
+        // Database may not exist yet, it is created during service start
+        hikariConfig.setInitializationFailTimeout(-1);
+        hikariConfig.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                poolConnectionWaitStats.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                poolConnectionUsageStats.recordMillis(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                poolConnectionTimeouts.increment();
+            }
+        });
+        HikariDataSource dataSource = new HikariDataSource(hikariConfig);
+        dataSourceOpt = Optional.of(dataSource);
+
+        // Keeps async queries off of the common ForkJoinPool
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                config.executorThreadCount(), config.executorThreadCount(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.executorQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("DefaultMysqlProvider-worker-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        executorOpt = Optional.of(executor);
+
+        clientOpt = Optional.of(DSL.using(new DefaultConfiguration()
+                .set(dataSource)
+                .set(SQLDialect.MYSQL)
+                .set(executor)
+                .set(ExecuteListener
+                        .onStart(ctx -> ctx.data(QUERY_START_NANOS_KEY, System.nanoTime()))
+                        .onException(ctx -> queryErrors.increment())
+                        .onEnd(ctx -> {
+                            Object startNanos = ctx.data(QUERY_START_NANOS_KEY);
+                            if (startNanos != null) {
+                                queryStats.recordSince((Long) startNanos);
+                            }
+                        }))));
         return clientOpt.get();
     }
 
+    @Extern
+    public MysqlStats getStats() {
+        Optional<HikariPoolMXBean> poolOpt = dataSourceOpt.map(HikariDataSource::getHikariPoolMXBean);
+        return new MysqlStats(
+                poolOpt.map(HikariPoolMXBean::getActiveConnections).orElse(0),
+                poolOpt.map(HikariPoolMXBean::getIdleConnections).orElse(0),
+                poolOpt.map(HikariPoolMXBean::getTotalConnections).orElse(0),
+                poolOpt.map(HikariPoolMXBean::getThreadsAwaitingConnection).orElse(0),
+                poolConnectionTimeouts.sum(),
+                poolConnectionWaitStats.snapshot(),
+                poolConnectionUsageStats.snapshot(),
+                queryStats.snapshot(),
+                queryErrors.sum(),
+                executorOpt.map(ThreadPoolExecutor::getActiveCount).orElse(0),
+                executorOpt.map(e -> e.getQueue().size()).orElse(0),
+                executorOpt.map(ThreadPoolExecutor::getCompletedTaskCount).orElse(0L));
+    }
+
+    @Extern
+    public void resetStats() {
+        poolConnectionWaitStats.reset();
+        poolConnectionUsageStats.reset();
+        poolConnectionTimeouts.reset();
+        queryStats.reset();
+        queryErrors.reset();
+    }
+
     @Override
     protected void serviceStart() throws Exception {
         if (configApp.defaultSearchEngine().isWriteMysql()) {
@@ -118,6 +257,13 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
         if (config.dropDatabaseOnShutdown() && configApp.defaultSearchEngine().isWriteMysql()) {
             dropDatabase();
         }
+        if (executorOpt.isPresent()) {
+            executorOpt.get().shutdown();
+            executorOpt.get().awaitTermination(30, TimeUnit.SECONDS);
+        }
+        if (dataSourceOpt.isPresent()) {
+            dataSourceOpt.get().close();
+        }
     }
 
     @Extern
@@ -141,6 +287,22 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
         }
     }
 
+    @Value
+    public static class MysqlStats {
+        int poolActiveConnections;
+        int poolIdleConnections;
+        int poolTotalConnections;
+        int poolThreadsAwaitingConnection;
+        long poolConnectionTimeouts;
+        LatencyStats.Snapshot poolConnectionWait;
+        LatencyStats.Snapshot poolConnectionUsage;
+        LatencyStats.Snapshot query;
+        long queryErrors;
+        int executorActiveThreads;
+        int executorQueueDepth;
+        long executorCompletedTasks;
+    }
+
     private String getConnectionUrl(boolean includeDatabase) {
         String url = "jdbc:mysql://" + config.host() + ":" + config.port();
         return !includeDatabase ? url
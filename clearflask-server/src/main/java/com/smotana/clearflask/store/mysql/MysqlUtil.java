@@ -3,7 +3,9 @@
 package com.smotana.clearflask.store.mysql;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -30,11 +32,15 @@ import org.jooq.JoinType;
 import org.jooq.Queries;
 import org.jooq.Query;
 import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SortField;
+import org.jooq.SortOrder;
 import org.jooq.Table;
 import org.jooq.TableField;
 import org.jooq.exception.DataAccessException;
 import org.jooq.exception.SQLStateClass;
 import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
 
 import javax.annotation.Nullable;
 import java.io.Reader;
@@ -46,6 +52,7 @@ import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -61,8 +68,12 @@ public class MysqlUtil {
     @Inject
     @Named("cursor")
     private ServerSecret serverSecretCursor;
+    @Inject
+    private Gson gson;
 
     private final Pattern similarTextExtractor = Pattern.compile("(\\w{4,})");
+    private final Pattern fullTextWordExtractor = Pattern.compile("([\\p{L}\\p{N}_]{2,})");
+    private static final int FULL_TEXT_MAX_WORDS = 10;
 
     @SafeVarargs
     public final Condition similarToCondition(String text, TableField<?, String>... fields) {
@@ -77,6 +88,35 @@ public class MysqlUtil {
         return condition;
     }
 
+    /**
+     * Relevance ranked match against a FULLTEXT index covering exactly the given fields. Each word
+     * matches as a prefix so partially typed words match, any word may match and rows matching more
+     * words rank higher.
+     *
+     * @return Empty if text has no words to search for
+     */
+    @SafeVarargs
+    public final Optional<FullText> fullText(String text, TableField<?, String>... fields) {
+        Matcher matcher = fullTextWordExtractor.matcher(text);
+        List<String> terms = Lists.newArrayList();
+        while (matcher.find() && terms.size() < FULL_TEXT_MAX_WORDS) {
+            terms.add(matcher.group(1) + "*");
+        }
+        if (terms.isEmpty()) {
+            return Optional.empty();
+        }
+        String query = String.join(" ", terms);
+        return Optional.of(new FullText(
+                DSL.condition("match({0}) against ({1} in boolean mode)", DSL.list(fields), DSL.val(query)),
+                DSL.field("match({0}) against ({1} in boolean mode)", SQLDataType.DOUBLE, DSL.list(fields), DSL.val(query))));
+    }
+
+    @Value
+    public static class FullText {
+        Condition condition;
+        Field<Double> relevance;
+    }
+
     public CompletionStage<Integer> sequentialBatch(Queries queries) {
         @NotNull Query[] qs = queries.queries();
         if (qs.length <= 0) {
@@ -85,12 +125,39 @@ public class MysqlUtil {
         CompletionStage<Integer> completionStage = qs[0].executeAsync();
         for (int i = 1; i < qs.length; i++) {
             Query nextQuery = qs[i];
-            completionStage = completionStage.thenComposeAsync(count -> nextQuery.executeAsync());
+            completionStage = completionStage.thenCompose(count -> nextQuery.executeAsync());
         }
         return completionStage;
     }
 
     public void createIndexIfNotExists(CreateIndexIncludeStep query) {
+        createIndexIfNotExists((Query) query);
+    }
+
+    /**
+     * Queries using {@link #fullText} must match against the same fields in the same order.
+     */
+    public void createFullTextIndexIfNotExists(String name, Table<?> table, TableField<?, ?>... fields) {
+        createIndexIfNotExists(mysql.get().query("create fulltext index {0} on {1} ({2})",
+                DSL.name(name),
+                table,
+                DSL.list(Arrays.stream(fields)
+                        .map(Field::getUnqualifiedName)
+                        .collect(ImmutableList.toImmutableList()))));
+    }
+
+    private void createIndexIfNotExists(Query query) {
+        executeIfNotExists(query, "Duplicate key name", "index");
+    }
+
+    /**
+     * Adds a column to a table created before the column was introduced, MySQL has no ADD COLUMN IF NOT EXISTS.
+     */
+    public void addColumnIfNotExists(Table<?> table, Field<?> field) {
+        executeIfNotExists(mysql.get().alterTable(table).addColumn(field), "Duplicate column name", "column");
+    }
+
+    private void executeIfNotExists(Query query, String duplicateMessage, String objectType) {
         try {
             query.execute();
         } catch (DataAccessException ex) {
@@ -98,10 +165,10 @@ public class MysqlUtil {
                     .map(SQLException::getMessage);
             @Nullable SQLStateClass sqlStateClass = ex.sqlStateClass();
             if (SQLStateClass.C42_SYNTAX_ERROR_OR_ACCESS_RULE_VIOLATION.equals(sqlStateClass)
-                    && causeSqlExMessageOpt.filter(msg -> msg.contains("Duplicate key name")).isPresent()) {
-                log.debug("Index already exists: {}", ex.getMessage());
+                    && causeSqlExMessageOpt.filter(msg -> msg.contains(duplicateMessage)).isPresent()) {
+                log.debug("Skipping {} that already exists: {}", objectType, ex.getMessage());
             } else {
-                throw new RuntimeException("Failed to create index with SQL cause " + Optional.ofNullable(sqlStateClass) + " msg " + causeSqlExMessageOpt, ex);
+                throw new RuntimeException("Failed to create " + objectType + " with SQL cause " + Optional.ofNullable(sqlStateClass) + " msg " + causeSqlExMessageOpt, ex);
             }
         }
     }
@@ -198,7 +265,7 @@ public class MysqlUtil {
                         endBoundOpt))
                 .groupBy(intervalField)
                 .fetchAsync()
-                .thenAcceptAsync(result -> histogramBuilder.points(result.stream()
+                .thenAccept(result -> histogramBuilder.points(result.stream()
                         .map(record -> new HistogramResponsePoints(
                                 LocalDate.of(record.component1(), record.component2(), record.component3()),
                                 record.component4().longValue()))
@@ -209,7 +276,7 @@ public class MysqlUtil {
                 .from(join(table, searchIdeasOpt.map(SearchIdeasConditions::getJoins).orElse(ImmutableList.of())))
                 .where(projectIdCondition, and(searchIdeasOpt.map(SearchIdeasConditions::getConditions)))
                 .fetchAsync()
-                .thenAcceptAsync(result -> histogramBuilder.hits(
+                .thenAccept(result -> histogramBuilder.hits(
                         new Hits(result.get(0).component1().longValue(), null)));
 
         CompletionStageUtil.toSettableFuture(pointsCompletionStage, hitsCompletionStage).get();
@@ -259,6 +326,137 @@ public class MysqlUtil {
                 .map(serverSecretCursor::encryptString);
     }
 
+    /**
+     * Keyset (seek) pagination, the query is ordered by the given sort fields followed by unique fields
+     * as tie breakers. Each page continues after the last row of the previous page instead of skipping
+     * an offset, deep pages cost the same as the first and rows moving between pages are not skipped
+     * or repeated.
+     * <p>
+     * Falls back to offset pagination if sorted by anything other than table fields (e.g. random or relevance).
+     * Only the unique fields are then selected, callers selecting DISTINCT must also select any sort expression.
+     * Offset cursors issued previously are honored once and continue as keyset cursors.
+     */
+    public Keyset keyset(ConfigSearch configSearch, Optional<String> cursorOpt, Optional<Integer> sizeOpt, List<SortField<?>> sortFields, TableField<?, ?>... uniqueFields) {
+        int limit = pageSizeMax(configSearch, sizeOpt);
+        boolean seekable = sortFields.stream().allMatch(sortField -> sortField.$field() instanceof TableField);
+        if (!seekable) {
+            return new Keyset(ImmutableList.copyOf(uniqueFields), ImmutableList.copyOf(sortFields), DSL.noCondition(), offset(cursorOpt), limit, false);
+        }
+
+        // Tie breakers follow the last sort direction so a single index scan direction serves the query
+        SortOrder tieBreakerOrder = sortFields.isEmpty() ? SortOrder.ASC : sortFields.get(sortFields.size() - 1).getOrder();
+        ImmutableList<SortField<?>> keysetSortFields = ImmutableList.<SortField<?>>builder()
+                .addAll(sortFields)
+                .addAll(Arrays.stream(uniqueFields)
+                        .map(uniqueField -> uniqueField.sort(tieBreakerOrder))
+                        .iterator())
+                .build();
+        ImmutableList<Field<?>> fields = keysetSortFields.stream()
+                .<Field<?>>map(SortField::$field)
+                .distinct()
+                .collect(ImmutableList.toImmutableList());
+
+        Condition seekCondition = DSL.noCondition();
+        int offset = 0;
+        if (cursorOpt.isPresent()) {
+            String cursor = serverSecretCursor.decryptString(cursorOpt.get());
+            Integer legacyOffset = Ints.tryParse(cursor);
+            if (legacyOffset != null) {
+                offset = legacyOffset;
+            } else {
+                KeysetCursor keysetCursor = gson.fromJson(cursor, KeysetCursor.class);
+                ImmutableList<String> fieldNames = keysetSortFields.stream()
+                        .map(SortField::getName)
+                        .collect(ImmutableList.toImmutableList());
+                if (keysetCursor == null || !fieldNames.equals(keysetCursor.getFields())) {
+                    log.debug("Keyset cursor for different sort, starting from the beginning");
+                } else {
+                    seekCondition = seekCondition(keysetSortFields, keysetCursor.getValues());
+                }
+            }
+        }
+        return new Keyset(fields, keysetSortFields, seekCondition, offset, limit, true);
+    }
+
+    public Optional<String> nextCursor(Keyset keyset, Result<? extends Record> result) {
+        if (result.size() < keyset.getLimit()) {
+            return Optional.empty();
+        }
+        if (!keyset.isSeekable()) {
+            return Optional.of(serverSecretCursor.encryptString(String.valueOf(keyset.getOffset() + keyset.getLimit())));
+        }
+        Record last = result.get(result.size() - 1);
+        List<String> values = Lists.newArrayListWithCapacity(keyset.getSortFields().size());
+        for (SortField<?> sortField : keyset.getSortFields()) {
+            values.add(Optional.ofNullable(last.get(sortField.$field()))
+                    .map(Object::toString)
+                    .orElse(null));
+        }
+        return Optional.of(serverSecretCursor.encryptString(gson.toJson(new KeysetCursor(
+                keyset.getSortFields().stream()
+                        .map(SortField::getName)
+                        .collect(ImmutableList.toImmutableList()),
+                values))));
+    }
+
+    /**
+     * Rows strictly after the given sort key, MySQL sorts nulls before any value.
+     */
+    private Condition seekCondition(ImmutableList<SortField<?>> sortFields, List<String> values) {
+        List<Condition> disjuncts = Lists.newArrayList();
+        Condition ties = DSL.noCondition();
+        for (int i = 0; i < sortFields.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Field<Object> field = (Field<Object>) sortFields.get(i).$field();
+            Object value = Optional.ofNullable(values.get(i))
+                    .map(v -> parseValue(field.getType(), v))
+                    .orElse(null);
+            if (sortFields.get(i).getOrder() == SortOrder.DESC) {
+                if (value != null) {
+                    disjuncts.add(ties.and(field.lt(value).or(field.isNull())));
+                }
+            } else {
+                disjuncts.add(ties.and(value == null ? field.isNotNull() : field.gt(value)));
+            }
+            ties = ties.and(value == null ? field.isNull() : field.eq(value));
+        }
+        return disjuncts.isEmpty() ? DSL.falseCondition() : DSL.or(disjuncts);
+    }
+
+    private Object parseValue(Class<?> type, String value) {
+        if (Instant.class.equals(type)) {
+            return Instant.parse(value);
+        } else if (Long.class.equals(type)) {
+            return Long.valueOf(value);
+        } else if (Double.class.equals(type)) {
+            return Double.valueOf(value);
+        } else if (Integer.class.equals(type)) {
+            return Integer.valueOf(value);
+        } else if (Boolean.class.equals(type)) {
+            return Boolean.valueOf(value);
+        } else if (String.class.equals(type)) {
+            return value;
+        }
+        throw new IllegalArgumentException("Unsupported keyset field type " + type);
+    }
+
+    @Value
+    public static class Keyset {
+        /** Fields to select, needed to build the next cursor */
+        ImmutableList<Field<?>> fields;
+        ImmutableList<SortField<?>> sortFields;
+        Condition seekCondition;
+        int offset;
+        int limit;
+        boolean seekable;
+    }
+
+    @Value
+    private static class KeysetCursor {
+        List<String> fields;
+        List<String> values;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
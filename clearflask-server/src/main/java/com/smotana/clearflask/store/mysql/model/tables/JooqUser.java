@@ -21,7 +21,7 @@ import org.jooq.ForeignKey;
 import org.jooq.Index;
 import org.jooq.Name;
 import org.jooq.Record;
-import org.jooq.Row7;
+import org.jooq.Row11;
 import org.jooq.Schema;
 import org.jooq.Table;
 import org.jooq.TableField;
@@ -95,6 +95,26 @@ public class JooqUser extends TableImpl<JooqUserRecord> {
      */
     public final TableField<JooqUserRecord, Boolean> ISMOD = createField(DSL.name("isMod"), SQLDataType.BOOLEAN, this, "");
 
+    /**
+     * The column <code>user.fundedIdeasCount</code>.
+     */
+    public final TableField<JooqUserRecord, Long> FUNDEDIDEASCOUNT = createField(DSL.name("fundedIdeasCount"), SQLDataType.BIGINT.nullable(false).defaultValue(DSL.inline("0", SQLDataType.BIGINT)), this, "");
+
+    /**
+     * The column <code>user.supportedIdeasCount</code>.
+     */
+    public final TableField<JooqUserRecord, Long> SUPPORTEDIDEASCOUNT = createField(DSL.name("supportedIdeasCount"), SQLDataType.BIGINT.nullable(false).defaultValue(DSL.inline("0", SQLDataType.BIGINT)), this, "");
+
+    /**
+     * The column <code>user.fundedAmount</code>.
+     */
+    public final TableField<JooqUserRecord, Long> FUNDEDAMOUNT = createField(DSL.name("fundedAmount"), SQLDataType.BIGINT.nullable(false).defaultValue(DSL.inline("0", SQLDataType.BIGINT)), this, "");
+
+    /**
+     * The column <code>user.lastActive</code>.
+     */
+    public final TableField<JooqUserRecord, Instant> LASTACTIVE = createField(DSL.name("lastActive"), SQLDataType.LOCALDATETIME(6), this, "", new LocalDateTimeToInstantBinding());
+
     private JooqUser(Name alias, Table<JooqUserRecord> aliased) {
         this(alias, aliased, null);
     }
@@ -170,11 +190,11 @@ public class JooqUser extends TableImpl<JooqUserRecord> {
     }
 
     // -------------------------------------------------------------------------
-    // Row7 type methods
+    // Row11 type methods
     // -------------------------------------------------------------------------
 
     @Override
-    public Row7<String, String, String, String, Instant, Long, Boolean> fieldsRow() {
-        return (Row7) super.fieldsRow();
+    public Row11<String, String, String, String, Instant, Long, Boolean, Long, Long, Long, Instant> fieldsRow() {
+        return (Row11) super.fieldsRow();
     }
 }
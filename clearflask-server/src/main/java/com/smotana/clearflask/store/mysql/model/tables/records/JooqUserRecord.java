@@ -12,8 +12,8 @@ import javax.annotation.processing.Generated;
 
 import org.jooq.Field;
 import org.jooq.Record2;
-import org.jooq.Record7;
-import org.jooq.Row7;
+import org.jooq.Record11;
+import org.jooq.Row11;
 import org.jooq.impl.UpdatableRecordImpl;
 
 
@@ -28,7 +28,7 @@ import org.jooq.impl.UpdatableRecordImpl;
     comments = "This class is generated by jOOQ"
 )
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
-public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implements Record7<String, String, String, String, Instant, Long, Boolean> {
+public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implements Record11<String, String, String, String, Instant, Long, Boolean, Long, Long, Long, Instant> {
 
     private static final long serialVersionUID = 1L;
 
@@ -130,6 +130,62 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
         return (Boolean) get(6);
     }
 
+    /**
+     * Setter for <code>user.fundedIdeasCount</code>.
+     */
+    public void setFundedideascount(Long value) {
+        set(7, value);
+    }
+
+    /**
+     * Getter for <code>user.fundedIdeasCount</code>.
+     */
+    public Long getFundedideascount() {
+        return (Long) get(7);
+    }
+
+    /**
+     * Setter for <code>user.supportedIdeasCount</code>.
+     */
+    public void setSupportedideascount(Long value) {
+        set(8, value);
+    }
+
+    /**
+     * Getter for <code>user.supportedIdeasCount</code>.
+     */
+    public Long getSupportedideascount() {
+        return (Long) get(8);
+    }
+
+    /**
+     * Setter for <code>user.fundedAmount</code>.
+     */
+    public void setFundedamount(Long value) {
+        set(9, value);
+    }
+
+    /**
+     * Getter for <code>user.fundedAmount</code>.
+     */
+    public Long getFundedamount() {
+        return (Long) get(9);
+    }
+
+    /**
+     * Setter for <code>user.lastActive</code>.
+     */
+    public void setLastactive(Instant value) {
+        set(10, value);
+    }
+
+    /**
+     * Getter for <code>user.lastActive</code>.
+     */
+    public Instant getLastactive() {
+        return (Instant) get(10);
+    }
+
     // -------------------------------------------------------------------------
     // Primary key information
     // -------------------------------------------------------------------------
@@ -140,17 +196,17 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
     }
 
     // -------------------------------------------------------------------------
-    // Record7 type implementation
+    // Record11 type implementation
     // -------------------------------------------------------------------------
 
     @Override
-    public Row7<String, String, String, String, Instant, Long, Boolean> fieldsRow() {
-        return (Row7) super.fieldsRow();
+    public Row11<String, String, String, String, Instant, Long, Boolean, Long, Long, Long, Instant> fieldsRow() {
+        return (Row11) super.fieldsRow();
     }
 
     @Override
-    public Row7<String, String, String, String, Instant, Long, Boolean> valuesRow() {
-        return (Row7) super.valuesRow();
+    public Row11<String, String, String, String, Instant, Long, Boolean, Long, Long, Long, Instant> valuesRow() {
+        return (Row11) super.valuesRow();
     }
 
     @Override
@@ -188,6 +244,26 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
         return JooqUser.USER.ISMOD;
     }
 
+    @Override
+    public Field<Long> field8() {
+        return JooqUser.USER.FUNDEDIDEASCOUNT;
+    }
+
+    @Override
+    public Field<Long> field9() {
+        return JooqUser.USER.SUPPORTEDIDEASCOUNT;
+    }
+
+    @Override
+    public Field<Long> field10() {
+        return JooqUser.USER.FUNDEDAMOUNT;
+    }
+
+    @Override
+    public Field<Instant> field11() {
+        return JooqUser.USER.LASTACTIVE;
+    }
+
     @Override
     public String component1() {
         return getProjectid();
@@ -223,6 +299,26 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
         return getIsmod();
     }
 
+    @Override
+    public Long component8() {
+        return getFundedideascount();
+    }
+
+    @Override
+    public Long component9() {
+        return getSupportedideascount();
+    }
+
+    @Override
+    public Long component10() {
+        return getFundedamount();
+    }
+
+    @Override
+    public Instant component11() {
+        return getLastactive();
+    }
+
     @Override
     public String value1() {
         return getProjectid();
@@ -258,6 +354,26 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
         return getIsmod();
     }
 
+    @Override
+    public Long value8() {
+        return getFundedideascount();
+    }
+
+    @Override
+    public Long value9() {
+        return getSupportedideascount();
+    }
+
+    @Override
+    public Long value10() {
+        return getFundedamount();
+    }
+
+    @Override
+    public Instant value11() {
+        return getLastactive();
+    }
+
     @Override
     public JooqUserRecord value1(String value) {
         setProjectid(value);
@@ -301,7 +417,31 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
     }
 
     @Override
-    public JooqUserRecord values(String value1, String value2, String value3, String value4, Instant value5, Long value6, Boolean value7) {
+    public JooqUserRecord value8(Long value) {
+        setFundedideascount(value);
+        return this;
+    }
+
+    @Override
+    public JooqUserRecord value9(Long value) {
+        setSupportedideascount(value);
+        return this;
+    }
+
+    @Override
+    public JooqUserRecord value10(Long value) {
+        setFundedamount(value);
+        return this;
+    }
+
+    @Override
+    public JooqUserRecord value11(Instant value) {
+        setLastactive(value);
+        return this;
+    }
+
+    @Override
+    public JooqUserRecord values(String value1, String value2, String value3, String value4, Instant value5, Long value6, Boolean value7, Long value8, Long value9, Long value10, Instant value11) {
         value1(value1);
         value2(value2);
         value3(value3);
@@ -309,6 +449,10 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
         value5(value5);
         value6(value6);
         value7(value7);
+        value8(value8);
+        value9(value9);
+        value10(value10);
+        value11(value11);
         return this;
     }
 
@@ -326,7 +470,7 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
     /**
      * Create a detached, initialised JooqUserRecord
      */
-    public JooqUserRecord(String projectid, String userid, String name, String email, Instant created, Long balance, Boolean ismod) {
+    public JooqUserRecord(String projectid, String userid, String name, String email, Instant created, Long balance, Boolean ismod, Long fundedideascount, Long supportedideascount, Long fundedamount, Instant lastactive) {
         super(JooqUser.USER);
 
         setProjectid(projectid);
@@ -336,5 +480,9 @@ public class JooqUserRecord extends UpdatableRecordImpl<JooqUserRecord> implemen
         setCreated(created);
         setBalance(balance);
         setIsmod(ismod);
+        setFundedideascount(fundedideascount);
+        setSupportedideascount(supportedideascount);
+        setFundedamount(fundedamount);
+        setLastactive(lastactive);
     }
 }
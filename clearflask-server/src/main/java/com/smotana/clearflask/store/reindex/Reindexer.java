@@ -0,0 +1,891 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.reindex;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Page;
+import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.ProjectStore.ElasticIndexLayout;
+import com.smotana.clearflask.store.elastic.ActionListeners;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import io.dataspray.singletable.DynamoTable;
+import io.dataspray.singletable.IndexSchema;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.TableField;
+
+import javax.inject.Provider;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Rebuilds a project's search indices from Dynamo.
+ * <p>
+ * Dynamo pages are read ahead while previous pages are written to ElasticSearch as bulk requests
+ * and to MySQL as batches, with a bounded number of pages in flight. Progress is checkpointed
+ * so a failed reindex resumes where it left off when retried with the same options.
+ * <p>
+ * An ElasticSearch index is replaced by writing to a new index and atomically swapping the alias
+ * once complete, searches are never served from a partially populated index. Any document failing
+ * to index fails the reindex and leaves the alias on the existing index. Changes written
+ * during the reindex are mirrored to the new index through a reindex alias until the swap,
+ * see {@link ElasticUtil#mirrorToReindexTarget}.
+ * Projects using the shared index are updated in place instead, or when migrating between
+ * layouts, written to the shared index before their alias is swapped over.
+ * MySQL rows are upserted in place and rows no longer present in Dynamo are removed at the end.
+ */
+@Slf4j
+@Singleton
+public class Reindexer extends ManagedService {
+
+    public interface Config {
+        /**
+         * Items read per Dynamo page, each page is written using a single bulk request
+         * unless it exceeds {@link #elasticBulkMaxBytes()}.
+         */
+        @DefaultValue("500")
+        int pageSize();
+
+        @DefaultValue("2")
+        int prefetchPages();
+
+        /**
+         * Maximum pages being written concurrently within a single reindex.
+         */
+        @DefaultValue("4")
+        int concurrentWrites();
+
+        @DefaultValue("8")
+        int writerThreadCount();
+
+        @DefaultValue("5000000")
+        long elasticBulkMaxBytes();
+
+        @DefaultValue("PT10S")
+        Duration checkpointInterval();
+
+        @DefaultValue("P7D")
+        Duration checkpointExpiry();
+
+        @DefaultValue("500")
+        int mysqlDeleteBatchSize();
+
+        /**
+         * Intended for tests. Delay before writing each page, keeps a reindex in progress.
+         */
+        @DefaultValue("PT0S")
+        Duration pageWriteDelay();
+    }
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    @Value
+    @Builder
+    public static class Job<T> {
+        @NonNull
+        String indexType;
+        @NonNull
+        String projectId;
+        /**
+         * Layout after reindexing, the project is migrated if currently using a different layout.
+         */
+        @NonNull
+        ElasticIndexLayout elasticIndexLayout;
+        /**
+         * Index partitioned by projectId, all items in the partition are reindexed.
+         */
+        @NonNull
+        IndexSchema<T> byProjectIdSchema;
+        @NonNull
+        Function<T, String> projectIdGetter;
+        @NonNull
+        Function<T, String> idGetter;
+        /**
+         * Given an index name, creates the index with its mappings.
+         */
+        @NonNull
+        Function<String, CreateIndexRequest> elasticCreateIndexRequest;
+        @NonNull
+        Function<T, IndexRequest> elasticIndexRequest;
+        @NonNull
+        Function<T, Iterable<? extends Query>> mysqlQueries;
+        @NonNull
+        TableField<?, String> mysqlProjectIdField;
+        @NonNull
+        TableField<?, String> mysqlIdField;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId", "indexType"}, rangePrefix = "reindexCheckpoint")
+    public static class ReindexCheckpoint {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String indexType;
+
+        boolean elastic;
+
+        boolean mysql;
+
+        boolean deleteExisting;
+
+        /**
+         * ElasticSearch index being populated, if not the alias itself, it will replace the alias once complete.
+         */
+        String elasticTargetIndex;
+
+        /**
+         * Dynamo key of the last page fully written, or null if none yet.
+         */
+        String lastEvaluatedKey;
+
+        long read;
+
+        long ttlInEpochSec;
+    }
+
+    @Value
+    public static class ReindexProgress {
+        String projectId;
+        String indexType;
+        State state;
+        boolean resumed;
+        String elasticTargetIndex;
+        long read;
+        long elasticIndexed;
+        long elasticStaleDeleted;
+        long mysqlWritten;
+        long mysqlStaleDeleted;
+        long errors;
+        String lastError;
+        long elapsedMillis;
+        double readPerSecond;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private Provider<RestHighLevelClient> elastic;
+    @Inject
+    private Provider<DSLContext> mysql;
+    @Inject
+    private ElasticUtil elasticUtil;
+
+    private TableSchema<ReindexCheckpoint> checkpointSchema;
+    private ListeningExecutorService readerExecutor;
+    private ListeningExecutorService writerExecutor;
+    private final ConcurrentMap<String, Run> runs = Maps.newConcurrentMap();
+
+    @Inject
+    private void setup() {
+        checkpointSchema = singleTable.parseTableSchema(ReindexCheckpoint.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        readerExecutor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("Reindexer-reader-%d").setDaemon(true).build()));
+        writerExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.writerThreadCount(),
+                new ThreadFactoryBuilder().setNameFormat("Reindexer-writer-%d").setDaemon(true).build()));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        readerExecutor.shutdownNow();
+        writerExecutor.shutdownNow();
+        readerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        writerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Blocks until reindex completes.
+     *
+     * @param deleteExisting Replace existing ElasticSearch index and remove MySQL rows no longer present,
+     *                       otherwise documents are updated in place.
+     */
+    public <T> void reindex(Job<T> job, boolean deleteExisting, boolean repopulateElastic, boolean repopulateMysql) throws Exception {
+        if (!repopulateElastic && !repopulateMysql) {
+            return;
+        }
+        String alias = elasticUtil.getIndexName(job.getIndexType(), job.getProjectId());
+        String sharedIndex = elasticUtil.getSharedIndexName(job.getIndexType());
+        boolean toShared = job.getElasticIndexLayout() == ElasticIndexLayout.SHARED;
+        boolean fromShared = repopulateElastic && getAliasedIndices(alias).contains(sharedIndex);
+        Optional<ReindexCheckpoint> checkpointOpt = getCheckpoint(job.getProjectId(), job.getIndexType())
+                .filter(c -> c.isElastic() == repopulateElastic
+                        && c.isMysql() == repopulateMysql
+                        && c.isDeleteExisting() == deleteExisting)
+                .filter(c -> c.getElasticTargetIndex() == null
+                        || (elasticIndexExists(c.getElasticTargetIndex())
+                        && toShared == (alias.equals(c.getElasticTargetIndex())
+                        ? fromShared
+                        : elasticUtil.isSharedIndexName(c.getElasticTargetIndex()))));
+        if (checkpointOpt.isPresent()) {
+            log.info("Resuming reindex of {} for project {} after {} items",
+                    job.getIndexType(), job.getProjectId(), checkpointOpt.get().getRead());
+        }
+
+        Optional<String> elasticTargetIndexOpt = Optional.empty();
+        // Documents in the shared index cannot be dropped with the index, remove those not rewritten instead
+        Set<String> elasticStaleIds = Sets.newConcurrentHashSet();
+        if (repopulateElastic) {
+            if (checkpointOpt.isPresent()) {
+                elasticTargetIndexOpt = Optional.of(checkpointOpt.get().getElasticTargetIndex());
+                if (deleteExisting && toShared && fromShared) {
+                    // Pages written before the checkpoint are not rewritten, see removeStillPresent below
+                    elasticStaleIds.addAll(getElasticIds(alias));
+                }
+            } else if (toShared && fromShared) {
+                elasticTargetIndexOpt = Optional.of(alias);
+                if (deleteExisting) {
+                    elasticStaleIds.addAll(getElasticIds(alias));
+                }
+            } else if (toShared) {
+                if (!elasticIndexExists(sharedIndex)) {
+                    try {
+                        elastic.get().indices().create(job.getElasticCreateIndexRequest().apply(sharedIndex), RequestOptions.DEFAULT);
+                    } catch (Exception ex) {
+                        if (!elasticUtil.isIndexAlreadyExistsException(ex)) {
+                            throw ex;
+                        }
+                    }
+                }
+                // Leftovers from a previous migration
+                deleteFromSharedIndex(job, sharedIndex);
+                elasticTargetIndexOpt = Optional.of(sharedIndex);
+            } else if (!deleteExisting && !fromShared && elasticIndexExists(alias)) {
+                elasticTargetIndexOpt = Optional.of(alias);
+            } else {
+                String targetIndex = alias + "." + System.currentTimeMillis();
+                elastic.get().indices().create(job.getElasticCreateIndexRequest().apply(targetIndex), RequestOptions.DEFAULT);
+                // Refresh once at the end instead
+                elastic.get().indices().putSettings(new UpdateSettingsRequest(targetIndex)
+                        .settings(Settings.builder().put("index.refresh_interval", "-1")), RequestOptions.DEFAULT);
+                elasticTargetIndexOpt = Optional.of(targetIndex);
+            }
+        }
+
+        if (elasticTargetIndexOpt.isPresent() && !alias.equals(elasticTargetIndexOpt.get())) {
+            setReindexAlias(job, elasticTargetIndexOpt.get());
+        }
+
+        // Document ids are prefixed by projectId within the shared index
+        boolean elasticTargetShared = elasticTargetIndexOpt
+                .map(targetIndex -> alias.equals(targetIndex) ? fromShared : elasticUtil.isSharedIndexName(targetIndex))
+                .orElse(false);
+
+        if (elasticTargetIndexOpt.isPresent() && !alias.equals(elasticTargetIndexOpt.get()) && elasticTargetShared != fromShared) {
+            // Other nodes may miss the alias broadcast, wait until they all know of the layout switch
+            // so they resolve the alias on every write and change document ids as soon as it is swapped.
+            // Best effort, nodes do not acknowledge. One unable to reload its alias state within this time,
+            // such as while paused or partitioned, may still write a document under the previous layout's id.
+            log.info("Waiting {} for all nodes to notice layout switch of {} for project {}",
+                    elasticUtil.getAliasStalenessMax(), job.getIndexType(), job.getProjectId());
+            Thread.sleep(elasticUtil.getAliasStalenessMax().toMillis());
+        }
+
+        // Only ids present before we start are candidates for removal, anything created since is not stale
+        Set<String> mysqlStaleIds = Sets.newConcurrentHashSet();
+        if (repopulateMysql && deleteExisting) {
+            mysqlStaleIds.addAll(mysql.get().select(job.getMysqlIdField())
+                    .from(job.getMysqlIdField().getTable())
+                    .where(job.getMysqlProjectIdField().eq(job.getProjectId()))
+                    .fetch(job.getMysqlIdField()));
+        }
+        if (checkpointOpt.isPresent() && (!elasticStaleIds.isEmpty() || !mysqlStaleIds.isEmpty())) {
+            removeStillPresent(job, elasticStaleIds, fromShared, mysqlStaleIds);
+        }
+
+        ReindexCheckpoint checkpoint = checkpointOpt.orElseGet(() -> new ReindexCheckpoint(
+                job.getProjectId(),
+                job.getIndexType(),
+                repopulateElastic,
+                repopulateMysql,
+                deleteExisting,
+                null,
+                null,
+                0L,
+                0L));
+        checkpoint = checkpoint.toBuilder()
+                .elasticTargetIndex(elasticTargetIndexOpt.orElse(null))
+                .build();
+        putCheckpoint(checkpoint);
+
+        Run run = new Run(job.getProjectId(), job.getIndexType(), checkpointOpt.isPresent(), elasticTargetIndexOpt);
+        run.read.add(checkpoint.getRead());
+        runs.put(job.getIndexType() + "-" + job.getProjectId(), run);
+        try {
+            copy(job, run, checkpoint, elasticTargetIndexOpt, elasticTargetShared, elasticStaleIds, repopulateMysql ? Optional.of(mysqlStaleIds) : Optional.empty());
+
+            if (!elasticStaleIds.isEmpty()) {
+                deleteElasticStale(run, alias, elasticStaleIds);
+            }
+            if (elasticTargetIndexOpt.isPresent() && !alias.equals(elasticTargetIndexOpt.get())) {
+                swapAlias(job, alias, elasticTargetIndexOpt.get());
+            }
+            if (repopulateMysql && deleteExisting && !mysqlStaleIds.isEmpty()) {
+                for (List<String> batch : Iterables.partition(mysqlStaleIds, config.mysqlDeleteBatchSize())) {
+                    run.mysqlStaleDeleted.add(mysql.get().deleteFrom(job.getMysqlIdField().getTable())
+                            .where(job.getMysqlProjectIdField().eq(job.getProjectId()))
+                            .and(job.getMysqlIdField().in(batch))
+                            .execute());
+                }
+            }
+            deleteCheckpoint(job.getProjectId(), job.getIndexType());
+            run.state = State.COMPLETED;
+            log.info("Reindex of {} for project {} completed: {}", job.getIndexType(), job.getProjectId(), run.toProgress());
+        } catch (Throwable th) {
+            run.state = State.FAILED;
+            run.lastError = th.toString();
+            log.warn("Reindex of {} for project {} failed, retry to resume: {}", job.getIndexType(), job.getProjectId(), run.toProgress(), th);
+            Throwables.throwIfInstanceOf(th, Exception.class);
+            Throwables.throwIfUnchecked(th);
+            throw new RuntimeException(th);
+        } finally {
+            run.endNanos = System.nanoTime();
+        }
+    }
+
+    @Extern
+    public ImmutableList<ReindexProgress> reindexProgress() {
+        return runs.values().stream()
+                .map(Run::toProgress)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Extern
+    private void clearReindexProgress() {
+        runs.values().removeIf(run -> run.state != State.RUNNING);
+    }
+
+    @Extern
+    private void deleteCheckpoint(String projectId, String indexType) {
+        checkpointSchema.table().deleteItem(checkpointSchema.primaryKey(Map.of(
+                "projectId", projectId,
+                "indexType", indexType)));
+    }
+
+    private <T> void copy(Job<T> job, Run run, ReindexCheckpoint checkpoint, Optional<String> elasticTargetIndexOpt, boolean elasticTargetShared, Set<String> elasticStaleIds, Optional<Set<String>> mysqlStaleIdsOpt) throws Exception {
+        IndexSchema<T> schema = job.getByProjectIdSchema();
+        BlockingQueue<ReadPage<T>> readQueue = new ArrayBlockingQueue<>(Math.max(1, config.prefetchPages()));
+        AtomicBoolean stopReading = new AtomicBoolean(false);
+        ListenableFuture<?> readerFuture = readerExecutor.submit(() -> {
+            for (Page<Item, QueryOutcome> page : schema.index().query(new QuerySpec()
+                            .withHashKey(schema.partitionKey(Map.of(
+                                    "projectId", job.getProjectId())))
+                            .withRangeKeyCondition(new RangeKeyCondition(schema.rangeKeyName())
+                                    .beginsWith(schema.rangeValuePartial(Map.of())))
+                            .withMaxPageSize(config.pageSize())
+                            .withExclusiveStartKey(Optional.ofNullable(checkpoint.getLastEvaluatedKey())
+                                    .map(schema::toExclusiveStartKey)
+                                    .orElse(null)))
+                    .pages()) {
+                ImmutableList<T> items = page.getLowLevelResult().getItems().stream()
+                        .map(schema::fromItem)
+                        .filter(item -> job.getProjectId().equals(job.getProjectIdGetter().apply(item)))
+                        .collect(ImmutableList.toImmutableList());
+                Optional<String> lastEvaluatedKeyOpt = Optional.ofNullable(page.getLowLevelResult()
+                                .getQueryResult()
+                                .getLastEvaluatedKey())
+                        .map(schema::serializeLastEvaluatedKey);
+                if (!offer(readQueue, new ReadPage<>(items, lastEvaluatedKeyOpt, false), stopReading)) {
+                    return null;
+                }
+            }
+            offer(readQueue, new ReadPage<>(ImmutableList.of(), Optional.empty(), true), stopReading);
+            return null;
+        });
+
+        Semaphore writePermits = new Semaphore(Math.max(1, config.concurrentWrites()));
+        ArrayDeque<PageWrite> pendingWrites = new ArrayDeque<>();
+        long lastCheckpointNanos = System.nanoTime();
+        try {
+            while (true) {
+                ReadPage<T> readPage = readQueue.poll(1, TimeUnit.SECONDS);
+                if (readPage == null) {
+                    if (readerFuture.isDone()) {
+                        // Reader failed without signalling end
+                        readerFuture.get();
+                        throw new IllegalStateException("Reader stopped unexpectedly");
+                    }
+                    continue;
+                }
+                if (readPage.isEnd()) {
+                    break;
+                }
+                run.read.add(readPage.getItems().size());
+
+                if (!config.pageWriteDelay().isZero()) {
+                    Thread.sleep(config.pageWriteDelay().toMillis());
+                }
+                writePermits.acquire();
+                ListenableFuture<List<Object>> writeFuture = Futures.allAsList(ImmutableList.<ListenableFuture<?>>builder()
+                        .addAll(elasticTargetIndexOpt.map(targetIndex -> writeElastic(job, run, targetIndex, elasticTargetShared, elasticStaleIds, readPage.getItems()))
+                                .orElse(ImmutableList.of()))
+                        .addAll(mysqlStaleIdsOpt.map(mysqlStaleIds -> ImmutableList.of(writeMysql(job, run, mysqlStaleIds, readPage.getItems())))
+                                .orElse(ImmutableList.of()))
+                        .build());
+                writeFuture.addListener(writePermits::release, MoreExecutors.directExecutor());
+                pendingWrites.add(new PageWrite(writeFuture, readPage.getLastEvaluatedKeyOpt(), run.read.sum()));
+
+                Optional<PageWrite> writtenOpt = pollWritten(pendingWrites);
+                if (!pendingWrites.isEmpty() && pendingWrites.peek().getFuture().isDone()) {
+                    // Oldest page failed
+                    Futures.getDone(pendingWrites.peek().getFuture());
+                }
+                if (writtenOpt.isPresent()
+                        && System.nanoTime() - lastCheckpointNanos >= config.checkpointInterval().toNanos()) {
+                    putCheckpoint(checkpoint, writtenOpt.get());
+                    lastCheckpointNanos = System.nanoTime();
+                }
+            }
+            for (PageWrite pageWrite : pendingWrites) {
+                pageWrite.getFuture().get();
+            }
+        } catch (Throwable th) {
+            stopReading.set(true);
+            readerFuture.cancel(true);
+            // Let in-flight writes finish and save progress so a retry resumes from here
+            Futures.successfulAsList(pendingWrites.stream()
+                    .map(PageWrite::getFuture)
+                    .collect(ImmutableList.toImmutableList())).get();
+            Optional<PageWrite> writtenOpt = pollWritten(pendingWrites);
+            if (writtenOpt.isPresent()) {
+                putCheckpoint(checkpoint, writtenOpt.get());
+            }
+            throw th;
+        }
+    }
+
+    /**
+     * Removes pages fully written, in order, stopping at the first page not yet written or failed.
+     *
+     * @return Last page written, all pages before it are also written
+     */
+    private Optional<PageWrite> pollWritten(ArrayDeque<PageWrite> pendingWrites) {
+        Optional<PageWrite> writtenOpt = Optional.empty();
+        while (!pendingWrites.isEmpty() && pendingWrites.peek().getFuture().isDone()) {
+            try {
+                Futures.getDone(pendingWrites.peek().getFuture());
+            } catch (ExecutionException | CancellationException ex) {
+                break;
+            }
+            writtenOpt = Optional.of(pendingWrites.poll());
+        }
+        return writtenOpt;
+    }
+
+    private <T> ListenableFuture<?> writeMysql(Job<T> job, Run run, Set<String> mysqlStaleIds, ImmutableList<T> items) {
+        if (items.isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+        ImmutableList<Query> queries = items.stream()
+                .flatMap(item -> ImmutableList.<Query>copyOf(job.getMysqlQueries().apply(item)).stream())
+                .collect(ImmutableList.toImmutableList());
+        return writerExecutor.submit(() -> {
+            mysql.get().batch(queries).execute();
+            items.forEach(item -> mysqlStaleIds.remove(job.getIdGetter().apply(item)));
+            run.mysqlWritten.add(items.size());
+        });
+    }
+
+    private <T> ImmutableList<ListenableFuture<?>> writeElastic(Job<T> job, Run run, String targetIndex, boolean targetShared, Set<String> elasticStaleIds, ImmutableList<T> items) {
+        ImmutableList.Builder<ListenableFuture<?>> futuresBuilder = ImmutableList.builder();
+        // Writes through the alias are routed by it, direct writes to the shared index must be routed here
+        String routing = elasticUtil.isSharedIndexName(targetIndex) ? job.getProjectId() : null;
+        // Writes are mirrored to a target other than the alias, the mirrored document is newer than ours
+        boolean skipExisting = !targetIndex.equals(elasticUtil.getIndexName(job.getIndexType(), job.getProjectId()));
+        BulkRequest bulkRequest = new BulkRequest();
+        for (T item : items) {
+            String docId = elasticUtil.getDocId(targetShared, job.getProjectId(), job.getIdGetter().apply(item));
+            bulkRequest.add(job.getElasticIndexRequest().apply(item)
+                    .index(targetIndex)
+                    .id(docId)
+                    .routing(routing)
+                    .create(skipExisting)
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.NONE));
+            elasticStaleIds.remove(docId);
+            if (bulkRequest.estimatedSizeInBytes() >= config.elasticBulkMaxBytes()) {
+                futuresBuilder.add(writeElasticBulk(run, bulkRequest, skipExisting));
+                bulkRequest = new BulkRequest();
+            }
+        }
+        if (bulkRequest.numberOfActions() > 0) {
+            futuresBuilder.add(writeElasticBulk(run, bulkRequest, skipExisting));
+        }
+        return futuresBuilder.build();
+    }
+
+    private ListenableFuture<?> writeElasticBulk(Run run, BulkRequest bulkRequest, boolean skipExisting) {
+        return writerExecutor.submit(() -> {
+            BulkResponse response = elasticUtil.retry(() -> elastic.get().bulk(bulkRequest, RequestOptions.DEFAULT));
+            boolean failed = false;
+            for (BulkItemResponse itemResponse : response.getItems()) {
+                if (itemResponse.isFailed()
+                        && !(skipExisting && itemResponse.getFailure().getStatus() == RestStatus.CONFLICT)) {
+                    failed = true;
+                    run.errors.increment();
+                    run.lastError = itemResponse.getFailureMessage();
+                    if (LogUtil.rateLimitAllowLog("reindexer-bulk-item-failure")) {
+                        log.warn("Failed to reindex document {} in index {}: {}",
+                                itemResponse.getId(), itemResponse.getIndex(), itemResponse.getFailureMessage());
+                    }
+                } else {
+                    run.elasticIndexed.increment();
+                }
+            }
+            // Fail the page so the alias is not swapped to an index missing documents
+            if (failed) {
+                throw new IllegalStateException("Failed to reindex documents in bulk: " + response.buildFailureMessage());
+            }
+        });
+    }
+
+    private <T> void swapAlias(Job<T> job, String alias, String targetIndex) throws Exception {
+        boolean toShared = elasticUtil.isSharedIndexName(targetIndex);
+        if (!toShared) {
+            elastic.get().indices().putSettings(new UpdateSettingsRequest(targetIndex)
+                    .settings(Settings.builder().putNull("index.refresh_interval")), RequestOptions.DEFAULT);
+        }
+        elastic.get().indices().refresh(new RefreshRequest(targetIndex), RequestOptions.DEFAULT);
+
+        IndicesAliasesRequest request = new IndicesAliasesRequest()
+                .addAliasAction(toShared
+                        ? elasticUtil.addSharedIndexAlias(job.getIndexType(), job.getProjectId())
+                        : AliasActions.add()
+                        .index(targetIndex)
+                        .alias(alias));
+        ImmutableSet<String> aliasedIndices = getAliasedIndices(alias);
+        Optional<String> fromSharedIndexOpt = Optional.empty();
+        for (String aliasedIndex : aliasedIndices) {
+            if (elasticUtil.isSharedIndexName(aliasedIndex)) {
+                // Shared index stays, only the project's documents are removed below
+                request.addAliasAction(AliasActions.remove().index(aliasedIndex).alias(alias));
+                fromSharedIndexOpt = Optional.of(aliasedIndex);
+            } else {
+                request.addAliasAction(AliasActions.removeIndex().index(aliasedIndex));
+            }
+        }
+        if (aliasedIndices.isEmpty() && elasticIndexExists(alias)) {
+            // Index predates aliasing, it is replaced by the alias
+            request.addAliasAction(AliasActions.removeIndex().index(alias));
+        }
+        // Stop mirroring writes at the same time they start going to the target directly
+        String reindexAlias = elasticUtil.getReindexAlias(job.getIndexType(), job.getProjectId());
+        for (String reindexAliasedIndex : getAliasedIndices(reindexAlias)) {
+            request.addAliasAction(AliasActions.remove().index(reindexAliasedIndex).alias(reindexAlias));
+        }
+        elastic.get().indices().updateAliases(request, RequestOptions.DEFAULT);
+        elasticUtil.invalidateAlias(job.getIndexType(), job.getProjectId());
+        log.info("Swapped alias {} to index {} replacing {}", alias, targetIndex,
+                aliasedIndices.isEmpty() ? alias : aliasedIndices);
+
+        if (fromSharedIndexOpt.isPresent()) {
+            deleteFromSharedIndex(job, fromSharedIndexOpt.get());
+        }
+    }
+
+    /**
+     * Points the reindex alias at the target so writes to the project's index are mirrored to it
+     * while it is being populated, replacing any left over from a previous reindex.
+     */
+    private <T> void setReindexAlias(Job<T> job, String targetIndex) throws Exception {
+        String reindexAlias = elasticUtil.getReindexAlias(job.getIndexType(), job.getProjectId());
+        IndicesAliasesRequest request = new IndicesAliasesRequest()
+                .addAliasAction(elasticUtil.addReindexAlias(job.getIndexType(), job.getProjectId(), targetIndex));
+        for (String reindexAliasedIndex : getAliasedIndices(reindexAlias)) {
+            if (!reindexAliasedIndex.equals(targetIndex)) {
+                request.addAliasAction(AliasActions.remove().index(reindexAliasedIndex).alias(reindexAlias));
+            }
+        }
+        elastic.get().indices().updateAliases(request, RequestOptions.DEFAULT);
+        elasticUtil.invalidateAlias(job.getIndexType(), job.getProjectId());
+    }
+
+    private <T> void deleteFromSharedIndex(Job<T> job, String sharedIndex) throws Exception {
+        if (!elasticIndexExists(sharedIndex)) {
+            return;
+        }
+        DeleteByQueryRequest request = new DeleteByQueryRequest(sharedIndex)
+                .setQuery(QueryBuilders.termQuery("projectId", job.getProjectId()))
+                .setRouting(job.getProjectId());
+        request.setConflicts("proceed");
+        BulkByScrollResponse response = elasticUtil.retry(() -> elastic.get().deleteByQuery(request, RequestOptions.DEFAULT));
+        if (response.getDeleted() > 0) {
+            log.info("Removed {} documents of project {} from shared index {}",
+                    response.getDeleted(), job.getProjectId(), sharedIndex);
+        }
+    }
+
+    private Set<String> getElasticIds(String indexOrAlias) throws Exception {
+        Set<String> ids = Sets.newHashSet();
+        TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+        SearchResponse response = elastic.get().search(new SearchRequest(indexOrAlias)
+                .scroll(keepAlive)
+                .source(new SearchSourceBuilder()
+                        .query(QueryBuilders.matchAllQuery())
+                        .fetchSource(false)
+                        .size(config.pageSize())), RequestOptions.DEFAULT);
+        try {
+            while (response.getHits().getHits().length > 0) {
+                for (SearchHit hit : response.getHits().getHits()) {
+                    ids.add(hit.getId());
+                }
+                response = elastic.get().scroll(new SearchScrollRequest(response.getScrollId())
+                        .scroll(keepAlive), RequestOptions.DEFAULT);
+            }
+        } finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(response.getScrollId());
+            elastic.get().clearScrollAsync(clearScrollRequest, RequestOptions.DEFAULT, ActionListeners.logFailure());
+        }
+        return ids;
+    }
+
+    /**
+     * Removes stale candidates still present in Dynamo. On resume, pages written before the checkpoint are not
+     * rewritten and never strike their ids from the candidates. Candidates must be collected before calling
+     * this, so an item created since is never a candidate and one deleted since is no longer present.
+     */
+    private <T> void removeStillPresent(Job<T> job, Set<String> elasticStaleIds, boolean elasticShared, Set<String> mysqlStaleIds) {
+        IndexSchema<T> schema = job.getByProjectIdSchema();
+        for (Page<Item, QueryOutcome> page : schema.index().query(new QuerySpec()
+                        .withHashKey(schema.partitionKey(Map.of(
+                                "projectId", job.getProjectId())))
+                        .withRangeKeyCondition(new RangeKeyCondition(schema.rangeKeyName())
+                                .beginsWith(schema.rangeValuePartial(Map.of())))
+                        .withMaxPageSize(config.pageSize()))
+                .pages()) {
+            page.getLowLevelResult().getItems().stream()
+                    .map(schema::fromItem)
+                    .filter(item -> job.getProjectId().equals(job.getProjectIdGetter().apply(item)))
+                    .map(job.getIdGetter())
+                    .forEach(id -> {
+                        mysqlStaleIds.remove(id);
+                        elasticStaleIds.remove(elasticUtil.getDocId(elasticShared, job.getProjectId(), id));
+                    });
+        }
+    }
+
+    private void deleteElasticStale(Run run, String alias, Set<String> elasticStaleIds) {
+        for (List<String> batch : Iterables.partition(elasticStaleIds, config.pageSize())) {
+            BulkRequest bulkRequest = new BulkRequest();
+            batch.forEach(id -> bulkRequest.add(new DeleteRequest(alias, id)));
+            BulkResponse response = elasticUtil.retry(() -> elastic.get().bulk(bulkRequest, RequestOptions.DEFAULT));
+            for (BulkItemResponse itemResponse : response.getItems()) {
+                if (itemResponse.isFailed()) {
+                    run.errors.increment();
+                    run.lastError = itemResponse.getFailureMessage();
+                } else {
+                    run.elasticStaleDeleted.increment();
+                }
+            }
+        }
+    }
+
+    private ImmutableSet<String> getAliasedIndices(String alias) throws Exception {
+        return ImmutableSet.copyOf(elastic.get().indices()
+                .getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT)
+                .getAliases()
+                .keySet());
+    }
+
+    private boolean elasticIndexExists(String indexOrAlias) {
+        try {
+            return elastic.get().indices().exists(new GetIndexRequest(indexOrAlias), RequestOptions.DEFAULT);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private Optional<ReindexCheckpoint> getCheckpoint(String projectId, String indexType) {
+        return Optional.ofNullable(checkpointSchema.fromItem(checkpointSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(checkpointSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "indexType", indexType)))
+                .withConsistentRead(true))));
+    }
+
+    private void putCheckpoint(ReindexCheckpoint checkpoint, PageWrite written) {
+        if (written.getLastEvaluatedKeyOpt().isEmpty()) {
+            // Last page, nothing left to resume
+            return;
+        }
+        putCheckpoint(checkpoint.toBuilder()
+                .lastEvaluatedKey(written.getLastEvaluatedKeyOpt().get())
+                .read(written.getRead())
+                .build());
+    }
+
+    private void putCheckpoint(ReindexCheckpoint checkpoint) {
+        checkpointSchema.table().putItem(checkpointSchema.toItem(checkpoint.toBuilder()
+                .ttlInEpochSec(Instant.now().plus(config.checkpointExpiry()).getEpochSecond())
+                .build()));
+    }
+
+    private static <T> boolean offer(BlockingQueue<T> queue, T item, AtomicBoolean stop) throws InterruptedException {
+        while (!stop.get()) {
+            if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Value
+    private static class ReadPage<T> {
+        ImmutableList<T> items;
+        Optional<String> lastEvaluatedKeyOpt;
+        boolean end;
+    }
+
+    @Value
+    private static class PageWrite {
+        ListenableFuture<?> future;
+        /**
+         * Empty on last page
+         */
+        Optional<String> lastEvaluatedKeyOpt;
+        long read;
+    }
+
+    private static class Run {
+        private final String projectId;
+        private final String indexType;
+        private final boolean resumed;
+        private final Optional<String> elasticTargetIndexOpt;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos = 0L;
+        private volatile State state = State.RUNNING;
+        private volatile String lastError;
+        private final LongAdder read = new LongAdder();
+        private final LongAdder elasticIndexed = new LongAdder();
+        private final LongAdder elasticStaleDeleted = new LongAdder();
+        private final LongAdder mysqlWritten = new LongAdder();
+        private final LongAdder mysqlStaleDeleted = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private Run(String projectId, String indexType, boolean resumed, Optional<String> elasticTargetIndexOpt) {
+            this.projectId = projectId;
+            this.indexType = indexType;
+            this.resumed = resumed;
+            this.elasticTargetIndexOpt = elasticTargetIndexOpt;
+        }
+
+        private ReindexProgress toProgress() {
+            long elapsedNanos = (endNanos != 0L ? endNanos : System.nanoTime()) - startNanos;
+            long readCount = read.sum();
+            return new ReindexProgress(
+                    projectId,
+                    indexType,
+                    state,
+                    resumed,
+                    elasticTargetIndexOpt.orElse(null),
+                    readCount,
+                    elasticIndexed.sum(),
+                    elasticStaleDeleted.sum(),
+                    mysqlWritten.sum(),
+                    mysqlStaleDeleted.sum(),
+                    errors.sum(),
+                    lastError,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    elapsedNanos <= 0L ? 0d : readCount * 1_000_000_000d / elapsedNanos);
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Reindexer.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(Reindexer.class).asEagerSingleton();
+            }
+        };
+    }
+}
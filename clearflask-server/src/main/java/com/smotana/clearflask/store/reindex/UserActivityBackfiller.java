@@ -0,0 +1,111 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.reindex;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.VoteStore;
+import com.smotana.clearflask.store.VoteStore.FundModel;
+import com.smotana.clearflask.store.VoteStore.ListResponse;
+import com.smotana.clearflask.store.VoteStore.VoteModel;
+import com.smotana.clearflask.store.VoteStore.VoteValue;
+import com.smotana.clearflask.util.Extern;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Computes users' pre-aggregated activity counters from their existing votes and funds.
+ * <p>
+ * Needed once for users active before the counters were maintained. Each user's search document is
+ * rewritten with the counters, so it becomes sortable by them. Last activity has no history to
+ * derive it from and falls back to the creation time until the user is next active. Activity occurring
+ * while a user is being backfilled may be lost, run again if in doubt.
+ */
+@Slf4j
+@Singleton
+public class UserActivityBackfiller {
+
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private UserStore userStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private VoteStore voteStore;
+
+    @Extern
+    public void backfillAllProjects() {
+        projectStore.listAllProjects(project -> {
+            try {
+                backfillProject(project.getProjectId());
+            } catch (Exception ex) {
+                log.warn("Failed to backfill user activity for project {}", project.getProjectId(), ex);
+            }
+        });
+    }
+
+    @Extern
+    public long backfillProject(String projectId) throws Exception {
+        // Loading the project upgrades it, adding the counters to the index mapping before documents are updated
+        if (projectStore.getProject(projectId, false).isEmpty()) {
+            return 0L;
+        }
+        List<ListenableFuture<Void>> indexingFutures = Lists.newArrayList();
+        userStore.exportAllForProject(projectId, user -> indexingFutures.add(backfillUser(projectId, user.getUserId())));
+        Futures.allAsList(indexingFutures).get();
+
+        log.info("Backfilled user activity for project {} users {}", projectId, indexingFutures.size());
+        return indexingFutures.size();
+    }
+
+    private ListenableFuture<Void> backfillUser(String projectId, String userId) {
+        long supportedIdeasCount = 0L;
+        Optional<String> cursorOpt = Optional.empty();
+        do {
+            ListResponse<VoteModel> response = voteStore.voteListByUser(projectId, userId, cursorOpt);
+            // Votes on comments share the same table
+            ImmutableSet<String> upvotedTargetIds = response.getItems().stream()
+                    .filter(vote -> vote.getVote() == VoteValue.Upvote.getValue())
+                    .map(VoteModel::getTargetId)
+                    .collect(ImmutableSet.toImmutableSet());
+            supportedIdeasCount += ideaStore.getIdeas(projectId, upvotedTargetIds).size();
+            cursorOpt = response.getCursorOpt();
+        } while (cursorOpt.isPresent());
+
+        long fundedIdeasCount = 0L;
+        long fundedAmount = 0L;
+        do {
+            ListResponse<FundModel> response = voteStore.fundListByUser(projectId, userId, cursorOpt);
+            for (FundModel fund : response.getItems()) {
+                if (fund.getFundAmount() != 0L) {
+                    fundedIdeasCount++;
+                    fundedAmount += fund.getFundAmount();
+                }
+            }
+            cursorOpt = response.getCursorOpt();
+        } while (cursorOpt.isPresent());
+
+        return userStore.setUserActivityCounters(projectId, userId, fundedIdeasCount, supportedIdeasCount, fundedAmount);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(UserActivityBackfiller.class);
+            }
+        };
+    }
+}
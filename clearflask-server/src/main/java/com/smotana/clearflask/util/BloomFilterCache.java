@@ -0,0 +1,121 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Caches decoded user bloom filters to avoid deserializing them on every request.
+ * Keyed by content hash so a changed filter is never served stale.
+ * <p>
+ * Returned filters are shared and must not be modified.
+ */
+@Slf4j
+@Singleton
+public class BloomFilterCache {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("10000")
+        long maximumSize();
+
+        @DefaultValue("PT5M")
+        Duration expireAfterAccess();
+    }
+
+    public enum Attribute {
+        VOTE(UserModel::getVoteBloom),
+        EXPRESS(UserModel::getExpressBloom),
+        FUND(UserModel::getFundBloom),
+        COMMENT_VOTE(UserModel::getCommentVoteBloom);
+
+        private final Function<UserModel, byte[]> getter;
+
+        Attribute(Function<UserModel, byte[]> getter) {
+            this.getter = getter;
+        }
+    }
+
+    @Inject
+    private Config config;
+
+    private Cache<BloomFilterKey, BloomFilter<CharSequence>> bloomFilterCache;
+
+    @Inject
+    private void setup() {
+        bloomFilterCache = CacheBuilder.newBuilder()
+                .maximumSize(config.maximumSize())
+                .expireAfterAccess(config.expireAfterAccess())
+                .recordStats()
+                .build();
+    }
+
+    public Optional<BloomFilter<CharSequence>> get(UserModel user, Attribute attribute) {
+        byte[] bytes = attribute.getter.apply(user);
+        if (bytes == null) {
+            return Optional.empty();
+        }
+        if (!config.enabled()) {
+            return Optional.of(decode(bytes));
+        }
+        BloomFilterKey key = new BloomFilterKey(
+                user.getProjectId(),
+                user.getUserId(),
+                attribute,
+                Hashing.farmHashFingerprint64().hashBytes(bytes).asLong());
+        BloomFilter<CharSequence> bloomFilter = bloomFilterCache.getIfPresent(key);
+        if (bloomFilter == null) {
+            bloomFilter = decode(bytes);
+            bloomFilterCache.put(key, bloomFilter);
+        }
+        return Optional.of(bloomFilter);
+    }
+
+    @Extern
+    private CacheStats stats() {
+        return bloomFilterCache.stats();
+    }
+
+    private BloomFilter<CharSequence> decode(byte[] bytes) {
+        return BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8));
+    }
+
+    @Value
+    private static class BloomFilterKey {
+        String projectId;
+        String userId;
+        Attribute attribute;
+        long contentHash;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(BloomFilterCache.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
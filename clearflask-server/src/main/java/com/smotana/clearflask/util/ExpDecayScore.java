@@ -19,8 +19,25 @@ public class ExpDecayScore {
      * If changed, also change in exp-decay.painless and exp-decay.sql
      */
     public double updateScore(double prevScore, long timeInMillis) {
-        double u = Math.max(prevScore, rate * timeInMillis);
-        double v = Math.min(prevScore, rate * timeInMillis);
+        return addScore(prevScore, addend(timeInMillis));
+    }
+
+    /**
+     * Score contribution of a single update at the given time.
+     */
+    public double addend(long timeInMillis) {
+        return rate * timeInMillis;
+    }
+
+    /**
+     * Adds an addend to a score. Addends can also be added together first, applying their sum
+     * once gives the same score as applying each in turn.
+     * <p>
+     * If changed, also change in exp-decay.painless, exp-decay.sql and IndexUpdateCoalescer
+     */
+    public static double addScore(double prevScore, double addend) {
+        double u = Math.max(prevScore, addend);
+        double v = Math.min(prevScore, addend);
         return u + Math.log1p(Math.exp(v - u));
     }
 }
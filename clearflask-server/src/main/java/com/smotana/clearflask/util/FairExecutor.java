@@ -0,0 +1,251 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded executor taking turns between keys (e.g. projectId) so a burst of tasks
+ * for one key cannot starve others. Queue is bounded both in total and per key.
+ */
+@Slf4j
+public class FairExecutor {
+
+    public enum RejectionPolicy {
+        /** Discard the task, returned future fails with {@link RejectedExecutionException}. */
+        DROP,
+        /** Run the task on the submitting thread, slowing down the producer. */
+        CALLER_RUNS
+    }
+
+    private final String name;
+    private final int queueSize;
+    private final int perKeyQueueSize;
+    private final Supplier<RejectionPolicy> rejectionPolicySupplier;
+    private final ImmutableList<Thread> workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    /** Keys with queued tasks, in the order they will be served */
+    private final ArrayDeque<String> keysReady = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<QueuedTask>> queueByKey = Maps.newHashMap();
+    private int queueDepth = 0;
+    private volatile boolean isShutdown = false;
+
+    private final AtomicInteger activeThreads = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyStats queueWaitStats = new LatencyStats();
+    private final LatencyStats runStats = new LatencyStats();
+
+    public FairExecutor(String name, int threadCount, int queueSize, int perKeyQueueSize, Supplier<RejectionPolicy> rejectionPolicySupplier) {
+        checkArgument(threadCount > 0);
+        this.name = name;
+        this.queueSize = queueSize;
+        this.perKeyQueueSize = perKeyQueueSize;
+        this.rejectionPolicySupplier = rejectionPolicySupplier;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(name + "-worker-%d")
+                .setDaemon(true)
+                .build();
+        this.workers = IntStream.range(0, threadCount)
+                .mapToObj(i -> threadFactory.newThread(this::work))
+                .collect(ImmutableList.toImmutableList());
+        this.workers.forEach(Thread::start);
+    }
+
+    public ListenableFuture<Void> submit(String key, Runnable task) {
+        return submit(key, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public <T> ListenableFuture<T> submit(String key, Callable<T> task) {
+        ListenableFutureTask<T> futureTask = ListenableFutureTask.create(task);
+        lock.lock();
+        try {
+            if (isShutdown) {
+                throw new RejectedExecutionException(name + " is shut down");
+            }
+            ArrayDeque<QueuedTask> keyQueue = queueByKey.get(key);
+            if (queueDepth < queueSize
+                    && (keyQueue == null || keyQueue.size() < perKeyQueueSize)) {
+                if (keyQueue == null) {
+                    keyQueue = new ArrayDeque<>();
+                    queueByKey.put(key, keyQueue);
+                    keysReady.add(key);
+                }
+                keyQueue.add(new QueuedTask(futureTask, System.nanoTime()));
+                queueDepth++;
+                notEmpty.signal();
+                return futureTask;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        rejected.increment();
+        RejectionPolicy rejectionPolicy = rejectionPolicySupplier.get();
+        if (LogUtil.rateLimitAllowLog("fairExecutor-rejected-" + name)) {
+            log.warn("{} queue full, applying rejection policy {} to task for key {}", name, rejectionPolicy, key);
+        }
+        switch (rejectionPolicy) {
+            case CALLER_RUNS:
+                run(futureTask);
+                return futureTask;
+            case DROP:
+            default:
+                return Futures.immediateFailedFuture(new RejectedExecutionException(name + " queue full for key " + key));
+        }
+    }
+
+    /**
+     * Stops accepting tasks, discards queued tasks and interrupts running tasks.
+     */
+    public void shutdownNow() {
+        lock.lock();
+        try {
+            isShutdown = true;
+            queueByKey.values().forEach(keyQueue -> keyQueue.forEach(queuedTask -> queuedTask.getTask().cancel(false)));
+            queueByKey.clear();
+            keysReady.clear();
+            queueDepth = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.forEach(Thread::interrupt);
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            worker.join(remainingMillis);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Stats getStats() {
+        int queueDepthSnapshot;
+        int queuedKeysSnapshot;
+        lock.lock();
+        try {
+            queueDepthSnapshot = queueDepth;
+            queuedKeysSnapshot = queueByKey.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(
+                workers.size(),
+                activeThreads.get(),
+                queueDepthSnapshot,
+                queuedKeysSnapshot,
+                completed.sum(),
+                rejected.sum(),
+                queueWaitStats.snapshot(),
+                runStats.snapshot());
+    }
+
+    public void resetStats() {
+        completed.reset();
+        rejected.reset();
+        queueWaitStats.reset();
+        runStats.reset();
+    }
+
+    private void work() {
+        while (true) {
+            QueuedTask queuedTask;
+            lock.lock();
+            try {
+                while (keysReady.isEmpty() && !isShutdown) {
+                    notEmpty.await();
+                }
+                if (isShutdown) {
+                    return;
+                }
+                String key = keysReady.poll();
+                ArrayDeque<QueuedTask> keyQueue = queueByKey.get(key);
+                queuedTask = keyQueue.poll();
+                if (keyQueue.isEmpty()) {
+                    queueByKey.remove(key);
+                } else {
+                    keysReady.add(key);
+                }
+                queueDepth--;
+            } catch (InterruptedException ex) {
+                if (isShutdown) {
+                    return;
+                }
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            queueWaitStats.recordSince(queuedTask.getEnqueuedNanos());
+            activeThreads.incrementAndGet();
+            try {
+                run(queuedTask.getTask());
+            } finally {
+                activeThreads.decrementAndGet();
+                // Clear interrupt flag in case the task was interrupted
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        long startNanos = System.nanoTime();
+        task.run();
+        runStats.recordSince(startNanos);
+        completed.increment();
+    }
+
+    @Value
+    private static class QueuedTask {
+        ListenableFutureTask<?> task;
+        long enqueuedNanos;
+    }
+
+    @Value
+    public static class Stats {
+        int threads;
+        int activeThreads;
+        int queueDepth;
+        int queuedKeys;
+        long completed;
+        long rejected;
+        LatencyStats.Snapshot queueWait;
+        LatencyStats.Snapshot run;
+    }
+}
@@ -0,0 +1,53 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import lombok.Value;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free accumulator of call latencies, intended to be exposed via {@link Extern} methods.
+ */
+public class LatencyStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0L);
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void recordMillis(long millis) {
+        record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    public Snapshot snapshot() {
+        long countSnapshot = count.sum();
+        return new Snapshot(
+                countSnapshot,
+                countSnapshot == 0L ? 0d : (double) totalNanos.sum() / countSnapshot / 1_000_000d,
+                maxNanos.get() / 1_000_000d);
+    }
+
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    @Value
+    public static class Snapshot {
+        long count;
+        double meanMillis;
+        double maxMillis;
+    }
+}
@@ -0,0 +1,93 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON response body rendered ahead of time, optionally addressable by a strong ETag. The gzipped form is
+ * computed on first use and kept alongside.
+ */
+public class PreSerializedJson {
+
+    private final byte[] json;
+    private final Optional<String> etagValueOpt;
+    private final Supplier<byte[]> jsonGzippedSupplier;
+
+    private PreSerializedJson(byte[] json, Optional<String> etagValueOpt) {
+        this.json = json;
+        this.etagValueOpt = etagValueOpt;
+        this.jsonGzippedSupplier = Suppliers.memoize(() -> gzip(json));
+    }
+
+    public static PreSerializedJson create(Gson gson, Object entity, Optional<String> etagValueOpt) {
+        return new PreSerializedJson(gson.toJson(entity).getBytes(Charsets.UTF_8), etagValueOpt);
+    }
+
+    /**
+     * Copy of this object with an additional top-level field appended, the result has no ETag.
+     */
+    public PreSerializedJson withField(Gson gson, String name, Object value) {
+        byte[] field = ("," + gson.toJson(name) + ":" + gson.toJson(value) + "}").getBytes(Charsets.UTF_8);
+        int closingBraceIndex = json.length - 1;
+        while (json[closingBraceIndex] != '}') {
+            closingBraceIndex--;
+        }
+        byte[] jsonWithField = Arrays.copyOf(json, closingBraceIndex + field.length);
+        System.arraycopy(field, 0, jsonWithField, closingBraceIndex, field.length);
+        return new PreSerializedJson(jsonWithField, Optional.empty());
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public byte[] getJsonGzipped() {
+        return jsonGzippedSupplier.get();
+    }
+
+    /**
+     * Quoted strong ETag of the given encoding, the gzipped representation has its own ETag.
+     */
+    public Optional<String> getEtag(boolean gzipped) {
+        return etagValueOpt.map(etagValue -> "\"" + etagValue + (gzipped ? "-gzip" : "") + "\"");
+    }
+
+    /**
+     * Whether an If-None-Match header value matches this body in either encoding.
+     */
+    public boolean matchesIfNoneMatch(Optional<String> ifNoneMatchOpt) {
+        if (etagValueOpt.isEmpty() || ifNoneMatchOpt.isEmpty()) {
+            return false;
+        }
+        for (String etag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatchOpt.get())) {
+            if ("*".equals(etag)
+                    || etag.equals(getEtag(false).get())
+                    || etag.equals(getEtag(true).get())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+}
@@ -13,6 +13,7 @@ import com.smotana.clearflask.core.ServiceInjector.Environment;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.web.ApiException;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.client.RequestOptions;
@@ -28,7 +29,7 @@ import java.util.Optional;
 @Singleton
 public class ProjectUpgraderImpl implements ProjectUpgrader {
 
-    public static final long PROJECT_VERSION_LATEST = 2L;
+    public static final long PROJECT_VERSION_LATEST = 3L;
 
     @Inject
     private Environment env;
@@ -67,6 +68,24 @@ public class ProjectUpgraderImpl implements ProjectUpgrader {
                 updatedVersion = Optional.of(2L);
             }
 
+            // Add user activity counters for sorting users
+            if (projectVersion <= 2L) {
+                elastic.get().indices().putMapping(new PutMappingRequest(elasticUtil.getIndexName(DynamoElasticUserStore.USER_INDEX, project.getProjectId())).source(gson.toJson(ImmutableMap.of(
+                                "properties", ImmutableMap.builder()
+                                        .put("fundedIdeasCount", ImmutableMap.of(
+                                                "type", "long"))
+                                        .put("supportedIdeasCount", ImmutableMap.of(
+                                                "type", "long"))
+                                        .put("fundedAmount", ImmutableMap.of(
+                                                "type", "long"))
+                                        .put("lastActive", ImmutableMap.of(
+                                                "type", "date",
+                                                "format", "epoch_second"))
+                                        .build())), XContentType.JSON),
+                        RequestOptions.DEFAULT);
+                updatedVersion = Optional.of(3L);
+            }
+
             // !! IMPORTANT !!:
             // When adding a new upgrade, do the following:
             // - Add the changes for new projects (ie update IdeaStore to create index field)
@@ -78,9 +97,9 @@ public class ProjectUpgraderImpl implements ProjectUpgrader {
 
             /* ******** TEMPLATE START ********
             // || list changes here ||
-            if (projectVersion <= || 2L match previous version ||){
+            if (projectVersion <= || 3L match previous version ||){
                 elastic.|| perform changes here ||;
-                updatedVersion = Optional.of( || 3L increment version by one, should match PROJECT_VERSION_LATEST ||);
+                updatedVersion = Optional.of( || 4L increment version by one, should match PROJECT_VERSION_LATEST ||);
             }
             ******** TEMPLATE END ******** */
 
@@ -12,6 +12,7 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.kik.config.ice.annotations.NoDefaultValue;
 import com.smotana.clearflask.core.ServiceInjector;
 import com.smotana.clearflask.security.limiter.LimiterDynamicFeature;
+import com.smotana.clearflask.store.ProjectStore.ElasticIndexLayout;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.web.security.AuthenticationFilter;
 import io.sentry.Sentry;
@@ -53,6 +54,14 @@ public class Application extends ResourceConfig {
         /** Force engine regardless of default or project-specific value, this takes effect if set */
         @NoDefaultValue(innerType = SearchEngine.class)
         Optional<SearchEngine> forceSearchEngine();
+
+        /** Unless otherwise override by below force config or project-specific value, this takes effect */
+        @DefaultValue("PER_PROJECT")
+        ElasticIndexLayout defaultElasticIndexLayout();
+
+        /** Force layout regardless of default or project-specific value, this takes effect if set */
+        @NoDefaultValue(innerType = ElasticIndexLayout.class)
+        Optional<ElasticIndexLayout> forceElasticIndexLayout();
     }
 
     @Inject
@@ -74,6 +83,7 @@ public class Application extends ResourceConfig {
         injector.getInstance(new Key<Set<Object>>(Names.named(RESOURCE_NAME)) {
         }).forEach(this::register);
         register(GsonMessageBody.class);
+        register(PreSerializedJsonWriterInterceptor.class);
         register(AuthenticationFilter.class);
         register(RolesAllowedDynamicFeature.class);
         register(LimiterDynamicFeature.class);
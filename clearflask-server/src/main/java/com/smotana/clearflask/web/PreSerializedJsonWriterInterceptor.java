@@ -0,0 +1,65 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web;
+
+import com.google.common.base.Strings;
+import com.google.common.net.HttpHeaders;
+import com.smotana.clearflask.util.PreSerializedJson;
+import lombok.Value;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Writes a {@link PreSerializedJson} attached to the request in place of the entity returned by the resource,
+ * skipping serialization entirely.
+ */
+@Provider
+public class PreSerializedJsonWriterInterceptor implements WriterInterceptor {
+    private static final String PROPERTY_NAME = PreSerializedJsonWriterInterceptor.class.getName();
+
+    /**
+     * Use the given body as the response. Throws a 304 if the client already holds the same representation.
+     */
+    public static void respondWith(HttpServletRequest request, PreSerializedJson preSerializedJson) {
+        boolean gzip = Strings.nullToEmpty(request.getHeader(HttpHeaders.ACCEPT_ENCODING)).toLowerCase().contains("gzip");
+        if (preSerializedJson.matchesIfNoneMatch(Optional.ofNullable(request.getHeader(HttpHeaders.IF_NONE_MATCH)))) {
+            throw new WebApplicationException(Response.notModified()
+                    .header(HttpHeaders.ETAG, preSerializedJson.getEtag(gzip).get())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build());
+        }
+        request.setAttribute(PROPERTY_NAME, new Attached(preSerializedJson, gzip));
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Object attachedObj = context.getProperty(PROPERTY_NAME);
+        if (!(attachedObj instanceof Attached)) {
+            context.proceed();
+            return;
+        }
+        PreSerializedJson preSerializedJson = ((Attached) attachedObj).getPreSerializedJson();
+        boolean gzip = ((Attached) attachedObj).isGzip();
+        byte[] body = gzip ? preSerializedJson.getJsonGzipped() : preSerializedJson.getJson();
+        context.getHeaders().putSingle(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        preSerializedJson.getEtag(gzip).ifPresent(etag -> context.getHeaders().putSingle(HttpHeaders.ETAG, etag));
+        context.getHeaders().putSingle(HttpHeaders.CONTENT_LENGTH, body.length);
+        context.getOutputStream().write(body);
+    }
+
+    @Value
+    private static class Attached {
+        PreSerializedJson preSerializedJson;
+        boolean gzip;
+    }
+}
@@ -3,9 +3,12 @@
 package com.smotana.clearflask.web.resource;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
+import com.smotana.clearflask.web.security.RequestMemo;
 import com.smotana.clearflask.web.security.Sanitizer;
 import lombok.extern.slf4j.Slf4j;
 
@@ -18,6 +21,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 
 @Slf4j
 @Singleton
@@ -46,4 +50,26 @@ public abstract class AbstractResource {
         }
         return Optional.of((ExtendedPrincipal) securityContext.getUserPrincipal());
     }
+
+    /**
+     * Entities already loaded during this request, including those loaded during authentication.
+     */
+    protected RequestMemo getRequestMemo() {
+        return RequestMemo.get(request);
+    }
+
+    /**
+     * Waits for a store future started earlier in the request, rethrowing its failure as is.
+     */
+    public static <T> T await(ListenableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Interrupted", ex);
+        }
+    }
 }
@@ -2,7 +2,6 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -11,7 +10,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -45,9 +45,10 @@ import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
+import com.smotana.clearflask.store.VoteStore.VoteModel;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -67,6 +68,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Slf4j
@@ -94,6 +97,8 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
     private WebhookService webhookService;
     @Inject
     private GitHubStore gitHubStore;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     @RolesAllowed({Role.PROJECT_USER})
     @Limit(requiredPermits = 10, challengeAfter = 50)
@@ -105,7 +110,7 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
 
         String userId = getExtendedPrincipal().flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt).map(UserStore.UserSession::getUserId).get();
         UserModel user = userStore.getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.UNAUTHORIZED, "User not found"));
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
         IdeaStore.IdeaModel idea = ideaStore.getIdea(projectId, ideaIdOrMergedIdeaId)
                 .orElseThrow(() -> new BadRequestException("Cannot create comment, containing idea doesn't exist"));
@@ -151,7 +156,7 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
     public IdeaCommentSearchResponse ideaCommentSearch(String projectId, String ideaId, IdeaCommentSearch ideaCommentSearch) {
         boolean isParent = ideaCommentSearch.getParentCommentId() != null;
         boolean isInitial = isParent && (ideaCommentSearch.getExcludeChildrenCommentIds() == null || ideaCommentSearch.getExcludeChildrenCommentIds().isEmpty());
-        IdeaStore.IdeaModel idea = ideaStore.getIdea(projectId, ideaId).get();
+        IdeaStore.IdeaModel idea = getRequestMemo().getIdea(ideaStore, projectId, ideaId).get();
         ImmutableSet<CommentModel> comments = commentStore.getCommentsForPost(
                 projectId,
                 ideaId,
@@ -261,52 +266,58 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
         Optional<UserModel> userOpt = getExtendedPrincipal().flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
                 .map(UserStore.UserSession::getUserId)
                 .flatMap(userId -> userStore.getUser(projectId, userId));
-        Map<String, VoteOption> voteResults = ImmutableMap.of();
+        ListenableFuture<ImmutableMap<String, VoteModel>> votesFuture = Futures.immediateFuture(ImmutableMap.of());
         if (userOpt.isPresent()) {
-            Optional<BloomFilter<CharSequence>> bloomFilterOpt = userOpt.map(UserModel::getCommentVoteBloom)
-                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
-            voteResults = Maps.transformValues(
-                    voteStore.voteSearch(projectId, userOpt.get().getUserId(), comments.stream()
-                            .filter(comment -> userOpt.get().getUserId().equals(comment.getAuthorUserId())
-                                    || bloomFilterOpt.isPresent() && bloomFilterOpt.get().mightContain(comment.getCommentId()))
-                            .map(CommentModel::getCommentId)
-                            .collect(ImmutableSet.toImmutableSet())
-                    ), v -> v == null ? null : VoteValue.fromValue(v.getVote()).toVoteOption());
+            Optional<BloomFilter<CharSequence>> bloomFilterOpt = bloomFilterCache.get(userOpt.get(), BloomFilterCache.Attribute.COMMENT_VOTE);
+            votesFuture = voteStore.voteSearchAsync(projectId, userOpt.get().getUserId(), comments.stream()
+                    .filter(comment -> userOpt.get().getUserId().equals(comment.getAuthorUserId())
+                            || bloomFilterOpt.isPresent() && bloomFilterOpt.get().mightContain(comment.getCommentId()))
+                    .map(CommentModel::getCommentId)
+                    .collect(ImmutableSet.toImmutableSet()));
         }
 
-        Set<String> additionalMergedPostIds = Sets.newHashSet();
-        Map<String, VoteOption> finalVoteResults = voteResults;
-        ImmutableList<CommentWithVote> commentsWithVote = comments.stream().map(comment -> comment.toCommentWithVote(
-                        finalVoteResults.get(comment.getCommentId()),
-                        sanitizer,
-                        // When a post is merged into another one,
-                        // top level comments for the other merged posts should be
-                        // repointed to a mocked up comment representing the merged post
-                        parentIdeaIdOpt
-                                .filter(parentIdeaId -> comment.getLevel() == 0
-                                        && !parentIdeaId.equals(comment.getIdeaId()))
-                                .map(parentIdeaId -> {
-                                    additionalMergedPostIds.add(comment.getIdeaId());
-                                    return comment.getIdeaId();
-                                })))
-                .collect(ImmutableList.toImmutableList());
+        // When a post is merged into another one,
+        // top level comments for the other merged posts should be
+        // repointed to a mocked up comment representing the merged post
+        Function<CommentModel, Optional<String>> mergedPostIdGetter = comment -> parentIdeaIdOpt
+                .filter(parentIdeaId -> comment.getLevel() == 0
+                        && !parentIdeaId.equals(comment.getIdeaId()))
+                .map(parentIdeaId -> comment.getIdeaId());
+        Set<String> additionalMergedPostIds = comments.stream()
+                .map(mergedPostIdGetter)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toCollection(Sets::newHashSet));
 
         for (String mergedPostId : mergedPostIds) {
             if (excludeMergedPostIds.contains(mergedPostId)) {
                 continue;
             }
-            if (fillUntilResultSize <= (commentsWithVote.size() + additionalMergedPostIds.size())) {
+            if (fillUntilResultSize <= (comments.size() + additionalMergedPostIds.size())) {
                 break;
             }
             additionalMergedPostIds.add(mergedPostId);
         }
 
-        if (additionalMergedPostIds.isEmpty() || !parentIdeaIdOpt.isPresent()) {
+        // Merged posts are fetched concurrently with votes
+        ListenableFuture<ImmutableMap<String, IdeaStore.IdeaModel>> mergedIdeasFuture = additionalMergedPostIds.isEmpty() || !parentIdeaIdOpt.isPresent()
+                ? Futures.immediateFuture(ImmutableMap.of())
+                : ideaStore.getIdeasAsync(projectId, ImmutableSet.copyOf(additionalMergedPostIds));
+
+        Map<String, VoteOption> voteResults = Maps.transformValues(await(votesFuture),
+                v -> v == null ? null : VoteValue.fromValue(v.getVote()).toVoteOption());
+        ImmutableList<CommentWithVote> commentsWithVote = comments.stream().map(comment -> comment.toCommentWithVote(
+                        voteResults.get(comment.getCommentId()),
+                        sanitizer,
+                        mergedPostIdGetter.apply(comment)))
+                .collect(ImmutableList.toImmutableList());
+
+        ImmutableMap<String, IdeaStore.IdeaModel> mergedIdeas = await(mergedIdeasFuture);
+        if (mergedIdeas.isEmpty()) {
             return commentsWithVote;
         } else {
             return Stream.concat(
                             commentsWithVote.stream(),
-                            ideaStore.getIdeas(projectId, ImmutableSet.copyOf(additionalMergedPostIds)).values().stream()
+                            mergedIdeas.values().stream()
                                     .map(mergedIdea -> mergedPostAsComment(parentIdeaIdOpt.get(), mergedIdea)))
                     .collect(ImmutableList.toImmutableList());
         }
@@ -19,7 +19,6 @@ import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Role;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
@@ -62,19 +61,19 @@ public class ContentResource extends AbstractResource implements ContentApi, Con
     }
 
     private String doUpload(String projectId, String authorId, InputStream body) {
-        byte[] imgBytes;
+        Image imageNormalized;
         try (body) {
-            imgBytes = IOUtils.toByteArray(body);
+            imageNormalized = imageNormalization.normalize(projectId, body);
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrrupted data", ex);
         }
-        Image imageNormalized = imageNormalization.normalize(imgBytes);
         String signedUrl = contentStore.uploadAndSign(
                 projectId,
                 authorId,
                 checkNotNull(ContentStore.ContentType.MEDIA_TYPE_TO_CONTENT_TYPE.get(imageNormalized.getMediaType())),
                 new ByteArrayInputStream(imageNormalized.getData()),
-                imageNormalized.getData().length);
+                imageNormalized.getData().length,
+                imageNormalized.getVariants());
         return signedUrl;
     }
 
@@ -75,7 +75,7 @@ public class CreditResource extends AbstractResource implements CreditApi, Credi
                 Optional.ofNullable(Strings.emptyToNull(creditIncome.getSummary())).orElse("Automatic income"),
                 Optional.of(creditIncome.getTransactionId()));
         userStore.updateUserBalance(projectId, user.getUserId(), creditIncome.getAmount(), Optional.empty());
-        ConfigAdmin configAdmin = projectStore.getProject(projectId, true).get().getVersionedConfigAdmin().getConfig();
+        ConfigAdmin configAdmin = getRequestMemo().getProject(projectStore, projectId).get().getVersionedConfigAdmin().getConfig();
         notificationService.onCreditChanged(configAdmin, user, transaction);
     }
 
@@ -2,13 +2,13 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.hash.Funnels;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -59,9 +59,10 @@ import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.VoteStore;
+import com.smotana.clearflask.store.VoteStore.UserVotes;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -80,6 +81,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -109,6 +111,8 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     private WebhookService webhookService;
     @Inject
     private GitHubStore gitHubStore;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     @RolesAllowed({Role.PROJECT_USER})
     @Limit(requiredPermits = 30, challengeAfter = 20)
@@ -116,7 +120,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     public IdeaWithVote ideaCreate(String projectId, IdeaCreate ideaCreate) {
         sanitizer.postTitle(ideaCreate.getTitle());
         sanitizer.content(ideaCreate.getDescription());
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         project.areTagsAllowedByUser(ideaCreate.getTagIds(), ideaCreate.getCategoryId());
 
         UserModel user = getExtendedPrincipal()
@@ -189,7 +193,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         sanitizer.postTitle(ideaCreateAdmin.getTitle());
         sanitizer.content(ideaCreateAdmin.getDescription());
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         UserModel author = userStore.getUser(projectId, ideaCreateAdmin.getAuthorUserId())
                 .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
         String ideaId = ideaStore.genIdeaId(ideaCreateAdmin.getTitle());
@@ -279,7 +283,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
                 .map(UserSession::getUserId)
                 .flatMap(userId -> userStore.getUser(projectId, userId));
-        return ideaStore.getIdea(projectId, ideaId)
+        return getRequestMemo().getIdea(ideaStore, projectId, ideaId)
                 .map(ideaModel -> userOpt.map(user -> toIdeaWithVote(user, ideaModel))
                         .orElseGet(() -> ideaModel.toIdeaWithVote(
                                 IdeaVote.builder().build(),
@@ -295,20 +299,14 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
                 .map(UserSession::getUserId)
                 .flatMap(userId -> userStore.getUser(projectId, userId));
-        ImmutableCollection<IdeaModel> ideaModels = ideaStore.getIdeas(projectId, ImmutableList.copyOf(ideaGetAll.getPostIds())).values();
-        return new IdeaGetAllResponse(userOpt.map(user -> toIdeasWithVotes(user, ideaModels))
-                .orElseGet(() -> ideaModels.stream()
-                        .map(ideaModel -> ideaModel.toIdeaWithVote(
-                                new IdeaVote(null, null, null),
-                                sanitizer))
-                        .collect(ImmutableList.toImmutableList())));
+        return new IdeaGetAllResponse(getIdeasWithVotes(projectId, userOpt, ImmutableSet.copyOf(ideaGetAll.getPostIds()), false));
     }
 
     @RolesAllowed({Role.PROJECT_ADMIN_ACTIVE})
     @Limit(requiredPermits = 1)
     @Override
     public Idea ideaGetAdmin(String projectId, String ideaId) {
-        return ideaStore.getIdea(projectId, ideaId)
+        return getRequestMemo().getIdea(ideaStore, projectId, ideaId)
                 .map(idea -> idea.toIdea(sanitizer))
                 .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Idea not found"));
     }
@@ -324,7 +322,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Limit(requiredPermits = 10)
     @Override
     public IdeaConnectResponse ideaLinkAdmin(String projectId, String ideaId, String parentIdeaId) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         IdeaStore.LinkResponse linkResponse = ideaStore.linkIdeas(projectId, ideaId, parentIdeaId, false, project::getCategoryExpressionWeight);
         return new IdeaConnectResponse(linkResponse.getIdea().toIdea(sanitizer), linkResponse.getParentIdea().toIdea(sanitizer));
     }
@@ -333,7 +331,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Limit(requiredPermits = 10)
     @Override
     public IdeaConnectResponse ideaUnLinkAdmin(String projectId, String ideaId, String parentIdeaId) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         IdeaStore.LinkResponse linkResponse = ideaStore.linkIdeas(projectId, ideaId, parentIdeaId, true, project::getCategoryExpressionWeight);
         return new IdeaConnectResponse(linkResponse.getIdea().toIdea(sanitizer), linkResponse.getParentIdea().toIdea(sanitizer));
     }
@@ -342,7 +340,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Limit(requiredPermits = 10)
     @Override
     public IdeaConnectResponse ideaMerge(String projectId, String ideaId, String parentIdeaId) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         ImmutableMap<String, IdeaModel> ideas = ideaStore.getIdeas(projectId, ImmutableSet.of(ideaId, parentIdeaId));
         IdeaModel idea = ideas.get(ideaId);
         IdeaModel parentIdea = ideas.get(parentIdeaId);
@@ -365,7 +363,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Limit(requiredPermits = 10)
     @Override
     public IdeaConnectResponse ideaMergeAdmin(String projectId, String ideaId, String parentIdeaId) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         IdeaStore.MergeResponse mergeResponse = ideaStore.mergeIdeas(projectId, ideaId, parentIdeaId, false, project::getCategoryExpressionWeight);
         return new IdeaConnectResponse(mergeResponse.getIdea().toIdea(sanitizer), mergeResponse.getParentIdea().toIdea(sanitizer));
     }
@@ -374,7 +372,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Limit(requiredPermits = 10)
     @Override
     public IdeaConnectResponse ideaUnMergeAdmin(String projectId, String ideaId, String parentIdeaId) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         IdeaStore.MergeResponse mergeResponse = ideaStore.mergeIdeas(projectId, ideaId, parentIdeaId, true, project::getCategoryExpressionWeight);
         return new IdeaConnectResponse(mergeResponse.getIdea().toIdea(sanitizer), mergeResponse.getParentIdea().toIdea(sanitizer));
     }
@@ -401,21 +399,9 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                     null);
         }
 
-        ImmutableMap<String, IdeaModel> ideasById = ideaStore.getIdeas(projectId, searchResponse.getIdeaIds());
-
-        ImmutableList<IdeaModel> ideaModels = searchResponse.getIdeaIds().stream()
-                .map(ideasById::get)
-                .filter(Objects::nonNull)
-                .collect(ImmutableList.toImmutableList());
-
         return new IdeaWithVoteSearchResponse(
                 searchResponse.getCursorOpt().orElse(null),
-                userOpt.map(user -> toIdeasWithVotes(user, ideaModels))
-                        .orElseGet(() -> ideaModels.stream()
-                                .map(ideaModel -> ideaModel.toIdeaWithVote(
-                                        new IdeaVote(null, null, null),
-                                        sanitizer))
-                                .collect(ImmutableList.toImmutableList())),
+                getIdeasWithVotes(projectId, userOpt, searchResponse.getIdeaIds(), true),
                 new Hits(
                         searchResponse.getTotalHits(),
                         searchResponse.isTotalHitsGte() ? true : null));
@@ -440,7 +426,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 searchResponse.getIdeaIds().stream()
                         .map(ideasById::get)
                         .filter(Objects::nonNull)
-                        .map(idea -> idea.toIdea(sanitizer))
+                        .map(idea -> idea.toIdea(sanitizer, true))
                         .collect(ImmutableList.toImmutableList()),
                 new Hits(
                         searchResponse.getTotalHits(),
@@ -466,7 +452,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         sanitizer.postTitle(ideaUpdateAdmin.getTitle());
         sanitizer.content(ideaUpdateAdmin.getDescription());
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
         Optional<UserModel> authorUserOpt = Optional.ofNullable(Strings.emptyToNull(ideaUpdateAdmin.getResponseAuthorUserId()))
                 .or(() -> getExtendedPrincipal()
@@ -505,7 +491,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Limit(requiredPermits = 1)
     @Override
     public IdeaVotersAdminResponse ideaVotersGetAdmin(String projectId, String ideaId, String cursor) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         VoteStore.ListResponse<VoteStore.VoteModel> votesBatch = voteStore.voteListByTarget(
                 projectId,
                 ideaId,
@@ -533,7 +519,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
                 .map(UserSession::getUserId)
                 .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         billing.recordUsage(Billing.UsageType.POST_DELETED, project.getAccountId(), project.getProjectId(), userId);
     }
 
@@ -544,7 +530,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         ideaStore.deleteIdea(projectId, ideaId, true);
         commentStore.deleteCommentsForIdea(projectId, ideaId);
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         billing.recordUsage(Billing.UsageType.POST_DELETED, project.getAccountId(), project.getProjectId());
     }
 
@@ -670,91 +656,106 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     }
 
     private IdeaWithVote toIdeaWithVote(UserModel user, IdeaModel idea) {
-        boolean isAuthor = user.getUserId().equals(idea.getAuthorUserId());
-        Optional<VoteOption> voteOptionOpt = Optional.empty();
-        if (isAuthor
-                || user.getVoteBloom() != null
-                && BloomFilters.fromByteArray(user.getVoteBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
-            voteOptionOpt = Optional.ofNullable(voteStore.voteSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
-                            .get(idea.getIdeaId()))
-                    .map(voteModel -> VoteValue.fromValue(voteModel.getVote()).toVoteOption());
-        }
-        Optional<List<String>> expressionOpt = Optional.empty();
-        if (isAuthor
-                || user.getExpressBloom() != null
-                && BloomFilters.fromByteArray(user.getExpressBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
-            expressionOpt = Optional.ofNullable(voteStore.expressSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
-                            .get(idea.getIdeaId()))
-                    .map(expressModel -> expressModel.getExpressions().asList());
+        return toIdeasWithVotes(user, ImmutableList.of(idea)).get(0);
+    }
+
+    private ImmutableList<IdeaWithVote> toIdeasWithVotes(UserModel user, ImmutableCollection<IdeaModel> ideas) {
+        ImmutableSet<String> ideaIds = ideas.stream()
+                .map(IdeaModel::getIdeaId)
+                .collect(ImmutableSet.toImmutableSet());
+        ImmutableSet<String> authoredIdeaIds = getAuthoredIdeaIds(user, ideas);
+        UserVotes userVotes = voteStore.userVotesSearch(user.getProjectId(), user.getUserId(),
+                mightHaveVoted(user, BloomFilterCache.Attribute.VOTE, ideaIds, authoredIdeaIds),
+                mightHaveVoted(user, BloomFilterCache.Attribute.EXPRESS, ideaIds, authoredIdeaIds),
+                mightHaveVoted(user, BloomFilterCache.Attribute.FUND, ideaIds, authoredIdeaIds));
+        return ideas.stream()
+                .map(idea -> toIdeaWithVote(idea, userVotes, false))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Fetches ideas and user's votes concurrently. Authorship is only known after the ideas are fetched,
+     * so votes on own ideas not found in the bloom filters are fetched afterwards.
+     */
+    private ImmutableList<IdeaWithVote> getIdeasWithVotes(String projectId, Optional<UserModel> userOpt, ImmutableCollection<String> ideaIds, boolean listView) {
+        if (userOpt.isEmpty()) {
+            ImmutableMap<String, IdeaModel> ideasById = ideaStore.getIdeas(projectId, ideaIds);
+            return ideaIds.stream()
+                    .map(ideasById::get)
+                    .filter(Objects::nonNull)
+                    .map(ideaModel -> ideaModel.toIdeaWithVote(
+                            new IdeaVote(null, null, null),
+                            sanitizer,
+                            listView))
+                    .collect(ImmutableList.toImmutableList());
         }
-        Optional<Long> fundAmountOpt = Optional.empty();
-        if (isAuthor
-                || user.getFundBloom() != null
-                && BloomFilters.fromByteArray(user.getFundBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
-            fundAmountOpt = Optional.ofNullable(voteStore.fundSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
-                            .get(idea.getIdeaId()))
-                    .map(VoteStore.FundModel::getFundAmount);
+        UserModel user = userOpt.get();
+
+        ImmutableSet<String> voteIdeaIds = mightHaveVoted(user, BloomFilterCache.Attribute.VOTE, ideaIds, ImmutableSet.of());
+        ImmutableSet<String> expressIdeaIds = mightHaveVoted(user, BloomFilterCache.Attribute.EXPRESS, ideaIds, ImmutableSet.of());
+        ImmutableSet<String> fundIdeaIds = mightHaveVoted(user, BloomFilterCache.Attribute.FUND, ideaIds, ImmutableSet.of());
+        ListenableFuture<UserVotes> userVotesFuture = voteStore.userVotesSearchAsync(projectId, user.getUserId(), voteIdeaIds, expressIdeaIds, fundIdeaIds);
+
+        ImmutableMap<String, IdeaModel> ideasById = ideaStore.getIdeas(projectId, ideaIds);
+        ImmutableList<IdeaModel> ideas = ideaIds.stream()
+                .map(ideasById::get)
+                .filter(Objects::nonNull)
+                .collect(ImmutableList.toImmutableList());
+
+        UserVotes userVotes = await(userVotesFuture);
+
+        ImmutableSet<String> authoredIdeaIds = getAuthoredIdeaIds(user, ideas);
+        if (!authoredIdeaIds.isEmpty()) {
+            userVotes = userVotes.merge(voteStore.userVotesSearch(projectId, user.getUserId(),
+                    Sets.difference(mightHaveVoted(user, BloomFilterCache.Attribute.VOTE, authoredIdeaIds, authoredIdeaIds), voteIdeaIds).immutableCopy(),
+                    Sets.difference(mightHaveVoted(user, BloomFilterCache.Attribute.EXPRESS, authoredIdeaIds, authoredIdeaIds), expressIdeaIds).immutableCopy(),
+                    Sets.difference(mightHaveVoted(user, BloomFilterCache.Attribute.FUND, authoredIdeaIds, authoredIdeaIds), fundIdeaIds).immutableCopy()));
         }
 
-        return idea.toIdeaWithVote(
-                new IdeaVote(
-                        voteOptionOpt.orElse(null),
-                        expressionOpt.orElse(null),
-                        fundAmountOpt.orElse(null)),
-                sanitizer);
+        UserVotes userVotesFinal = userVotes;
+        return ideas.stream()
+                .map(idea -> toIdeaWithVote(idea, userVotesFinal, listView))
+                .collect(ImmutableList.toImmutableList());
     }
 
-    private ImmutableList<IdeaWithVote> toIdeasWithVotes(UserModel user, ImmutableCollection<IdeaModel> ideas) {
-        ImmutableMap<String, VoteStore.VoteModel> voteResults = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .map(bloomFilter -> ideas.stream()
-                        .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
-                        .map(IdeaModel::getIdeaId)
-                        .collect(ImmutableSet.toImmutableSet()))
-                .map(ideaIds -> voteStore.voteSearch(user.getProjectId(), user.getUserId(), ideaIds))
-                .orElse(ImmutableMap.of());
-
-        ImmutableMap<String, VoteStore.ExpressModel> expressResults = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .map(bloomFilter -> ideas.stream()
-                        .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
-                        .map(IdeaModel::getIdeaId)
-                        .collect(ImmutableSet.toImmutableSet()))
-                .map(ideaIds -> voteStore.expressSearch(user.getProjectId(), user.getUserId(), ideaIds))
-                .orElse(ImmutableMap.of());
-
-        ImmutableMap<String, VoteStore.FundModel> fundResults = Optional.ofNullable(user.getFundBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .map(bloomFilter -> ideas.stream()
-                        .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
-                        .map(IdeaModel::getIdeaId)
+    private ImmutableSet<String> getAuthoredIdeaIds(UserModel user, Collection<IdeaModel> ideas) {
+        return ideas.stream()
+                .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()))
+                .map(IdeaModel::getIdeaId)
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    /**
+     * Filters ideas that may have a vote of given type, own ideas are always included.
+     */
+    private ImmutableSet<String> mightHaveVoted(UserModel user, BloomFilterCache.Attribute attribute, Collection<String> ideaIds, Set<String> authoredIdeaIds) {
+        return bloomFilterCache.get(user, attribute)
+                .map(bloomFilter -> ideaIds.stream()
+                        .filter(ideaId -> authoredIdeaIds.contains(ideaId) || bloomFilter.mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet()))
-                .map(ideaIds -> voteStore.fundSearch(user.getProjectId(), user.getUserId(), ideaIds))
-                .orElse(ImmutableMap.of());
+                .orElseGet(() -> ideaIds.stream()
+                        .filter(authoredIdeaIds::contains)
+                        .collect(ImmutableSet.toImmutableSet()));
+    }
 
-        return ideas.stream()
-                .map(idea -> {
-                    IdeaVote.IdeaVoteBuilder voteBuilder = IdeaVote.builder();
-                    VoteStore.VoteModel voteModel = voteResults.get(idea.getIdeaId());
-                    if (voteModel != null) {
-                        voteBuilder.vote(VoteValue.fromValue(voteModel.getVote()).toVoteOption());
-                    }
-                    VoteStore.ExpressModel expressModel = expressResults.get(idea.getIdeaId());
-                    if (expressModel != null) {
-                        voteBuilder.expression(expressModel.getExpressions().asList());
-                    }
-                    VoteStore.FundModel fundModel = fundResults.get(idea.getIdeaId());
-                    if (fundModel != null) {
-                        voteBuilder.fundAmount(fundModel.getFundAmount());
-                    }
-                    return idea.toIdeaWithVote(
-                            voteBuilder.build(),
-                            sanitizer);
-                })
-                .collect(ImmutableList.toImmutableList());
+    private IdeaWithVote toIdeaWithVote(IdeaModel idea, UserVotes userVotes, boolean listView) {
+        IdeaVote.IdeaVoteBuilder voteBuilder = IdeaVote.builder();
+        VoteStore.VoteModel voteModel = userVotes.getVotes().get(idea.getIdeaId());
+        if (voteModel != null) {
+            voteBuilder.vote(VoteValue.fromValue(voteModel.getVote()).toVoteOption());
+        }
+        VoteStore.ExpressModel expressModel = userVotes.getExpressions().get(idea.getIdeaId());
+        if (expressModel != null) {
+            voteBuilder.expression(expressModel.getExpressions().asList());
+        }
+        VoteStore.FundModel fundModel = userVotes.getFunds().get(idea.getIdeaId());
+        if (fundModel != null) {
+            voteBuilder.fundAmount(fundModel.getFundAmount());
+        }
+        return idea.toIdeaWithVote(
+                voteBuilder.build(),
+                sanitizer,
+                listView);
     }
 
     public static Module module() {
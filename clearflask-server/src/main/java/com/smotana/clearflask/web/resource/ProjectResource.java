@@ -15,6 +15,7 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Module;
@@ -42,6 +43,7 @@ import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.api.model.Tag;
 import com.smotana.clearflask.api.model.UserBind;
 import com.smotana.clearflask.api.model.UserBindResponse;
+import com.smotana.clearflask.api.model.UserMeWithBalance;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
 import com.smotana.clearflask.billing.Billing;
 import com.smotana.clearflask.billing.PlanStore;
@@ -73,6 +75,7 @@ import com.smotana.clearflask.util.DateUtil;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
+import com.smotana.clearflask.web.PreSerializedJsonWriterInterceptor;
 import com.smotana.clearflask.web.security.AuthCookie;
 import com.smotana.clearflask.web.security.AuthenticationFilter;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
@@ -171,6 +174,8 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     private DateUtil dateUtil;
     @Inject
     private ElasticUtil elasticUtil;
+    @Inject
+    private Gson gson;
 
     @PermitAll
     @Limit(requiredPermits = 10)
@@ -190,6 +195,7 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                     project.getVersionedConfig().getConfig().getUsers().getOnboarding());
         }
 
+        PreSerializedJsonWriterInterceptor.respondWith(request, project.getConfigBindSlugResultPreSerialized());
         return new ConfigBindSlugResult(
                 project.getProjectId(),
                 project.getVersionedConfig(),
@@ -246,12 +252,16 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                     null);
         }
 
+        UserMeWithBalance userMe = loggedInUserOpt.map(loggedInUser -> loggedInUser.toUserMeWithBalance(project.getIntercomEmailToIdentityFun()))
+                .orElse(null);
+        PreSerializedJsonWriterInterceptor.respondWith(request, userMe == null
+                ? project.getConfigBindSlugResultPreSerialized()
+                : project.getConfigBindSlugResultPreSerialized().withField(gson, "user", userMe));
         return new ConfigAndUserBindSlugResult(
                 project.getProjectId(),
                 project.getVersionedConfig(),
                 null,
-                loggedInUserOpt.map(loggedInUser -> loggedInUser.toUserMeWithBalance(project.getIntercomEmailToIdentityFun()))
-                        .orElse(null));
+                userMe);
     }
 
     @RolesAllowed({Role.PROJECT_ADMIN})
@@ -120,7 +120,7 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
     public void forgotPassword(String projectId, ForgotPassword forgotPassword) {
         sanitizer.email(forgotPassword.getEmail());
 
-        Optional<Project> projectOpt = projectStore.getProject(projectId, true);
+        Optional<Project> projectOpt = getRequestMemo().getProject(projectStore, projectId);
         if (!projectOpt.isPresent()) return;
 
         Optional<UserModel> userOpt = userStore.getUserByIdentifier(projectId, UserStore.IdentifierType.EMAIL, forgotPassword.getEmail());
@@ -152,7 +152,7 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                 Optional.ofNullable(userBind.getOauthToken()),
                 Optional.ofNullable(Strings.emptyToNull(userBind.getBrowserPushToken())));
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return new UserBindResponse(loggedInUserOpt
                 .map(loggedInUser -> loggedInUser.toUserMeWithBalance(project.getIntercomEmailToIdentityFun()))
                 .orElse(null));
@@ -169,7 +169,7 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
             sanitizer.email(userCreate.getEmail());
         }
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
 
         // If email already exists, ask to login via email link
         if (!Strings.isNullOrEmpty(userCreate.getEmail())) {
@@ -297,7 +297,11 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
         userStore.createUser(user);
 
         UserSession session = userStore.createSession(
@@ -358,13 +362,17 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
         userStore.createUser(user);
         if (user.getIsMod() == Boolean.TRUE) {
-            ConfigAdmin configAdmin = projectStore.getProject(projectId, true).get().getVersionedConfigAdmin().getConfig();
+            ConfigAdmin configAdmin = getRequestMemo().getProject(projectStore, projectId).get().getVersionedConfigAdmin().getConfig();
             notificationService.onModInvite(configAdmin, user);
         }
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return user.toUserAdmin(project.getIntercomEmailToIdentityFun());
     }
 
@@ -454,7 +462,7 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                 Instant.now().plus(config.sessionExpiry()).getEpochSecond());
         authCookie.setAuthCookie(request, response, USER_AUTH_COOKIE_NAME_PREFIX + projectId, session.getSessionId(), session.getTtlInEpochSec());
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return user.toUserMeWithBalance(project.getIntercomEmailToIdentityFun());
     }
 
@@ -499,14 +507,14 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
         if (!Strings.isNullOrEmpty(userUpdate.getEmail())) {
             if (!Strings.isNullOrEmpty(user.getEmail())
                     && (user.getEmailLastUpdated() == null || user.getEmailLastUpdated().plus(config.sendOnEmailChangedEmailIfLastChangeGreaterThan()).isBefore(Instant.now()))) {
-                ConfigAdmin configAdmin = projectStore.getProject(projectId, true).get().getVersionedConfigAdmin().getConfig();
+                ConfigAdmin configAdmin = getRequestMemo().getProject(projectStore, projectId).get().getVersionedConfigAdmin().getConfig();
                 notificationService.onEmailChanged(configAdmin, user, user.getEmail());
             }
         }
 
         user = userStore.updateUser(projectId, userId, userUpdate).getUser();
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return user.toUserMe(project.getIntercomEmailToIdentityFun());
     }
 
@@ -525,11 +533,11 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                     Optional.ofNullable(Strings.emptyToNull(userUpdateAdmin.getTransactionCreate().getSummary())).orElse("Admin adjustment"),
                     Optional.empty());
             userStore.updateUserBalance(projectId, userId, userUpdateAdmin.getTransactionCreate().getAmount(), Optional.empty());
-            ConfigAdmin configAdmin = projectStore.getProject(projectId, true).get().getVersionedConfigAdmin().getConfig();
+            ConfigAdmin configAdmin = getRequestMemo().getProject(projectStore, projectId).get().getVersionedConfigAdmin().getConfig();
             UserModel user = userStore.getUser(projectId, userId).get();
             notificationService.onCreditChanged(configAdmin, user, transaction);
         }
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return userStore.updateUser(projectId, userId, userUpdateAdmin)
                 .getUser()
                 .toUserAdmin(project.getIntercomEmailToIdentityFun());
@@ -539,7 +547,7 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
     @Limit(requiredPermits = 1)
     @Override
     public UserAdmin userGetAdmin(String projectId, String userId) {
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return userStore.getUser(projectId, userId)
                 .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"))
                 .toUserAdmin(project.getIntercomEmailToIdentityFun());
@@ -572,7 +580,7 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
             usersById = userStore.getUsers(projectId, searchUsersResponse.getUserIds());
         }
 
-        Project project = projectStore.getProject(projectId, true).get();
+        Project project = getRequestMemo().getProject(projectStore, projectId).get();
         return new UserSearchResponse(
                 searchUsersResponse.getCursorOpt().orElse(null),
                 searchUsersResponse.getUserIds().stream()
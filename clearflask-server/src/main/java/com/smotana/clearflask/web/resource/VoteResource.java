@@ -2,14 +2,12 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -47,7 +45,7 @@ import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.FundModel;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -86,6 +84,8 @@ public class VoteResource extends AbstractResource implements VoteApi {
     private Billing billing;
     @Inject
     private WebhookService webhookService;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     @RolesAllowed({Role.PROJECT_USER})
     @Limit(requiredPermits = 1)
@@ -96,7 +96,7 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .get();
 
         // Ensure subscriptions are allowed for this category
-        Project project = projectStore.getProject(projectId, true)
+        Project project = getRequestMemo().getProject(projectStore, projectId)
                 .orElseThrow(() -> new ApiException(Response.Status.BAD_REQUEST, "Project does not exist"));
         Category category = project.getCategory(categoryId)
                 .orElseThrow(() -> new ApiException(Response.Status.BAD_REQUEST, "Category does not exist"));
@@ -122,8 +122,7 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .flatMap(userId -> userStore.getUser(projectId, userId))
                 .get();
 
-        Optional<BloomFilter<CharSequence>> bloomFilterOpt = Optional.ofNullable(user.getCommentVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> bloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Attribute.COMMENT_VOTE);
         Map<String, VoteOption> votesByCommentId = Maps.transformValues(
                 voteStore.voteSearch(projectId, user.getUserId(), commentIds.stream()
                         .filter(commentId -> myOwnCommentIds.contains(commentId)
@@ -138,7 +137,7 @@ public class VoteResource extends AbstractResource implements VoteApi {
     public CommentVoteUpdateResponse commentVoteUpdate(String projectId, String ideaId, String commentId, CommentVoteUpdate commentVoteUpdate) {
         String userId = getExtendedPrincipal().flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
                 .map(UserSession::getUserId).orElseThrow(BadRequestException::new);
-        Project project = projectStore.getProject(projectId, true).orElseThrow(BadRequestException::new);
+        Project project = getRequestMemo().getProject(projectStore, projectId).orElseThrow(BadRequestException::new);
 
         VoteValue vote = VoteValue.fromVoteOption(commentVoteUpdate.getVote());
         CommentModel comment = commentStore.voteComment(projectId, ideaId, commentId, userId, vote)
@@ -156,24 +155,21 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .flatMap(userId -> userStore.getUser(projectId, userId))
                 .get();
 
-        Optional<BloomFilter<CharSequence>> voteBloomFilterOpt = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> voteBloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Attribute.VOTE);
         Map<String, VoteOption> votesByIdeaId = Maps.transformValues(
                 voteStore.voteSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
                                 || voteBloomFilterOpt.isPresent() && voteBloomFilterOpt.get().mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet())), voteModel -> VoteValue.fromValue(voteModel.getVote()).toVoteOption());
 
-        Optional<BloomFilter<CharSequence>> expressBloomFilterOpt = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> expressBloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Attribute.EXPRESS);
         Map<String, List<String>> expressionByIdeaId = Maps.transformValues(
                 voteStore.expressSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
                                 || expressBloomFilterOpt.isPresent() && expressBloomFilterOpt.get().mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet())), expressModel -> expressModel.getExpressions().asList());
 
-        Optional<BloomFilter<CharSequence>> fundBloomFilterOpt = Optional.ofNullable(user.getFundBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> fundBloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Attribute.FUND);
         Map<String, Long> fundAmountByIdeaId = Maps.transformValues(
                 voteStore.fundSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
@@ -192,8 +188,8 @@ public class VoteResource extends AbstractResource implements VoteApi {
     public IdeaVoteUpdateResponse ideaVoteUpdate(String projectId, String ideaId, IdeaVoteUpdate voteUpdate) {
         String userId = getExtendedPrincipal().flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
                 .map(UserSession::getUserId).orElseThrow(BadRequestException::new);
-        Project project = projectStore.getProject(projectId, true).orElseThrow(BadRequestException::new);
-        IdeaModel idea = ideaStore.getIdea(projectId, ideaId).orElseThrow(BadRequestException::new);
+        Project project = getRequestMemo().getProject(projectStore, projectId).orElseThrow(BadRequestException::new);
+        IdeaModel idea = getRequestMemo().getIdea(ideaStore, projectId, ideaId).orElseThrow(BadRequestException::new);
 
         if (!Strings.isNullOrEmpty(idea.getMergedToPostId())) {
             throw new ApiException(Response.Status.BAD_REQUEST, "Cannot change a merged post");
@@ -3,6 +3,8 @@
 package com.smotana.clearflask.web.security;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.kik.config.ice.ConfigSystem;
@@ -19,7 +21,9 @@ import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserSession;
+import com.smotana.clearflask.store.dynamo.DynamoAsyncExecutor;
 import com.smotana.clearflask.util.IpUtil;
+import com.smotana.clearflask.web.resource.AbstractResource;
 import com.smotana.clearflask.web.resource.AccountResource;
 import com.smotana.clearflask.web.resource.UserResource;
 import lombok.extern.slf4j.Slf4j;
@@ -31,17 +35,20 @@ import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Priorities;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Cookie;
 import javax.ws.rs.ext.Provider;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 @Slf4j
 @Provider
 @Priority(Priorities.AUTHENTICATION)
-public class AuthenticationFilter implements ContainerRequestFilter {
+public class AuthenticationFilter implements ContainerRequestFilter, ContainerResponseFilter {
     public static final String EXTERNAL_API_AUTH_HEADER_NAME_TOKEN = "x-cf-token";
     public static final String EXTERNAL_API_AUTH_HEADER_NAME_CONNECT_TOKEN = "x-cf-connect-token";
 
@@ -70,6 +77,10 @@ public class AuthenticationFilter implements ContainerRequestFilter {
     private CommentStore commentStore;
     @Inject
     private ProjectStore projectStore;
+    @Inject
+    private DynamoAsyncExecutor dynamoAsyncExecutor;
+    @Inject
+    private RequestLookupStats requestLookupStats;
 
     @Override
     public void filter(ContainerRequestContext requestContext) throws IOException {
@@ -81,10 +92,32 @@ public class AuthenticationFilter implements ContainerRequestFilter {
         }
     }
 
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        requestLookupStats.record(RequestMemo.get(request).getLookups());
+    }
+
     private ExtendedSecurityContext authenticate(ContainerRequestContext requestContext) throws IOException {
-        Optional<Account> accountByApiKey = getAccountByApiKey(requestContext);
-        Optional<AccountSession> accountSessionOpt = getAccountSessionForCookieName(requestContext, AccountResource.ACCOUNT_AUTH_COOKIE_NAME);
-        Optional<AccountSession> superAccountSessionOpt = getAccountSessionForCookieName(requestContext, AccountResource.SUPER_ADMIN_AUTH_COOKIE_NAME);
+        RequestMemo memo = RequestMemo.get(request);
+
+        // Independent lookups are issued concurrently
+        ListenableFuture<Optional<Account>> accountByApiKeyFuture = lookupAsync(memo,
+                getHeaderParameter(requestContext, EXTERNAL_API_AUTH_HEADER_NAME_TOKEN),
+                accountStore::getAccountByApiKey);
+        ListenableFuture<Optional<AccountSession>> accountSessionFuture = lookupAsync(memo,
+                getCookieValue(requestContext, AccountResource.ACCOUNT_AUTH_COOKIE_NAME),
+                accountStore::getSession);
+        ListenableFuture<Optional<AccountSession>> superAccountSessionFuture = lookupAsync(memo,
+                getCookieValue(requestContext, AccountResource.SUPER_ADMIN_AUTH_COOKIE_NAME),
+                accountStore::getSession);
+        Optional<UserSession> authenticatedUserSessionOpt = getPathParameter(requestContext, "projectId")
+                .or(() -> getPathParameter(requestContext, "slug")
+                        .flatMap(slug -> memo.getProjectBySlug(projectStore, slug)
+                                .map(Project::getProjectId)))
+                .flatMap(projectId -> authenticateUser(memo, projectId, requestContext));
+        Optional<Account> accountByApiKey = AbstractResource.await(accountByApiKeyFuture);
+        Optional<AccountSession> accountSessionOpt = AbstractResource.await(accountSessionFuture);
+        Optional<AccountSession> superAccountSessionOpt = AbstractResource.await(superAccountSessionFuture);
 
         Optional<String> authenticatedAccountIdOpt = accountByApiKey.map(Account::getAccountId)
                 .or(() -> accountSessionOpt.map(AccountSession::getAccountId));
@@ -94,11 +127,6 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                 .or(() -> superAccountSessionOpt
                         .filter(session -> superAdminPredicate.isEmailSuperAdmin(session.getEmail()))
                         .map(AccountSession::getAccountId));
-        Optional<UserSession> authenticatedUserSessionOpt = getPathParameter(requestContext, "projectId")
-                .or(() -> getPathParameter(requestContext, "slug")
-                        .flatMap(slug -> projectStore.getProjectBySlug(slug, true)
-                                .map(Project::getProjectId)))
-                .flatMap(projectId -> authenticateUser(projectId, requestContext));
 
         return ExtendedSecurityContext.create(
                 IpUtil.getRemoteIp(request, env),
@@ -107,27 +135,32 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                 authenticatedUserSessionOpt,
                 accountSessionOpt,
                 superAccountSessionOpt,
-                role -> hasRole(role, authenticatedAccountIdOpt, authenticatedSuperAccountIdOpt, authenticatedUserSessionOpt, requestContext),
+                role -> hasRole(role, memo, authenticatedAccountIdOpt, authenticatedSuperAccountIdOpt, authenticatedUserSessionOpt, requestContext),
                 requestContext);
     }
 
-    private Optional<AccountSession> getAccountSessionForCookieName(ContainerRequestContext requestContext, String cookieName) {
+    private Optional<String> getCookieValue(ContainerRequestContext requestContext, String cookieName) {
         // TODO check for HttpOnly, isSecure, etc...
         // TODO sanity check cookie.getValue()
         return Optional.ofNullable(requestContext.getCookies().get(cookieName))
-                .map(Cookie::getValue)
-                .flatMap(accountStore::getSession);
+                .map(Cookie::getValue);
     }
 
-    private Optional<Account> getAccountByApiKey(ContainerRequestContext requestContext) {
-        return getHeaderParameter(requestContext, EXTERNAL_API_AUTH_HEADER_NAME_TOKEN)
-                .flatMap(accountStore::getAccountByApiKey);
+    private <T> ListenableFuture<Optional<T>> lookupAsync(RequestMemo memo, Optional<String> idOpt, Function<String, Optional<T>> lookup) {
+        if (idOpt.isEmpty()) {
+            return Futures.immediateFuture(Optional.empty());
+        }
+        memo.countLookup();
+        return dynamoAsyncExecutor.submit(() -> lookup.apply(idOpt.get()));
     }
 
-    private Optional<UserSession> authenticateUser(String projectId, ContainerRequestContext requestContext) {
-        return authenticateUserCookie(
-                userStore,
-                requestContext.getCookies().get(UserResource.USER_AUTH_COOKIE_NAME_PREFIX + projectId));
+    private Optional<UserSession> authenticateUser(RequestMemo memo, String projectId, ContainerRequestContext requestContext) {
+        Cookie cookie = requestContext.getCookies().get(UserResource.USER_AUTH_COOKIE_NAME_PREFIX + projectId);
+        if (cookie == null) {
+            return Optional.empty();
+        }
+        memo.countLookup();
+        return authenticateUserCookie(userStore, cookie);
     }
 
     /** TODO Kind of a hack, authenticate* methods should be refactored out to a separate singleton class */
@@ -142,9 +175,9 @@ public class AuthenticationFilter implements ContainerRequestFilter {
         return userStore.getSession(cookie.getValue());
     }
 
-    private boolean hasRole(String role, Optional<String> authenticatedAccountIdOpt, Optional<String> authenticatedSuperAccountIdOpt, Optional<UserSession> authenticatedUserSessionOpt, ContainerRequestContext requestContext) {
+    private boolean hasRole(String role, RequestMemo memo, Optional<String> authenticatedAccountIdOpt, Optional<String> authenticatedSuperAccountIdOpt, Optional<UserSession> authenticatedUserSessionOpt, ContainerRequestContext requestContext) {
 
-        boolean hasRole = hasRoleInternal(role, authenticatedAccountIdOpt, authenticatedSuperAccountIdOpt, authenticatedUserSessionOpt, requestContext);
+        boolean hasRole = hasRoleInternal(role, memo, authenticatedAccountIdOpt, authenticatedSuperAccountIdOpt, authenticatedUserSessionOpt, requestContext);
         if (hasRole) {
             log.debug("User does have role {}", role);
         } else {
@@ -153,7 +186,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
         return hasRole;
     }
 
-    private boolean hasRoleInternal(String role, Optional<String> authenticatedAccountIdOpt, Optional<String> authenticatedSuperAccountIdOpt, Optional<UserSession> authenticatedUserSessionOpt, ContainerRequestContext requestContext) {
+    private boolean hasRoleInternal(String role, RequestMemo memo, Optional<String> authenticatedAccountIdOpt, Optional<String> authenticatedSuperAccountIdOpt, Optional<UserSession> authenticatedUserSessionOpt, ContainerRequestContext requestContext) {
         Optional<String> pathParamProjectIdOpt = getPathParameter(requestContext, "projectId");
 
         log.trace("hasRole role {} accountId {} superAccountIdOpt {} userIdOpt {} userProjectIdOpt {} projectIdParam {}",
@@ -192,7 +225,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
 
                 // From here on just checking the _ACTIVE portion
 
-                authenticatedAccount = accountStore.getAccount(authenticatedAccountIdOpt.get(), true).get();
+                authenticatedAccount = memo.getAccount(accountStore, authenticatedAccountIdOpt.get()).get();
                 if (!Billing.SUBSCRIPTION_STATUS_ACTIVE_ENUMS.contains(authenticatedAccount.getStatus())) {
                     log.trace("Role {} inactive subscription", role);
                     return false;
@@ -208,7 +241,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                     log.trace("Role {} missing account", role);
                     return false;
                 }
-                projectOpt = projectStore.getProject(pathParamProjectIdOpt.get(), true);
+                projectOpt = memo.getProject(projectStore, pathParamProjectIdOpt.get());
                 if (!projectOpt.isPresent()) {
                     log.trace("Role {} missing project with id {}", role, pathParamProjectIdOpt.get());
                     return false;
@@ -223,7 +256,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
 
                 // From here on just checking the _ACTIVE portion
 
-                Optional<Account> accountOwnerOpt = accountStore.getAccount(projectOpt.get().getAccountId(), true);
+                Optional<Account> accountOwnerOpt = memo.getAccount(accountStore, projectOpt.get().getAccountId());
                 if (!accountOwnerOpt.isPresent()) {
                     log.warn("Role {} cannot find account {} given project id {}",
                             role, projectOpt.get().getAccountId(), pathParamProjectIdOpt.get());
@@ -245,7 +278,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                     log.trace("Role {} missing account", role);
                     return false;
                 }
-                authenticatedAccount = accountStore.getAccount(authenticatedAccountIdOpt.get(), true).get();
+                authenticatedAccount = memo.getAccount(accountStore, authenticatedAccountIdOpt.get()).get();
                 if (authenticatedAccount.getProjectIds().stream().noneMatch(pathParamProjectIdOpt.get()::equals)) {
                     log.trace("Role {} doesn't own project", role);
                     return false;
@@ -270,7 +303,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                 if (authenticatedUserSessionOpt.isPresent() && authenticatedUserSessionOpt.get().getProjectId().equals(pathParamProjectIdOpt.get())) {
                     return true;
                 }
-                projectOpt = projectStore.getProject(pathParamProjectIdOpt.get(), true);
+                projectOpt = memo.getProject(projectStore, pathParamProjectIdOpt.get());
                 if (!projectOpt.isPresent()) {
                     log.trace("Role {} missing project", role);
                     return false;
@@ -307,9 +340,9 @@ public class AuthenticationFilter implements ContainerRequestFilter {
 
                 // From here on just checking the _ACTIVE portion
 
-                Optional<Account> projectAccountOpt = projectStore.getProject(pathParamProjectIdOpt.get(), true)
+                Optional<Account> projectAccountOpt = memo.getProject(projectStore, pathParamProjectIdOpt.get())
                         .map(Project::getAccountId)
-                        .flatMap(accountId -> accountStore.getAccount(accountId, true));
+                        .flatMap(accountId -> memo.getAccount(accountStore, accountId));
                 if (!projectAccountOpt.isPresent()) {
                     log.trace("Role {} missing account from projectId {}", role, pathParamProjectIdOpt.get());
                     return false;
@@ -328,7 +361,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                     log.trace("Role {} missing path param idea id", role);
                     return false;
                 }
-                Optional<IdeaStore.IdeaModel> idea = ideaStore.getIdea(authenticatedUserSessionOpt.get().getProjectId(), pathParamIdeaIdOpt.get());
+                Optional<IdeaStore.IdeaModel> idea = memo.getIdea(ideaStore, authenticatedUserSessionOpt.get().getProjectId(), pathParamIdeaIdOpt.get());
                 return idea.isPresent() && idea.get().getAuthorUserId().equals(authenticatedUserSessionOpt.get().getUserId());
             case Role.COMMENT_OWNER:
                 pathParamIdeaIdOpt = getPathParameter(requestContext, "ideaId");
@@ -345,7 +378,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                     log.trace("Role {} missing path param comment id", role);
                     return false;
                 }
-                Optional<CommentStore.CommentModel> comment = commentStore.getComment(authenticatedUserSessionOpt.get().getProjectId(), pathParamIdeaIdOpt.get(), pathParamCommentIdOpt.get());
+                Optional<CommentStore.CommentModel> comment = memo.getComment(commentStore, authenticatedUserSessionOpt.get().getProjectId(), pathParamIdeaIdOpt.get(), pathParamCommentIdOpt.get());
                 return comment.isPresent() && comment.get().getAuthorUserId().equals(authenticatedUserSessionOpt.get().getUserId());
             default:
                 log.warn("Unknown role {}", role);
@@ -371,6 +404,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
             protected void configure() {
                 bind(AuthenticationFilter.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
+                install(RequestLookupStats.module());
             }
         };
     }
@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.security;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.util.Extern;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of store lookups per request as counted by {@link RequestMemo}. These are memo misses, some are
+ * served by store caches and direct store calls from resources are not counted, so this is not the number of
+ * backend round trips.
+ */
+@Singleton
+public class RequestLookupStats {
+    /**
+     * Inclusive upper bounds of each bucket, anything larger falls into an overflow bucket.
+     */
+    private static final int[] BUCKET_BOUNDS = {0, 1, 2, 3, 4, 6, 8, 12, 16};
+
+    private final LongAdder[] bucketCounts = new LongAdder[BUCKET_BOUNDS.length + 1];
+    private final LongAdder total = new LongAdder();
+
+    public RequestLookupStats() {
+        Arrays.setAll(bucketCounts, i -> new LongAdder());
+    }
+
+    public void record(int lookups) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && lookups > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        bucketCounts[bucket].increment();
+        total.add(lookups);
+    }
+
+    @Extern
+    public ImmutableMap<String, Long> histogram() {
+        ImmutableMap.Builder<String, Long> histogramBuilder = ImmutableMap.builder();
+        for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+            histogramBuilder.put("<=" + BUCKET_BOUNDS[bucket], bucketCounts[bucket].sum());
+        }
+        histogramBuilder.put(">" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1], bucketCounts[BUCKET_BOUNDS.length].sum());
+        return histogramBuilder.build();
+    }
+
+    @Extern
+    public double meanLookups() {
+        long requests = Arrays.stream(bucketCounts).mapToLong(LongAdder::sum).sum();
+        return requests == 0L ? 0d : (double) total.sum() / requests;
+    }
+
+    @Extern
+    private void resetStats() {
+        Arrays.stream(bucketCounts).forEach(LongAdder::reset);
+        total.reset();
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(RequestLookupStats.class).asEagerSingleton();
+            }
+        };
+    }
+}
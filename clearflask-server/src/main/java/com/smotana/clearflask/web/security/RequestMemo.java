@@ -0,0 +1,97 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.security;
+
+import com.google.common.collect.Maps;
+import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.AccountStore.Account;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Entities loaded while serving a single request, shared between {@link AuthenticationFilter} and resources so
+ * that each is fetched at most once. Only cache-tolerant lookups belong here, the memo is never invalidated.
+ */
+public class RequestMemo {
+    private static final String ATTRIBUTE_NAME = RequestMemo.class.getName();
+
+    private final ConcurrentMap<MemoKey, Object> memo = Maps.newConcurrentMap();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    /**
+     * Memo attached to the given request, or a detached one if there is no request.
+     */
+    public static RequestMemo get(@Nullable HttpServletRequest request) {
+        if (request == null) {
+            return new RequestMemo();
+        }
+        Object memoObj = request.getAttribute(ATTRIBUTE_NAME);
+        if (memoObj instanceof RequestMemo) {
+            return (RequestMemo) memoObj;
+        }
+        RequestMemo memo = new RequestMemo();
+        request.setAttribute(ATTRIBUTE_NAME, memo);
+        return memo;
+    }
+
+    public Optional<Project> getProject(ProjectStore projectStore, String projectId) {
+        return computeIfAbsent("project", projectId, () -> projectStore.getProject(projectId, true));
+    }
+
+    public Optional<Project> getProjectBySlug(ProjectStore projectStore, String slug) {
+        return computeIfAbsent("projectBySlug", slug, () -> projectStore.getProjectBySlug(slug, true));
+    }
+
+    public Optional<Account> getAccount(AccountStore accountStore, String accountId) {
+        return computeIfAbsent("account", accountId, () -> accountStore.getAccount(accountId, true));
+    }
+
+    public Optional<IdeaModel> getIdea(IdeaStore ideaStore, String projectId, String ideaId) {
+        return computeIfAbsent("idea", projectId + "/" + ideaId, () -> ideaStore.getIdea(projectId, ideaId));
+    }
+
+    public Optional<CommentModel> getComment(CommentStore commentStore, String projectId, String ideaId, String commentId) {
+        return computeIfAbsent("comment", projectId + "/" + ideaId + "/" + commentId, () -> commentStore.getComment(projectId, ideaId, commentId));
+    }
+
+    /**
+     * Records a store lookup made outside the memo.
+     */
+    public void countLookup() {
+        lookups.incrementAndGet();
+    }
+
+    /**
+     * Store lookups made through this memo, that is memo misses and those recorded by {@link #countLookup()}.
+     * Lookups may still be served by a store's own cache.
+     */
+    public int getLookups() {
+        return lookups.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T computeIfAbsent(String type, String id, Supplier<T> loader) {
+        return (T) memo.computeIfAbsent(new MemoKey(type, id), key -> {
+            lookups.incrementAndGet();
+            return loader.get();
+        });
+    }
+
+    @Value
+    private static class MemoKey {
+        String type;
+        String id;
+    }
+}
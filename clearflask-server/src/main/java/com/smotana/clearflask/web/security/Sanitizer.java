@@ -2,10 +2,19 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.security;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.common.net.InternetDomainName;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -14,9 +23,12 @@ import com.google.inject.Singleton;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.ApiException;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.owasp.html.Encoding;
 import org.owasp.html.Handler;
 import org.owasp.html.HtmlChangeListener;
 import org.owasp.html.HtmlPolicyBuilder;
@@ -32,11 +44,17 @@ import org.xbill.DNS.Type;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
@@ -68,6 +86,24 @@ public class Sanitizer {
 
         @DefaultValue("<p style=\"color: #e60000;\">Cannot display corrupted message</p>")
         boolean htmlSanitizerInvalidHtmlMessage();
+
+        @DefaultValue("true")
+        boolean htmlCacheEnabled();
+
+        /**
+         * In characters of sanitized HTML.
+         */
+        @DefaultValue("20000000")
+        long htmlCacheMaximumWeight();
+
+        @DefaultValue("PT30M")
+        Duration htmlCacheExpireAfterAccess();
+
+        /**
+         * Image variant shown in list views, such as search results, where available. Empty for full size.
+         */
+        @DefaultValue("medium")
+        String listViewImgVariant();
     }
 
     @Inject
@@ -90,6 +126,13 @@ public class Sanitizer {
 
     private Predicate<String> subdomainPredicate;
     private PolicyFactory richHtmlPolicyFactory;
+    private LoadingCache<String, PolicyFactory> richHtmlPolicyByProjectId;
+    private Cache<SanitizedHtmlKey, SanitizedHtml> htmlCache;
+    /** Image URLs found and signed by the policy during sanitization on the current thread. */
+    private final ThreadLocal<ImgUrlsCollector> imgUrlsCollector = new ThreadLocal<>();
+    /** Random host prevents user content from forging a placeholder. */
+    private final String imgUrlPlaceholderHost = "img-" + UUID.randomUUID() + ".invalid";
+    private Pattern imgUrlPlaceholderPattern;
 
     @Inject
     private void setup() {
@@ -118,6 +161,17 @@ public class Sanitizer {
 
                 .allowElements("div", "br", "a", "strong", "s", "em", "u", "ul", "ol", "li", "pre", "blockquote", "h2", "h3", "h4", "img")
                 .toFactory();
+        richHtmlPolicyByProjectId = CacheBuilder.newBuilder()
+                .maximumSize(10_000L)
+                .expireAfterAccess(Duration.ofHours(1))
+                .build(CacheLoader.from(projectId -> richHtmlPolicyFactory.and(contentImgUrlsPolicy(projectId))));
+        htmlCache = CacheBuilder.newBuilder()
+                .maximumWeight(config.htmlCacheMaximumWeight())
+                .<SanitizedHtmlKey, SanitizedHtml>weigher((key, value) -> value.getSegments().stream().mapToInt(String::length).sum())
+                .expireAfterAccess(config.htmlCacheExpireAfterAccess())
+                .recordStats()
+                .build();
+        imgUrlPlaceholderPattern = Pattern.compile("[a-z]+://" + Pattern.quote(imgUrlPlaceholderHost) + "/([0-9]+)");
     }
 
     public void email(String email) {
@@ -242,9 +296,41 @@ public class Sanitizer {
     }
 
     public String richHtml(String html, String identifierType, String identifierId, String projectId, boolean silenceViolations) {
+        return richHtml(html, identifierType, identifierId, projectId, silenceViolations, false);
+    }
+
+    /**
+     * @param listView Whether the content is rendered as part of a list, where smaller image variants suffice
+     */
+    public String richHtml(String html, String identifierType, String identifierId, String projectId, boolean silenceViolations, boolean listView) {
         if (!config.htmlSanitizerEnabled()) {
             return html;
         }
+        Optional<String> imgVariantOpt = imgVariant(listView);
+        SanitizedHtml sanitizedHtml;
+        if (config.htmlCacheEnabled()) {
+            SanitizedHtmlKey key = new SanitizedHtmlKey(
+                    projectId,
+                    identifierType,
+                    identifierId,
+                    Hashing.farmHashFingerprint64().hashString(html, Charsets.UTF_8).asLong());
+            sanitizedHtml = htmlCache.getIfPresent(key);
+            if (sanitizedHtml == null) {
+                SignedSanitizedHtml signedSanitizedHtml = sanitizeRichHtml(html, identifierType, identifierId, projectId, imgVariantOpt);
+                htmlCache.put(key, signedSanitizedHtml.getSanitizedHtml());
+                return signedSanitizedHtml.getHtml();
+            }
+        } else {
+            return sanitizeRichHtml(html, identifierType, identifierId, projectId, imgVariantOpt).getHtml();
+        }
+        return signImgUrls(projectId, sanitizedHtml, imgVariantOpt);
+    }
+
+    /**
+     * Sanitizes HTML leaving placeholders in place of image URLs, since signed URLs expire and cannot be cached.
+     * Image URLs are signed once while validated by the policy and the result is used for the returned HTML.
+     */
+    private SignedSanitizedHtml sanitizeRichHtml(String html, String identifierType, String identifierId, String projectId, Optional<String> imgVariantOpt) {
         StringBuilder sanitizedHtmlBuilder = new StringBuilder();
 
         Map<String, Set<String>> discarded = Maps.newHashMap();
@@ -268,8 +354,13 @@ public class Sanitizer {
                     }
                     sanitizedHtmlBuilder.append(config.htmlSanitizerInvalidHtmlMessage());
                 });
-        PolicyFactory policy = richHtmlPolicyFactory.and(contentSignUrlsPolicy(projectId));
-        HtmlSanitizer.sanitize(html, policy.apply(renderer, htmlChangeListener, discarded));
+        ImgUrlsCollector collector = new ImgUrlsCollector(imgVariantOpt, Lists.newArrayList(), Lists.newArrayList());
+        imgUrlsCollector.set(collector);
+        try {
+            HtmlSanitizer.sanitize(html, richHtmlPolicyByProjectId.getUnchecked(projectId).apply(renderer, htmlChangeListener, discarded));
+        } finally {
+            imgUrlsCollector.remove();
+        }
 
         // Migration from <p> to <div>
         if (!discarded.isEmpty()
@@ -282,17 +373,76 @@ public class Sanitizer {
             log.info("HTML Policy violation(s) for {} {} id {}, element-attribute violations(s): {}",
                     projectId, identifierType, identifierId, discarded);
         }
-        return sanitizedHtmlBuilder.toString();
+
+        ImmutableList.Builder<String> segmentsBuilder = ImmutableList.builder();
+        ImmutableList.Builder<String> segmentImgUrlsBuilder = ImmutableList.builder();
+        ImmutableList.Builder<String> segmentSignedImgUrlsBuilder = ImmutableList.builder();
+        Matcher matcher = imgUrlPlaceholderPattern.matcher(sanitizedHtmlBuilder);
+        int segmentStart = 0;
+        while (matcher.find()) {
+            segmentsBuilder.add(sanitizedHtmlBuilder.substring(segmentStart, matcher.start()));
+            int imgUrlIndex = Integer.parseInt(matcher.group(1));
+            segmentImgUrlsBuilder.add(collector.getImgUrls().get(imgUrlIndex));
+            segmentSignedImgUrlsBuilder.add(collector.getSignedImgUrls().get(imgUrlIndex));
+            segmentStart = matcher.end();
+        }
+        segmentsBuilder.add(sanitizedHtmlBuilder.substring(segmentStart));
+        SanitizedHtml sanitizedHtml = new SanitizedHtml(segmentsBuilder.build(), segmentImgUrlsBuilder.build());
+        ImmutableList<String> segmentSignedImgUrls = segmentSignedImgUrlsBuilder.build();
+        return new SignedSanitizedHtml(sanitizedHtml, joinImgUrls(sanitizedHtml, i -> Optional.of(segmentSignedImgUrls.get(i))));
+    }
+
+    private String signImgUrls(String projectId, SanitizedHtml sanitizedHtml, Optional<String> imgVariantOpt) {
+        return joinImgUrls(sanitizedHtml, i -> contentStore.signUrl(projectId, sanitizedHtml.getImgUrls().get(i), imgVariantOpt));
+    }
+
+    private String joinImgUrls(SanitizedHtml sanitizedHtml, IntFunction<Optional<String>> signedUrlGetter) {
+        if (sanitizedHtml.getImgUrls().isEmpty()) {
+            return sanitizedHtml.getSegments().get(0);
+        }
+        StringBuilder htmlBuilder = new StringBuilder();
+        for (int i = 0; i < sanitizedHtml.getImgUrls().size(); i++) {
+            htmlBuilder.append(sanitizedHtml.getSegments().get(i));
+            Optional<String> signedUrlOpt = signedUrlGetter.apply(i);
+            if (signedUrlOpt.isPresent()) {
+                try {
+                    Encoding.encodeRcdataOnto(signedUrlOpt.get(), htmlBuilder);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+        htmlBuilder.append(sanitizedHtml.getSegments().get(sanitizedHtml.getImgUrls().size()));
+        return htmlBuilder.toString();
+    }
+
+    @Extern
+    private CacheStats htmlCacheStats() {
+        return htmlCache.stats();
+    }
+
+    @Extern
+    private void htmlCacheInvalidateAll() {
+        htmlCache.invalidateAll();
     }
 
     /**
      * - Only allow images uploaded to our service
-     * - Attach S3 presigned URL query params.
+     * - Replace URL with a placeholder to be signed after sanitization.
      */
-    private PolicyFactory contentSignUrlsPolicy(String projectId) {
+    private PolicyFactory contentImgUrlsPolicy(String projectId) {
         return new HtmlPolicyBuilder()
                 .allowAttributes("src")
-                .matching((elementName, attributeName, value) -> contentStore.signUrl(projectId, value).orElse(null))
+                .matching((elementName, attributeName, value) -> {
+                    ImgUrlsCollector collector = imgUrlsCollector.get();
+                    Optional<String> signedUrlOpt = contentStore.signUrl(projectId, value, collector.getImgVariantOpt());
+                    if (signedUrlOpt.isEmpty()) {
+                        return null;
+                    }
+                    collector.getImgUrls().add(value);
+                    collector.getSignedImgUrls().add(signedUrlOpt.get());
+                    return contentStore.getScheme() + "://" + imgUrlPlaceholderHost + "/" + (collector.getImgUrls().size() - 1);
+                })
                 .onElements("img")
 
                 .allowAttributes("width")
@@ -310,10 +460,18 @@ public class Sanitizer {
     }
 
     public Optional<String> signCoverImg(String projectId, String coverImg) {
+        return signCoverImg(projectId, coverImg, false);
+    }
+
+    public Optional<String> signCoverImg(String projectId, String coverImg, boolean listView) {
         if (Strings.isNullOrEmpty(coverImg)) {
             return Optional.empty();
         }
-        return contentStore.signUrl(projectId, coverImg);
+        return contentStore.signUrl(projectId, coverImg, imgVariant(listView));
+    }
+
+    private Optional<String> imgVariant(boolean listView) {
+        return listView ? Optional.ofNullable(Strings.emptyToNull(config.listViewImgVariant())) : Optional.empty();
     }
 
     public String richHtmlToPlaintext(String html) {
@@ -326,6 +484,39 @@ public class Sanitizer {
         return sanitizedHtmlBuilder.toString();
     }
 
+    @Value
+    private static class SanitizedHtmlKey {
+        String projectId;
+        String identifierType;
+        String identifierId;
+        long contentHash;
+    }
+
+    /**
+     * Sanitized HTML split at image URLs, segments has one more entry than imgUrls.
+     */
+    @Value
+    private static class SanitizedHtml {
+        ImmutableList<String> segments;
+        ImmutableList<String> imgUrls;
+    }
+
+    /**
+     * Freshly sanitized HTML along with its rendering using the image URLs signed during sanitization.
+     */
+    @Value
+    private static class SignedSanitizedHtml {
+        SanitizedHtml sanitizedHtml;
+        String html;
+    }
+
+    @Value
+    private static class ImgUrlsCollector {
+        Optional<String> imgVariantOpt;
+        List<String> imgUrls;
+        List<String> signedImgUrls;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
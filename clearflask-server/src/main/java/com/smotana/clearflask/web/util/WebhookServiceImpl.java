@@ -7,9 +7,6 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -29,6 +26,8 @@ import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.FairExecutor;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.security.Sanitizer;
 import lombok.extern.slf4j.Slf4j;
@@ -39,8 +38,6 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 
 import java.util.Map;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -51,6 +48,25 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
     public interface Config {
         @DefaultValue("true")
         boolean enabled();
+
+        @DefaultValue("8")
+        int executorThreadCount();
+
+        /**
+         * Maximum webhook events waiting across all projects.
+         */
+        @DefaultValue("10000")
+        int executorQueueSize();
+
+        /**
+         * Maximum webhook events waiting for a single project, prevents a project
+         * with a slow listener from filling up the queue.
+         */
+        @DefaultValue("1000")
+        int executorPerKeyQueueSize();
+
+        @DefaultValue("DROP")
+        FairExecutor.RejectionPolicy executorRejectionPolicy();
     }
 
     @Inject
@@ -62,14 +78,17 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
     @Inject
     private Sanitizer sanitizer;
 
-    private ListeningExecutorService executor;
+    private FairExecutor executor;
     private CloseableHttpClient client;
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
-                2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-worker-%d").build()));
+        executor = new FairExecutor(
+                "WebhookServiceImpl",
+                config.executorThreadCount(),
+                config.executorQueueSize(),
+                config.executorPerKeyQueueSize(),
+                config::executorRejectionPolicy);
         client = HttpClientBuilder.create().build();
     }
 
@@ -230,7 +249,7 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
         if (listeners.isEmpty()) {
             return Futures.immediateFuture(null);
         } else {
-            return submit(() -> {
+            return submit(projectId, () -> {
                 String payload = gson.toJson(payloadSupplier.get());
                 for (WebhookListener listener : listeners) {
                     log.trace("Sending webhook callback, url {} payload {}", listener.getUrl(), payload);
@@ -258,8 +277,8 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
         }
     }
 
-    private ListenableFuture<Void> submit(Runnable task) {
-        return executor.submit(() -> {
+    private ListenableFuture<Void> submit(String projectId, Runnable task) {
+        return executor.submit(projectId, () -> {
             try {
                 task.run();
             } catch (Throwable th) {
@@ -271,6 +290,16 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
         });
     }
 
+    @Extern
+    private FairExecutor.Stats executorStats() {
+        return executor.getStats();
+    }
+
+    @Extern
+    private void resetExecutorStats() {
+        executor.resetStats();
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
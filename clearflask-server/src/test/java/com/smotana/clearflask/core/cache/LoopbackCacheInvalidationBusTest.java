@@ -0,0 +1,40 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class LoopbackCacheInvalidationBusTest {
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        LoopbackCacheInvalidationBus busA = new LoopbackCacheInvalidationBus();
+        LoopbackCacheInvalidationBus busB = new LoopbackCacheInvalidationBus();
+        List<ImmutableList<String>> receivedA = Lists.newCopyOnWriteArrayList();
+        List<ImmutableList<String>> receivedB = Lists.newCopyOnWriteArrayList();
+        busA.subscribe(CacheType.PROJECT, receivedA::add);
+        busB.subscribe(CacheType.PROJECT, receivedB::add);
+        busB.subscribe(CacheType.IDEA, receivedB::add);
+
+        busA.broadcast(CacheType.PROJECT, "project1");
+        busA.broadcast(CacheType.IDEA, "project1", "idea1");
+        busA.broadcast(CacheType.ACCOUNT, "account1");
+
+        assertEquals(ImmutableList.of(), receivedA);
+        assertEquals(ImmutableList.of(
+                ImmutableList.of("project1"),
+                ImmutableList.of("project1", "idea1")), receivedB);
+        assertEquals(3L, busA.getStats().getSent());
+        assertEquals(Long.valueOf(1L), busB.getStats().getReceivedByCacheType().get(CacheType.IDEA));
+        assertEquals(3L, busB.getStats().getLag().getCount());
+    }
+}
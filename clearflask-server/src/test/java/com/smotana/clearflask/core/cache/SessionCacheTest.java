@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.cache;
+
+import com.smotana.clearflask.core.cache.CacheInvalidationBus.CacheType;
+import com.smotana.clearflask.store.UserStore.UserSession;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class SessionCacheTest {
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        SessionCache<UserSession> cacheA = createCache();
+        SessionCache<UserSession> cacheB = createCache();
+        UserSession session = new UserSession("session1", "project1", "user1", Instant.now().getEpochSecond() + 3600L, false);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Optional<UserSession>> loader = () -> {
+            loads.incrementAndGet();
+            return Optional.of(session);
+        };
+
+        assertTrue(cacheA.get("session1", loader).isPresent());
+        assertTrue(cacheA.get("session1", loader).isPresent());
+        assertTrue(cacheB.get("session1", loader).isPresent());
+        assertEquals(2, loads.get());
+        assertEquals(0.5d, cacheA.stats().getHitRatio(), 0.001d);
+
+        cacheA.revoke("session1");
+        assertFalse(cacheA.get("session1", loader).isPresent());
+        assertFalse(cacheB.get("session1", loader).isPresent());
+        assertEquals(2, loads.get());
+        assertEquals(1L, cacheB.stats().getRevokedHits());
+
+        UserSession sessionExpired = new UserSession("session2", "project1", "user1", Instant.now().getEpochSecond() - 1L, false);
+        cacheA.put("session2", sessionExpired);
+        assertEquals(Optional.empty(), cacheA.get("session2", Optional::empty));
+    }
+
+    private SessionCache<UserSession> createCache() {
+        return new SessionCache<>(
+                CacheType.USER_SESSION,
+                new LoopbackCacheInvalidationBus(),
+                UserSession::getTtlInEpochSec,
+                100L,
+                Duration.ofMinutes(1));
+    }
+}
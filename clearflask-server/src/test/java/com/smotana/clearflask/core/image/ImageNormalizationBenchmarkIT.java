@@ -0,0 +1,104 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.image;
+
+import com.google.inject.Inject;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares peak heap used while normalizing a 30 megapixel upload by buffering and fully decoding it,
+ * as uploads were previously handled, against reading it into a bounded buffer with subsampled decoding.
+ */
+@Slf4j
+public class ImageNormalizationBenchmarkIT extends AbstractTest {
+
+    private static final int WIDTH = 6400;
+    private static final int HEIGHT = 4800;
+    private static final int RUNS = 5;
+
+    @Inject
+    private ImageNormalization normalization;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(ImageNormalizationImpl.module());
+    }
+
+    @Test(timeout = 600_000L)
+    public void testPeakHeapPerUpload() throws Exception {
+        byte[] upload = createJpeg();
+        log.info("Upload of {}x{} is {} bytes", WIDTH, HEIGHT, upload.length);
+
+        long bufferedFullDecodeMedianBytes = benchmark(() -> {
+            byte[] buffered = new ByteArrayInputStream(upload).readAllBytes();
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(buffered));
+            BufferedImage resized = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+            resized.createGraphics().drawImage(image, 0, 0, resized.getWidth(), resized.getHeight(), Color.WHITE, null);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(resized, "jpg", out);
+            return out.size();
+        });
+        long boundedBufferedSubsampledMedianBytes = benchmark(() ->
+                normalization.normalize(IdUtil.randomId(), new ByteArrayInputStream(upload)).getData().length);
+
+        log.info("Peak heap per upload: buffered full decode {} MiB, bounded buffered, subsampled decode {} MiB",
+                bufferedFullDecodeMedianBytes / 1024 / 1024, boundedBufferedSubsampledMedianBytes / 1024 / 1024);
+        assertTrue(boundedBufferedSubsampledMedianBytes < bufferedFullDecodeMedianBytes);
+    }
+
+    private long benchmark(Callable<Integer> upload) throws Exception {
+        long[] peakBytes = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            System.gc();
+            long baseline = heapUsed();
+            ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+            upload.call();
+            peakBytes[i] = heapPeak() - baseline;
+        }
+        Arrays.sort(peakBytes);
+        return peakBytes[RUNS / 2];
+    }
+
+    private long heapUsed() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getUsage().getUsed())
+                .sum();
+    }
+
+    private long heapPeak() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+
+    private byte[] createJpeg() throws Exception {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, WIDTH, HEIGHT, Color.ORANGE));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
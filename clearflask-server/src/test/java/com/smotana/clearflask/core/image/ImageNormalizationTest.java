@@ -3,10 +3,13 @@
 package com.smotana.clearflask.core.image;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.convert.ConfigSystems;
 import com.smotana.clearflask.testutil.AbstractTest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
@@ -69,6 +72,10 @@ public class ImageNormalizationTest extends AbstractTest {
                 install(ConfigSystem.overrideModule(ImageNormalizationImpl.Config.class, om -> {
                     om.override(om.id().maxWidth()).withValue(10000d);
                     om.override(om.id().maxHeight()).withValue(10000d);
+                    om.override(om.id().variants()).withValue(ConfigSystems.configSafeCollection(Sets.newHashSet(
+                            "small:16x16",
+                            "huge:100000x100000",
+                            "Invalid:8x8")));
                 }));
             }
         }));
@@ -105,6 +112,28 @@ public class ImageNormalizationTest extends AbstractTest {
         assertEquals(isGif ? height : height / 2, normalizedBuffered.getHeight());
     }
 
+    @Test(timeout = 10_000L)
+    public void testVariants() throws Exception {
+        boolean isGif = "gif".equals(FilenameUtils.getExtension(testImagePath));
+        byte[] exampleImgBytes = Thread.currentThread().getContextClassLoader().getResourceAsStream(testImagePath).readAllBytes();
+        BufferedImage exampleImgBuffered = ImageIO.read(new ByteArrayInputStream(exampleImgBytes));
+        int width = exampleImgBuffered.getWidth();
+        int height = exampleImgBuffered.getHeight();
+
+        ImageNormalization.Image normalized = normalization.normalize(exampleImgBytes);
+
+        // Variants as large as the image itself are not kept, invalid ones are ignored
+        double ratio = Math.min(16d / width, 16d / height);
+        if (isGif || ratio >= 1d) {
+            assertEquals(ImmutableSet.of(), normalized.getVariants().keySet());
+            return;
+        }
+        assertEquals(ImmutableSet.of("small"), normalized.getVariants().keySet());
+        BufferedImage smallBuffered = ImageIO.read(new ByteArrayInputStream(normalized.getVariants().get("small")));
+        assertEquals((int) (width * ratio), smallBuffered.getWidth());
+        assertEquals((int) (height * ratio), smallBuffered.getHeight());
+    }
+
     private void writeFileToTempFolder(ImageNormalization.Image image, String suffix) throws IOException {
         String outputFileName = FilenameUtils.getBaseName(testImagePath)
                 + "-" + suffix
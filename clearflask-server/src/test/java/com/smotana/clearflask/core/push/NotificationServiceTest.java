@@ -8,9 +8,18 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ControllableSleepingStopwatch;
 import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.api.model.Category;
+import com.smotana.clearflask.api.model.NotifySubscribers;
+import com.smotana.clearflask.api.model.Subscription;
 import com.smotana.clearflask.api.model.TransactionType;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
 import com.smotana.clearflask.core.push.message.EmailLogin;
@@ -35,7 +44,9 @@ import com.smotana.clearflask.core.push.provider.MockNotificationStore;
 import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
 import com.smotana.clearflask.store.CommentStore;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.FanOutStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.MockModelUtil;
 import com.smotana.clearflask.store.NotificationStore.NotificationModel;
 import com.smotana.clearflask.store.ProjectStore;
@@ -46,6 +57,9 @@ import com.smotana.clearflask.store.VoteStore.ExpressModel;
 import com.smotana.clearflask.store.VoteStore.FundModel;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
 import com.smotana.clearflask.store.VoteStore.VoteModel;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoFanOutStore;
 import com.smotana.clearflask.testutil.AbstractTest;
 import com.smotana.clearflask.util.IdUtil;
 import com.smotana.clearflask.util.ModelUtil;
@@ -58,19 +72,27 @@ import org.bouncycastle.jce.interfaces.ECPrivateKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.Security;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import static com.smotana.clearflask.testutil.HtmlUtil.textToSimpleHtml;
 import static nl.martijndwars.webpush.Utils.ALGORITHM;
 import static nl.martijndwars.webpush.Utils.CURVE;
 import static org.bouncycastle.jce.provider.BouncyCastleProvider.PROVIDER_NAME;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 
@@ -89,6 +111,14 @@ public class NotificationServiceTest extends AbstractTest {
     private UserStore mockUserStore;
     @Inject
     private MockNotificationStore mockNotificationStore;
+    @Inject
+    private SubscriberFanOut subscriberFanOut;
+    @Inject
+    private FanOutStore fanOutStore;
+    @Inject
+    private ProjectStore mockProjectStore;
+    @Inject
+    private IdeaStore mockIdeaStore;
 
     @Override
     protected void configure() {
@@ -99,8 +129,23 @@ public class NotificationServiceTest extends AbstractTest {
         bindMock(VoteStore.class);
         bindMock(UserStore.class);
         bindMock(ContentStore.class);
+        bindMock(ProjectStore.class);
+        bindMock(IdeaStore.class);
 
         install(NotificationServiceImpl.module());
+        install(Modules.override(
+                SubscriberFanOut.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(SubscriberFanOut.Config.class, om -> {
+                    om.override(om.id().resumeInterval()).withValue(Duration.ofMillis(100));
+                }));
+            }
+        }));
+        install(DynamoFanOutStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
         install(EmailTemplates.module());
         install(OnCommentReply.module());
         install(OnStatusOrResponseChange.module());
@@ -191,6 +236,196 @@ public class NotificationServiceTest extends AbstractTest {
         assertFalse(inApp.getDescription().contains("__"));
     }
 
+    @Test(timeout = 10_000L)
+    public void testOnStatusOrResponseChangedUnknownStatus() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .statusId("unknown")
+                .categoryId("unknown")
+                .build();
+
+        // Does not fail the caller
+        service.onStatusOrResponseChanged(
+                versionedConfigAdmin.getConfig(),
+                idea,
+                true,
+                false,
+                Optional.empty());
+
+        List<FanOutStore.FanOutJobModel> jobs = Lists.newArrayList();
+        fanOutStore.listAllJobs(jobs::add);
+        assertTrue(jobs.isEmpty());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testOnPostCreated() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        Category category = versionedConfigAdmin.getConfig().getContent().getCategories().get(0).toBuilder()
+                .subscription(new Subscription(null))
+                .build();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .categoryId(category.getCategoryId())
+                .build();
+        ImmutableList<UserModel> subscribers = IntStream.range(0, 3)
+                .mapToObj(i -> MockModelUtil.getRandomUser().toBuilder()
+                        .projectId(projectId)
+                        .userId(IdUtil.randomId())
+                        .email("user" + i + "@email.com")
+                        .emailNotify(true)
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+        ProjectStore.Project project = Mockito.mock(ProjectStore.Project.class);
+        when(project.getProjectId()).thenReturn(projectId);
+        when(project.getCategory(category.getCategoryId())).thenReturn(Optional.of(category));
+        when(project.getVersionedConfigAdmin()).thenReturn(versionedConfigAdmin);
+        // Second subscriber is listed on both pages
+        when(this.mockVoteStore.voteListByTarget(projectId, category.getCategoryId(), Optional.empty())).thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(
+                subscription(subscribers.get(0), category.getCategoryId()),
+                subscription(subscribers.get(1), category.getCategoryId())), Optional.of("cursor")));
+        when(this.mockVoteStore.voteListByTarget(projectId, category.getCategoryId(), Optional.of("cursor"))).thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(
+                subscription(subscribers.get(1), category.getCategoryId()),
+                subscription(subscribers.get(2), category.getCategoryId())), Optional.empty()));
+        when(this.mockUserStore.getUsers(any(), any())).thenAnswer(i -> subscribers.stream()
+                .filter(user -> i.<Collection<String>>getArgument(1).contains(user.getUserId()))
+                .collect(ImmutableMap.toImmutableMap(UserModel::getUserId, user -> user)));
+        when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
+
+        service.onPostCreated(
+                project,
+                idea,
+                new NotifySubscribers("My title", "My body"),
+                MockModelUtil.getRandomUser());
+
+        Set<String> emailed = Sets.newHashSet();
+        for (int i = 0; i < subscribers.size(); i++) {
+            Email email = mockEmailService.sent.take();
+            assertFalse(email.getSubject().contains("__"));
+            emailed.add(email.getToAddress());
+            assertNotNull(mockNotificationStore.sent.take());
+        }
+        assertEquals(subscribers.stream().map(UserModel::getEmail).collect(ImmutableSet.toImmutableSet()), emailed);
+
+        SubscriberFanOut.FanOutProgress progress;
+        do {
+            Thread.sleep(10L);
+            progress = Iterables.getOnlyElement(subscriberFanOut.fanOutProgress());
+        } while (progress.getState() == SubscriberFanOut.State.RUNNING);
+        assertEquals(SubscriberFanOut.State.COMPLETED, progress.getState());
+        assertEquals(3L, progress.getRead());
+        assertEquals(1L, progress.getSkipped());
+        assertEquals(3L, progress.getEmailSent());
+        assertTrue(mockEmailService.sent.isEmpty());
+        assertTrue(mockNotificationStore.sent.isEmpty());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testOnStatusOrResponseChangedResumed() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .statusId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getWorkflow().getStatuses().get(0).getStatusId())
+                .categoryId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getCategoryId())
+                .fundersCount(1L)
+                .votersCount(2L)
+                .expressions(ImmutableMap.of("😘", 2L))
+                .build();
+        ImmutableList<UserModel> users = IntStream.range(0, 4)
+                .mapToObj(i -> MockModelUtil.getRandomUser().toBuilder()
+                        .projectId(projectId)
+                        .userId(IdUtil.randomId())
+                        .email("user" + i + "@email.com")
+                        .emailNotify(true)
+                        .browserPushToken(null)
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+        // Funder 0, voters 1 and 2 on separate pages, expressers 0 and 3
+        when(this.mockVoteStore.fundListByTarget(projectId, idea.getIdeaId(), Optional.empty())).thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(FundModel.builder()
+                .userId(users.get(0).getUserId())
+                .projectId(projectId)
+                .targetId(idea.getIdeaId())
+                .fundAmount(400L)
+                .build()), Optional.empty()));
+        when(this.mockVoteStore.voteListByTarget(projectId, idea.getIdeaId(), Optional.empty())).thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(
+                subscription(users.get(1), idea.getIdeaId())), Optional.of("cursor")));
+        // Job dies reading the second page the first time around
+        when(this.mockVoteStore.voteListByTarget(projectId, idea.getIdeaId(), Optional.of("cursor")))
+                .thenThrow(new RuntimeException("Killed"))
+                .thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(
+                        subscription(users.get(2), idea.getIdeaId())), Optional.empty()));
+        when(this.mockVoteStore.expressListByTarget(projectId, idea.getIdeaId(), Optional.empty())).thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(
+                ExpressModel.builder()
+                        .userId(users.get(0).getUserId())
+                        .projectId(projectId)
+                        .targetId(idea.getIdeaId())
+                        .expressions(ImmutableSet.of())
+                        .build(),
+                ExpressModel.builder()
+                        .userId(users.get(3).getUserId())
+                        .projectId(projectId)
+                        .targetId(idea.getIdeaId())
+                        .expressions(ImmutableSet.of())
+                        .build()), Optional.empty()));
+        when(this.mockUserStore.getUsers(any(), any())).thenAnswer(i -> users.stream()
+                .filter(user -> i.<Collection<String>>getArgument(1).contains(user.getUserId()))
+                .collect(ImmutableMap.toImmutableMap(UserModel::getUserId, user -> user)));
+        when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
+
+        service.onStatusOrResponseChanged(
+                versionedConfigAdmin.getConfig(),
+                idea,
+                true,
+                false,
+                Optional.empty());
+
+        assertEquals(ImmutableSet.of(users.get(0).getEmail(), users.get(1).getEmail()), ImmutableSet.of(
+                mockEmailService.sent.take().getToAddress(),
+                mockEmailService.sent.take().getToAddress()));
+        SubscriberFanOut.FanOutProgress progress;
+        do {
+            Thread.sleep(10L);
+            progress = Iterables.getOnlyElement(subscriberFanOut.fanOutProgress());
+        } while (progress.getState() == SubscriberFanOut.State.RUNNING);
+        assertEquals(SubscriberFanOut.State.FAILED, progress.getState());
+
+        // Server stopped before checkpointing the first voters page, funders are gone by the time it is resumed
+        List<FanOutStore.FanOutJobModel> jobs = Lists.newArrayList();
+        fanOutStore.listAllJobs(jobs::add);
+        FanOutStore.FanOutJobModel job = Iterables.getOnlyElement(jobs);
+        assertEquals(1, job.getSourceIndex());
+        assertEquals("cursor", job.getCursor());
+        ProjectStore.Project project = Mockito.mock(ProjectStore.Project.class);
+        when(project.getVersionedConfigAdmin()).thenReturn(versionedConfigAdmin);
+        when(this.mockProjectStore.getProject(projectId, true)).thenReturn(Optional.of(project));
+        when(this.mockIdeaStore.getIdea(projectId, idea.getIdeaId())).thenReturn(Optional.of(idea.toBuilder()
+                .fundersCount(0L)
+                .build()));
+        fanOutStore.putJob(job.toBuilder()
+                .sourceIndex(1)
+                .cursor(null)
+                .read(1L)
+                .updatedEpochMillis(0L)
+                .build());
+
+        do {
+            Thread.sleep(10L);
+            progress = Iterables.getOnlyElement(subscriberFanOut.fanOutProgress());
+        } while (!progress.isResumed() || progress.getState() == SubscriberFanOut.State.RUNNING);
+        assertEquals(SubscriberFanOut.State.COMPLETED, progress.getState());
+        // Voter 1 was already sent to, funder 0 also expressed and was already sent to as a funder
+        assertEquals(5L, progress.getRead());
+        assertEquals(4L, progress.getAlreadyDelivered());
+        assertEquals(2L, progress.getEmailSent());
+        assertEquals(ImmutableSet.of(users.get(2).getEmail(), users.get(3).getEmail()), ImmutableSet.of(
+                mockEmailService.sent.take().getToAddress(),
+                mockEmailService.sent.take().getToAddress()));
+        assertTrue(mockEmailService.sent.isEmpty());
+    }
+
     @Test(timeout = 10_000L)
     public void testOnCommentReply() throws Exception {
         String projectId = "myProject";
@@ -405,6 +640,15 @@ public class NotificationServiceTest extends AbstractTest {
         assertFalse(email.getContentText().contains("__"));
     }
 
+    private VoteModel subscription(UserModel user, String categoryId) {
+        return VoteModel.builder()
+                .userId(user.getUserId())
+                .projectId(user.getProjectId())
+                .targetId(categoryId)
+                .vote(1)
+                .build();
+    }
+
     private KeyPair generateKeyPair() {
         try {
             Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
@@ -15,9 +15,11 @@ import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.api.model.AccountSearchSuperAdmin;
 import com.smotana.clearflask.api.model.SubscriptionStatus;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.AccountStore.Account;
 import com.smotana.clearflask.store.AccountStore.AccountEmail;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -29,6 +31,7 @@ import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
@@ -103,6 +106,7 @@ public class AccountStoreIT extends AbstractIT {
 
         install(Modules.override(
                 InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
                 SingleTableProvider.module(),
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
@@ -112,6 +116,8 @@ public class AccountStoreIT extends AbstractIT {
                 IntercomUtil.module(),
                 ChatwootUtil.module(),
                 ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
                 Sanitizer.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
@@ -3,6 +3,7 @@
 package com.smotana.clearflask.store;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -11,10 +12,12 @@ import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.api.model.CommentSearchAdmin;
 import com.smotana.clearflask.api.model.CommentUpdate;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.CommentStore.CommentModel;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -25,6 +28,7 @@ import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
@@ -32,6 +36,7 @@ import com.smotana.clearflask.util.IdUtil;
 import com.smotana.clearflask.util.IntercomUtil;
 import com.smotana.clearflask.util.ProjectUpgraderImpl;
 import com.smotana.clearflask.util.ServerSecretTest;
+import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.extern.slf4j.Slf4j;
@@ -39,6 +44,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import javax.ws.rs.core.Response;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
@@ -67,6 +73,8 @@ public class CommentStoreIT extends AbstractIT {
     private IdeaStore ideaStore;
     @Inject
     private UserStore userStore;
+    @Inject
+    private VoteStore voteStore;
 
     @Override
     protected void configure() {
@@ -77,6 +85,7 @@ public class CommentStoreIT extends AbstractIT {
 
         install(Modules.override(
                 InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
                 SingleTableProvider.module(),
                 DynamoElasticCommentStore.module(),
                 DynamoElasticAccountStore.module(),
@@ -85,6 +94,8 @@ public class CommentStoreIT extends AbstractIT {
                 Sanitizer.module(),
                 MysqlUtil.module(),
                 ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
                 DynamoElasticIdeaStore.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
@@ -140,6 +151,62 @@ public class CommentStoreIT extends AbstractIT {
         assertEquals(c0.getCommentId(), comments.get(0).getCommentId());
     }
 
+    @Test(timeout = 10_000L)
+    public void testCreateCommentAndUpvote() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        ideaStore.createIndex(projectId);
+        String ideaId = createRandomIdea(projectId).getIdeaId();
+
+        CommentModel c0 = createRandomComment(projectId, ideaId, ImmutableList.of());
+        assertEquals(1, c0.getUpvotes());
+        assertEquals(Optional.of(c0), store.getComment(projectId, ideaId, c0.getCommentId()));
+        assertEquals(VoteValue.Upvote.getValue(), voteStore.voteSearch(projectId, c0.getAuthorUserId(), ImmutableSet.of(c0.getCommentId())).get(c0.getCommentId()).getVote());
+        IdeaModel idea = ideaStore.getIdea(projectId, ideaId).get();
+        assertEquals(1L, idea.getCommentCount());
+        assertEquals(1L, idea.getChildCommentCount());
+
+        CommentModel c00 = createRandomComment(projectId, ideaId, ImmutableList.of(c0.getCommentId()));
+        assertEquals(Optional.of(c00), store.getComment(projectId, ideaId, c00.getCommentId()));
+        assertEquals(1L, store.getComment(projectId, ideaId, c0.getCommentId()).get().getChildCommentCount());
+        assertEquals(VoteValue.Upvote.getValue(), voteStore.voteSearch(projectId, c00.getAuthorUserId(), ImmutableSet.of(c00.getCommentId())).get(c00.getCommentId()).getVote());
+        idea = ideaStore.getIdea(projectId, ideaId).get();
+        assertEquals(2L, idea.getCommentCount());
+        assertEquals(1L, idea.getChildCommentCount());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCreateCommentAndUpvoteMissingIdeaOrParent() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        ideaStore.createIndex(projectId);
+        String ideaId = createRandomIdea(projectId).getIdeaId();
+
+        // Missing idea
+        String missingIdeaId = ideaStore.genIdeaId("missing");
+        CommentModel commentOnMissingIdea = getRandomComment(projectId, missingIdeaId, ImmutableList.of());
+        assertCreateNotFound(commentOnMissingIdea);
+        assertEquals(Optional.empty(), ideaStore.getIdea(projectId, missingIdeaId));
+
+        // Missing parent comment
+        CommentModel commentOnMissingParent = getRandomComment(projectId, ideaId, ImmutableList.of(store.genCommentId(IdUtil.randomId())));
+        assertCreateNotFound(commentOnMissingParent);
+        IdeaModel idea = ideaStore.getIdea(projectId, ideaId).get();
+        assertEquals(0L, idea.getCommentCount());
+        assertEquals(0L, idea.getChildCommentCount());
+    }
+
+    private void assertCreateNotFound(CommentModel comment) {
+        try {
+            store.createCommentAndUpvote(comment);
+            fail("Expected not found");
+        } catch (ApiException ex) {
+            assertEquals(Response.Status.NOT_FOUND, ex.getStatus());
+        }
+        assertEquals(Optional.empty(), store.getComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()));
+        assertEquals(ImmutableMap.of(), voteStore.voteSearch(comment.getProjectId(), comment.getAuthorUserId(), ImmutableSet.of(comment.getCommentId())));
+    }
+
     @Test(timeout = 10_000L)
     public void testUpdate() throws Exception {
         String projectId = IdUtil.randomId();
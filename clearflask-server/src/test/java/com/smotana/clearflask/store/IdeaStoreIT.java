@@ -17,7 +17,9 @@ import com.smotana.clearflask.api.model.IdeaHistogramSearchAdmin;
 import com.smotana.clearflask.api.model.IdeaSearchAdmin;
 import com.smotana.clearflask.api.model.IdeaUpdate;
 import com.smotana.clearflask.api.model.IdeaUpdateAdmin;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -27,6 +29,7 @@ import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
@@ -34,6 +37,7 @@ import com.smotana.clearflask.util.IdUtil;
 import com.smotana.clearflask.util.IntercomUtil;
 import com.smotana.clearflask.util.ProjectUpgraderImpl;
 import com.smotana.clearflask.util.ServerSecretTest;
+import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.extern.slf4j.Slf4j;
@@ -41,12 +45,16 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.smotana.clearflask.store.VoteStore.VoteValue.*;
 import static com.smotana.clearflask.testutil.HtmlUtil.textToSimpleHtml;
@@ -71,6 +79,8 @@ public class IdeaStoreIT extends AbstractIT {
     private IdeaStore store;
     @Inject
     private UserStore userStore;
+    @Inject
+    private Reindexer reindexer;
 
     @Override
     protected void configure() {
@@ -81,6 +91,7 @@ public class IdeaStoreIT extends AbstractIT {
 
         install(Modules.override(
                 InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
                 SingleTableProvider.module(),
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
@@ -89,6 +100,8 @@ public class IdeaStoreIT extends AbstractIT {
                 Sanitizer.module(),
                 MysqlUtil.module(),
                 ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
@@ -104,6 +117,10 @@ public class IdeaStoreIT extends AbstractIT {
                 install(ConfigSystem.overrideModule(DynamoElasticIdeaStore.Config.class, om -> {
                     om.override(om.id().elasticForceRefresh()).withValue(true);
                 }));
+                install(ConfigSystem.overrideModule(Reindexer.Config.class, om -> {
+                    om.override(om.id().pageSize()).withValue(1);
+                    om.override(om.id().checkpointInterval()).withValue(Duration.ZERO);
+                }));
             }
         }));
     }
@@ -154,6 +171,39 @@ public class IdeaStoreIT extends AbstractIT {
         assertEquals(Optional.empty(), store.getIdea(projectId, idea2Updated.getIdeaId()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testAsyncMatchesSync() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        String missingIdeaId = store.genIdeaId("missing");
+        store.createIdea(idea).get();
+        store.createIdea(idea2).get();
+        ImmutableList<String> ideaIds = ImmutableList.of(idea.getIdeaId(), idea2.getIdeaId(), missingIdeaId);
+
+        // Async first so it is not served from a cache filled by the sync call
+        assertEquals(Optional.of(idea), store.getIdeaAsync(projectId, idea.getIdeaId()).get());
+        assertEquals(store.getIdea(projectId, idea.getIdeaId()), store.getIdeaAsync(projectId, idea.getIdeaId()).get());
+        assertEquals(Optional.empty(), store.getIdeaAsync(projectId, missingIdeaId).get());
+        assertEquals(store.getIdea(projectId, missingIdeaId), store.getIdeaAsync(projectId, missingIdeaId).get());
+        assertEquals(ImmutableMap.of(idea.getIdeaId(), idea, idea2.getIdeaId(), idea2), store.getIdeasAsync(projectId, ideaIds).get());
+        assertEquals(store.getIdeas(projectId, ideaIds), store.getIdeasAsync(projectId, ideaIds).get());
+        assertEquals(ImmutableMap.of(), store.getIdeasAsync(projectId, ImmutableList.of()).get());
+
+        IdeaModel ideaUpdated = idea.toBuilder().title("newTitle").build();
+        store.updateIdea(projectId, idea.getIdeaId(), IdeaUpdate.builder()
+                .title(ideaUpdated.getTitle())
+                .build()).getIndexingFuture().get();
+        assertEquals(Optional.of(ideaUpdated), store.getIdeaAsync(projectId, idea.getIdeaId()).get());
+        assertEquals(store.getIdeas(projectId, ideaIds), store.getIdeasAsync(projectId, ideaIds).get());
+
+        store.deleteIdea(projectId, idea.getIdeaId(), true).get();
+        assertEquals(Optional.empty(), store.getIdeaAsync(projectId, idea.getIdeaId()).get());
+        assertEquals(ImmutableMap.of(idea2.getIdeaId(), idea2), store.getIdeasAsync(projectId, ideaIds).get());
+        assertEquals(store.getIdeas(projectId, ideaIds), store.getIdeasAsync(projectId, ideaIds).get());
+    }
+
     @Test(timeout = 30_000L)
     public void testSearch() throws Exception {
         String projectId = IdUtil.randomId();
@@ -240,6 +290,149 @@ public class IdeaStoreIT extends AbstractIT {
                 ImmutableSet.of(idea2.getIdeaId(), idea3.getIdeaId()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testSearchRelevance() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel ideaBoth = MockModelUtil.getRandomIdea().toBuilder()
+                .ideaId("ideaBoth")
+                .projectId(projectId)
+                .title("Kayak paddle storage")
+                .description("Somewhere to keep the paddle after a kayak trip")
+                .voteValue(1L)
+                .build();
+        IdeaModel ideaOne = MockModelUtil.getRandomIdea().toBuilder()
+                .ideaId("ideaOne")
+                .projectId(projectId)
+                .title("Kayak rental")
+                .description("Renting for the whole weekend")
+                .voteValue(100L)
+                .build();
+        IdeaModel ideaNone = MockModelUtil.getRandomIdea().toBuilder()
+                .ideaId("ideaNone")
+                .projectId(projectId)
+                .title("Bicycle repair")
+                .description("Fixing flat tires")
+                .voteValue(50L)
+                .build();
+        store.createIdea(ideaBoth).get();
+        store.createIdea(ideaOne).get();
+        store.createIdea(ideaNone).get();
+
+        // Ordered by relevance rather than votes
+        assertSearchResult(projectId, IdeaSearchAdmin.builder()
+                        .searchText("kayak paddle").build(),
+                ImmutableList.of(ideaBoth.getIdeaId(), ideaOne.getIdeaId()));
+
+        // Paged by relevance
+        IdeaStore.SearchResponse page1 = store.searchIdeas(projectId, IdeaSearchAdmin.builder()
+                .searchText("kayak paddle")
+                .limit(1L).build(), false, Optional.empty());
+        assertEquals(ImmutableList.of(ideaBoth.getIdeaId()), page1.getIdeaIds());
+        assertTrue(page1.getCursorOpt().isPresent());
+        IdeaStore.SearchResponse page2 = store.searchIdeas(projectId, IdeaSearchAdmin.builder()
+                .searchText("kayak paddle")
+                .limit(1L).build(), false, page1.getCursorOpt());
+        assertEquals(ImmutableList.of(ideaOne.getIdeaId()), page2.getIdeaIds());
+
+        if (!searchEngine.isReadElastic()) {
+            // Similar posts ordered by relevance to the title
+            IdeaModel ideaSimilar = MockModelUtil.getRandomIdea().toBuilder()
+                    .ideaId("ideaSimilar")
+                    .projectId(projectId)
+                    .title("Paddle storage for a kayak")
+                    .description("Racks")
+                    .build();
+            store.createIdea(ideaSimilar).get();
+            assertSearchResult(projectId, IdeaSearchAdmin.builder()
+                            .similarToIdeaId(ideaSimilar.getIdeaId()).build(),
+                    ImmutableList.of(ideaBoth.getIdeaId(), ideaOne.getIdeaId()));
+        }
+    }
+
+    @Test(timeout = 60_000L)
+    public void testRepopulateIndex() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea3 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea1).get();
+        store.createIdea(idea2).get();
+        store.createIdea(idea3).get();
+        ImmutableSet<String> expectedIdeaIds = ImmutableSet.of(idea1.getIdeaId(), idea2.getIdeaId(), idea3.getIdeaId());
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), expectedIdeaIds);
+
+        // Index replaced by alias to new index
+        store.repopulateIndex(projectId, true, true, false);
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), expectedIdeaIds);
+        assertReindexCompleted(projectId, 3L);
+
+        // Index behind alias replaced
+        store.repopulateIndex(projectId, true, true, false);
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), expectedIdeaIds);
+
+        // Updated in place, writes go through alias
+        store.repopulateIndex(projectId, false, true, false);
+        IdeaModel idea4 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea4).get();
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), ImmutableSet.<String>builder()
+                .addAll(expectedIdeaIds)
+                .add(idea4.getIdeaId())
+                .build());
+
+        store.deleteAllForProject(projectId).get();
+    }
+
+    @Test(timeout = 60_000L)
+    public void testRepopulateIndexWithUpdateDuringReindex() throws Exception {
+        if (!searchEngine.isWriteElastic()) {
+            return;
+        }
+        configSet(Reindexer.Config.class, "pageWriteDelay", "PT2S");
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).title("aaaa").build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).title("bbbb").build();
+        store.createIdea(idea1).get();
+        store.createIdea(idea2).get();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> reindexFuture = executor.submit(() -> {
+                store.repopulateIndex(projectId, true, true, false);
+                return null;
+            });
+            // Wait for the reindex to start mirroring writes, pages are only written after a delay
+            while (reindexer.reindexProgress().stream().noneMatch(p -> projectId.equals(p.getProjectId()))) {
+                Thread.sleep(10);
+            }
+            // Neither idea was copied yet, the reindex holds the older titles
+            store.updateIdea(projectId, idea2.getIdeaId(), IdeaUpdate.builder()
+                    .title("cccc")
+                    .build()).getIndexingFuture().get();
+            reindexFuture.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertReindexCompleted(projectId, 2L);
+
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().searchText("cccc").build(), ImmutableList.of(idea2.getIdeaId()));
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().searchText("bbbb").build(), ImmutableList.of());
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().searchText("aaaa").build(), ImmutableList.of(idea1.getIdeaId()));
+    }
+
+    private void assertReindexCompleted(String projectId, long expectedRead) {
+        Reindexer.ReindexProgress progress = reindexer.reindexProgress().stream()
+                .filter(p -> projectId.equals(p.getProjectId()))
+                .findAny()
+                .get();
+        assertEquals(Reindexer.State.COMPLETED, progress.getState());
+        assertEquals(expectedRead, progress.getRead());
+        assertEquals(expectedRead, progress.getElasticIndexed());
+        assertEquals(0L, progress.getErrors());
+    }
+
     @Test(timeout = 30_000L)
     public void testDragNDrop() throws Exception {
         String projectId = IdUtil.randomId();
@@ -342,6 +535,42 @@ public class IdeaStoreIT extends AbstractIT {
                 .getIdeaIds()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testSharedIndexSameIdAcrossProjects() throws Exception {
+        if (!searchEngine.isWriteElastic()) {
+            return;
+        }
+        configSet(Application.Config.class, "defaultElasticIndexLayout", "SHARED");
+        String projectId1 = IdUtil.randomId();
+        String projectId2 = IdUtil.randomId();
+        store.createIndex(projectId1).get();
+        store.createIndex(projectId2).get();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId1)
+                .ideaId("same-id")
+                .title("aaaa")
+                .build();
+        IdeaModel idea2 = idea1.toBuilder()
+                .projectId(projectId2)
+                .title("bbbb")
+                .build();
+        store.createIdea(idea1).get();
+        store.createIdea(idea2).get();
+        assertSearchResult(projectId1, IdeaSearchAdmin.builder().searchText("aaaa").build(), ImmutableList.of("same-id"));
+        assertSearchResult(projectId2, IdeaSearchAdmin.builder().searchText("bbbb").build(), ImmutableList.of("same-id"));
+
+        store.updateIdea(projectId1, "same-id", IdeaUpdate.builder()
+                .title("cccc")
+                .build()).getIndexingFuture().get();
+        assertSearchResult(projectId1, IdeaSearchAdmin.builder().searchText("cccc").build(), ImmutableList.of("same-id"));
+        assertSearchResult(projectId2, IdeaSearchAdmin.builder().searchText("bbbb").build(), ImmutableList.of("same-id"));
+        assertSearchResult(projectId2, IdeaSearchAdmin.builder().searchText("cccc").build(), ImmutableList.of());
+
+        store.deleteIdea(projectId1, "same-id", true).get();
+        assertSearchResult(projectId1, IdeaSearchAdmin.builder().build(), ImmutableList.of());
+        assertSearchResult(projectId2, IdeaSearchAdmin.builder().build(), ImmutableList.of("same-id"));
+    }
+
     @Test(timeout = 30_000L)
     public void testHistogram() throws Exception {
         String projectId = IdUtil.randomId();
@@ -41,7 +41,11 @@ public class MockModelUtil {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
     }
 
     public static IdeaModel getRandomIdea() {
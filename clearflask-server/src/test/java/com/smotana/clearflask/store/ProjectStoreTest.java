@@ -11,6 +11,7 @@ import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.api.model.ConfigAdmin;
 import com.smotana.clearflask.api.model.VersionedConfig;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.store.ProjectStore.SlugModel;
@@ -53,6 +54,7 @@ public class ProjectStoreTest extends AbstractTest {
         install(Modules.override(
                 DynamoProjectStore.module(),
                 InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
                 SingleTableProvider.module(),
                 Sanitizer.module(),
                 IntercomUtil.module(),
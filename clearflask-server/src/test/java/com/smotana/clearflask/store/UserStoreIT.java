@@ -2,8 +2,13 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.name.Names;
@@ -14,9 +19,11 @@ import com.smotana.clearflask.api.model.HistogramResponsePoints;
 import com.smotana.clearflask.api.model.HistogramSearchAdmin;
 import com.smotana.clearflask.api.model.UserSearchAdmin;
 import com.smotana.clearflask.api.model.UserUpdate;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.UserStore.UserSession;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -26,7 +33,9 @@ import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilters;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -47,7 +56,12 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import static io.jsonwebtoken.SignatureAlgorithm.HS512;
 import static org.junit.Assert.*;
@@ -79,6 +93,7 @@ public class UserStoreIT extends AbstractIT {
 
         install(Modules.override(
                 InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
                 SingleTableProvider.module(),
                 DynamoElasticUserStore.module(),
                 DynamoElasticIdeaStore.module(),
@@ -87,6 +102,8 @@ public class UserStoreIT extends AbstractIT {
                 Sanitizer.module(),
                 MysqlUtil.module(),
                 ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
@@ -133,7 +150,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
 
         store.createIndex(user.getProjectId()).get();
         store.createUser(user).getIndexingFuture().get();
@@ -180,6 +201,155 @@ public class UserStoreIT extends AbstractIT {
         assertEquals(Optional.empty(), store.getUser(userUpdatedWithToken.getProjectId(), userUpdatedWithToken.getUserId()));
     }
 
+    @Test(timeout = 60_000L)
+    public void testBloomFilterConcurrentUpdates() throws Exception {
+        UserModel user = new UserModel(
+                IdUtil.randomId(),
+                store.genUserId(Optional.empty()),
+                null,
+                false,
+                "john",
+                null,
+                null,
+                null,
+                null,
+                null,
+                true,
+                0L,
+                null,
+                null,
+                null,
+                Instant.now(),
+                null,
+                null,
+                null,
+                null,
+                null,
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
+        store.createIndex(user.getProjectId()).get();
+        store.createUser(user).getIndexingFuture().get();
+
+        ImmutableList<String> voteIdeaIds = IntStream.range(0, 40)
+                .mapToObj(i -> IdUtil.randomId())
+                .collect(ImmutableList.toImmutableList());
+        ImmutableList<String> fundIdeaIds = IntStream.range(0, 20)
+                .mapToObj(i -> IdUtil.randomId())
+                .collect(ImmutableList.toImmutableList());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            voteIdeaIds.forEach(ideaId -> futures.add(executor.submit(() ->
+                    store.userVoteUpdateBloom(user.getProjectId(), user.getUserId(), ideaId))));
+            fundIdeaIds.forEach(ideaId -> futures.add(executor.submit(() ->
+                    store.updateUserBalance(user.getProjectId(), user.getUserId(), 1L, Optional.of(ideaId)))));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        UserModel userUpdated = store.getUser(user.getProjectId(), user.getUserId()).get();
+        BloomFilter<CharSequence> voteBloom = BloomFilters.fromByteArray(userUpdated.getVoteBloom(), Funnels.stringFunnel(Charsets.UTF_8));
+        voteIdeaIds.forEach(ideaId -> assertTrue(ideaId, voteBloom.mightContain(ideaId)));
+        BloomFilter<CharSequence> fundBloom = BloomFilters.fromByteArray(userUpdated.getFundBloom(), Funnels.stringFunnel(Charsets.UTF_8));
+        fundIdeaIds.forEach(ideaId -> assertTrue(ideaId, fundBloom.mightContain(ideaId)));
+        assertEquals(fundIdeaIds.size(), userUpdated.getBalance());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBloomFilterUpdateMissingUser() throws Exception {
+        String projectId = IdUtil.randomId();
+        String userId = store.genUserId(Optional.empty());
+        store.createIndex(projectId).get();
+
+        store.userVoteUpdateBloom(projectId, userId, IdUtil.randomId());
+        store.userExpressUpdateBloom(projectId, userId, IdUtil.randomId());
+
+        assertEquals(Optional.empty(), store.getUser(projectId, userId));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testAsyncMatchesSync() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        UserModel user1 = MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build();
+        UserModel user2 = MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build();
+        String missingUserId = store.genUserId(Optional.empty());
+        store.createUser(user1).getIndexingFuture().get();
+        store.createUser(user2).getIndexingFuture().get();
+        ImmutableList<String> userIds = ImmutableList.of(user1.getUserId(), user2.getUserId(), missingUserId);
+
+        assertEquals(Optional.of(user1), store.getUserAsync(projectId, user1.getUserId()).get());
+        assertEquals(store.getUser(projectId, user1.getUserId()), store.getUserAsync(projectId, user1.getUserId()).get());
+        assertEquals(Optional.empty(), store.getUserAsync(projectId, missingUserId).get());
+        assertEquals(ImmutableMap.of(user1.getUserId(), user1, user2.getUserId(), user2), store.getUsersAsync(projectId, userIds).get());
+        assertEquals(store.getUsers(projectId, userIds), store.getUsersAsync(projectId, userIds).get());
+        assertEquals(ImmutableMap.of(), store.getUsersAsync(projectId, ImmutableList.of()).get());
+
+        store.deleteUsers(projectId, ImmutableList.of(user1.getUserId())).get();
+        assertEquals(ImmutableMap.of(user2.getUserId(), user2), store.getUsersAsync(projectId, userIds).get());
+        assertEquals(store.getUsers(projectId, userIds), store.getUsersAsync(projectId, userIds).get());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testUserActivity() throws Exception {
+        UserModel user = MockModelUtil.getRandomUser().toBuilder().projectId(IdUtil.randomId()).build();
+        store.createIndex(user.getProjectId()).get();
+        store.createUser(user).getIndexingFuture().get();
+
+        store.updateUserActivity(user.getProjectId(), user.getUserId(), 1L, 2L, 30L);
+        store.updateUserActivity(user.getProjectId(), user.getUserId(), -1L, 1L, -10L);
+        UserModel userUpdated = store.getUser(user.getProjectId(), user.getUserId()).get();
+        assertEquals(Long.valueOf(0L), userUpdated.getFundedIdeasCount());
+        assertEquals(Long.valueOf(3L), userUpdated.getSupportedIdeasCount());
+        assertEquals(Long.valueOf(20L), userUpdated.getFundedAmount());
+        assertNotNull(userUpdated.getLastActive());
+
+        store.setUserActivityCounters(user.getProjectId(), user.getUserId(), 4L, 5L, 6L).get();
+        userUpdated = store.getUser(user.getProjectId(), user.getUserId()).get();
+        assertEquals(Long.valueOf(4L), userUpdated.getFundedIdeasCount());
+        assertEquals(Long.valueOf(5L), userUpdated.getSupportedIdeasCount());
+        assertEquals(Long.valueOf(6L), userUpdated.getFundedAmount());
+
+        Instant now = Instant.now();
+        UserModel user1 = MockModelUtil.getRandomUser().toBuilder().projectId(user.getProjectId()).lastActive(now.minus(3, ChronoUnit.DAYS)).build();
+        UserModel user2 = MockModelUtil.getRandomUser().toBuilder().projectId(user.getProjectId()).lastActive(now.minus(2, ChronoUnit.DAYS)).build();
+        UserModel user3 = MockModelUtil.getRandomUser().toBuilder().projectId(user.getProjectId()).lastActive(now.minus(1, ChronoUnit.DAYS)).build();
+        store.createUser(user1).getIndexingFuture().get();
+        store.createUser(user2).getIndexingFuture().get();
+        store.createUser(user3).getIndexingFuture().get();
+        store.setUserActivityCounters(user.getProjectId(), user1.getUserId(), 3L, 1L, 20L).get();
+        store.setUserActivityCounters(user.getProjectId(), user2.getUserId(), 1L, 3L, 10L).get();
+        store.setUserActivityCounters(user.getProjectId(), user3.getUserId(), 2L, 2L, 30L).get();
+        store.deleteUsers(user.getProjectId(), ImmutableList.of(user.getUserId())).get();
+
+        assertEquals(ImmutableList.of(user1.getUserId(), user3.getUserId(), user2.getUserId()),
+                searchUsersSorted(user.getProjectId(), UserSearchAdmin.SortByEnum.FUNDEDIDEAS, UserSearchAdmin.SortOrderEnum.DESC));
+        assertEquals(ImmutableList.of(user2.getUserId(), user3.getUserId(), user1.getUserId()),
+                searchUsersSorted(user.getProjectId(), UserSearchAdmin.SortByEnum.FUNDEDIDEAS, UserSearchAdmin.SortOrderEnum.ASC));
+        assertEquals(ImmutableList.of(user2.getUserId(), user3.getUserId(), user1.getUserId()),
+                searchUsersSorted(user.getProjectId(), UserSearchAdmin.SortByEnum.SUPPORTEDIDEAS, UserSearchAdmin.SortOrderEnum.DESC));
+        assertEquals(ImmutableList.of(user3.getUserId(), user1.getUserId(), user2.getUserId()),
+                searchUsersSorted(user.getProjectId(), UserSearchAdmin.SortByEnum.FUNDEDAMOUNT, UserSearchAdmin.SortOrderEnum.DESC));
+        assertEquals(ImmutableList.of(user3.getUserId(), user2.getUserId(), user1.getUserId()),
+                searchUsersSorted(user.getProjectId(), UserSearchAdmin.SortByEnum.LASTACTIVE, UserSearchAdmin.SortOrderEnum.DESC));
+        assertEquals(ImmutableList.of(user1.getUserId(), user2.getUserId(), user3.getUserId()),
+                searchUsersSorted(user.getProjectId(), UserSearchAdmin.SortByEnum.LASTACTIVE, UserSearchAdmin.SortOrderEnum.ASC));
+    }
+
+    private ImmutableList<String> searchUsersSorted(String projectId, UserSearchAdmin.SortByEnum sortBy, UserSearchAdmin.SortOrderEnum sortOrder) {
+        return store.searchUsers(projectId, UserSearchAdmin.builder()
+                        .sortBy(sortBy)
+                        .sortOrder(sortOrder)
+                        .build(), false, Optional.empty(), Optional.empty())
+                .getUserIds();
+    }
+
     @Test(timeout = 10_000L)
     public void testSearchUsers() throws Exception {
         String projectId = IdUtil.randomId();
@@ -205,7 +375,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
         UserModel user2 = new UserModel(
                 projectId,
                 store.genUserId(Optional.empty()),
@@ -228,7 +402,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
         UserModel user3 = new UserModel(
                 projectId,
                 store.genUserId(Optional.empty()),
@@ -251,7 +429,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
 
         store.createIndex(projectId).get();
         store.createUser(user1).getIndexingFuture().get();
@@ -367,7 +549,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
 
         store.createIndex(user.getProjectId()).get();
         store.createUser(user).getIndexingFuture().get();
@@ -406,7 +592,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                null,
+                null,
+                null,
+                null);
 
         store.createIndex(user.getProjectId()).get();
         store.createUser(user).getIndexingFuture().get();
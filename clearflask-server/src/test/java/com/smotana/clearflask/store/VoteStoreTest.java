@@ -17,6 +17,7 @@ import com.smotana.clearflask.store.VoteStore.FundModel;
 import com.smotana.clearflask.store.VoteStore.ListResponse;
 import com.smotana.clearflask.store.VoteStore.TransactionAndFundPrevious;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
+import com.smotana.clearflask.store.VoteStore.UserVotes;
 import com.smotana.clearflask.store.VoteStore.VoteModel;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
@@ -95,6 +96,29 @@ public class VoteStoreTest extends AbstractTest {
         assertEquals(ImmutableSet.of(ideaId1), store.voteSearch(projectId, userId, ImmutableSet.of(ideaId1)).keySet());
         assertEquals(ImmutableSet.of(ideaId2), store.voteSearch(projectId, userId, ImmutableSet.of(ideaId2, "non-existent-id")).keySet());
         assertEquals(ImmutableSet.of(ideaId1, ideaId2), store.voteSearch(projectId, userId, ImmutableSet.of(ideaId1, ideaId2)).keySet());
+        assertEquals(ImmutableSet.of(ideaId1, ideaId2), store.voteSearchAsync(projectId, userId, ImmutableSet.of(ideaId1, ideaId2, ideaId3)).get().keySet());
+        assertEquals(ImmutableSet.of(), store.voteSearchAsync(projectId, userId, ImmutableSet.of()).get().keySet());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testVoteSearchAsyncMatchesSync() throws Exception {
+        String projectId = IdUtil.randomId();
+        String userId = IdUtil.randomId();
+        String otherUserId = IdUtil.randomId();
+        String ideaId1 = IdUtil.randomAscId();
+        String ideaId2 = IdUtil.randomAscId();
+        String ideaId3 = IdUtil.randomAscId();
+        ImmutableSet<String> targetIds = ImmutableSet.of(ideaId1, ideaId2, ideaId3, "non-existent-id");
+
+        store.vote(projectId, userId, ideaId1, Upvote);
+        store.vote(projectId, userId, ideaId2, Downvote);
+        store.vote(projectId, otherUserId, ideaId3, Upvote);
+
+        assertEquals(store.voteSearch(projectId, userId, targetIds), store.voteSearchAsync(projectId, userId, targetIds).get());
+        assertEquals(ImmutableSet.of(ideaId1, ideaId2), store.voteSearchAsync(projectId, userId, targetIds).get().keySet());
+        assertEquals(Upvote.getValue(), store.voteSearchAsync(projectId, userId, targetIds).get().get(ideaId1).getVote());
+        assertEquals(store.voteSearch(projectId, otherUserId, targetIds), store.voteSearchAsync(projectId, otherUserId, targetIds).get());
+        assertEquals(store.voteSearch(projectId, IdUtil.randomId(), targetIds), store.voteSearchAsync(projectId, IdUtil.randomId(), targetIds).get());
     }
 
     @Test(timeout = 10_000L)
@@ -236,6 +260,36 @@ public class VoteStoreTest extends AbstractTest {
         assertEquals(ImmutableSet.of(ideaId1, ideaId2), store.fundSearch(projectId, userId, ImmutableSet.of(ideaId1, ideaId2)).keySet());
     }
 
+    @Test(timeout = 10_000L)
+    public void testUserVotesSearch() throws Exception {
+        String projectId = IdUtil.randomId();
+        String userId = IdUtil.randomId();
+        String ideaId1 = IdUtil.randomAscId();
+        String ideaId2 = IdUtil.randomAscId();
+        String ideaId3 = IdUtil.randomAscId();
+
+        store.vote(projectId, userId, ideaId1, Upvote);
+        store.vote(projectId, userId, ideaId2, Downvote);
+        store.express(projectId, userId, ideaId2, Optional.of("👍"));
+        store.fund(projectId, userId, ideaId3, 5L, "transaction-type1", "summary1");
+
+        assertEquals(UserVotes.EMPTY, store.userVotesSearch(projectId, userId, ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of()));
+
+        ImmutableSet<String> ideaIds = ImmutableSet.of(ideaId1, ideaId2, ideaId3, "non-existent-id");
+        UserVotes userVotes = store.userVotesSearchAsync(projectId, userId, ideaIds, ideaIds, ideaIds).get();
+        assertEquals(ImmutableSet.of(ideaId1, ideaId2), userVotes.getVotes().keySet());
+        assertEquals(Upvote.getValue(), userVotes.getVotes().get(ideaId1).getVote());
+        assertEquals(ImmutableSet.of(ideaId2), userVotes.getExpressions().keySet());
+        assertEquals(ImmutableSet.of("👍"), userVotes.getExpressions().get(ideaId2).getExpressions());
+        assertEquals(ImmutableSet.of(ideaId3), userVotes.getFunds().keySet());
+        assertEquals(5L, userVotes.getFunds().get(ideaId3).getFundAmount());
+
+        userVotes = store.userVotesSearch(projectId, userId, ImmutableSet.of(ideaId2), ImmutableSet.of(ideaId1), ImmutableSet.of());
+        assertEquals(ImmutableSet.of(ideaId2), userVotes.getVotes().keySet());
+        assertEquals(ImmutableSet.of(), userVotes.getExpressions().keySet());
+        assertEquals(ImmutableSet.of(), userVotes.getFunds().keySet());
+    }
+
     @Test(timeout = 10_000L)
     public void testFundListByTarget() throws Exception {
         String projectId = IdUtil.randomId();
@@ -0,0 +1,274 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.coalesce;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.google.inject.util.Providers;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.ExpDecayScore;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+
+@Slf4j
+public class IndexUpdateCoalescerTest extends AbstractTest {
+
+    private static final String INDEX = "index";
+    private static final Table<?> TABLE = DSL.table("post");
+    private static final Field<String> ID = DSL.field("postId", String.class);
+    private static final Field<Long> VOTE_VALUE = DSL.field("voteValue", Long.class);
+    private static final Field<Double> TREND_SCORE = DSL.field("trendScore", Double.class);
+
+    @Inject
+    private IndexUpdateCoalescer coalescer;
+
+    private final ElasticUtil elasticUtil = Mockito.mock(ElasticUtil.class);
+
+    private final List<String> executedSql = Collections.synchronizedList(Lists.newArrayList());
+    private final Set<String> failingMysqlIds = Sets.newConcurrentHashSet();
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        // Not bound as an instance, which would have Guice inject its members
+        bind(ElasticUtil.class).toProvider(Providers.of(elasticUtil));
+        bind(DSLContext.class).toInstance(DSL.using(new MockConnection(this::executeMysql), SQLDialect.MYSQL));
+
+        install(Modules.override(
+                IndexUpdateCoalescer.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(IndexUpdateCoalescer.Config.class, om -> {
+                    // Flushed explicitly by tests
+                    om.override(om.id().flushInterval()).withValue(Duration.ofHours(1));
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMerge() throws Exception {
+        List<BulkRequest> bulkRequests = mockBulk(request -> ImmutableSet.of());
+
+        IndexUpdateCoalescer.IndexingFutures futures1 = coalescer.submit(update("project1", "post1")
+                .elasticField("voteValue", 1L)
+                .elasticArrayAddition("expressions", "like")
+                .trendScoreAddend(1d)
+                .mysqlField(VOTE_VALUE, 1L)
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futures2 = coalescer.submit(update("project1", "post1")
+                .elasticField("voteValue", 2L)
+                .elasticField("votersCount", 2L)
+                .elasticArrayDeletion("expressions", "like")
+                .elasticArrayAddition("expressions", "love")
+                .trendScoreAddend(2d)
+                .mysqlField(VOTE_VALUE, 2L)
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futuresOther = coalescer.submit(update("project2", "post1")
+                .elasticField("voteValue", 5L)
+                .build());
+        assertFalse(futures1.getElastic().isDone());
+        assertFalse(futures1.getMysql().isDone());
+
+        coalescer.flushPending();
+        for (IndexUpdateCoalescer.IndexingFutures futures : ImmutableList.of(futures1, futures2, futuresOther)) {
+            futures.getElastic().get();
+            futures.getMysql().get();
+        }
+
+        assertEquals(1, bulkRequests.size());
+        List<DocWriteRequest<?>> requests = bulkRequests.get(0).requests();
+        assertEquals(2, requests.size());
+        Map<String, Object> params = ((UpdateRequest) requests.stream()
+                .filter(request -> request.id().equals("project1-post1"))
+                .findAny()
+                .orElseThrow())
+                .script().getParams();
+        assertEquals(ImmutableMap.of("voteValue", 2L, "votersCount", 2L), params.get("extraUpdates"));
+        assertEquals(ExpDecayScore.addScore(1d, 2d), (double) params.get("trendScoreAddend"), 0.000001d);
+        assertEquals(ImmutableMap.of("expressions", ImmutableList.of("love")), params.get("extraArrayAdditions"));
+        assertEquals(ImmutableMap.of("expressions", ImmutableList.of("like")), params.get("extraArrayDeletions"));
+
+        // Single update applying latest value and merged addend to the current trend score
+        assertEquals(1, executedSql.size());
+        String sql = executedSql.get(0);
+        assertTrue(sql, sql.contains("voteValue = 2"));
+        assertTrue(sql, sql.contains("greatest(ifnull(trendScore"));
+
+        assertEquals(3, coalescer.stats().getUpdates());
+        assertEquals(2, coalescer.stats().getDocumentsFlushed());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testElasticFailure() throws Exception {
+        mockBulk(request -> ImmutableSet.of("project1-retried", "project1-failed"));
+
+        List<String> retried = Lists.newArrayList();
+        IndexUpdateCoalescer.IndexingFutures futuresRetried = coalescer.submit(update("project1", "retried")
+                .elasticField("voteValue", 1L)
+                .elasticOnFailure(future -> {
+                    retried.add("retried");
+                    future.set(null);
+                })
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futuresFailed = coalescer.submit(update("project1", "failed")
+                .elasticField("voteValue", 1L)
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futuresSucceeded = coalescer.submit(update("project1", "succeeded")
+                .elasticField("voteValue", 1L)
+                .build());
+        coalescer.flushPending();
+
+        futuresRetried.getElastic().get();
+        assertEquals(ImmutableList.of("retried"), retried);
+        assertFailed(futuresFailed.getElastic());
+        futuresSucceeded.getElastic().get();
+        assertEquals(2, coalescer.stats().getFailures());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testElasticRequestFailure() throws Exception {
+        Mockito.doAnswer(invocation -> {
+            ActionListener<BulkResponse> listener = invocation.getArgument(2);
+            listener.onFailure(new Exception("Unavailable"));
+            return null;
+        }).when(elasticUtil).bulkAsync(any(BulkRequest.class), any(), any());
+
+        IndexUpdateCoalescer.IndexingFutures futures1 = coalescer.submit(update("project1", "post1")
+                .elasticField("voteValue", 1L)
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futures2 = coalescer.submit(update("project2", "post2")
+                .elasticField("voteValue", 1L)
+                .build());
+        coalescer.flushPending();
+
+        assertFailed(futures1.getElastic());
+        assertFailed(futures2.getElastic());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMysqlFailureIsolated() throws Exception {
+        failingMysqlIds.add("failed");
+
+        IndexUpdateCoalescer.IndexingFutures futures1 = coalescer.submit(update("project1", "post1")
+                .trendScoreAddend(1d)
+                .mysqlField(VOTE_VALUE, 1L)
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futuresFailed = coalescer.submit(update("project2", "failed")
+                .mysqlField(VOTE_VALUE, 1L)
+                .build());
+        IndexUpdateCoalescer.IndexingFutures futures2 = coalescer.submit(update("project3", "post2")
+                .mysqlField(VOTE_VALUE, 1L)
+                .build());
+        coalescer.flushPending();
+
+        futures1.getMysql().get();
+        futures2.getMysql().get();
+        assertFailed(futuresFailed.getMysql());
+        // Retried individually after the whole batch was rolled back, each written once
+        assertEquals(1, executedSql.stream().filter(sql -> sql.contains("'post1'")).count());
+        assertEquals(1, executedSql.stream().filter(sql -> sql.contains("'post2'")).count());
+        assertEquals(1, coalescer.stats().getFailures());
+    }
+
+    private IndexUpdateCoalescer.Update.UpdateBuilder update(String projectId, String id) {
+        return IndexUpdateCoalescer.Update.builder()
+                .projectId(projectId)
+                .id(id)
+                .elasticIndexName(INDEX)
+                .elasticDocId(projectId + "-" + id)
+                .mysqlTable(TABLE)
+                .mysqlCondition(ID.eq(id))
+                .mysqlTrendScoreField(TREND_SCORE);
+    }
+
+    /**
+     * Responds to bulk requests, failing items of the given document ids.
+     */
+    private List<BulkRequest> mockBulk(Function<BulkRequest, Set<String>> failingDocIdsGetter) {
+        List<BulkRequest> bulkRequests = Collections.synchronizedList(Lists.newArrayList());
+        Mockito.doAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            ActionListener<BulkResponse> listener = invocation.getArgument(2);
+            bulkRequests.add(request);
+            Set<String> failingDocIds = failingDocIdsGetter.apply(request);
+            BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                String docId = request.requests().get(i).id();
+                items[i] = failingDocIds.contains(docId)
+                        ? new BulkItemResponse(i, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure(INDEX, "_doc", docId, new Exception("Failed " + docId)))
+                        : new BulkItemResponse(i, DocWriteRequest.OpType.UPDATE, new UpdateResponse(new ShardId(INDEX, "uuid", 0), "_doc", docId, 0L, 1L, 1L, DocWriteResponse.Result.UPDATED));
+            }
+            listener.onResponse(new BulkResponse(items, 1L));
+            return null;
+        }).when(elasticUtil).bulkAsync(any(BulkRequest.class), any(), any());
+        return bulkRequests;
+    }
+
+    private MockResult[] executeMysql(MockExecuteContext ctx) throws SQLException {
+        String[] sqls = ctx.batch() ? ctx.batchSQL() : new String[]{ctx.sql()};
+        for (String sql : sqls) {
+            for (String failingMysqlId : failingMysqlIds) {
+                if (sql.contains("'" + failingMysqlId + "'")) {
+                    throw new SQLException("Failed " + failingMysqlId);
+                }
+            }
+        }
+        executedSql.addAll(List.of(sqls));
+        MockResult[] results = new MockResult[sqls.length];
+        for (int i = 0; i < sqls.length; i++) {
+            results[i] = new MockResult(1, null);
+        }
+        return results;
+    }
+
+    private void assertFailed(ListenableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ex) {
+            // Expected
+        }
+    }
+}
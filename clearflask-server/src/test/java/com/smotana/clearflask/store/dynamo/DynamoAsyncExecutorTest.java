@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.dynamo;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class DynamoAsyncExecutorTest extends AbstractTest {
+
+    @Inject
+    private DynamoAsyncExecutor executor;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                DynamoAsyncExecutor.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DynamoAsyncExecutor.Config.class, om -> {
+                    om.override(om.id().threadCount()).withValue(1);
+                    om.override(om.id().queueSize()).withValue(1);
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCallerRunsWhenSaturated() throws Exception {
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        Thread callerThread = Thread.currentThread();
+
+        // Occupy the only thread and the only queue slot
+        ListenableFuture<Thread> runningFuture = executor.submit(() -> {
+            blockerStarted.countDown();
+            blocker.await();
+            return Thread.currentThread();
+        });
+        blockerStarted.await();
+        ListenableFuture<Thread> queuedFuture = executor.submit(Thread::currentThread);
+        assertFalse(queuedFuture.isDone());
+
+        // Saturated, runs on the caller thread and is already done on return
+        ListenableFuture<Thread> saturatedFuture = executor.submit(Thread::currentThread);
+        assertTrue(saturatedFuture.isDone());
+        assertSame(callerThread, saturatedFuture.get());
+
+        blocker.countDown();
+        assertNotSame(callerThread, runningFuture.get());
+        assertNotSame(callerThread, queuedFuture.get());
+    }
+}
@@ -45,6 +45,7 @@ public class InMemoryDynamoDbProvider extends ManagedService implements Provider
                 Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(InMemoryDynamoDbProvider.class).asEagerSingleton();
 
                 install(DocumentDynamoDbProvider.module());
+                install(DynamoAsyncExecutor.module());
             }
         };
     }
@@ -0,0 +1,31 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import com.smotana.clearflask.store.elastic.ElasticRequestStats.Operation;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.message.BasicHttpRequest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class ElasticRequestStatsTest {
+
+    @Test(timeout = 10_000L)
+    public void testGetOperation() throws Exception {
+        assertEquals(Operation.SEARCH, getOperation("POST", "/clearflask-idea-abc/_search?typed_keys=true&search_type=query_then_fetch"));
+        assertEquals(Operation.SEARCH, getOperation("POST", "/clearflask-idea-abc/_count"));
+        assertEquals(Operation.SCROLL, getOperation("POST", "/_search/scroll"));
+        assertEquals(Operation.SCROLL, getOperation("DELETE", "/_search/scroll"));
+        assertEquals(Operation.UPDATE, getOperation("POST", "/clearflask-idea-abc/_update/def?refresh=wait_for"));
+        assertEquals(Operation.UPDATE, getOperation("POST", "/clearflask-idea-abc/_update_by_query"));
+        assertEquals(Operation.BULK, getOperation("POST", "/_bulk?refresh=wait_for"));
+        assertEquals(Operation.OTHER, getOperation("PUT", "/clearflask-idea-abc/_doc/def"));
+        assertEquals(Operation.OTHER, getOperation("HEAD", "/clearflask-idea-abc"));
+    }
+
+    private Operation getOperation(String method, String uri) {
+        return ElasticRequestStats.getOperation(new BasicHttpRequest(method, uri));
+    }
+}
@@ -12,6 +12,7 @@ import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.ContentStore;
 import com.smotana.clearflask.store.elastic.ElasticUtil.ConfigSearch;
 import com.smotana.clearflask.store.elastic.ElasticUtil.PaginationType;
@@ -69,6 +70,7 @@ public class ElasticUtilIT extends AbstractIT {
 
         install(Modules.override(
                 ElasticUtil.module(),
+                LoopbackCacheInvalidationBus.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 Sanitizer.module(),
                 GsonProvider.module(),
@@ -7,6 +7,9 @@ import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.util.Modules;
@@ -92,6 +95,7 @@ public class S3ContentStoreIT extends AbstractTest {
         assertEquals(Optional.empty(), store.signUrl("other-project-id", contentUrl.getUrl()));
         String signedUrl = store.signUrl(projectId, contentUrl.getUrl()).get();
         log.info("signedUrl: {}", signedUrl);
+        assertEquals("Signed URL should be reused", signedUrl, store.signUrl(projectId, contentUrl.getUrl()).get());
 
         assertNotNull(s3.getObject(bucketName, contentUrl.getKey()));
         // This should throw 403 on a real S3, but we're using localstack
@@ -112,6 +116,56 @@ public class S3ContentStoreIT extends AbstractTest {
         assertEquals(signedUrl, 404, get(signedUrl));
     }
 
+    @Test(timeout = 10_000L)
+    public void testVariants() throws Exception {
+        byte[] exampleJpegBytes = Thread.currentThread().getContextClassLoader().getResourceAsStream("example.jpeg").readAllBytes();
+        String projectId = "my-project-id";
+        String userId = "my-user-id";
+
+        ContentUrl contentUrl = store.upload(projectId, userId, ContentType.JPEG, new ByteArrayInputStream(exampleJpegBytes), exampleJpegBytes.length, ImmutableMap.of(
+                "small", new byte[]{1, 2, 3},
+                "medium", new byte[]{4, 5, 6}));
+        log.info("contentUrl: {}", contentUrl);
+        assertEquals(ImmutableSet.of("small", "medium"), contentUrl.getVariants());
+        // Variants are listed sorted in the file name
+        assertTrue(contentUrl.getFileName(), contentUrl.getFileName().matches("^[^.]+\\.medium-small\\.jpeg$"));
+        assertEquals(Optional.of(contentUrl), store.parseContentUrl(contentUrl.getUrl()));
+
+        String smallKey = contentUrl.getKey().replace(".medium-small.", ".small.");
+        String mediumKey = contentUrl.getKey().replace(".medium-small.", ".medium.");
+        assertArrayEquals(exampleJpegBytes, s3.getObject(bucketName, contentUrl.getKey()).getObjectContent().readAllBytes());
+        assertArrayEquals(new byte[]{1, 2, 3}, s3.getObject(bucketName, smallKey).getObjectContent().readAllBytes());
+        assertArrayEquals(new byte[]{4, 5, 6}, s3.getObject(bucketName, mediumKey).getObjectContent().readAllBytes());
+
+        String signedUrl = store.signUrl(projectId, contentUrl.getUrl()).get();
+        String signedSmallUrl = store.signUrl(projectId, contentUrl.getUrl(), Optional.of("small")).get();
+        assertTrue(signedSmallUrl, signedSmallUrl.contains(smallKey));
+        assertEquals(signedSmallUrl, 200, get(signedSmallUrl));
+        assertEquals("Unknown variant should fall back to the original",
+                signedUrl, store.signUrl(projectId, contentUrl.getUrl(), Optional.of("large")).get());
+        assertEquals(Optional.empty(), store.signUrl("other-project-id", contentUrl.getUrl(), Optional.of("small")));
+
+        // Without variants, file name has no variant part
+        ContentUrl contentUrlNoVariants = store.upload(projectId, userId, ContentType.JPEG, new ByteArrayInputStream(exampleJpegBytes), exampleJpegBytes.length, ImmutableMap.of());
+        assertEquals(ImmutableSet.of(), contentUrlNoVariants.getVariants());
+        assertEquals(Optional.of(contentUrlNoVariants), store.parseContentUrl(contentUrlNoVariants.getUrl()));
+        assertEquals(store.signUrl(projectId, contentUrlNoVariants.getUrl()).get(), store.signUrl(projectId, contentUrlNoVariants.getUrl(), Optional.of("small")).get());
+        store.delete(contentUrlNoVariants.getUrl());
+
+        store.delete(contentUrl.getUrl());
+        for (String key : ImmutableList.of(contentUrl.getKey(), smallKey, mediumKey)) {
+            try {
+                s3.getObject(bucketName, key);
+                fail(key);
+            } catch (AmazonS3Exception ex) {
+                if (ex.getStatusCode() != 404) {
+                    throw ex;
+                }
+            }
+        }
+        assertEquals(signedSmallUrl, 404, get(signedSmallUrl));
+    }
+
     private int get(String url) throws Exception {
         HttpGet req = new HttpGet(url);
         try (CloseableHttpClient client = HttpClientBuilder.create().build();
@@ -0,0 +1,218 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.mysql;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
+import com.smotana.clearflask.api.model.IdeaSearchAdmin;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
+import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoProjectStore;
+import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaRecord;
+import com.smotana.clearflask.store.reindex.Reindexer;
+import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.ChatwootUtil;
+import com.smotana.clearflask.util.DefaultServerSecret;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.IntercomUtil;
+import com.smotana.clearflask.util.ProjectUpgraderImpl;
+import com.smotana.clearflask.util.ServerSecretTest;
+import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.WebhookServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares latency of LIKE and FULLTEXT text search over a large project.
+ */
+@Slf4j
+public class MysqlFullTextBenchmarkIT extends AbstractIT {
+
+    private static final int POST_COUNT = 100_000;
+    private static final int INSERT_BATCH_SIZE = 1_000;
+    private static final int QUERY_COUNT = 50;
+    private static final int QUERY_WORD_COUNT = 2;
+    /**
+     * Word frequencies in natural text roughly follow Zipf's law, so a few words appear in most posts
+     * while most words are rare.
+     */
+    private static final int VOCABULARY_SIZE = 20_000;
+    private static final double ZIPF_EXPONENT = 1.07;
+    private static final ImmutableList<String> SYLLABLES = ImmutableList.of(
+            "ba", "ke", "lo", "mi", "nu", "pa", "re", "si", "to", "va",
+            "dra", "fle", "gro", "kli", "pre", "sta", "tri", "zu", "wen", "hol");
+
+    @Inject
+    private Provider<DSLContext> mysql;
+    @Inject
+    private IdeaStore ideaStore;
+
+    @Override
+    protected void configure() {
+        overrideSearchEngine = ProjectStore.SearchEngine.READWRITE_MYSQL;
+        super.configure();
+
+        bindMock(ContentStore.class);
+
+        install(Modules.override(
+                InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
+                SingleTableProvider.module(),
+                DynamoElasticIdeaStore.module(),
+                DynamoElasticAccountStore.module(),
+                DynamoElasticUserStore.module(),
+                DynamoVoteStore.module(),
+                Sanitizer.module(),
+                MysqlUtil.module(),
+                ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
+                DefaultServerSecret.module(Names.named("cursor")),
+                WebhookServiceImpl.module(),
+                DynamoProjectStore.module(),
+                ProjectUpgraderImpl.module(),
+                IntercomUtil.module(),
+                ChatwootUtil.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DefaultServerSecret.Config.class, Names.named("cursor"), om -> {
+                    om.override(om.id().sharedKey()).withValue(ServerSecretTest.getRandomSharedKey());
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 600_000L)
+    public void testFullTextVsLike() throws Exception {
+        String projectId = IdUtil.randomId();
+        Random random = new Random(0L);
+        ImmutableList<String> vocabulary = vocabulary(random);
+        double[] cumulativeWeights = zipfCumulativeWeights();
+        Instant now = Instant.now();
+        List<String> titles = Lists.newArrayListWithCapacity(POST_COUNT);
+        List<JooqIdeaRecord> batch = Lists.newArrayListWithCapacity(INSERT_BATCH_SIZE);
+        for (int i = 0; i < POST_COUNT; i++) {
+            JooqIdeaRecord record = new JooqIdeaRecord();
+            record.setProjectid(projectId);
+            record.setPostid(IdUtil.randomId());
+            record.setAuthoruserid(IdUtil.randomId());
+            record.setCreated(now);
+            record.setLastactivity(now);
+            record.setTitle(sentence(random, vocabulary, cumulativeWeights, 6));
+            record.setDescription(sentence(random, vocabulary, cumulativeWeights, 40));
+            record.setCategoryid("category");
+            record.setTrendscore(random.nextDouble());
+            titles.add(record.getTitle());
+            batch.add(record);
+            if (batch.size() >= INSERT_BATCH_SIZE) {
+                mysql.get().batchInsert(batch).execute();
+                batch.clear();
+            }
+        }
+        log.info("Inserted {} posts", POST_COUNT);
+
+        // Search for words taken from existing titles, as users would, so every query has results
+        List<String> searchTexts = Lists.newArrayList();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            List<String> titleWords = Arrays.asList(titles.get(random.nextInt(titles.size())).split(" "));
+            Collections.shuffle(titleWords, random);
+            searchTexts.add(String.join(" ", titleWords.subList(0, QUERY_WORD_COUNT)));
+        }
+
+        configSet(DynamoElasticIdeaStore.Config.class, "enableMysqlFullText", "false");
+        long likeMedianMicros = benchmark(projectId, searchTexts);
+        configSet(DynamoElasticIdeaStore.Config.class, "enableMysqlFullText", "true");
+        long fullTextMedianMicros = benchmark(projectId, searchTexts);
+        log.info("Median search latency over {} posts: LIKE {}us, FULLTEXT {}us",
+                POST_COUNT, likeMedianMicros, fullTextMedianMicros);
+        assertTrue("FULLTEXT median " + fullTextMedianMicros + "us not faster than LIKE median " + likeMedianMicros + "us",
+                fullTextMedianMicros < likeMedianMicros);
+    }
+
+    /**
+     * Searches the way users do, through the idea store, so FULLTEXT is measured with its relevance ordering.
+     */
+    private long benchmark(String projectId, List<String> searchTexts) {
+        long[] durationsMicros = new long[searchTexts.size()];
+        for (int i = 0; i < searchTexts.size(); i++) {
+            String text = searchTexts.get(i);
+            long startNanos = System.nanoTime();
+            IdeaStore.SearchResponse searchResponse = ideaStore.searchIdeas(projectId, IdeaSearchAdmin.builder()
+                    .searchText(text)
+                    .limit(10L)
+                    .build(), false, Optional.empty());
+            durationsMicros[i] = (System.nanoTime() - startNanos) / 1_000L;
+            assertFalse(text, searchResponse.getIdeaIds().isEmpty());
+        }
+        Arrays.sort(durationsMicros);
+        return durationsMicros[durationsMicros.length / 2];
+    }
+
+    private ImmutableList<String> vocabulary(Random random) {
+        Set<String> words = Sets.newLinkedHashSet();
+        while (words.size() < VOCABULARY_SIZE) {
+            int syllableCount = 2 + random.nextInt(3);
+            StringBuilder wordBuilder = new StringBuilder();
+            for (int i = 0; i < syllableCount; i++) {
+                wordBuilder.append(SYLLABLES.get(random.nextInt(SYLLABLES.size())));
+            }
+            words.add(wordBuilder.toString());
+        }
+        return ImmutableList.copyOf(words);
+    }
+
+    private double[] zipfCumulativeWeights() {
+        double[] cumulativeWeights = new double[VOCABULARY_SIZE];
+        double total = 0d;
+        for (int rank = 1; rank <= VOCABULARY_SIZE; rank++) {
+            total += 1d / Math.pow(rank, ZIPF_EXPONENT);
+            cumulativeWeights[rank - 1] = total;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            cumulativeWeights[i] /= total;
+        }
+        return cumulativeWeights;
+    }
+
+    private String sentence(Random random, ImmutableList<String> vocabulary, double[] cumulativeWeights, int wordCount) {
+        StringBuilder sentenceBuilder = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            if (i > 0) {
+                sentenceBuilder.append(' ');
+            }
+            int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+            sentenceBuilder.append(vocabulary.get(Math.min(index < 0 ? -index - 1 : index, vocabulary.size() - 1)));
+        }
+        return sentenceBuilder.toString();
+    }
+}
@@ -0,0 +1,183 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.mysql;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.ElasticUtil.ConfigSearch;
+import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
+import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoProjectStore;
+import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
+import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaRecord;
+import com.smotana.clearflask.store.reindex.Reindexer;
+import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.ChatwootUtil;
+import com.smotana.clearflask.util.DefaultServerSecret;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.IntercomUtil;
+import com.smotana.clearflask.util.ProjectUpgraderImpl;
+import com.smotana.clearflask.util.ServerSecret;
+import com.smotana.clearflask.util.ServerSecretTest;
+import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.WebhookServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SortField;
+import org.jooq.SortOrder;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keyset pagination over nullable, repeated and mixed direction sort fields.
+ */
+@Slf4j
+public class MysqlKeysetIT extends AbstractIT {
+
+    @Inject
+    private Provider<DSLContext> mysql;
+    @Inject
+    private MysqlUtil mysqlUtil;
+    @Inject
+    @Named("idea")
+    private ConfigSearch configSearch;
+    @Inject
+    @Named("cursor")
+    private ServerSecret serverSecretCursor;
+
+    @Override
+    protected void configure() {
+        overrideSearchEngine = ProjectStore.SearchEngine.READWRITE_MYSQL;
+        super.configure();
+
+        bindMock(ContentStore.class);
+
+        install(Modules.override(
+                InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
+                SingleTableProvider.module(),
+                DynamoElasticIdeaStore.module(),
+                DynamoElasticAccountStore.module(),
+                DynamoElasticUserStore.module(),
+                DynamoVoteStore.module(),
+                Sanitizer.module(),
+                MysqlUtil.module(),
+                ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
+                DefaultServerSecret.module(Names.named("cursor")),
+                WebhookServiceImpl.module(),
+                DynamoProjectStore.module(),
+                ProjectUpgraderImpl.module(),
+                IntercomUtil.module(),
+                ChatwootUtil.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DefaultServerSecret.Config.class, Names.named("cursor"), om -> {
+                    om.override(om.id().sharedKey()).withValue(ServerSecretTest.getRandomSharedKey());
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testKeyset() throws Exception {
+        String projectId = IdUtil.randomId();
+        Instant now = Instant.now();
+        // Repeated values and nulls force paging through ties and past nulls
+        Long[] fundeds = {5L, 5L, null, 3L, null, 5L, 3L, 1L, null, 3L, 5L, 1L};
+        Double[] orders = {null, 2d, 1d, null, 2d, 3d, null, 1d, 2d, 1d, null, 3d};
+        for (int i = 0; i < fundeds.length; i++) {
+            JooqIdeaRecord record = new JooqIdeaRecord();
+            record.setProjectid(projectId);
+            record.setPostid(IdUtil.randomId());
+            record.setAuthoruserid(IdUtil.randomId());
+            record.setCreated(now.minus(i % 4, ChronoUnit.DAYS));
+            record.setLastactivity(now);
+            record.setTitle("title");
+            record.setCategoryid("category");
+            record.setFunded(fundeds[i]);
+            record.setVotevalue((long) (i % 3));
+            record.setOrder(orders[i]);
+            mysql.get().executeInsert(record);
+        }
+
+        for (int pageSize : new int[]{1, 2, 5}) {
+            assertPages(projectId, ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(SortOrder.DESC)), pageSize);
+            assertPages(projectId, ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(SortOrder.ASC)), pageSize);
+            assertPages(projectId, ImmutableList.of(JooqIdea.IDEA.ORDER.sort(SortOrder.ASC), JooqIdea.IDEA.CREATED.sort(SortOrder.ASC)), pageSize);
+            assertPages(projectId, ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(SortOrder.DESC), JooqIdea.IDEA.VOTEVALUE.sort(SortOrder.ASC), JooqIdea.IDEA.ORDER.sort(SortOrder.DESC)), pageSize);
+            assertPages(projectId, ImmutableList.of(JooqIdea.IDEA.CREATED.sort(SortOrder.DESC)), pageSize);
+        }
+
+        // Offset cursor issued before keyset pagination continues where it left off
+        ImmutableList<SortField<?>> sortFields = ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(SortOrder.DESC), JooqIdea.IDEA.VOTEVALUE.sort(SortOrder.DESC));
+        List<String> expected = fetchAll(projectId, sortFields);
+        assertEquals(expected.subList(4, expected.size()), fetchPages(projectId, sortFields, 3,
+                Optional.of(serverSecretCursor.encryptString("4"))));
+
+        // Cursor of a different sort starts from the beginning
+        MysqlUtil.Keyset keyset = mysqlUtil.keyset(configSearch, Optional.empty(), Optional.of(3), sortFields, JooqIdea.IDEA.POSTID);
+        Optional<String> otherSortCursorOpt = mysqlUtil.nextCursor(keyset, fetchPage(projectId, keyset));
+        assertEquals(fetchAll(projectId, ImmutableList.of(JooqIdea.IDEA.ORDER.sort(SortOrder.ASC))), fetchPages(projectId,
+                ImmutableList.of(JooqIdea.IDEA.ORDER.sort(SortOrder.ASC)), 3, otherSortCursorOpt));
+    }
+
+    private void assertPages(String projectId, ImmutableList<SortField<?>> sortFields, int pageSize) {
+        assertEquals(sortFields + " page size " + pageSize,
+                fetchAll(projectId, sortFields),
+                fetchPages(projectId, sortFields, pageSize, Optional.empty()));
+    }
+
+    private List<String> fetchAll(String projectId, ImmutableList<SortField<?>> sortFields) {
+        MysqlUtil.Keyset keyset = mysqlUtil.keyset(configSearch, Optional.empty(), Optional.of(configSearch.pageSizeMax()), sortFields, JooqIdea.IDEA.POSTID);
+        return fetchPage(projectId, keyset).getValues(JooqIdea.IDEA.POSTID);
+    }
+
+    private List<String> fetchPages(String projectId, ImmutableList<SortField<?>> sortFields, int pageSize, Optional<String> cursorOpt) {
+        List<String> postIds = Lists.newArrayList();
+        do {
+            MysqlUtil.Keyset keyset = mysqlUtil.keyset(configSearch, cursorOpt, Optional.of(pageSize), sortFields, JooqIdea.IDEA.POSTID);
+            Result<Record> result = fetchPage(projectId, keyset);
+            postIds.addAll(result.getValues(JooqIdea.IDEA.POSTID));
+            cursorOpt = mysqlUtil.nextCursor(keyset, result);
+        } while (cursorOpt.isPresent());
+        return postIds;
+    }
+
+    private Result<Record> fetchPage(String projectId, MysqlUtil.Keyset keyset) {
+        return mysql.get().select(keyset.getFields())
+                .from(JooqIdea.IDEA)
+                .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
+                        .and(keyset.getSeekCondition()))
+                .orderBy(keyset.getSortFields())
+                .offset(keyset.getOffset())
+                .limit(keyset.getLimit())
+                .fetch();
+    }
+}
@@ -0,0 +1,95 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.BloomFilterCache.Attribute;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class BloomFilterCacheTest extends AbstractTest {
+
+    @Inject
+    private BloomFilterCache bloomFilterCache;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                BloomFilterCache.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(BloomFilterCache.Config.class, om -> {
+                    om.override(om.id().maximumSize()).withValue(1L);
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testHitOnEqualBytes() throws Exception {
+        byte[] bytes = toBytes("a", "b");
+        UserModel user = MockModelUtil.getRandomUser().toBuilder().voteBloom(bytes).build();
+
+        BloomFilter<CharSequence> bloomFilter = bloomFilterCache.get(user, Attribute.VOTE).get();
+        assertTrue(bloomFilter.mightContain("a"));
+        assertTrue(bloomFilter.mightContain("b"));
+
+        // Same content in a different array, as read from the store again
+        UserModel userReread = user.toBuilder().voteBloom(Arrays.copyOf(bytes, bytes.length)).build();
+        assertSame(bloomFilter, bloomFilterCache.get(userReread, Attribute.VOTE).get());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMissOnChangedBytes() throws Exception {
+        UserModel user = MockModelUtil.getRandomUser().toBuilder().voteBloom(toBytes("a")).build();
+        BloomFilter<CharSequence> bloomFilter = bloomFilterCache.get(user, Attribute.VOTE).get();
+        assertFalse(bloomFilter.mightContain("b"));
+
+        UserModel userUpdated = user.toBuilder().voteBloom(toBytes("a", "b")).build();
+        BloomFilter<CharSequence> bloomFilterUpdated = bloomFilterCache.get(userUpdated, Attribute.VOTE).get();
+        assertNotSame(bloomFilter, bloomFilterUpdated);
+        assertTrue(bloomFilterUpdated.mightContain("b"));
+
+        // Other attributes of the same user have no filter stored
+        assertEquals(Optional.empty(), bloomFilterCache.get(userUpdated, Attribute.EXPRESS));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSizeBoundEviction() throws Exception {
+        UserModel user1 = MockModelUtil.getRandomUser().toBuilder().voteBloom(toBytes("a")).build();
+        UserModel user2 = MockModelUtil.getRandomUser().toBuilder().voteBloom(toBytes("a")).build();
+
+        BloomFilter<CharSequence> bloomFilter1 = bloomFilterCache.get(user1, Attribute.VOTE).get();
+        assertSame(bloomFilter1, bloomFilterCache.get(user1, Attribute.VOTE).get());
+
+        // Exceeds the maximum size of one, evicting the first user
+        bloomFilterCache.get(user2, Attribute.VOTE);
+        assertNotSame(bloomFilter1, bloomFilterCache.get(user1, Attribute.VOTE).get());
+    }
+
+    private byte[] toBytes(String... items) {
+        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), 100, 0.01);
+        for (String item : items) {
+            bloomFilter.put(item);
+        }
+        return BloomFilters.toByteArray(bloomFilter);
+    }
+}
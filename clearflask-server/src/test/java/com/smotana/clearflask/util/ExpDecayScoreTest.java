@@ -0,0 +1,33 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class ExpDecayScoreTest {
+
+    @Test(timeout = 10_000L)
+    public void testCombinedAddends() throws Exception {
+        ExpDecayScore expDecayScore = new ExpDecayScore(Duration.ofDays(7));
+        long now = System.currentTimeMillis();
+        long[] times = {now, now + 10L, now + 5_000L, now + Duration.ofHours(3).toMillis()};
+
+        double scoreSequential = 0d;
+        Double addendCombined = null;
+        for (long time : times) {
+            scoreSequential = expDecayScore.updateScore(scoreSequential, time);
+            addendCombined = addendCombined == null
+                    ? expDecayScore.addend(time)
+                    : ExpDecayScore.addScore(addendCombined, expDecayScore.addend(time));
+        }
+        double scoreCombined = ExpDecayScore.addScore(0d, addendCombined);
+
+        assertEquals(scoreSequential, scoreCombined, 1e-9);
+    }
+}
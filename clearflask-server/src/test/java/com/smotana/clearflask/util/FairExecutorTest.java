@@ -0,0 +1,130 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Slf4j
+public class FairExecutorTest {
+
+    private FairExecutor executor;
+
+    @After
+    public void after() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRoundRobin() throws Exception {
+        executor = new FairExecutor("test", 1, 100, 100, () -> FairExecutor.RejectionPolicy.DROP);
+        CountDownLatch blocker = blockWorker("blocker");
+
+        List<String> ran = Lists.newCopyOnWriteArrayList();
+        List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            String task = "a" + i;
+            futures.add(executor.submit("a", () -> {
+                ran.add(task);
+            }));
+        }
+        futures.add(executor.submit("b", () -> {
+            ran.add("b0");
+        }));
+        futures.add(executor.submit("c", () -> {
+            ran.add("c0");
+        }));
+        blocker.countDown();
+        for (ListenableFuture<Void> future : futures) {
+            future.get();
+        }
+
+        assertEquals(ImmutableList.of("a0", "b0", "c0", "a1", "a2"), ran);
+
+        // Stats are recorded after the future completes, wait for workers to exit
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(6L, executor.getStats().getCompleted());
+        assertEquals(6L, executor.getStats().getRun().getCount());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRejectDrop() throws Exception {
+        executor = new FairExecutor("test", 1, 3, 2, () -> FairExecutor.RejectionPolicy.DROP);
+        CountDownLatch blocker = blockWorker("blocker");
+
+        executor.submit("a", () -> {
+        });
+        executor.submit("a", () -> {
+        });
+        assertRejected(executor.submit("a", () -> {
+        }));
+        executor.submit("b", () -> {
+        });
+        assertRejected(executor.submit("c", () -> {
+        }));
+        assertEquals(3, executor.getStats().getQueueDepth());
+        assertEquals(2, executor.getStats().getQueuedKeys());
+        assertEquals(2L, executor.getStats().getRejected());
+
+        blocker.countDown();
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRejectCallerRuns() throws Exception {
+        executor = new FairExecutor("test", 1, 1, 1, () -> FairExecutor.RejectionPolicy.CALLER_RUNS);
+        CountDownLatch blocker = blockWorker("blocker");
+
+        executor.submit("a", () -> {
+        });
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        ListenableFuture<Void> future = executor.submit("b", () -> ranOn.set(Thread.currentThread()));
+        assertTrue(future.isDone());
+        assertEquals(Thread.currentThread(), ranOn.get());
+        assertEquals(1L, executor.getStats().getRejected());
+
+        blocker.countDown();
+    }
+
+    private CountDownLatch blockWorker(String key) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.submit(key, () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        return blocker;
+    }
+
+    private void assertRejected(ListenableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
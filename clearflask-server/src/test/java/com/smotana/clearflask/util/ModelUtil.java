@@ -89,6 +89,7 @@ public class ModelUtil {
                 null,
                 null,
                 null,
+                null,
                 null
         ), IdUtil.randomAscId());
     }
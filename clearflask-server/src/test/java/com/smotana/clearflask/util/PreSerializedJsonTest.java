@@ -0,0 +1,42 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class PreSerializedJsonTest {
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        Gson gson = new Gson();
+        PreSerializedJson preSerializedJson = PreSerializedJson.create(gson, ImmutableMap.of("a", 1), Optional.of("v1"));
+
+        assertEquals("{\"a\":1}", new String(preSerializedJson.getJson(), Charsets.UTF_8));
+        assertArrayEquals(preSerializedJson.getJson(), ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(preSerializedJson.getJsonGzipped()))));
+
+        assertEquals(Optional.of("\"v1\""), preSerializedJson.getEtag(false));
+        assertEquals(Optional.of("\"v1-gzip\""), preSerializedJson.getEtag(true));
+        assertTrue(preSerializedJson.matchesIfNoneMatch(Optional.of("\"v0\", \"v1-gzip\"")));
+        assertFalse(preSerializedJson.matchesIfNoneMatch(Optional.of("\"v0\"")));
+        assertFalse(preSerializedJson.matchesIfNoneMatch(Optional.empty()));
+
+        PreSerializedJson withField = preSerializedJson.withField(gson, "b", ImmutableMap.of("c", "d"));
+        assertEquals("{\"a\":1,\"b\":{\"c\":\"d\"}}", new String(withField.getJson(), Charsets.UTF_8));
+        assertEquals(Optional.empty(), withField.getEtag(false));
+    }
+}
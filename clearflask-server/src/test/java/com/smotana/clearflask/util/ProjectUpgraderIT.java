@@ -10,6 +10,7 @@ import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.ProjectModel;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.web.resource.AbstractBlackboxIT;
 import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
@@ -41,6 +42,14 @@ public class ProjectUpgraderIT extends AbstractBlackboxIT {
 
         setProjectVersion(accountAndProject.getProject().getProjectId(), 0L);
 
+        // Undo version 3 -> 2
+        updateElasticSearchMapping(accountAndProject.getProject().getProjectId(), DynamoElasticUserStore.USER_INDEX, ImmutableMap.of(
+                "lastActive", ImmutableMap.of(
+                        "type", "date",
+                        "format", "epoch_second",
+                        // This should be deleted as part of the upgrade
+                        "meta", ImmutableMap.of("expect_this", "to_be_deleted"))));
+
         // Undo version 2 -> 1
         updateElasticSearchMapping(accountAndProject.getProject().getProjectId(), DynamoElasticIdeaStore.IDEA_INDEX, ImmutableMap.of(
                 "mergedToPostId", ImmutableMap.of(
@@ -68,6 +77,18 @@ public class ProjectUpgraderIT extends AbstractBlackboxIT {
         assertElasticSearchMapping(accountAndProject.getProject().getProjectId(), DynamoElasticIdeaStore.IDEA_INDEX, ImmutableMap.of(
                 "mergedToPostId", ImmutableMap.of(
                         "type", "keyword")));
+
+        // Assert version 2 -> 3
+        assertElasticSearchMapping(accountAndProject.getProject().getProjectId(), DynamoElasticUserStore.USER_INDEX, ImmutableMap.of(
+                "fundedIdeasCount", ImmutableMap.of(
+                        "type", "long"),
+                "supportedIdeasCount", ImmutableMap.of(
+                        "type", "long"),
+                "fundedAmount", ImmutableMap.of(
+                        "type", "long"),
+                "lastActive", ImmutableMap.of(
+                        "type", "date",
+                        "format", "epoch_second")));
     }
 
     private void updateElasticSearchMapping(String projectId, String index, ImmutableMap<String, Object> properties) throws IOException {
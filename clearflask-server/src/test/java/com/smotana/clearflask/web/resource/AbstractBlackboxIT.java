@@ -42,9 +42,11 @@ import com.smotana.clearflask.billing.KillBillUtil;
 import com.smotana.clearflask.billing.KillBilling;
 import com.smotana.clearflask.billing.StripeClientSetup;
 import com.smotana.clearflask.core.ClearFlaskCreditSync;
+import com.smotana.clearflask.core.cache.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.core.email.AmazonSimpleEmailServiceProvider;
 import com.smotana.clearflask.core.image.ImageNormalizationImpl;
 import com.smotana.clearflask.core.push.NotificationServiceImpl;
+import com.smotana.clearflask.core.push.SubscriberFanOut;
 import com.smotana.clearflask.core.push.message.EmailLogin;
 import com.smotana.clearflask.core.push.message.EmailTemplates;
 import com.smotana.clearflask.core.push.message.EmailVerify;
@@ -69,6 +71,7 @@ import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.coalesce.IndexUpdateCoalescer;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -80,6 +83,7 @@ import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoFanOutStore;
 import com.smotana.clearflask.store.impl.DynamoNotificationStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
@@ -87,8 +91,10 @@ import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.store.impl.ResourceLegalStore;
 import com.smotana.clearflask.store.impl.S3ContentStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.reindex.Reindexer;
 import com.smotana.clearflask.store.s3.DefaultS3ClientProvider;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -211,6 +217,7 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 GitHubResource.module(),
                 GitHubStoreImpl.module(),
                 MarkdownAndQuillUtil.module(),
+                BloomFilterCache.module(),
                 GitHubClientProviderImpl.module(),
                 AmazonSimpleEmailServiceProvider.module(),
                 ClearFlaskCreditSync.module(),
@@ -218,8 +225,10 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 StripeClientSetup.module(),
                 KillBilling.module(),
                 InMemoryDynamoDbProvider.module(),
+                LoopbackCacheInvalidationBus.module(),
                 SingleTableProvider.module(),
                 NotificationServiceImpl.module(),
+                SubscriberFanOut.module(),
                 EmailTemplates.module(),
                 OnCreditChange.module(),
                 WebhookServiceImpl.module(),
@@ -246,6 +255,7 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 DynamoElasticCommentStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoNotificationStore.module(),
+                DynamoFanOutStore.module(),
                 DynamoDraftStore.module(),
                 DynamoElasticIdeaStore.module(),
                 DynamoProjectStore.module(),
@@ -262,6 +272,8 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 UserBindUtil.module(),
                 MysqlUtil.module(),
                 ElasticUtil.module(),
+                Reindexer.module(),
+                IndexUpdateCoalescer.module(),
                 Sanitizer.module(),
                 SimpleEmailValidator.module(),
                 DefaultServerSecret.module(Names.named("cursor"))
@@ -0,0 +1,37 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.security;
+
+import com.smotana.clearflask.store.ProjectStore;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class RequestMemoTest {
+
+    @Test(timeout = 10_000L)
+    public void testMemoizes() throws Exception {
+        ProjectStore projectStore = mock(ProjectStore.class);
+        when(projectStore.getProject("p1", true)).thenReturn(Optional.empty());
+        when(projectStore.getProject("p2", true)).thenReturn(Optional.empty());
+
+        RequestMemo memo = RequestMemo.get(null);
+        assertFalse(memo.getProject(projectStore, "p1").isPresent());
+        assertFalse(memo.getProject(projectStore, "p1").isPresent());
+        assertFalse(memo.getProject(projectStore, "p2").isPresent());
+        memo.countLookup();
+
+        verify(projectStore, times(1)).getProject("p1", true);
+        verify(projectStore, times(1)).getProject("p2", true);
+        assertEquals(3, memo.getLookups());
+    }
+}
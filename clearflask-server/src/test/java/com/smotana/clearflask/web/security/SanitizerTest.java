@@ -13,9 +13,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
 
 import javax.ws.rs.core.Response;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -126,17 +128,20 @@ public class SanitizerTest extends AbstractTest {
     public void testImg() throws Exception {
         String uploadDomain = "upload.clearflask.com";
         String signedQuery = "?signed";
+        Answer<Optional<String>> signAnswer = i -> {
+            String matchProjectId = i.getArgument(0);
+            String url = i.getArgument(1);
+            assertEquals(PROJECT_ID, matchProjectId);
+            if (url.startsWith("https://" + uploadDomain + "/" + matchProjectId + "/")) {
+                return Optional.of(url + signedQuery);
+            } else {
+                return Optional.empty();
+            }
+        };
         Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString()))
-                .thenAnswer(i -> {
-                    String matchProjectId = i.getArgument(0);
-                    String url = i.getArgument(1);
-                    assertEquals(PROJECT_ID, matchProjectId);
-                    if (url.startsWith("https://" + uploadDomain + "/" + matchProjectId + "/")) {
-                        return Optional.of(url + signedQuery);
-                    } else {
-                        return Optional.empty();
-                    }
-                });
+                .thenAnswer(signAnswer);
+        Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString(), Mockito.any()))
+                .thenAnswer(signAnswer);
 
         assertSanitize("Should be signed",
                 "o<img src=\"https://" + uploadDomain + "/" + PROJECT_ID + "/user-id/image.jpeg" + signedQuery + "\" />",
@@ -170,6 +175,41 @@ public class SanitizerTest extends AbstractTest {
                 "o<img src=\"data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mP8z/C/HgAGgwJ/lK3Q6wAAAABJRU5ErkJggg==\" />");
     }
 
+    @Test(timeout = 10_000L)
+    public void testImgSignedOnCachedHtml() throws Exception {
+        String url = "https://upload.clearflask.com/" + PROJECT_ID + "/user-id/image.jpeg";
+        AtomicLong signCounter = new AtomicLong();
+        Answer<Optional<String>> signAnswer = i -> Optional.of(i.getArgument(1) + "?sig=" + signCounter.incrementAndGet() + "&exp=1");
+        Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(signAnswer);
+        Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString(), Mockito.any()))
+                .thenAnswer(signAnswer);
+
+        String html = "<div>o<img src=\"" + url + "\" /></div><div>p<img width=\"43\" src=\"" + url + "\" /></div>";
+        // URLs are signed once during sanitization and reused for output
+        assertEquals("<div>o<img src=\"" + url + "?sig&#61;1&amp;exp&#61;1\" /></div><div>p<img width=\"43\" src=\"" + url + "?sig&#61;2&amp;exp&#61;1\" /></div>",
+                sanitizer.richHtml(html, "msg", "id1", PROJECT_ID, false));
+        // Cached sanitization, only signing is performed
+        assertEquals("<div>o<img src=\"" + url + "?sig&#61;3&amp;exp&#61;1\" /></div><div>p<img width=\"43\" src=\"" + url + "?sig&#61;4&amp;exp&#61;1\" /></div>",
+                sanitizer.richHtml(html, "msg", "id1", PROJECT_ID, false));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testImgListViewVariant() throws Exception {
+        String url = "https://upload.clearflask.com/" + PROJECT_ID + "/user-id/image.medium.jpeg";
+        Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(i -> Optional.of(i.getArgument(1)));
+        Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString(), Mockito.any()))
+                .thenAnswer(i -> Optional.of(i.getArgument(1) + "?variant=" + i.<Optional<String>>getArgument(2).orElse("full")));
+
+        String html = "<div>o<img src=\"" + url + "\" /></div>";
+        assertEquals("<div>o<img src=\"" + url + "?variant&#61;full\" /></div>",
+                sanitizer.richHtml(html, "msg", "id1", PROJECT_ID, false));
+        assertEquals("<div>o<img src=\"" + url + "?variant&#61;medium\" /></div>",
+                sanitizer.richHtml(html, "msg", "id1", PROJECT_ID, false, true));
+        assertEquals(Optional.of(url + "?variant=medium"), sanitizer.signCoverImg(PROJECT_ID, url, true));
+    }
+
     void assertSanitizeDomain(String domain, boolean expectFailure) {
         try {
             sanitizer.domain(domain, false);